@@ -13,6 +13,7 @@ import { useExportContext } from '../contexts/ExportContext';
 const CLIENT_ID = import.meta.env.VITE_NOTION_CLIENT_ID;
 const REDIRECT_URI = import.meta.env.VITE_REDIRECT_URI;
 const BASE_URL = import.meta.env.VITE_SERVER_BASE_URL;
+const POLL_INTERVAL = 1000; // ms between export status checks
 
 export type FormatType = 'txt' | 'rtf' | 'md' | 'json';
 
@@ -43,6 +44,27 @@ const ConnectToNotion = ({
     }
   };
 
+  // waits for a queued export to finish, returning its status
+  const waitForExport = async (id: string) => {
+    for (;;) {
+      const res = await fetch(
+        `${BASE_URL}/export/status?id=${encodeURIComponent(id)}`,
+        { credentials: 'include' }
+      );
+
+      if (!res.ok) {
+        throw new Error('HTTP error ' + res.status);
+      }
+
+      const json = await res.json();
+      if (json.status === 'succeeded' || json.status === 'failed') {
+        return json;
+      }
+
+      await new Promise((resolve) => setTimeout(resolve, POLL_INTERVAL));
+    }
+  };
+
   const padValue = (value: number) => {
     return value.toString().padStart(2, '0');
   };
@@ -75,8 +97,13 @@ const ConnectToNotion = ({
         throw new Error('HTTP error ' + res.status);
       }
 
-      const json = await res.json();
-      setNotesUrl(json.url);
+      // the export is queued, the page URL is known once it finishes
+      const json = await waitForExport((await res.json()).id);
+      if (json.status !== 'succeeded') {
+        throw new Error('Export failed: ' + json.message);
+      }
+
+      setNotesUrl(json.result.url);
     } catch (e) {
       console.error(e);
     }
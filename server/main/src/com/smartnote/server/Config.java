@@ -6,7 +6,9 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
+import com.smartnote.server.auth.SessionConfig;
 import com.smartnote.server.cli.CommandLineParser;
+import com.smartnote.server.export.ExportConfig;
 import com.smartnote.server.export.NotionConfig;
 import com.smartnote.server.resource.ResourceConfig;
 import com.smartnote.server.util.AbstractConfig;
@@ -67,6 +69,8 @@ public class Config extends AbstractConfig {
     private ResourceConfig resource;
     private NotionConfig notion;
     private GeneratorConfig generator;
+    private ExportConfig export;
+    private SessionConfig session;
 
     /**
      * Creates a new Config object with default values.
@@ -76,6 +80,8 @@ public class Config extends AbstractConfig {
         this.resource = new ResourceConfig();
         this.notion = new NotionConfig();
         this.generator = new GeneratorConfig();
+        this.export = new ExportConfig();
+        this.session = new SessionConfig();
     }
 
     /**
@@ -114,12 +120,32 @@ public class Config extends AbstractConfig {
         return generator;
     }
 
+    /**
+     * Gets the export configuration.
+     * 
+     * @return The export configuration
+     */
+    public ExportConfig getExportConfig() {
+        return export;
+    }
+
+    /**
+     * Gets the session configuration.
+     * 
+     * @return The session configuration
+     */
+    public SessionConfig getSessionConfig() {
+        return session;
+    }
+
     @Override
     public void validate() throws IllegalStateException {
         server.validate();
         resource.validate();
         notion.validate();
         generator.validate();
+        export.validate();
+        session.validate();
     }
 
     @Override
@@ -128,6 +154,8 @@ public class Config extends AbstractConfig {
         parser.addHandler(resource);
         parser.addHandler(notion);
         parser.addHandler(generator);
+        parser.addHandler(export);
+        parser.addHandler(session);
     }
 
     @Override
@@ -136,6 +164,8 @@ public class Config extends AbstractConfig {
         resource.writeJSON(json);
         notion.writeJSON(json);
         generator.writeJSON(json);
+        export.writeJSON(json);
+        session.writeJSON(json);
         return json;
     }
 
@@ -152,5 +182,11 @@ public class Config extends AbstractConfig {
 
         if (object.has("generator"))
             generator.loadJSON(object.getAsJsonObject("generator"));
+
+        if (object.has("export"))
+            export.loadJSON(object.getAsJsonObject("export"));
+
+        if (object.has("session"))
+            session.loadJSON(object.getAsJsonObject("session"));
     }
 }
@@ -5,6 +5,7 @@ import static spark.Spark.*;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -14,17 +15,27 @@ import org.slf4j.LoggerFactory;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.smartnote.server.api.v1.BulkExport;
 import com.smartnote.server.api.v1.Export;
+import com.smartnote.server.api.v1.ExportStatus;
 import com.smartnote.server.api.v1.Fetch;
 import com.smartnote.server.api.v1.Generate;
+import com.smartnote.server.api.v1.ListResources;
 import com.smartnote.server.api.v1.Login;
 import com.smartnote.server.api.v1.Remove;
 import com.smartnote.server.api.v1.RescInfo;
 import com.smartnote.server.api.v1.Upload;
+import com.smartnote.server.api.v1.UploadChunk;
+import com.smartnote.server.api.v1.UploadFinish;
+import com.smartnote.server.api.v1.UploadStart;
+import com.smartnote.server.api.v1.UploadStatus;
+import com.smartnote.server.auth.SessionKeyring;
 import com.smartnote.server.auth.SessionManager;
 import com.smartnote.server.cli.CommandLineParser;
 import com.smartnote.server.cli.ExitEarlyEarlyException;
 import com.smartnote.server.cli.NoSuchSwitchException;
+import com.smartnote.server.export.ExportOutbox;
+import com.smartnote.server.resource.MemoryStore;
 import com.smartnote.server.resource.ResourceSystem;
 import com.smartnote.server.util.CryptoUtils;
 import com.smartnote.server.util.ServerRoute;
@@ -70,6 +81,7 @@ public class Server {
     private Config config; // the server config
     private ResourceSystem resourceSystem; // the resource system
     private SessionManager sessionManager; // the session manager
+    private ExportOutbox exportOutbox; // the export outbox
 
     public static void main(String[] args) {
         try {
@@ -110,6 +122,15 @@ public class Server {
         return sessionManager;
     }
 
+    /**
+     * Gets the export outbox.
+     * 
+     * @return The export outbox.
+     */
+    public ExportOutbox getExportOutbox() {
+        return exportOutbox;
+    }
+
     /**
      * Initializes the server.
      * 
@@ -120,6 +141,7 @@ public class Server {
         initCrypto();
         initResourceSystem();
         initSessionManager();
+        initExportOutbox();
         initNetworking();
     }
 
@@ -196,13 +218,40 @@ public class Server {
     // Initializes the resource system
     private void initResourceSystem() {
         resourceSystem = new ResourceSystem(config.getResourceConfig());
+
+        // write resources held in memory behind, and before stopping
+        MemoryStore memoryStore = resourceSystem.getMemoryStore();
+        if (memoryStore != null) {
+            memoryStore.start(config.getResourceConfig().getMemoryFlushInterval());
+            Runtime.getRuntime().addShutdownHook(new Thread(memoryStore::flush, "memory-flush-exit"));
+        }
     }
 
     // Initializes the session manager
     private void initSessionManager() {
         // initialize the session manager
-        sessionManager = new SessionManager();
-        sessionManager.forceGc();
+        SessionKeyring keyring = new SessionKeyring(resourceSystem.getPrivateDir().resolve(SessionKeyring.FILE),
+                TimeUnit.SECONDS.toMillis(config.getSessionConfig().getKeyRotation()),
+                TimeUnit.SECONDS.toMillis(SessionManager.SESSION_LENGTH), System::currentTimeMillis);
+        keyring.load();
+
+        sessionManager = new SessionManager(keyring, config.getSessionConfig());
+        sessionManager.loadSessions();
+
+        // store renewed sessions that have not been flushed yet
+        Runtime.getRuntime().addShutdownHook(new Thread(sessionManager::flush, "session-flush"));
+    }
+
+    // Initializes the export outbox, replaying unfinished exports
+    private void initExportOutbox() {
+        exportOutbox = new ExportOutbox(config.getExportConfig(),
+                resourceSystem.getPrivateDir().resolve(ExportOutbox.DIRECTORY));
+        try {
+            exportOutbox.start();
+        } catch (Exception e) {
+            LOG.error("Failed to start export outbox");
+            e.printStackTrace();
+        }
     }
 
     private void addDebugInfo(Exception e, JsonObject r) {
@@ -235,10 +284,10 @@ public class Server {
 
             // CORS
             res.header("Access-Control-Allow-Origin", serverConfig.getOrigin());
-            res.header("Access-Control-Allow-Methods", "GET, POST, DELETE, OPTIONS");
+            res.header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
             res.header("Access-Control-Allow-Credentials", "true");
-            res.header("Access-Control-Allow-Headers", "Content-Type");
-            res.header("Access-Control-Expose-Headers", "Content-Type");
+            res.header("Access-Control-Allow-Headers", "Content-Type, Content-Range, Range, If-Range, If-None-Match, If-Modified-Since");
+            res.header("Access-Control-Expose-Headers", "Content-Type, Content-Length, Content-Range, Accept-Ranges, ETag, Last-Modified");
         });
 
         exception(UnsupportedOperationException.class, (e, req, res) -> {
@@ -254,31 +303,40 @@ public class Server {
 
             // CORS
             res.header("Access-Control-Allow-Origin", serverConfig.getOrigin());
-            res.header("Access-Control-Allow-Methods", "GET, POST, DELETE, OPTIONS");
+            res.header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
             res.header("Access-Control-Allow-Credentials", "true");
-            res.header("Access-Control-Allow-Headers", "Content-Type");
-            res.header("Access-Control-Expose-Headers", "Content-Type");
+            res.header("Access-Control-Allow-Headers", "Content-Type, Content-Range, Range, If-Range, If-None-Match, If-Modified-Since");
+            res.header("Access-Control-Expose-Headers", "Content-Type, Content-Length, Content-Range, Accept-Ranges, ETag, Last-Modified");
         });
 
         port(serverConfig.getPort());
 
-        after((req, res) -> {
+        // set before the route runs, so routes that stream their body
+        // still send them
+        before((req, res) -> {
             // CORS
             res.header("Access-Control-Allow-Origin", serverConfig.getOrigin());
-            res.header("Access-Control-Allow-Methods", "GET, POST, DELETE, OPTIONS");
+            res.header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
             res.header("Access-Control-Allow-Credentials", "true");
-            res.header("Access-Control-Allow-Headers", "Content-Type");
-            res.header("Access-Control-Expose-Headers", "Content-Type");
+            res.header("Access-Control-Allow-Headers", "Content-Type, Content-Range, Range, If-Range, If-None-Match, If-Modified-Since");
+            res.header("Access-Control-Expose-Headers", "Content-Type, Content-Length, Content-Range, Accept-Ranges, ETag, Last-Modified");
         });
 
         // Add RPC routes
         addRoute(Export.class);
+        addRoute(ExportStatus.class);
+        addRoute(BulkExport.class);
         addRoute(Fetch.class);
         addRoute(Generate.class);
         addRoute(Upload.class);
         addRoute(Login.class);
         addRoute(Upload.class);
+        addRoute(UploadStart.class);
+        addRoute(UploadChunk.class);
+        addRoute(UploadStatus.class);
+        addRoute(UploadFinish.class);
         addRoute(Remove.class);
+        addRoute(ListResources.class);
         addRoute(RescInfo.class);
     }
 
@@ -325,6 +383,15 @@ public class Server {
                     return "{\"message\":\"OK\"}";
                 });
                 break;
+            case PUT:
+                put(path, r);
+                options(path, (req, res) -> {
+                    res.status(200);
+                    res.header("Allow", "PUT");
+                    res.type("application/json");
+                    return "{\"message\":\"OK\"}";
+                });
+                break;
             case DELETE:
                 delete(path, r);
                 options(path, (req, res) -> {
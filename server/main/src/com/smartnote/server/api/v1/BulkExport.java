@@ -0,0 +1,193 @@
+package com.smartnote.server.api.v1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+import com.smartnote.server.Server;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.export.ExportOptions;
+import com.smartnote.server.export.ExportOutbox;
+import com.smartnote.server.export.NotionBulkExporter;
+import com.smartnote.server.export.RemoteExporter;
+import com.smartnote.server.util.MIME;
+import com.smartnote.server.util.MethodType;
+import com.smartnote.server.util.ServerRoute;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * <p>Exports many notes to Notion at once, each as a new page under the
+ * same parent page.</p>
+ *
+ * <p>The notes are read when the request is made and are queued as a
+ * single export in the <code>ExportOutbox</code>, so the response is
+ * sent with status <code>202</code> and one export ID. While the export
+ * runs, <code>ExportStatus</code> returns the result of each note that
+ * has completed in its <code>progress</code>, keyed by the index of the
+ * source. The final result has the status and message of each note in
+ * the order of the sources.</p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.api.v1.Export
+ * @see com.smartnote.server.export.NotionBulkExporter
+ */
+@ServerRoute(method = MethodType.POST, path = "/api/v1/export/bulk")
+public class BulkExport implements Route {
+    /**
+     * Maximum number of notes in a single request.
+     */
+    public static final int MAX_SOURCES = 100;
+
+    // the exporter the notes are queued with
+    private static final String BULK_EXPORTER = "notion-bulk";
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        response.type(MIME.JSON);
+
+        Session session = Server.getServer().getSessionManager().getSession(request);
+        if (session == null) {
+            response.status(401);
+            return "{\"message\":\"No session\"}";
+        }
+
+        String body = request.body();
+        if (body == null) {
+            response.status(400);
+            return "{\"message\":\"Missing export options\"}";
+        }
+
+        Gson gson = new Gson();
+        JsonObject options;
+        try {
+            options = gson.fromJson(body, JsonObject.class);
+        } catch (JsonSyntaxException e) {
+            options = null;
+        }
+
+        if (options == null) {
+            response.status(400);
+            return "{\"message\":\"Malformed export options\"}";
+        }
+
+        List<ExportOptions> items;
+        try {
+            items = parseSources(options);
+        } catch (IllegalArgumentException | NoSuchElementException | ClassCastException
+                | IllegalStateException e) {
+            response.status(400);
+            return "{\"message\":\"Missing or invalid export option: " + e.getMessage() + "\"}";
+        }
+
+        if (items.size() == 0 || items.size() > MAX_SOURCES) {
+            response.status(400);
+            return "{\"message\":\"Missing or invalid export option: sources\"}";
+        }
+
+        JsonObject remote = options.has("remote") && options.get("remote").isJsonObject()
+                ? options.getAsJsonObject("remote").deepCopy()
+                : new JsonObject();
+        remote.addProperty("mode", "new");
+
+        // read the notes now, so later changes to them do not affect the export
+        JsonArray notes = new JsonArray();
+        for (ExportOptions item : items) {
+            JsonObject note = new JsonObject();
+            note.addProperty("source", item.getSource());
+            if (item.getOutput() != null)
+                note.addProperty("output", item.getOutput());
+
+            try {
+                note.addProperty("data", item.readInputData(session.getPermission()));
+            } catch (Exception e) {
+                JsonObject result = NotionBulkExporter.describe(e);
+                response.status(result.get("status").getAsInt());
+                result.remove("status");
+                result.addProperty("source", item.getSource());
+                return gson.toJson(result);
+            }
+
+            notes.add(note);
+        }
+
+        JsonObject intent = new JsonObject();
+        intent.addProperty("exporter", BULK_EXPORTER);
+        intent.addProperty("data", gson.toJson(notes));
+        intent.add("remote", remote);
+
+        String id;
+        try {
+            ExportOptions exportOptions = new ExportOptions();
+            exportOptions.parse(intent);
+
+            // exchanges an OAuth code once, before the export is queued
+            RemoteExporter exporter = (RemoteExporter) exportOptions.getExporter();
+            intent.add("remote", exporter.prepare(exportOptions, session.getPermission()));
+
+            id = Server.getServer().getExportOutbox().submit(session, intent, null);
+        } catch (Exception e) {
+            JsonObject result = NotionBulkExporter.describe(e);
+            response.status(result.get("status").getAsInt());
+            result.remove("status");
+            return gson.toJson(result);
+        }
+
+        JsonObject result = new JsonObject();
+        result.addProperty("message", "Export queued");
+        result.addProperty("id", id);
+        result.addProperty("status", ExportOutbox.PENDING);
+        result.addProperty("count", notes.size());
+
+        response.status(202);
+        return gson.toJson(result);
+    }
+
+    /**
+     * Parses the notes to export. Each source is either the name of a
+     * resource, or an object with a <code>source</code> and an optional
+     * <code>output</code> naming the page.
+     *
+     * @param options The request body.
+     * @return The options of each note.
+     * @throws IllegalArgumentException If a source is invalid.
+     * @throws NoSuchElementException   If there are no sources.
+     */
+    private static List<ExportOptions> parseSources(JsonObject options)
+            throws IllegalArgumentException, NoSuchElementException {
+        if (!options.has("sources") || !options.get("sources").isJsonArray())
+            throw new NoSuchElementException("sources");
+
+        JsonArray sources = options.getAsJsonArray("sources");
+        List<ExportOptions> items = new ArrayList<>(sources.size());
+        for (JsonElement source : sources) {
+            JsonObject item = new JsonObject();
+            if (source.isJsonObject()) {
+                JsonObject object = source.getAsJsonObject();
+                item.add("source", object.get("source"));
+                if (object.has("output"))
+                    item.add("output", object.get("output"));
+            } else {
+                item.add("source", source);
+            }
+
+            if (!item.has("source") || !item.get("source").isJsonPrimitive())
+                throw new IllegalArgumentException("sources");
+
+            item.addProperty("exporter", "notion");
+
+            ExportOptions exportOptions = new ExportOptions();
+            exportOptions.parse(item);
+            items.add(exportOptions);
+        }
+
+        return items;
+    }
+}
@@ -11,11 +11,13 @@ import com.smartnote.server.Server;
 import com.smartnote.server.auth.Session;
 import com.smartnote.server.export.ExportException;
 import com.smartnote.server.export.ExportOptions;
+import com.smartnote.server.export.ExportOutbox;
 import com.smartnote.server.export.ExportServiceConnectionException;
 import com.smartnote.server.export.ExportServiceTimeoutException;
 import com.smartnote.server.export.ExportServiceUnavailableException;
 import com.smartnote.server.export.Exporter;
 import com.smartnote.server.export.MalformedExportOptionsException;
+import com.smartnote.server.export.RemoteExporter;
 import com.smartnote.server.resource.NoSuchResourceException;
 import com.smartnote.server.util.MIME;
 import com.smartnote.server.util.MethodType;
@@ -28,8 +30,14 @@ import spark.Route;
 /**
  * <p>Exports generated summaries to files or remote locations.</p>
  * 
+ * <p>Exports to remote locations are queued in the
+ * <code>ExportOutbox</code> and the response is sent with status
+ * <code>202</code> as soon as the export is recorded. The progress of
+ * the export is available through <code>ExportStatus</code>.</p>
+ * 
  * @author Ethan Vrhel
  * @see com.smartnote.server.auth.Session
+ * @see com.smartnote.server.export.ExportOutbox
  */
 @ServerRoute(method = MethodType.POST, path = "/api/v1/export")
 public class Export implements Route {
@@ -70,11 +78,31 @@ public class Export implements Route {
         }
 
         Exporter exporter = exportOptions.getExporter();
+        boolean queued = exporter instanceof RemoteExporter;
+
+        String callback = null;
+        if (options.has("callback")) {
+            try {
+                callback = options.get("callback").getAsString();
+            } catch (RuntimeException e) {
+                response.status(400);
+                return "{\"message\":\"Missing or invalid export option: callback\"}";
+            }
+
+            ExportOutbox outbox = Server.getServer().getExportOutbox();
+            if (!queued || !outbox.isCallbackAllowed(callback)) {
+                response.status(400);
+                return "{\"message\":\"Missing or invalid export option: callback\"}";
+            }
+        }
 
         // Export the resource
         JsonObject result = new JsonObject();
         try {
-            result = exporter.export(exportOptions, session.getPermission());
+            if (queued)
+                result = queue(session, options, exportOptions, callback);
+            else
+                result = exporter.export(exportOptions, session.getPermission());
         } catch (SecurityException e) {
             response.status(403);
             result.addProperty("message", "Access denied");
@@ -137,7 +165,46 @@ public class Export implements Route {
         if (exportOptions.getExtended() != null)
             result.addProperty("extended", exportOptions.getExtended());
 
-        response.status(200);
+        response.status(queued ? 202 : 200);
         return gson.toJson(result);
     }
+
+    /**
+     * Queues a remote export. The input data is read now, so problems
+     * with the source are reported immediately and later changes to it
+     * do not affect the export. The exporter prepares the remote options
+     * first, since the export may run more than once.
+     * 
+     * @param session The session.
+     * @param options The export options, as sent by the client.
+     * @param exportOptions The parsed export options.
+     * @param callback The callback URL, or <code>null</code>.
+     * @return The response, containing the export ID.
+     * @throws IOException If the input cannot be read or the export
+     *                     cannot be recorded.
+     * @throws ExportException If the export cannot be prepared.
+     * @throws MalformedExportOptionsException If the remote options are
+     *                                         invalid.
+     */
+    private JsonObject queue(Session session, JsonObject options, ExportOptions exportOptions, String callback)
+            throws IOException, ExportException, MalformedExportOptionsException {
+        RemoteExporter exporter = (RemoteExporter) exportOptions.getExporter();
+        JsonObject remote = exporter.prepare(exportOptions, session.getPermission());
+
+        JsonObject intent = options.deepCopy();
+        intent.remove("source");
+        intent.remove("callback");
+        intent.remove("remote");
+        if (remote != null)
+            intent.add("remote", remote);
+        intent.addProperty("data", exportOptions.readInputData(session.getPermission()));
+
+        String id = Server.getServer().getExportOutbox().submit(session, intent, callback);
+
+        JsonObject result = new JsonObject();
+        result.addProperty("message", "Export queued");
+        result.addProperty("id", id);
+        result.addProperty("status", ExportOutbox.PENDING);
+        return result;
+    }
 }
@@ -0,0 +1,49 @@
+package com.smartnote.server.api.v1;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.smartnote.server.Server;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.util.MIME;
+import com.smartnote.server.util.MethodType;
+import com.smartnote.server.util.ServerRoute;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * <p>Gets the status of a queued export.</p>
+ * 
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.api.v1.Export
+ * @see com.smartnote.server.export.ExportOutbox
+ */
+@ServerRoute(method = MethodType.GET, path = "/api/v1/export/status")
+public class ExportStatus implements Route {
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        response.type(MIME.JSON);
+
+        Session session = Server.getServer().getSessionManager().getSession(request);
+        if (session == null) {
+            response.status(401);
+            return "{\"message\":\"No session\"}";
+        }
+
+        String id = request.queryParams("id");
+        if (id == null) {
+            response.status(400);
+            return "{\"message\":\"No export ID provided\"}";
+        }
+
+        JsonObject status = Server.getServer().getExportOutbox().getStatus(id, session);
+        if (status == null) {
+            response.status(404);
+            return "{\"message\":\"Export not found\"}";
+        }
+
+        response.status(200);
+        return new Gson().toJson(status);
+    }
+}
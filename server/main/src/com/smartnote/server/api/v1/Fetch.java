@@ -1,27 +1,27 @@
 package com.smartnote.server.api.v1;
 
-import static spark.Spark.*;
-
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.InvalidPathException;
 import java.security.Permission;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
-import javax.servlet.http.HttpServletRequestWrapper;
-
-import org.apache.http.protocol.RequestDate;
-import org.apache.tika.Tika;
-
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import com.smartnote.server.Server;
-import com.smartnote.server.ServerConfig;
 import com.smartnote.server.auth.Session;
 import com.smartnote.server.auth.SessionManager;
 import com.smartnote.server.resource.NoSuchResourceException;
 import com.smartnote.server.resource.Resource;
-import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.resource.ResourceMetadata;
+import com.smartnote.server.util.IOUtils;
+import com.smartnote.server.util.MIME;
 import com.smartnote.server.util.MethodType;
 import com.smartnote.server.util.ServerRoute;
 
@@ -32,49 +32,243 @@ import spark.Route;
 
 /**
  * <p>Fetches resources on server.</p>
- * 
+ *
+ * <p>
+ * The resource is streamed to the response, with
+ * <code>FileChannel.transferTo</code> when it is a file, so large
+ * resources are never held in memory. A single byte range may be
+ * requested with the <code>Range</code> header. Responses carry an
+ * <code>ETag</code> and <code>Last-Modified</code>, and conditional
+ * requests for a resource that has not changed are answered with
+ * <code>304 Not Modified</code>.
+ * </p>
+ *
+ * <p>
+ * The type of session resources is the one detected when they were
+ * written, and their entity tag is the hash of their contents when it is
+ * known.
+ * </p>
+ *
  * @author Ethan Vrhel
  * @author Jaden Summerville
  * @see com.smartnote.server.auth.Session
  */
 @ServerRoute(method = MethodType.GET, path = "/api/v1/fetch")
 public class Fetch implements Route {
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
 
     @Override
     public Object handle(Request request, Response response) throws Exception {
         // Get session
         SessionManager sessionManager = Server.getServer().getSessionManager();
         Session session = sessionManager.getSession(request);
+        Permission permission = session == null ? null : session.getPermission();
 
         // Get name
         String name = request.queryParams("name");
         if (name == null) {
+            response.type(MIME.JSON);
             response.status(400);
             return "{\"message\": \"Name was not specified\"}";
         }
         name = name.trim();
 
-        byte[] body;
-        try{
-            // get file
-            Resource resource = Server.getServer().getResourceSystem().findResource(name, session.getPermission());
-            //load file
-            InputStream inputStream = resource.openInputStream();
-            //add info to body
-            body = inputStream.readAllBytes();
-            //send
-        } catch(SecurityException e) {
+        Resource resource;
+        ResourceMetadata metadata;
+        long size, modified;
+        try {
+            resource = Server.getServer().getResourceSystem().findResource(name, permission);
+            size = resource.size();
+            modified = resource.lastModified();
+            metadata = resource.getMetadata();
+        } catch (SecurityException e) {
+            response.type(MIME.JSON);
             response.status(403);
             return "{\"message\":\"Access denied\"}";
-        } catch (FileNotFoundException e) {
+        } catch (InvalidPathException e) {
+            response.type(MIME.JSON);
+            response.status(400);
+            return "{\"message\":\"Invalid path\"}";
+        } catch (NoSuchResourceException e) {
             // File not found
+            response.type(MIME.JSON);
             response.status(404);
             return "{\"message\":\"File not found\"}";
         }
 
-        response.header("Content-Type", new Tika().detect(body));
-        response.status(200); // OK
+        // the hash identifies the contents exactly; otherwise, files are
+        // replaced rather than written in place, so the size and
+        // modification time change with the contents
+        String etag;
+        if (metadata != null && metadata.getHash() != null && metadata.getLength() == size)
+            etag = "\"" + metadata.getHash() + "\"";
+        else
+            etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+        response.header("ETag", etag);
+        response.header("Last-Modified", HTTP_DATE.format(Instant.ofEpochMilli(modified)));
+        response.header("Accept-Ranges", "bytes");
+
+        if (isNotModified(request, etag, modified)) {
+            response.status(304);
+            return "";
+        }
+
+        String type = metadata != null ? metadata.getType() : MIME.fromPath(resource.getName());
+        response.type(type == null ? MIME.APPLICATION_BIN : type);
+
+        // a range is ignored if the resource changed since the client saw it
+        long start = 0, end = size;
+        String range = request.headers("Range");
+        String ifRange = request.headers("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, size);
+            if (bounds == null) {
+                response.header("Content-Range", "bytes */" + size);
+                response.type(MIME.JSON);
+                response.status(416);
+                return "{\"message\":\"Range not satisfiable\"}";
+            }
+
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.header("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + size);
+                response.status(206);
+            } else
+                response.status(200);
+        } else
+            response.status(200);
+
+        response.raw().setContentLengthLong(end - start);
+
+        try (SeekableByteChannel in = resource.openReadChannel()) {
+            OutputStream out = response.raw().getOutputStream();
+            transfer(in, start, end - start, out);
+            out.flush();
+        }
+
+        return "";
+    }
+
+    /**
+     * Checks the conditional headers of a request. An
+     * <code>If-None-Match</code> header takes precedence over
+     * <code>If-Modified-Since</code>.
+     *
+     * @param request  The request.
+     * @param etag     The entity tag of the resource.
+     * @param modified The time the resource was modified, in milliseconds.
+     * @return <code>true</code> if the client's copy is current.
+     */
+    static boolean isNotModified(Request request, String etag, long modified) {
+        String ifNoneMatch = request.headers("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/"))
+                    tag = tag.substring(2);
+                if (tag.equals("*") || tag.equals(etag))
+                    return true;
+            }
+            return false;
+        }
+
+        String ifModifiedSince = request.headers("If-Modified-Since");
+        if (ifModifiedSince == null)
+            return false;
 
-        return body;
+        try {
+            long since = Instant.from(HTTP_DATE.parse(ifModifiedSince.trim())).getEpochSecond();
+            return modified / 1000 <= since; // dates have a resolution of a second
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a <code>Range</code> header. Only a single range of bytes is
+     * served, other ranges are ignored and the whole resource is sent.
+     *
+     * @param range The header.
+     * @param size  The size of the resource.
+     * @return The first byte and the byte after the last, an empty array
+     *         if the whole resource should be sent, or <code>null</code> if
+     *         the range cannot be satisfied.
+     */
+    static long[] parseRange(String range, long size) {
+        range = range.trim();
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1)
+            return new long[0];
+
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1)
+            return new long[0];
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            long start, end;
+            if (first.isEmpty()) {
+                // the last bytes of the resource
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0)
+                    return null;
+                start = Math.max(size - suffix, 0);
+                end = size;
+            } else {
+                start = Long.parseLong(first);
+                end = size;
+                if (!last.isEmpty()) {
+                    long lastByte = Long.parseLong(last);
+                    if (lastByte < start)
+                        return new long[0]; // invalid, so ignored
+                    end = Math.min(lastByte + 1, size);
+                }
+            }
+
+            if (start >= size)
+                return null;
+
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    // sends part of a channel, letting the file system copy files directly
+    private static void transfer(SeekableByteChannel in, long position, long count, OutputStream out)
+            throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+
+        if (in instanceof FileChannel) {
+            FileChannel file = (FileChannel) in;
+            while (count > 0) {
+                long sent = file.transferTo(position, count, target);
+                if (sent <= 0)
+                    break;
+                position += sent;
+                count -= sent;
+            }
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(IOUtils.buffer());
+        in.position(position);
+        while (count > 0) {
+            buffer.clear();
+            if (count < buffer.capacity())
+                buffer.limit((int) count);
+
+            int read = in.read(buffer);
+            if (read == -1)
+                break;
+
+            buffer.flip();
+            while (buffer.hasRemaining())
+                target.write(buffer);
+            count -= read;
+        }
     }
 }
@@ -132,10 +132,8 @@ public class Generate implements Route {
         String markdownString = null;
         ParsedMarkdown md = null;
         if (includeJson || includeMarkdown) {
-            InputStream in = null;
             try {
-                in = outResource.openInputStream();
-                markdownString = new String(in.readAllBytes());
+                markdownString = outResource.readToString();
 
                 if (includeJson)
                     md = ParsedMarkdown.parse(markdownString);
@@ -158,9 +156,6 @@ public class Generate implements Route {
                 response.status(500);
                 result.addProperty("message", "Generated content is invalid");
                 return gson.toJson(result);
-            } finally {
-                if (in != null)
-                    in.close();
             }
         }
 
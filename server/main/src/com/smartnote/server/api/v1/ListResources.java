@@ -0,0 +1,135 @@
+package com.smartnote.server.api.v1;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.smartnote.server.Server;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.auth.SessionManager;
+import com.smartnote.server.resource.ResourceManifest;
+import com.smartnote.server.resource.ResourceMetadata;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.util.MIME;
+import com.smartnote.server.util.MethodType;
+import com.smartnote.server.util.ServerRoute;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * <p>
+ * Lists the resources of the current session, a page at a time.
+ * </p>
+ *
+ * <p>
+ * The listing is read from the session's <code>ResourceManifest</code>,
+ * so the session directory is never walked. Pages are ordered by name and
+ * the cursor is the last name of the previous page, so resources added or
+ * removed between requests do not shift the pages that follow.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.resource.ResourceManifest
+ */
+@ServerRoute(method = MethodType.GET, path = "/api/v1/list")
+public class ListResources implements Route {
+    /**
+     * The number of resources listed when no limit is given.
+     */
+    public static final int DEFAULT_LIMIT = 100;
+
+    /**
+     * The maximum number of resources listed at once.
+     */
+    public static final int MAX_LIMIT = 1000;
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        response.type(MIME.JSON);
+
+        SessionManager sessionManager = Server.getServer().getSessionManager();
+        Session session = sessionManager.getSession(request);
+        if (session == null) {
+            response.status(401);
+            return "{\"message\": \"No session\"}";
+        }
+
+        String authority = request.queryParams("authority");
+        if (authority != null && !authority.equals(ResourceSystem.SESSION_AUTH)) {
+            response.status(400);
+            return "{\"message\": \"Only session resources can be listed\"}";
+        }
+
+        String prefix = request.queryParams("prefix");
+        if (prefix == null)
+            prefix = "";
+        else if (prefix.startsWith("/") || prefix.contains("\\") || ("/" + prefix + "/").contains("/../")) {
+            response.status(400);
+            return "{\"message\": \"Invalid path\"}";
+        }
+
+        int limit = DEFAULT_LIMIT;
+        String limitParam = request.queryParams("limit");
+        if (limitParam != null) {
+            try {
+                limit = Integer.parseInt(limitParam);
+            } catch (NumberFormatException e) {
+                limit = 0;
+            }
+
+            if (limit <= 0 || limit > MAX_LIMIT) {
+                response.status(400);
+                return "{\"message\": \"Invalid limit\"}";
+            }
+        }
+
+        String after = null;
+        String cursor = request.queryParams("cursor");
+        if (cursor != null) {
+            try {
+                after = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                response.status(400);
+                return "{\"message\": \"Invalid cursor\"}";
+            }
+        }
+
+        // one more than the limit, to tell if there is another page
+        ResourceManifest manifest = Server.getServer().getResourceSystem().getManifest(session.getId());
+        List<Map.Entry<String, ResourceMetadata>> page = manifest.list(prefix, after, limit + 1);
+
+        JsonArray resources = new JsonArray();
+        for (Map.Entry<String, ResourceMetadata> entry : page.subList(0, Math.min(page.size(), limit))) {
+            ResourceMetadata metadata = entry.getValue();
+
+            JsonObject obj = new JsonObject();
+            obj.addProperty("name", ResourceSystem.inSession(entry.getKey()));
+            obj.addProperty("size", metadata.getLength());
+            obj.addProperty("type", metadata.getType());
+            obj.addProperty("modified", metadata.getModified());
+            if (metadata.getHash() != null)
+                obj.addProperty("sha256", metadata.getHash());
+            resources.add(obj);
+        }
+
+        JsonObject obj = new JsonObject();
+        obj.addProperty("message", "OK");
+        obj.add("resources", resources);
+        if (page.size() > limit) {
+            String last = page.get(limit - 1).getKey();
+            obj.addProperty("cursor",
+                    Base64.getUrlEncoder().withoutPadding().encodeToString(last.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        session.updateSession(sessionManager);
+        session.writeToResponse(response);
+
+        return new Gson().toJson(obj);
+    }
+}
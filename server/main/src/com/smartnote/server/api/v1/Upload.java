@@ -1,9 +1,13 @@
 package com.smartnote.server.api.v1;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.Permission;
+import java.util.HexFormat;
 
 import org.apache.tika.Tika;
 
@@ -16,7 +20,11 @@ import com.smartnote.server.resource.NoSuchResourceException;
 import com.smartnote.server.resource.Resource;
 import com.smartnote.server.resource.ResourceConfig;
 import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.resource.UsageLedger;
+import com.smartnote.server.resource.UsageLedger.Reservation;
+import com.smartnote.server.util.CryptoUtils;
 import com.smartnote.server.util.FileUtils;
+import com.smartnote.server.util.IOUtils;
 import com.smartnote.server.util.MIME;
 import com.smartnote.server.util.MethodType;
 import com.smartnote.server.util.ServerRoute;
@@ -27,7 +35,11 @@ import spark.Route;
 
 /**
  * <p>
- * Uploads a file to the server.
+ * Uploads a file to the server. The body is streamed to a temporary file
+ * next to the target, which replaces the target once the whole body has
+ * been received, so a failed upload never leaves a partial file. The size
+ * limit and quota are checked as the bytes arrive, and the body is hashed
+ * so files other sessions already uploaded are stored once.
  * </p>
  * 
  * @author Ethan Vrhel
@@ -40,6 +52,9 @@ public class Upload implements Route {
      */
     public static final String UPLOAD_DIR = "uploads/";
 
+    // length of the random part of temporary file names
+    private static final int TEMP_ID_LENGTH = 8;
+
     @Override
     public Object handle(Request request, Response response) throws Exception {
         ResourceConfig config = Server.getServer().getConfig().getResourceConfig();
@@ -77,26 +92,15 @@ public class Upload implements Route {
             return "{\"message\": \"Unsupported content type\"}";
         }*/
 
-        byte[] body = request.bodyAsBytes();
-        if (body == null) {
-            response.status(400);
-            return "{\"message\": \"Missing body\"}";
-        }
+        long maxUploadSize = config.getMaxUploadSize();
 
-        // check size
-        if (body.length > config.getMaxUploadSize()) {
+        // reject uploads that declare they are too large before reading
+        long declared = request.raw().getContentLengthLong();
+        if (declared > maxUploadSize) {
             response.status(413);
             return "{\"message\": \"File too large\"}";
         }
 
-        long usedQuota = session.getStorageUsage();
-
-        // check quota
-        if (usedQuota + body.length > config.getSessionQuota()) {
-            response.status(413);
-            return "{\"message\": \"Quota exceeded\"}";
-        }
-
         /*Tika tika = new Tika();
         String contentMIME = tika.detect(body);
         if (!ResourceSystem.isSupportedType(contentMIME)) {
@@ -114,11 +118,16 @@ public class Upload implements Route {
 
         ResourceSystem system = Server.getServer().getResourceSystem();
         Resource resource = null;
+        Resource temp = null;
 
-        // find resource
+        // find resource, and a temporary file next to it to write to
         String path = ResourceSystem.inSession(filename);
         try {
             resource = system.findResource(path, permission);
+
+            Path target = Paths.get(filename);
+            Path tempPath = target.resolveSibling("." + target.getFileName() + "." + CryptoUtils.randomString(TEMP_ID_LENGTH) + ".part");
+            temp = system.findActualResource(ResourceSystem.SESSION_AUTH, tempPath, permission);
         } catch (SecurityException e) {
             response.status(403);
             return "{\"message\": \"Access denied\"}";
@@ -132,20 +141,81 @@ public class Upload implements Route {
             return "{\"message\": \"Could open resource\"}";
         }
 
-        // write
+        InputStream in = request.raw().getInputStream();
+        byte[] buffer = IOUtils.buffer();
+
+        int read = in.read(buffer);
+        if (read == -1 && declared < 0) {
+            response.status(400);
+            return "{\"message\": \"Missing body\"}";
+        }
+
+        // check quota, counting uploads in progress; uploads of unknown
+        // size reserve space as their bytes arrive
+        UsageLedger ledger = system.getUsageLedger();
+        Reservation reservation = ledger.reserve(session.getId(), Math.max(declared, 0), config.getSessionQuota());
+        if (reservation == null) {
+            response.status(413);
+            return "{\"message\": \"Quota exceeded\"}";
+        }
+
+        // stream the body to the temporary file, which hashes it on the way
+        // so identical files are stored once
+        byte[] hash = null;
+        String error = null;
+        long total = 0;
         OutputStream out = null;
         try {
-            out = resource.openOutputStream();
-            out.write(request.bodyAsBytes());
+            out = temp.openOutputStream();
+
+            while (read != -1) {
+                total += read;
+                if (total > maxUploadSize) {
+                    error = "File too large";
+                    break;
+                }
+
+                long needed = total - reservation.getBytes();
+                if (needed > 0 && !reservation.grow(needed, config.getSessionQuota())) {
+                    error = "Quota exceeded";
+                    break;
+                }
+
+                out.write(buffer, 0, read);
+                read = in.read(buffer);
+            }
+
+            out.close();
+            out = null;
+
+            if (error == null) {
+                hash = HexFormat.of().parseHex(temp.getMetadata().getHash());
+                temp.moveTo(resource, hash);
+            }
         } catch (SecurityException e) {
+            reservation.rollback();
             response.status(403);
             return "{\"message\":\"Access denied\"}";
         } catch (IOException e) {
+            reservation.rollback();
             response.status(500);
             return "{\"message\":\"Could not write resource\"}";
         } finally {
             if (out != null)
                 out.close();
+
+            // the temporary file is gone once it was moved
+            if (temp.exists())
+                temp.delete();
+
+            // the bytes written were counted when the stream closed, this
+            // releases the reservation unless it was rolled back
+            reservation.commit();
+        }
+
+        if (error != null) {
+            response.status(413);
+            return "{\"message\": \"" + error + "\"}";
         }
 
         session.updateSession(sessionManager);
@@ -154,6 +224,7 @@ public class Upload implements Route {
         JsonObject obj = new JsonObject();
         obj.addProperty("message", "File uploaded");
         obj.addProperty("name", system.getActualPath(path));
+        obj.addProperty("sha256", HexFormat.of().formatHex(hash));
 
         return new Gson().toJson(obj);
     }
@@ -0,0 +1,137 @@
+package com.smartnote.server.api.v1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.smartnote.server.Server;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.resource.NoSuchResourceException;
+import com.smartnote.server.resource.Resource;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.resource.ResumableUpload;
+import com.smartnote.server.resource.ResumableUploads;
+import com.smartnote.server.util.IOUtils;
+import com.smartnote.server.util.MIME;
+import com.smartnote.server.util.MethodType;
+import com.smartnote.server.util.ServerRoute;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * <p>
+ * Receives a chunk of a resumable upload. The chunk's position is given by
+ * a <code>Content-Range: bytes start-end/size</code> header, and it is
+ * written in place into the partial file, so chunks may be sent in any
+ * order and in parallel. The response tells the client how much of the
+ * upload has been received.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.api.v1.UploadStart
+ * @see com.smartnote.server.resource.ResumableUpload
+ */
+@ServerRoute(method = MethodType.PUT, path = "/api/v1/upload/chunk")
+public class UploadChunk implements Route {
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        response.type(MIME.JSON);
+
+        Session session = Server.getServer().getSessionManager().getSession(request);
+        if (session == null) {
+            response.status(401);
+            return "{\"message\":\"No session\"}";
+        }
+
+        ResumableUpload upload = ResumableUploads.getInstance().get(request.queryParams("id"), session.getId());
+        if (upload == null) {
+            response.status(404);
+            return "{\"message\":\"Upload not found\"}";
+        }
+
+        String range = request.headers("Content-Range");
+        Matcher matcher = range == null ? null : CONTENT_RANGE.matcher(range.trim());
+        if (matcher == null || !matcher.matches()) {
+            response.status(400);
+            return "{\"message\":\"Invalid range\"}";
+        }
+
+        long start, end, size;
+        try {
+            start = Long.parseLong(matcher.group(1));
+            end = Long.parseLong(matcher.group(2)) + 1; // exclusive
+            size = Long.parseLong(matcher.group(3));
+        } catch (NumberFormatException e) {
+            response.status(400);
+            return "{\"message\":\"Invalid range\"}";
+        }
+
+        if (size != upload.getSize() || start >= end || end > size) {
+            response.status(400);
+            return "{\"message\":\"Invalid range\"}";
+        }
+
+        ResourceSystem system = Server.getServer().getResourceSystem();
+        long written = 0;
+        try {
+            Resource partial = system.findActualResource(ResourceSystem.SESSION_AUTH, upload.getPartialPath(),
+                    session.getPermission());
+
+            InputStream in = request.raw().getInputStream();
+            byte[] buffer = IOUtils.buffer();
+            long length = end - start;
+
+            // the partial file is already at its full size, so writing in
+            // place never changes the usage of the session
+            try (SeekableByteChannel channel = partial.openChannel(StandardOpenOption.WRITE)) {
+                channel.position(start);
+
+                int read;
+                while (written < length
+                        && (read = in.read(buffer, 0, (int) Math.min(buffer.length, length - written))) != -1) {
+                    ByteBuffer src = ByteBuffer.wrap(buffer, 0, read);
+                    while (src.hasRemaining())
+                        channel.write(src);
+                    written += read;
+                }
+            }
+        } catch (SecurityException e) {
+            response.status(403);
+            return "{\"message\":\"Access denied\"}";
+        } catch (NoSuchResourceException e) {
+            // the partial file was removed with the session
+            ResumableUploads.getInstance().remove(upload.getId());
+            response.status(404);
+            return "{\"message\":\"Upload not found\"}";
+        } catch (IOException e) {
+            // keep what was written, the client can resume from there
+            upload.record(start, start + written);
+            response.status(500);
+            return "{\"message\":\"Could not write resource\"}";
+        }
+
+        upload.record(start, start + written);
+
+        session.updateSession(Server.getServer().getSessionManager());
+        session.writeToResponse(response);
+
+        JsonObject obj = upload.describe();
+        if (written < end - start) {
+            response.status(400);
+            obj.addProperty("message", "Chunk shorter than its range");
+        } else
+            obj.addProperty("message", "Chunk received");
+
+        return new Gson().toJson(obj);
+    }
+}
@@ -0,0 +1,119 @@
+package com.smartnote.server.api.v1;
+
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.security.MessageDigest;
+import java.security.Permission;
+import java.util.HexFormat;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.smartnote.server.Server;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.resource.BlobStore;
+import com.smartnote.server.resource.NoSuchResourceException;
+import com.smartnote.server.resource.Resource;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.resource.ResumableUpload;
+import com.smartnote.server.resource.ResumableUploads;
+import com.smartnote.server.util.MIME;
+import com.smartnote.server.util.MethodType;
+import com.smartnote.server.util.ServerRoute;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * <p>
+ * Finishes a resumable upload once every chunk has been received, moving
+ * the partial file into place. Like <code>Upload</code>, the target is
+ * only replaced once the whole file is there, and files other sessions
+ * already uploaded are stored once.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.api.v1.UploadStart
+ * @see com.smartnote.server.api.v1.Upload
+ */
+@ServerRoute(method = MethodType.POST, path = "/api/v1/upload/finish")
+public class UploadFinish implements Route {
+    private static final long HASH_WINDOW = 64 * 1024 * 1024;
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        response.type(MIME.JSON);
+
+        Session session = Server.getServer().getSessionManager().getSession(request);
+        if (session == null) {
+            response.status(401);
+            return "{\"message\":\"No session\"}";
+        }
+
+        ResumableUploads uploads = ResumableUploads.getInstance();
+        ResumableUpload upload = uploads.get(request.queryParams("id"), session.getId());
+        if (upload == null) {
+            response.status(404);
+            return "{\"message\":\"Upload not found\"}";
+        }
+
+        if (!upload.isComplete()) {
+            response.status(409);
+            JsonObject obj = upload.describe();
+            obj.addProperty("message", "Upload incomplete");
+            return new Gson().toJson(obj);
+        }
+
+        Permission permission = session.getPermission();
+        ResourceSystem system = Server.getServer().getResourceSystem();
+        String path = ResourceSystem.inSession(upload.getName());
+
+        byte[] hash;
+        try {
+            Resource partial = system.findActualResource(ResourceSystem.SESSION_AUTH, upload.getPartialPath(),
+                    permission);
+            Resource resource = system.findResource(path, permission);
+
+            // chunks arrive in any order, so the file is hashed once whole
+            hash = hash(partial);
+            partial.moveTo(resource, hash);
+        } catch (SecurityException e) {
+            response.status(403);
+            return "{\"message\":\"Access denied\"}";
+        } catch (InvalidPathException e) {
+            response.status(400);
+            return "{\"message\":\"Invalid path\"}";
+        } catch (NoSuchResourceException e) {
+            uploads.remove(upload.getId());
+            response.status(404);
+            return "{\"message\":\"Upload not found\"}";
+        } catch (IOException e) {
+            response.status(500);
+            return "{\"message\":\"Could not write resource\"}";
+        }
+
+        uploads.remove(upload.getId());
+
+        session.updateSession(Server.getServer().getSessionManager());
+        session.writeToResponse(response);
+
+        JsonObject obj = new JsonObject();
+        obj.addProperty("message", "File uploaded");
+        obj.addProperty("name", system.getActualPath(path));
+        obj.addProperty("sha256", HexFormat.of().formatHex(hash));
+
+        return new Gson().toJson(obj);
+    }
+
+    // hashes the contents of a resource, mapping a window at a time so
+    // files larger than a buffer can be mapped are supported
+    private static byte[] hash(Resource resource) throws IOException {
+        MessageDigest digest = BlobStore.newDigest();
+
+        long size = resource.size();
+        for (long offset = 0; offset < size; offset += HASH_WINDOW)
+            digest.update(resource.map(offset, Math.min(HASH_WINDOW, size - offset)));
+
+        return digest.digest();
+    }
+}
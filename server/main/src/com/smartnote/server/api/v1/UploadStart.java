@@ -0,0 +1,139 @@
+package com.smartnote.server.api.v1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.StandardOpenOption;
+import java.security.Permission;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.smartnote.server.Server;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.resource.NoSuchResourceException;
+import com.smartnote.server.resource.Resource;
+import com.smartnote.server.resource.ResourceConfig;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.resource.ResumableUpload;
+import com.smartnote.server.resource.ResumableUploads;
+import com.smartnote.server.resource.UsageLedger.Reservation;
+import com.smartnote.server.util.MIME;
+import com.smartnote.server.util.MethodType;
+import com.smartnote.server.util.ServerRoute;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * <p>
+ * Starts a resumable upload of a known size. The partial file is allocated
+ * at its full size, so the quota is checked once here rather than as each
+ * chunk arrives. The chunks are then sent to <code>UploadChunk</code> in
+ * any order, and the upload is finished with <code>UploadFinish</code>.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.resource.ResumableUploads
+ * @see com.smartnote.server.api.v1.UploadChunk
+ * @see com.smartnote.server.api.v1.UploadFinish
+ */
+@ServerRoute(method = MethodType.POST, path = "/api/v1/upload/start")
+public class UploadStart implements Route {
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        ResourceConfig config = Server.getServer().getConfig().getResourceConfig();
+
+        response.type(MIME.JSON);
+
+        Session session = Server.getServer().getSessionManager().getSession(request);
+        if (session == null) {
+            response.status(401);
+            return "{\"message\":\"No session\"}";
+        }
+
+        String filename = request.queryParams("name");
+        if (filename == null) {
+            response.status(400);
+            return "{\"message\":\"Name was not specified\"}";
+        }
+
+        filename = Upload.UPLOAD_DIR + filename.trim();
+
+        long size;
+        try {
+            size = Long.parseLong(request.queryParams("size"));
+        } catch (NumberFormatException e) {
+            size = -1;
+        }
+
+        if (size < 0) {
+            response.status(400);
+            return "{\"message\":\"Invalid size\"}";
+        }
+
+        if (size > config.getMaxUploadSize()) {
+            response.status(413);
+            return "{\"message\":\"File too large\"}";
+        }
+
+        Permission permission = session.getPermission();
+        ResourceSystem system = Server.getServer().getResourceSystem();
+
+        // check the target can be written before allocating anything
+        try {
+            system.findResource(ResourceSystem.inSession(filename), permission);
+        } catch (SecurityException e) {
+            response.status(403);
+            return "{\"message\":\"Access denied\"}";
+        } catch (InvalidPathException e) {
+            response.status(400);
+            return "{\"message\":\"Invalid path\"}";
+        } catch (NoSuchResourceException e) {
+            // ignore
+        }
+
+        Reservation reservation = system.getUsageLedger().reserve(session.getId(), size, config.getSessionQuota());
+        if (reservation == null) {
+            response.status(413);
+            return "{\"message\":\"Quota exceeded\"}";
+        }
+
+        ResumableUploads uploads = ResumableUploads.getInstance();
+        ResumableUpload upload = uploads.create(session.getId(), filename, size);
+
+        // allocate the partial file, chunks are then written in place
+        Resource partial = null;
+        try {
+            partial = system.findActualResource(ResourceSystem.SESSION_AUTH, upload.getPartialPath(),
+                    permission);
+            try (SeekableByteChannel channel = partial.openChannel(StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                if (size > 0)
+                    channel.position(size - 1).write(ByteBuffer.allocate(1));
+            }
+        } catch (SecurityException | IOException e) {
+            uploads.remove(upload.getId());
+            reservation.rollback();
+
+            if (partial != null && partial.exists())
+                partial.delete();
+
+            boolean denied = e instanceof SecurityException;
+            response.status(denied ? 403 : 500);
+            return denied ? "{\"message\":\"Access denied\"}" : "{\"message\":\"Could not write resource\"}";
+        } finally {
+            // the allocated size was counted when the channel closed
+            reservation.commit();
+        }
+
+        session.updateSession(Server.getServer().getSessionManager());
+        session.writeToResponse(response);
+
+        JsonObject obj = upload.describe();
+        obj.addProperty("message", "Upload created");
+
+        return new Gson().toJson(obj);
+    }
+}
@@ -0,0 +1,51 @@
+package com.smartnote.server.api.v1;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.smartnote.server.Server;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.resource.ResumableUpload;
+import com.smartnote.server.resource.ResumableUploads;
+import com.smartnote.server.util.MIME;
+import com.smartnote.server.util.MethodType;
+import com.smartnote.server.util.ServerRoute;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * <p>
+ * Gets the progress of a resumable upload, so a client can resume sending
+ * from <code>offset</code> after a failure.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.api.v1.UploadStart
+ * @see com.smartnote.server.resource.ResumableUpload
+ */
+@ServerRoute(method = MethodType.GET, path = "/api/v1/upload/status")
+public class UploadStatus implements Route {
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        response.type(MIME.JSON);
+
+        Session session = Server.getServer().getSessionManager().getSession(request);
+        if (session == null) {
+            response.status(401);
+            return "{\"message\":\"No session\"}";
+        }
+
+        ResumableUpload upload = ResumableUploads.getInstance().get(request.queryParams("id"), session.getId());
+        if (upload == null) {
+            response.status(404);
+            return "{\"message\":\"Upload not found\"}";
+        }
+
+        JsonObject obj = upload.describe();
+        obj.addProperty("message", upload.isComplete() ? "Upload complete" : "Upload in progress");
+
+        response.status(200);
+        return new Gson().toJson(obj);
+    }
+}
@@ -1,5 +1,6 @@
 package com.smartnote.server.auth;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.Permission;
@@ -7,6 +8,9 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import com.smartnote.server.Server;
@@ -23,8 +27,9 @@ import spark.Response;
  * </p>
  * 
  * <p>
- * Sessions are only valid for a certain amount of time and do not
- * persist across server restarts.
+ * Sessions are only valid for a certain amount of time. They persist
+ * across server restarts, since the keys that sign them are stored in
+ * the private directory.
  * </p>
  * 
  * <p>
@@ -38,7 +43,7 @@ import spark.Response;
  * </p>
  * 
  * <ol>
- * <li>A session secret is randomly generated to sign JWTs.</li>
+ * <li>The session keys are loaded, or created if there are none.</li>
  * <li>An executor service is started to clean up expired sessions.</li>
  * </ol>
  * 
@@ -48,12 +53,19 @@ import spark.Response;
  * 
  * <ol>
  * <li>A random token is generated to identify the session.</li>
- * <li>A JWT is created and signed with the session secret.</li>
- * <li>The JWT is stored in the session directory.</li>
+ * <li>A JWT is created and signed with the newest session key.</li>
  * </ol>
  * 
  * <p>
- * The session directory is located in the <code>sessions</code>
+ * The session directory is not created until the session first writes a
+ * resource, so visitors that never upload anything do not touch the disk.
+ * Until then, the session only exists in its token.
+ * </p>
+ * 
+ * <p>
+ * The session directory is located in a shard of the <code>sessions</code>
+ * directory, found with
+ * {@link com.smartnote.server.resource.ResourceSystem#getSessionDirectory(String)},
  * and is named after the random token, which is stored in the
  * subject field of the JWT. In the directory, there is a file named
  * <code>.token</code> which contains the JWT.
@@ -76,9 +88,13 @@ import spark.Response;
  * @see com.smartnote.server.util.CryptoUtils
  */
 public class Session {
-    private DecodedJWT jwt; // JSON web token
-    private Path sessionDirectory; // session directory
-    private Path tokenFile; // file containing the token
+    private static final Logger LOG = LoggerFactory.getLogger(Session.class);
+
+    private volatile DecodedJWT jwt; // JSON web token
+    private final Path sessionDirectory; // session directory
+    private final Path tokenFile; // file containing the token
+    private final Permission permission; // permission of the session
+    private volatile boolean materialized; // whether the directory exists
 
     /**
      * Create session from a JSON web token.
@@ -88,8 +104,9 @@ public class Session {
     Session(DecodedJWT jwt) {
         this.jwt = jwt;
 
-        this.sessionDirectory = Server.getServer().getResourceSystem().getSessionDir().resolve(jwt.getSubject());
+        this.sessionDirectory = Server.getServer().getResourceSystem().getSessionDirectory(jwt.getSubject());
         this.tokenFile = sessionDirectory.resolve(".token");
+        this.permission = new SessionPermission(this);
     }
 
     /**
@@ -127,29 +144,40 @@ public class Session {
      * @throws SecurityException If the path is not in the session directory.
      */
     public Path pathInSession(Path path) throws SecurityException {
-        path = sessionDirectory.resolve(path);
-        if (!FileUtils.isPathInDirectory(path, sessionDirectory))
+        path = sessionDirectory.resolve(path).normalize();
+        if (!FileUtils.isPathInCanonicalDirectory(path, sessionDirectory))
             throw new SecurityException("Access denied");
         return path;
     }
 
     /**
-     * Renews the session.
+     * Renews the session if enough of its token's lifetime has passed. The
+     * new token is registered with the manager and stored in the
+     * background.
+     * 
+     * @param manager The session manager.
+     * @return <code>true</code> if a new token was issued.
+     * @see SessionManager#isRenewalDue(DecodedJWT)
      */
-    public void updateSession(SessionManager manager) {
+    public synchronized boolean updateSession(SessionManager manager) {
+        if (!manager.isRenewalDue(jwt))
+            return false;
+
         // expiration date
         Instant expr = Instant.now().plusSeconds(SessionManager.SESSION_LENGTH);
 
         // create the token
-        String token = JWT.create()
+        SessionKeyring keyring = manager.getKeyring();
+        String token = keyring.sign(JWT.create()
                 .withIssuer(jwt.getIssuer())
                 .withSubject(jwt.getSubject())
-                .withExpiresAt(expr)
-                .sign(manager.getAlgorithm());
+                .withExpiresAt(expr));
 
-        jwt = manager.getVerifier().verify(token);
+        jwt = keyring.verify(token);
 
-        store();
+        manager.register(this);
+        manager.getFlusher().mark(this);
+        return true;
     }
 
     /**
@@ -178,18 +206,18 @@ public class Session {
      * @return The permission. Never <code>null</code>.
      */
     public Permission getPermission() {
-        return new SessionPermission(this);
+        return permission;
     }
 
     /**
-     * Gets the amount of storage used by this session. Note that this
-     * recalculates the size of the session directory every time it is
-     * called.
+     * Gets the amount of storage used by this session, as recorded by the
+     * usage ledger of the resource system.
      * 
      * @return The quota used.
+     * @see com.smartnote.server.resource.UsageLedger
      */
     public long getStorageUsage() {
-        return FileUtils.getDirectorySize(sessionDirectory.toFile());
+        return Server.getServer().getResourceSystem().getUsageLedger().getUsage(getId());
     }
 
     @Override
@@ -207,13 +235,46 @@ public class Session {
     }
 
     /**
-     * Store session information in this session's directory.
+     * Checks if the session directory has been created.
+     * 
+     * @return <code>true</code> if the session has been materialized.
+     */
+    public boolean isMaterialized() {
+        if (!materialized && Files.exists(tokenFile))
+            materialized = true;
+        return materialized;
+    }
+
+    /**
+     * Creates the session directory and stores the token in it, if it has
+     * not been created yet. Must be called before the session first writes
+     * a resource.
      */
-    public void store() {
+    public synchronized void materialize() {
+        if (isMaterialized())
+            return;
+
         try {
             Files.createDirectories(sessionDirectory);
             Files.write(tokenFile, jwt.getToken().getBytes());
-        } catch (Exception e) {
+            materialized = true;
+        } catch (IOException e) {
+            LOG.error("Failed to create session directory " + sessionDirectory, e);
+        }
+    }
+
+    /**
+     * Store session information in this session's directory. Does nothing
+     * if the session has not been materialized.
+     */
+    public synchronized void store() {
+        if (!isMaterialized())
+            return;
+
+        try {
+            Files.write(tokenFile, jwt.getToken().getBytes());
+        } catch (IOException e) {
+            LOG.error("Failed to store session token in " + sessionDirectory, e);
         }
     }
 }
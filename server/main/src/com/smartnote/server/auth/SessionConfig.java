@@ -0,0 +1,108 @@
+package com.smartnote.server.auth;
+
+import static com.smartnote.server.util.JSONUtil.*;
+
+import com.google.gson.JsonObject;
+import com.smartnote.server.util.AbstractConfig;
+
+/**
+ * <p>
+ * Stores configuration information for sessions.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see SessionManager
+ * @see SessionKeyring
+ * @see SessionFlusher
+ */
+public class SessionConfig extends AbstractConfig {
+    /**
+     * The default time a signing key is used for before a new one is
+     * created, in seconds.
+     */
+    public static final int DEFAULT_KEY_ROTATION = 60 * 60 * 24 * 7; // 1 week
+
+    /**
+     * The default fraction of a token's lifetime that must pass before it
+     * is renewed.
+     */
+    public static final double DEFAULT_RENEW_AFTER = 0.5;
+
+    /**
+     * The default interval at which renewed tokens and changed resource
+     * manifests are stored, in seconds.
+     */
+    public static final int DEFAULT_FLUSH_INTERVAL = 5;
+
+    private int keyRotation;
+    private double renewAfter;
+    private int flushInterval;
+
+    /**
+     * Creates a new SessionConfig object with default values.
+     */
+    public SessionConfig() {
+        this.keyRotation = DEFAULT_KEY_ROTATION;
+        this.renewAfter = DEFAULT_RENEW_AFTER;
+        this.flushInterval = DEFAULT_FLUSH_INTERVAL;
+    }
+
+    /**
+     * Gets the time a signing key is used for before a new one is created.
+     *
+     * @return The rotation period, in seconds.
+     */
+    public int getKeyRotation() {
+        return keyRotation;
+    }
+
+    /**
+     * Gets the fraction of a token's lifetime that must pass before it is
+     * renewed. Requests made earlier keep the current token.
+     *
+     * @return The fraction, between 0 and 1.
+     */
+    public double getRenewAfter() {
+        return renewAfter;
+    }
+
+    /**
+     * Gets the interval at which renewed tokens and changed resource
+     * manifests are stored.
+     *
+     * @return The interval, in seconds.
+     */
+    public int getFlushInterval() {
+        return flushInterval;
+    }
+
+    @Override
+    public void validate() throws IllegalStateException {
+        if (keyRotation <= 0)
+            throw new IllegalStateException("session.keyRotation must be greater than 0");
+        System.out.println("session.keyRotation=" + keyRotation);
+
+        if (renewAfter < 0 || renewAfter > 1)
+            throw new IllegalStateException("session.renewAfter must be between 0 and 1");
+        System.out.println("session.renewAfter=" + renewAfter);
+
+        if (flushInterval <= 0)
+            throw new IllegalStateException("session.flushInterval must be greater than 0");
+        System.out.println("session.flushInterval=" + flushInterval);
+    }
+
+    @Override
+    public JsonObject writeJSON(JsonObject json) {
+        json.addProperty("keyRotation", keyRotation);
+        json.addProperty("renewAfter", renewAfter);
+        json.addProperty("flushInterval", flushInterval);
+        return json;
+    }
+
+    @Override
+    public void loadJSON(JsonObject json) {
+        keyRotation = getIntOrDefault(json, "keyRotation", DEFAULT_KEY_ROTATION);
+        renewAfter = getNumberOrDefault(json, "renewAfter", DEFAULT_RENEW_AFTER);
+        flushInterval = getIntOrDefault(json, "flushInterval", DEFAULT_FLUSH_INTERVAL);
+    }
+}
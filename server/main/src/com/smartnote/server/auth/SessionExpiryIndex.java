@@ -0,0 +1,97 @@
+package com.smartnote.server.auth;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * <p>
+ * Orders sessions by when they expire, so the garbage collector only
+ * visits sessions that have actually expired instead of scanning every
+ * session directory.
+ * </p>
+ *
+ * <p>
+ * Renewing a session schedules it again. The earlier entry is left in the
+ * queue and skipped when it is reached, since only the latest expiration
+ * of each session is kept. All operations take <code>O(log n)</code>
+ * time.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see SessionManager
+ */
+public class SessionExpiryIndex {
+    private record Entry(long expires, String id) {
+    }
+
+    private final PriorityQueue<Entry> queue;
+    private final Map<String, Long> latest; // session ID to latest expiration
+
+    /**
+     * Creates an empty index.
+     */
+    public SessionExpiryIndex() {
+        this.queue = new PriorityQueue<>((a, b) -> Long.compare(a.expires, b.expires));
+        this.latest = new HashMap<>();
+    }
+
+    /**
+     * Schedules a session to expire, replacing its previous expiration.
+     *
+     * @param id      The session ID.
+     * @param expires When the session expires, in milliseconds since the
+     *                epoch.
+     */
+    public synchronized void schedule(String id, long expires) {
+        Long previous = latest.put(id, expires);
+        if (previous != null && previous == expires)
+            return;
+
+        queue.add(new Entry(expires, id));
+    }
+
+    /**
+     * Removes a session from the index.
+     *
+     * @param id The session ID.
+     */
+    public synchronized void remove(String id) {
+        latest.remove(id);
+    }
+
+    /**
+     * Removes and returns the sessions that have expired.
+     *
+     * @param now The current time, in milliseconds since the epoch.
+     * @return The IDs of the expired sessions.
+     */
+    public synchronized List<String> pollExpired(long now) {
+        List<String> expired = new ArrayList<>();
+
+        while (!queue.isEmpty() && queue.peek().expires <= now) {
+            Entry entry = queue.poll();
+
+            // skip entries replaced by a renewal or removal
+            Long expires = latest.get(entry.id);
+            if (expires == null || expires != entry.expires)
+                continue;
+
+            latest.remove(entry.id);
+            expired.add(entry.id);
+        }
+
+        return expired;
+    }
+
+    /**
+     * Gets the number of sessions in the index.
+     *
+     * @return The number of sessions.
+     */
+    public synchronized int size() {
+        return latest.size();
+    }
+}
@@ -0,0 +1,85 @@
+package com.smartnote.server.auth;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Collects sessions whose token changed and stores them in batches, so
+ * renewing a session does not write to disk during the request. A session
+ * renewed several times between flushes is only stored once, with its
+ * latest token.
+ * </p>
+ *
+ * <p>
+ * A token that has not been flushed yet is still valid, since tokens are
+ * verified by their signature, but it is lost if the server stops without
+ * flushing. The session then expires when its stored token does.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see SessionManager
+ */
+public class SessionFlusher {
+    private final Map<String, Session> pending; // session ID to session
+    private final Consumer<Session> store;
+
+    /**
+     * Creates a new flusher.
+     *
+     * @param store Stores a session.
+     */
+    public SessionFlusher(Consumer<Session> store) {
+        this.pending = new ConcurrentHashMap<>();
+        this.store = store;
+    }
+
+    /**
+     * Marks a session to be stored by the next flush.
+     *
+     * @param session The session.
+     */
+    public void mark(Session session) {
+        pending.put(session.getId(), session);
+    }
+
+    /**
+     * Stops a session from being stored, such as when it is deleted.
+     *
+     * @param id The session ID.
+     */
+    public void remove(String id) {
+        pending.remove(id);
+    }
+
+    /**
+     * Stores every marked session.
+     *
+     * @return The number of sessions stored.
+     */
+    public int flush() {
+        int count = 0;
+
+        for (Map.Entry<String, Session> entry : pending.entrySet()) {
+            // remove first, so a session marked again while storing is kept
+            Session session = entry.getValue();
+            if (!pending.remove(entry.getKey(), session))
+                continue;
+
+            store.accept(session);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the number of sessions waiting to be stored.
+     *
+     * @return The number of sessions.
+     */
+    public int size() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,272 @@
+package com.smartnote.server.auth;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTCreator;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.smartnote.server.util.CryptoUtils;
+
+/**
+ * <p>
+ * Stores the keys used to sign session tokens. Keys are persisted in the
+ * private directory, so tokens stay valid across restarts.
+ * </p>
+ *
+ * <p>
+ * Each key has an ID, which is written to the <code>kid</code> header of
+ * the tokens it signs. New tokens are always signed with the newest key,
+ * and a new key is created once it is older than the rotation period.
+ * Tokens signed by older keys are verified with the key they name, so
+ * rotating keys does not end any sessions. An older key is dropped once
+ * every token it could have signed has expired.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see SessionManager
+ * @see SessionConfig
+ */
+public class SessionKeyring {
+    /**
+     * The name of the keyring file in the private directory.
+     */
+    public static final String FILE = "session_keys.json";
+
+    /**
+     * The length of the key IDs.
+     */
+    public static final int KEY_ID_LENGTH = 8;
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionKeyring.class);
+
+    private static final class Key {
+        private final String id;
+        private final byte[] secret;
+        private final long created;
+        private final Algorithm algorithm;
+        private final JWTVerifier verifier;
+
+        private Key(String id, byte[] secret, long created) {
+            this.id = id;
+            this.secret = secret;
+            this.created = created;
+            this.algorithm = Algorithm.HMAC256(secret);
+            this.verifier = JWT.require(algorithm).build();
+        }
+    }
+
+    private final Path file;
+    private final long rotation;
+    private final long retention;
+    private final LongSupplier clock;
+
+    private volatile List<Key> keys; // oldest first
+    private volatile Map<String, Key> byId;
+
+    /**
+     * Creates a new keyring. No keys are loaded until <code>load</code> is
+     * called.
+     *
+     * @param file      The file to store the keys in, or <code>null</code>
+     *                  to only keep them in memory.
+     * @param rotation  How long a key signs new tokens for, in
+     *                  milliseconds.
+     * @param retention How long a key is kept after it stops signing new
+     *                  tokens, in milliseconds. Should be at least the
+     *                  lifetime of a token.
+     * @param clock     Source of the current time, in milliseconds.
+     */
+    public SessionKeyring(Path file, long rotation, long retention, LongSupplier clock) {
+        this.file = file;
+        this.rotation = rotation;
+        this.retention = retention;
+        this.clock = clock;
+        this.keys = List.of();
+        this.byId = Map.of();
+    }
+
+    /**
+     * Loads the keys from the keyring file, creating a key if there is
+     * none or the newest one is due for rotation. A file that cannot be
+     * read is replaced, which invalidates every existing token.
+     */
+    public synchronized void load() {
+        List<Key> loaded = new ArrayList<>();
+
+        if (file != null && Files.exists(file)) {
+            try {
+                JsonObject json = new Gson().fromJson(Files.readString(file, StandardCharsets.UTF_8), JsonObject.class);
+                for (JsonElement elem : json.getAsJsonArray("keys")) {
+                    JsonObject key = elem.getAsJsonObject();
+                    loaded.add(new Key(key.get("kid").getAsString(),
+                            Base64.getDecoder().decode(key.get("secret").getAsString()),
+                            key.get("created").getAsLong()));
+                }
+            } catch (Exception e) {
+                LOG.error("Failed to read session keys, creating new ones", e);
+                loaded.clear();
+            }
+        }
+
+        loaded.sort((a, b) -> Long.compare(a.created, b.created));
+        set(loaded);
+
+        if (!rotateIfDue())
+            LOG.info("Loaded " + loaded.size() + " session keys");
+    }
+
+    /**
+     * Creates a new key if the newest one is older than the rotation
+     * period, and drops keys that can no longer verify a valid token.
+     *
+     * @return <code>true</code> if a new key was created.
+     */
+    public synchronized boolean rotateIfDue() {
+        if (!keys.isEmpty() && clock.getAsLong() - newest().created < rotation)
+            return false;
+
+        rotate();
+        return true;
+    }
+
+    /**
+     * Creates a new key to sign new tokens with, and drops keys that can no
+     * longer verify a valid token.
+     */
+    public synchronized void rotate() {
+        long now = clock.getAsLong();
+
+        byte[] secret = new byte[SessionManager.SECRET_LENGTH];
+        CryptoUtils.randomBytes(secret);
+
+        List<Key> next = new ArrayList<>(keys.size() + 1);
+        for (int i = 0; i < keys.size(); i++) {
+            // a key stopped signing when the one after it was created
+            long retired = i + 1 < keys.size() ? keys.get(i + 1).created : now;
+            if (now - retired < retention)
+                next.add(keys.get(i));
+        }
+
+        Key key = new Key(CryptoUtils.randomString(KEY_ID_LENGTH), secret, now);
+        next.add(key);
+        set(next);
+
+        LOG.info("Created session key " + key.id + ", " + next.size() + " keys in use");
+        save();
+    }
+
+    /**
+     * Signs a token with the newest key.
+     *
+     * @param builder The token.
+     * @return The signed token.
+     */
+    public String sign(JWTCreator.Builder builder) {
+        Key key = newest();
+        return builder.withKeyId(key.id).sign(key.algorithm);
+    }
+
+    /**
+     * Verifies a token with the key that signed it.
+     *
+     * @param token The token.
+     * @return The decoded token.
+     * @throws JWTVerificationException If the token is invalid, has
+     *                                  expired, or names an unknown key.
+     */
+    public DecodedJWT verify(String token) throws JWTVerificationException {
+        DecodedJWT jwt = JWT.decode(token);
+
+        String kid = jwt.getKeyId();
+        Key key = kid == null ? null : byId.get(kid);
+        if (key == null)
+            throw new JWTVerificationException("Unknown signing key");
+
+        return key.verifier.verify(jwt);
+    }
+
+    /**
+     * Gets the ID of the key new tokens are signed with.
+     *
+     * @return The key ID.
+     */
+    public String getCurrentKeyId() {
+        return newest().id;
+    }
+
+    /**
+     * Gets the IDs of the keys tokens can be verified with, oldest first.
+     *
+     * @return The key IDs.
+     */
+    public List<String> getKeyIds() {
+        List<String> ids = new ArrayList<>();
+        for (Key key : keys)
+            ids.add(key.id);
+        return ids;
+    }
+
+    private Key newest() {
+        List<Key> keys = this.keys;
+        if (keys.isEmpty())
+            throw new IllegalStateException("No session keys loaded");
+        return keys.get(keys.size() - 1);
+    }
+
+    private void set(List<Key> keys) {
+        Map<String, Key> byId = new HashMap<>();
+        for (Key key : keys)
+            byId.put(key.id, key);
+
+        this.keys = Collections.unmodifiableList(keys);
+        this.byId = byId;
+    }
+
+    // writes the keys atomically so a crash never leaves a partial file
+    private void save() {
+        if (file == null)
+            return;
+
+        JsonArray array = new JsonArray();
+        for (Key key : keys) {
+            JsonObject json = new JsonObject();
+            json.addProperty("kid", key.id);
+            json.addProperty("secret", Base64.getEncoder().encodeToString(key.secret));
+            json.addProperty("created", key.created);
+            array.add(json);
+        }
+
+        JsonObject json = new JsonObject();
+        json.add("keys", array);
+
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(FILE + ".tmp");
+            Files.writeString(temp, json.toString(), StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.error("Failed to write session keys, sessions will not survive a restart", e);
+        }
+    }
+}
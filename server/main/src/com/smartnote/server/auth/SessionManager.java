@@ -10,10 +10,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.auth0.jwt.JWT;
-import com.auth0.jwt.JWTVerifier;
-import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import com.smartnote.server.Server;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.resource.ResumableUploads;
 import com.smartnote.server.util.CryptoUtils;
 import com.smartnote.server.util.FileUtils;
 
@@ -22,8 +22,15 @@ import spark.Request;
 /**
  * <p>Maintains sessions.</p>
  * 
+ * <p>Sessions are cached in a <code>SessionRegistry</code> by their
+ * token, so a token is only verified the first time it is used.</p>
+ * 
+ * <p>Tokens are signed with the keys of a <code>SessionKeyring</code>,
+ * which is persisted, so sessions survive restarts.</p>
+ * 
  * @author Ethan Vrhel
  * @see com.smartnote.server.auth.Session
+ * @see com.smartnote.server.auth.SessionKeyring
  */
 public class SessionManager {
     /**
@@ -63,41 +70,112 @@ public class SessionManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(Session.class);
 
-    private final Algorithm algorithm; // algorithm for signing
-    private final JWTVerifier verifier; // verifier for JWTs
+    private final SessionKeyring keyring; // keys for signing and verifying
+    private final SessionRegistry registry; // verified sessions by token
+    private final SessionExpiryIndex expiryIndex; // sessions by expiration
+    private final SessionFlusher flusher; // renewed sessions to store
+    private final double renewAfter; // fraction of a token's life before renewal
 
     // executor service for garbage collection
     private final ScheduledExecutorService executorService;
 
-    public SessionManager() {
-        String secret = CryptoUtils.randomString(SECRET_LENGTH);
-
-        algorithm = Algorithm.HMAC256(secret);
-        verifier = JWT.require(algorithm).build();
+    /**
+     * Creates a new session manager.
+     * 
+     * @param keyring The keys to sign and verify tokens with. Must
+     *                already be loaded.
+     * @param config  The session configuration.
+     */
+    public SessionManager(SessionKeyring keyring, SessionConfig config) {
+        this.keyring = keyring;
+        this.renewAfter = config.getRenewAfter();
+        registry = new SessionRegistry();
+        expiryIndex = new SessionExpiryIndex();
+        flusher = new SessionFlusher(Session::store);
 
         executorService = Executors.newSingleThreadScheduledExecutor();
         executorService.scheduleAtFixedRate(() -> {
             LOG.debug("Running session garbage collector");
+            registry.purge();
+            keyring.rotateIfDue();
             forceGc();
+            ResumableUploads.getInstance().purge();
+
+            // blobs are only unused once expired sessions are deleted
+            ResourceSystem resourceSystem = Server.getServer().getResourceSystem();
+            if (resourceSystem.getBlobStore() != null)
+                resourceSystem.getBlobStore().purge();
+
+            resourceSystem.getUsageLedger().reconcile();
         }, GC_INTERVAL, GC_INTERVAL, TimeUnit.SECONDS);
+
+        int flushInterval = config.getFlushInterval();
+        executorService.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Gets the keys used to sign and verify JWTs.
+     * 
+     * @return The keyring.
+     */
+    public SessionKeyring getKeyring() {
+        return keyring;
+    }
+
+    /**
+     * Checks if a token is old enough to be renewed.
+     * 
+     * @param jwt The token.
+     * @return <code>true</code> if the token should be renewed.
+     */
+    public boolean isRenewalDue(DecodedJWT jwt) {
+        return isRenewalDue(jwt.getExpiresAtAsInstant().toEpochMilli(), System.currentTimeMillis(), renewAfter);
     }
 
     /**
-     * Gets the algorithm for signing JWTs.
+     * Checks if a token is old enough to be renewed. Tokens are renewed
+     * once the given fraction of their lifetime has passed.
      * 
-     * @return The algorithm.
+     * @param expires    When the token expires, in milliseconds since the
+     *                   epoch.
+     * @param now        The current time, in milliseconds since the epoch.
+     * @param renewAfter The fraction of the lifetime that must pass.
+     * @return <code>true</code> if the token should be renewed.
      */
-    public Algorithm getAlgorithm() {
-        return algorithm;
+    public static boolean isRenewalDue(long expires, long now, double renewAfter) {
+        long lifetime = TimeUnit.SECONDS.toMillis(SESSION_LENGTH);
+        return expires - now <= lifetime - (long) (lifetime * renewAfter);
     }
 
     /**
-     * Gets the verifier for JWTs.
+     * Gets the sessions waiting to be stored after being renewed.
      * 
-     * @return The verifier.
+     * @return The flusher.
+     */
+    public SessionFlusher getFlusher() {
+        return flusher;
+    }
+
+    /**
+     * Stores every renewed session that has not been stored yet, and the
+     * resource manifests of sessions that changed.
      */
-    public JWTVerifier getVerifier() {
-        return verifier;
+    public void flush() {
+        try {
+            int count = flusher.flush();
+            if (count > 0)
+                LOG.debug("Stored " + count + " renewed sessions");
+        } catch (Exception e) {
+            LOG.error("Failed to store renewed sessions", e);
+        }
+
+        try {
+            int count = Server.getServer().getResourceSystem().flushManifests();
+            if (count > 0)
+                LOG.debug("Stored " + count + " resource manifests");
+        } catch (Exception e) {
+            LOG.error("Failed to store resource manifests", e);
+        }
     }
 
     /**
@@ -113,12 +191,67 @@ public class SessionManager {
         if (auth == null)
             return null;
 
+        Session session = registry.get(auth);
+        if (session != null)
+            return session;
+
+        try {
+            jwt = keyring.verify(auth);
+        } catch (Exception e) {
+            return null;
+        }
+
+        return registry.register(auth, new Session(jwt), jwt.getExpiresAtAsInstant().toEpochMilli());
+    }
+
+    /**
+     * Gets the registry of verified sessions.
+     * 
+     * @return The registry.
+     */
+    public SessionRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Registers the current token of a session, so requests using it do
+     * not need to verify it again, and schedules the session to expire
+     * with it.
+     * 
+     * @param session The session.
+     */
+    void register(Session session) {
+        DecodedJWT jwt = session.getJWT();
+        long expires = jwt.getExpiresAtAsInstant().toEpochMilli();
+        registry.register(jwt.getToken(), session, expires);
+        expiryIndex.schedule(session.getId(), expires);
+    }
+
+    /**
+     * <p>Restores a session from its stored token. The token is not
+     * verified, so this must only be used with IDs the server recorded
+     * itself, such as by tasks that outlive the request that created
+     * them. The session is restored as long as its directory has not
+     * been garbage collected, even if it has expired.</p>
+     * 
+     * @param id The session ID.
+     * @return The session. <code>null</code> if it no longer exists.
+     */
+    public Session restoreSession(String id) {
+        File token = Server.getServer().getResourceSystem().getSessionDirectory(id).resolve(".token").toFile();
+        if (!token.exists())
+            return null;
+
+        DecodedJWT jwt;
         try {
-            jwt = verifier.verify(auth);
+            jwt = JWT.decode(FileUtils.readFile(token));
         } catch (Exception e) {
             return null;
         }
 
+        if (!id.equals(jwt.getSubject()))
+            return null;
+
         return new Session(jwt);
     }
 
@@ -134,14 +267,14 @@ public class SessionManager {
         Instant expr = Instant.now().plusSeconds(SESSION_LENGTH);
 
         // create the token
-        String token = JWT.create()
+        String token = keyring.sign(JWT.create()
                 .withIssuer(ISSUER)
                 .withSubject(user)
-                .withExpiresAt(expr)
-                .sign(algorithm);
+                .withExpiresAt(expr));
 
-        Session session = new Session(verifier.verify(token));
-        session.store();
+        // the directory is created on the first write
+        Session session = new Session(keyring.verify(token));
+        register(session);
         return session;
     }
 
@@ -153,7 +286,7 @@ public class SessionManager {
      */
     public boolean isTokenValid(String token) {
         try {
-            verifier.verify(token);
+            keyring.verify(token);
         } catch (Exception e) {
             return false;
         }
@@ -162,31 +295,72 @@ public class SessionManager {
     }
 
     /**
-     * Forces garbage collection of sessions.
+     * Gets the index of session expirations.
+     * 
+     * @return The index.
+     */
+    public SessionExpiryIndex getExpiryIndex() {
+        return expiryIndex;
+    }
+
+    /**
+     * Indexes the sessions stored on disk by when they expire. Sessions
+     * whose token is missing or invalid are deleted. Sessions stored
+     * without shards by older versions are moved into their shards first.
+     * This reads every session directory and should only be called once,
+     * at startup.
+     */
+    public void loadSessions() {
+        ResourceSystem resourceSystem = Server.getServer().getResourceSystem();
+        resourceSystem.migrateSessions();
+
+        for (File f : resourceSystem.listSessionDirectories()) {
+            if (!schedule(f))
+                deleteSession(f);
+        }
+
+        LOG.info("Indexed " + expiryIndex.size() + " sessions");
+    }
+
+    /**
+     * Forces garbage collection of sessions. Only sessions that have
+     * expired according to the expiry index are visited.
      */
     public void forceGc() {
-        File[] sessionDirs = Server.getServer().getResourceSystem().getSessionDir().toFile().listFiles();
-        if (sessionDirs == null)
-            return;
-
-        // Iterate over all session directories
-        for (File f : sessionDirs) {
-            File token = new File(f.getAbsolutePath() + File.separatorChar + ".token");
-
-            // delete session if token does not exist
-            if (!token.exists()) {
-                FileUtils.deleteFile(f);
-                continue;
-            }
-
-            // delete session if token is invalid
-            try {
-                String tokenStr = FileUtils.readFile(token);
-                if (!isTokenValid(tokenStr))
-                    FileUtils.deleteFile(f);
-            } catch (Exception e) {
-                FileUtils.deleteFile(f);
-            }
+        ResourceSystem resourceSystem = Server.getServer().getResourceSystem();
+
+        for (String id : expiryIndex.pollExpired(System.currentTimeMillis())) {
+            File f = resourceSystem.getSessionDirectory(id).toFile();
+
+            // the token may have been renewed without being indexed
+            if (!schedule(f))
+                deleteSession(f);
+        }
+    }
+
+    // indexes a session directory, returns false if its token is invalid
+    private boolean schedule(File f) {
+        File token = new File(f, ".token");
+        if (!token.exists())
+            return false;
+
+        try {
+            DecodedJWT jwt = keyring.verify(FileUtils.readFile(token));
+            expiryIndex.schedule(f.getName(), jwt.getExpiresAtAsInstant().toEpochMilli());
+            return true;
+        } catch (Exception e) {
+            return false;
         }
     }
+
+    // deletes a session directory
+    private void deleteSession(File f) {
+        flusher.remove(f.getName());
+
+        // contents held in memory must not be written back afterwards
+        Server.getServer().getResourceSystem().forgetSession(f.getName());
+        FileUtils.deleteFile(f);
+        expiryIndex.remove(f.getName());
+        Server.getServer().getResourceSystem().getUsageLedger().forget(f.getName());
+    }
 }
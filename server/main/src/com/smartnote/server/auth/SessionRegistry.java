@@ -0,0 +1,118 @@
+package com.smartnote.server.auth;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>
+ * Caches verified sessions by their token, so the signature of a token is
+ * only checked and its <code>Session</code> only created the first time
+ * it is seen. Each entry is kept until its token expires. Lookups do not
+ * lock, and only tokens that passed verification are ever stored.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see SessionManager
+ */
+public class SessionRegistry {
+    private static final class Entry {
+        private final Session session;
+        private final long expires;
+
+        private Entry(Session session, long expires) {
+            this.session = session;
+            this.expires = expires;
+        }
+    }
+
+    private final Map<String, Entry> sessions;
+    private final LongSupplier clock;
+
+    /**
+     * Creates a new registry.
+     */
+    public SessionRegistry() {
+        this(System::currentTimeMillis);
+    }
+
+    /**
+     * Creates a new registry with a custom clock.
+     *
+     * @param clock Source of the current time, in milliseconds.
+     */
+    public SessionRegistry(LongSupplier clock) {
+        this.sessions = new ConcurrentHashMap<>();
+        this.clock = clock;
+    }
+
+    /**
+     * Gets the session of a token.
+     *
+     * @param token The token.
+     * @return The session, or <code>null</code> if the token is not
+     *         registered or has expired.
+     */
+    public Session get(String token) {
+        Entry entry = sessions.get(token);
+        if (entry == null)
+            return null;
+
+        if (clock.getAsLong() >= entry.expires) {
+            sessions.remove(token, entry);
+            return null;
+        }
+
+        return entry.session;
+    }
+
+    /**
+     * Registers the session of a verified token. If another thread
+     * registered the token first, its session is kept.
+     *
+     * @param token   The token.
+     * @param session The session.
+     * @param expires When the token expires, in milliseconds since the
+     *                epoch.
+     * @return The registered session.
+     */
+    public Session register(String token, Session session, long expires) {
+        Entry entry = new Entry(session, expires);
+        Entry existing = sessions.putIfAbsent(token, entry);
+        if (existing == null)
+            return session;
+
+        // replace an expired entry
+        if (clock.getAsLong() >= existing.expires && sessions.replace(token, existing, entry))
+            return session;
+
+        return existing.session;
+    }
+
+    /**
+     * Removes a token.
+     *
+     * @param token The token.
+     */
+    public void remove(String token) {
+        sessions.remove(token);
+    }
+
+    /**
+     * Removes all expired tokens.
+     */
+    public void purge() {
+        long now = clock.getAsLong();
+        sessions.values().removeIf(entry -> now >= entry.expires);
+    }
+
+    /**
+     * Gets the number of registered tokens, including expired tokens that
+     * have not been purged.
+     *
+     * @return The number of tokens.
+     */
+    public int size() {
+        return sessions.size();
+    }
+}
@@ -0,0 +1,116 @@
+package com.smartnote.server.export;
+
+import static com.smartnote.server.util.JSONUtil.*;
+
+import com.google.gson.JsonObject;
+import com.smartnote.server.util.AbstractConfig;
+
+/**
+ * <p>
+ * Stores configuration information for the export outbox.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see ExportOutbox
+ */
+public class ExportConfig extends AbstractConfig {
+    /**
+     * The default number of exports run at once.
+     */
+    public static final int DEFAULT_WORKERS = 2;
+
+    /**
+     * The default number of times an export is attempted before it fails.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    /**
+     * The default time finished exports are kept for, in seconds.
+     */
+    public static final int DEFAULT_RETENTION = 60 * 60; // 1 hour
+
+    private int workers;
+    private int maxAttempts;
+    private int retention;
+    private String callbackOrigin;
+
+    /**
+     * Creates a new ExportConfig object with default values.
+     */
+    public ExportConfig() {
+        this.workers = DEFAULT_WORKERS;
+        this.maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        this.retention = DEFAULT_RETENTION;
+        this.callbackOrigin = null;
+    }
+
+    /**
+     * Gets the number of exports run at once.
+     *
+     * @return The number of workers.
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Gets the number of times an export is attempted before it fails.
+     *
+     * @return The maximum number of attempts.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Gets the time finished exports are kept for.
+     *
+     * @return The retention, in seconds.
+     */
+    public int getRetention() {
+        return retention;
+    }
+
+    /**
+     * Gets the origin that export callbacks may be sent to.
+     *
+     * @return The origin, or <code>null</code> if callbacks are disabled.
+     */
+    public String getCallbackOrigin() {
+        return callbackOrigin;
+    }
+
+    @Override
+    public void validate() throws IllegalStateException {
+        if (workers <= 0)
+            throw new IllegalStateException("export.workers must be greater than 0");
+        System.out.println("export.workers=" + workers);
+
+        if (maxAttempts <= 0)
+            throw new IllegalStateException("export.maxAttempts must be greater than 0");
+        System.out.println("export.maxAttempts=" + maxAttempts);
+
+        if (retention < 0)
+            throw new IllegalStateException("export.retention must not be negative");
+        System.out.println("export.retention=" + retention);
+
+        System.out.println("export.callbackOrigin=`" + callbackOrigin + "`");
+    }
+
+    @Override
+    public JsonObject writeJSON(JsonObject json) {
+        json.addProperty("workers", workers);
+        json.addProperty("maxAttempts", maxAttempts);
+        json.addProperty("retention", retention);
+        json.addProperty("callbackOrigin", callbackOrigin);
+        return json;
+    }
+
+    @Override
+    public void loadJSON(JsonObject json) {
+        workers = getIntOrDefault(json, "workers", DEFAULT_WORKERS);
+        maxAttempts = getIntOrDefault(json, "maxAttempts", DEFAULT_MAX_ATTEMPTS);
+        retention = getIntOrDefault(json, "retention", DEFAULT_RETENTION);
+        callbackOrigin = getStringOrNull(json, "callbackOrigin");
+    }
+}
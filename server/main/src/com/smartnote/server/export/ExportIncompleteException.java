@@ -0,0 +1,42 @@
+package com.smartnote.server.export;
+
+import com.google.gson.JsonObject;
+
+/**
+ * <p>Thrown when an export failed after some of its output was created.
+ * Running the export again from the start would duplicate that output, so
+ * it may only be continued with the remote options given by
+ * <code>getResume</code>, if any.</p>
+ * 
+ * @author Ethan Vrhel
+ * @see ExportOutbox
+ */
+public class ExportIncompleteException extends ExportException {
+    private static final long serialVersionUID = 1L;
+
+    private final JsonObject resume;
+
+    /**
+     * Creates a new exception.
+     * 
+     * @param message The message.
+     * @param resume  The remote options to merge into the export's to
+     *                continue it, or <code>null</code> if it cannot be
+     *                continued.
+     */
+    public ExportIncompleteException(String message, JsonObject resume) {
+        super(message);
+        this.resume = resume;
+    }
+
+    /**
+     * Gets the remote options that continue the export. They replace the
+     * options of the same name.
+     * 
+     * @return The options, or <code>null</code> if the export cannot be
+     *         continued.
+     */
+    public JsonObject getResume() {
+        return resume == null ? null : resume.deepCopy();
+    }
+}
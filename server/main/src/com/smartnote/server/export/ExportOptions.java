@@ -3,7 +3,6 @@ package com.smartnote.server.export;
 import static com.smartnote.server.util.JSONUtil.*;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.InvalidPathException;
 import java.security.Permission;
 import java.util.NoSuchElementException;
@@ -80,15 +79,7 @@ public class ExportOptions {
         ResourceSystem resourceSystem = Server.getServer().getResourceSystem();
         Resource resource = resourceSystem.findResource(source, permission);
 
-        InputStream in = null;
-        try {
-            in = resource.openInputStream();
-            this.data = new String(in.readAllBytes());
-        } finally {
-            if (in != null)
-                in.close();
-        }
-
+        this.data = resource.readToString();
         return this.data;
     }
     
@@ -0,0 +1,603 @@
+package com.smartnote.server.export;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.Permission;
+import java.time.Duration;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+import com.smartnote.server.Server;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.util.CryptoUtils;
+import com.smartnote.server.util.MIME;
+
+/**
+ * <p>
+ * Runs exports in the background. An export is submitted by writing an
+ * intent record to disk, after which the request that submitted it can
+ * return immediately. A pool of workers runs the exports, retrying
+ * those that fail because the export service could not be reached or
+ * was briefly unavailable. Other failures are not retried.
+ * </p>
+ *
+ * <p>
+ * An export that fails after it has created something remotely is only
+ * retried if the exporter says how to continue it, in which case the
+ * remote options of the record are updated so the next attempt continues
+ * the export rather than starting it again.
+ * </p>
+ *
+ * <p>
+ * Each record is stored as a JSON file named after the export ID and is
+ * rewritten whenever the state of the export changes. Records that were
+ * pending or running when the server stopped are run again when the
+ * outbox is started, so an export may be attempted more than once.
+ * Remote options the exporter names as credentials are only kept in
+ * memory, so exports that need them fail if they are replayed.
+ * Finished records are kept for a while so clients can poll for the
+ * result, and a callback can be sent to the configured origin when an
+ * export finishes.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see ExportConfig
+ * @see com.smartnote.server.api.v1.Export
+ * @see com.smartnote.server.api.v1.ExportStatus
+ */
+public class ExportOutbox {
+    /**
+     * The directory, within the private directory, where records are stored.
+     */
+    public static final String DIRECTORY = "exports";
+
+    /**
+     * The export is waiting to be run.
+     */
+    public static final String PENDING = "pending";
+
+    /**
+     * The export is running.
+     */
+    public static final String RUNNING = "running";
+
+    /**
+     * The export finished successfully.
+     */
+    public static final String SUCCEEDED = "succeeded";
+
+    /**
+     * The export failed and will not be retried.
+     */
+    public static final String FAILED = "failed";
+
+    /**
+     * Delay before the first retry of a failed export, in milliseconds.
+     * Doubles with each retry.
+     */
+    public static final long RETRY_BASE_DELAY = 1000;
+
+    /**
+     * Maximum delay before retrying a failed export, in milliseconds.
+     */
+    public static final long RETRY_MAX_DELAY = 60000;
+
+    /**
+     * The length of export IDs in bytes.
+     */
+    public static final int ID_LENGTH = 16;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExportOutbox.class);
+
+    // interval at which finished records are cleaned up, in seconds
+    private static final int PURGE_INTERVAL = 60;
+
+    // a record, stored as JSON
+    private static class Entry {
+        private String id;
+        private String session;
+        private JsonObject options;
+        private String callback;
+        private String status;
+        private int attempts;
+        private long created;
+        private long updated;
+        private String message;
+        private JsonObject result;
+        private boolean credentials; // whether credentials are kept in memory
+        private JsonObject progress; // recorded by the exporter while unfinished
+
+        private boolean isFinished() {
+            return SUCCEEDED.equals(status) || FAILED.equals(status);
+        }
+    }
+
+    private final ExportConfig config;
+    private final Path directory;
+    private final Gson gson;
+
+    private final Map<String, Entry> entries;
+
+    // permissions of sessions that submitted exports since startup
+    private final Map<String, Permission> permissions;
+
+    // credentials of exports submitted since startup, never written to disk
+    private final Map<String, JsonObject> credentials;
+
+    private ScheduledExecutorService executor;
+    private HttpClient callbackClient;
+
+    /**
+     * Creates a new outbox. It does not run exports until it is started.
+     *
+     * @param config    The configuration.
+     * @param directory The directory to store records in.
+     */
+    public ExportOutbox(ExportConfig config, Path directory) {
+        this.config = config;
+        this.directory = directory;
+        this.gson = new Gson();
+        this.entries = new ConcurrentHashMap<>();
+        this.permissions = new ConcurrentHashMap<>();
+        this.credentials = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Starts the workers and replays exports that were not finished when
+     * the server stopped.
+     *
+     * @throws IOException If the records cannot be read.
+     * @throws IllegalStateException If the outbox has already been started.
+     */
+    public synchronized void start() throws IOException, IllegalStateException {
+        if (executor != null)
+            throw new IllegalStateException("Export outbox already started");
+
+        Files.createDirectories(directory);
+
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newScheduledThreadPool(config.getWorkers(), r -> {
+            Thread t = new Thread(r, "export-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        int replayed = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path file : stream) {
+                Entry entry;
+                try {
+                    entry = gson.fromJson(Files.readString(file), Entry.class);
+                } catch (IOException | JsonSyntaxException e) {
+                    LOG.warn("Discarding unreadable export record: " + file.getFileName());
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+
+                if (entry == null || entry.id == null || !file.getFileName().toString().equals(entry.id + ".json")) {
+                    LOG.warn("Discarding invalid export record: " + file.getFileName());
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+
+                entries.put(entry.id, entry);
+
+                if (!entry.isFinished()) {
+                    entry.status = PENDING;
+                    schedule(entry, 0);
+                    replayed++;
+                }
+            }
+        }
+
+        if (replayed > 0)
+            LOG.info("Replaying " + replayed + " unfinished exports");
+
+        executor.scheduleAtFixedRate(this::purge, PURGE_INTERVAL, PURGE_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the workers. Running exports are interrupted and are replayed
+     * the next time an outbox is started in the same directory.
+     */
+    public synchronized void shutdown() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    /**
+     * Submits an export. The record is written to disk before this
+     * method returns.
+     *
+     * @param session  The session submitting the export.
+     * @param options  The export options. The input data must be included
+     *                 in the options, since the source may change before
+     *                 the export runs. Credentials are removed from the
+     *                 remote options before they are written.
+     * @param callback The URL to send the result to when the export
+     *                 finishes, or <code>null</code>. Must be allowed by
+     *                 <code>isCallbackAllowed</code>.
+     * @return The export ID.
+     * @throws IOException If the record cannot be written.
+     * @throws IllegalArgumentException If the callback is not allowed.
+     */
+    public String submit(Session session, JsonObject options, String callback)
+            throws IOException, IllegalArgumentException {
+        if (callback != null && !isCallbackAllowed(callback))
+            throw new IllegalArgumentException("callback");
+
+        options = options.deepCopy();
+        JsonObject secrets = removeCredentials(options);
+
+        Entry entry = new Entry();
+        entry.id = CryptoUtils.randomString(ID_LENGTH);
+        entry.session = session.getId();
+        entry.options = options;
+        entry.callback = callback;
+        entry.status = PENDING;
+        entry.created = System.currentTimeMillis();
+        entry.updated = entry.created;
+        entry.credentials = secrets != null;
+
+        permissions.put(entry.id, session.getPermission());
+        if (secrets != null)
+            credentials.put(entry.id, secrets);
+        try {
+            write(entry);
+        } catch (IOException e) {
+            permissions.remove(entry.id);
+            credentials.remove(entry.id);
+            throw e;
+        }
+
+        entries.put(entry.id, entry);
+        schedule(entry, 0);
+
+        return entry.id;
+    }
+
+    /**
+     * Gets the status of an export.
+     *
+     * @param id      The export ID.
+     * @param session The session asking for the status.
+     * @return A JSON object with the <code>id</code>, <code>status</code>
+     *         and <code>attempts</code> of the export, the
+     *         <code>progress</code> recorded by the exporter while it is
+     *         unfinished, and the <code>message</code> and
+     *         <code>result</code> once it has finished. <code>null</code> if there is no such export or it
+     *         belongs to another session.
+     */
+    public JsonObject getStatus(String id, Session session) {
+        Entry entry = entries.get(id);
+        if (entry == null || !entry.session.equals(session.getId()))
+            return null;
+        return describe(entry);
+    }
+
+    /**
+     * Checks whether a callback URL may be used. Callbacks are only sent
+     * to the configured origin.
+     *
+     * @param callback The callback URL.
+     * @return <code>true</code> if the callback is allowed.
+     */
+    public boolean isCallbackAllowed(String callback) {
+        String origin = config.getCallbackOrigin();
+        if (origin == null)
+            return false;
+
+        try {
+            URI allowed = URI.create(origin);
+            URI uri = URI.create(callback);
+            return uri.getScheme() != null && uri.getScheme().equalsIgnoreCase(allowed.getScheme())
+                    && uri.getHost() != null && uri.getHost().equalsIgnoreCase(allowed.getHost())
+                    && portOf(uri) == portOf(allowed);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // schedules an attempt to run an export, unstarted outboxes run it on start
+    private synchronized void schedule(Entry entry, long delay) {
+        if (executor != null)
+            executor.schedule(() -> run(entry), delay, TimeUnit.MILLISECONDS);
+    }
+
+    // runs an export once
+    private void run(Entry entry) {
+        synchronized (entry) {
+            entry.status = RUNNING;
+            entry.attempts++;
+            entry.updated = System.currentTimeMillis();
+        }
+        persist(entry);
+
+        Permission permission = permissionOf(entry);
+        if (permission == null) {
+            finish(entry, FAILED, "Session expired", null);
+            return;
+        }
+
+        JsonObject json;
+        synchronized (entry) {
+            json = entry.options.deepCopy();
+        }
+
+        if (entry.credentials) {
+            JsonObject secrets = credentials.get(entry.id);
+            if (secrets == null) {
+                // the export was submitted before the server restarted
+                finish(entry, FAILED, "Export credentials expired", null);
+                return;
+            }
+
+            JsonObject remote = json.getAsJsonObject("remote");
+            for (Map.Entry<String, JsonElement> option : secrets.entrySet())
+                remote.add(option.getKey(), option.getValue().deepCopy());
+        }
+
+        ExportOptions options = new ExportOptions();
+        try {
+            options.parse(json);
+        } catch (RuntimeException e) {
+            finish(entry, FAILED, "Malformed export options", null);
+            return;
+        }
+
+        try {
+            Exporter exporter = options.getExporter();
+            JsonObject result = exporter instanceof RemoteExporter remote
+                    ? remote.export(options, permission, progressOf(entry))
+                    : exporter.export(options, permission);
+            finish(entry, SUCCEEDED, "Export successful", result);
+        } catch (ExportServiceConnectionException e) {
+            retry(entry, "Could not connect to export service");
+        } catch (ExportServiceUnavailableException e) {
+            if (e.isRetryable())
+                retry(entry, "Export service unavailable");
+            else
+                finish(entry, FAILED, "Export service unavailable", null);
+        } catch (ExportIncompleteException e) {
+            JsonObject resume = e.getResume();
+            if (resume == null) {
+                finish(entry, FAILED, "Export incomplete", null);
+                return;
+            }
+
+            synchronized (entry) {
+                JsonObject remote = entry.options.getAsJsonObject("remote");
+                if (remote == null) {
+                    remote = new JsonObject();
+                    entry.options.add("remote", remote);
+                }
+                for (Map.Entry<String, JsonElement> option : resume.entrySet())
+                    remote.add(option.getKey(), option.getValue());
+            }
+            retry(entry, "Export incomplete");
+        } catch (ExportServiceTimeoutException e) {
+            retry(entry, "Export service timed out");
+        } catch (IOException e) {
+            retry(entry, "IO error");
+        } catch (SecurityException e) {
+            finish(entry, FAILED, "Access denied", null);
+        } catch (MalformedExportOptionsException e) {
+            finish(entry, FAILED, "Malformed export options", null);
+        } catch (Exception e) {
+            LOG.error("Export " + entry.id + " failed", e);
+            finish(entry, FAILED, "Export error", null);
+        }
+    }
+
+    // retries an export later, or fails it if it has run out of attempts
+    private void retry(Entry entry, String message) {
+        if (entry.attempts >= config.getMaxAttempts()) {
+            finish(entry, FAILED, message, null);
+            return;
+        }
+
+        synchronized (entry) {
+            entry.status = PENDING;
+            entry.message = message;
+            entry.updated = System.currentTimeMillis();
+        }
+        persist(entry);
+
+        long delay = Math.min(RETRY_MAX_DELAY, RETRY_BASE_DELAY << Math.min(entry.attempts - 1, 16));
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+
+        LOG.info("Export " + entry.id + " failed (" + message + "), retrying in " + delay + " ms");
+        schedule(entry, delay);
+    }
+
+    // records the progress of an export in its record
+    private ExportProgress progressOf(Entry entry) {
+        return new ExportProgress() {
+            @Override
+            public JsonObject get() {
+                synchronized (entry) {
+                    return entry.progress == null ? new JsonObject() : entry.progress.deepCopy();
+                }
+            }
+
+            @Override
+            public void update(String key, JsonElement value) {
+                synchronized (entry) {
+                    if (entry.progress == null)
+                        entry.progress = new JsonObject();
+                    entry.progress.add(key, value.deepCopy());
+                    entry.updated = System.currentTimeMillis();
+                }
+                persist(entry);
+            }
+        };
+    }
+
+    // finishes an export and sends its callback
+    private void finish(Entry entry, String status, String message, JsonObject result) {
+        synchronized (entry) {
+            entry.status = status;
+            entry.message = message;
+            entry.result = result;
+            entry.progress = null;
+            entry.updated = System.currentTimeMillis();
+        }
+        persist(entry);
+
+        permissions.remove(entry.id);
+        credentials.remove(entry.id);
+
+        if (entry.callback != null)
+            sendCallback(entry);
+    }
+
+    // gets the permission to run an export with
+    private Permission permissionOf(Entry entry) {
+        Permission permission = permissions.get(entry.id);
+        if (permission != null)
+            return permission;
+
+        // the export was submitted before the server restarted
+        Session session = Server.getServer().getSessionManager().restoreSession(entry.session);
+        return session == null ? null : session.getPermission();
+    }
+
+    // removes the credentials from the remote options, returning them or
+    // null if there are none
+    private static JsonObject removeCredentials(JsonObject options) {
+        JsonElement remote = options.get("remote");
+        JsonElement name = options.get("exporter");
+        if (remote == null || !remote.isJsonObject() || name == null || !name.isJsonPrimitive())
+            return null;
+
+        Exporter exporter;
+        try {
+            exporter = Exporters.getExporters().getExporter(name.getAsString());
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+
+        if (!(exporter instanceof RemoteExporter remoteExporter))
+            return null;
+
+        JsonObject secrets = new JsonObject();
+        for (String credential : remoteExporter.getCredentials()) {
+            JsonElement value = remote.getAsJsonObject().remove(credential);
+            if (value != null)
+                secrets.add(credential, value);
+        }
+        return secrets.size() == 0 ? null : secrets;
+    }
+
+    // sends the status of a finished export to its callback
+    private void sendCallback(Entry entry) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(entry.callback))
+                .timeout(Duration.ofSeconds(10))
+                .header("Content-Type", MIME.JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(describe(entry))))
+                .build();
+
+        callbackClient().sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((r, e) -> {
+            if (e != null)
+                LOG.info("Callback for export " + entry.id + " failed: " + e.getMessage());
+        });
+    }
+
+    private synchronized HttpClient callbackClient() {
+        if (callbackClient == null) {
+            callbackClient = HttpClient.newBuilder()
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .followRedirects(HttpClient.Redirect.NEVER)
+                    .executor(executor)
+                    .build();
+        }
+        return callbackClient;
+    }
+
+    // removes finished records older than the retention period
+    private void purge() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(config.getRetention());
+        entries.values().removeIf(entry -> {
+            synchronized (entry) {
+                if (!entry.isFinished() || entry.updated > cutoff)
+                    return false;
+            }
+
+            try {
+                Files.deleteIfExists(fileOf(entry));
+            } catch (IOException e) {
+                LOG.warn("Failed to delete export record " + entry.id);
+            }
+            return true;
+        });
+    }
+
+    // writes a record, logging failures
+    private void persist(Entry entry) {
+        try {
+            write(entry);
+        } catch (IOException e) {
+            LOG.error("Failed to write export record " + entry.id, e);
+        }
+    }
+
+    // writes a record atomically so a crash never leaves a partial record,
+    // holding the entry so progress written from many threads stays ordered
+    private void write(Entry entry) throws IOException {
+        synchronized (entry) {
+            Path file = fileOf(entry);
+            Path temp = file.resolveSibling(entry.id + ".tmp");
+            Files.writeString(temp, gson.toJson(entry), StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private Path fileOf(Entry entry) {
+        return directory.resolve(entry.id + ".json");
+    }
+
+    private JsonObject describe(Entry entry) {
+        JsonObject json = new JsonObject();
+        synchronized (entry) {
+            json.addProperty("id", entry.id);
+            json.addProperty("status", entry.status);
+            json.addProperty("attempts", entry.attempts);
+            if (entry.isFinished()) {
+                json.addProperty("message", entry.message);
+                if (entry.result != null)
+                    json.add("result", entry.result.deepCopy());
+            } else if (entry.progress != null) {
+                json.add("progress", entry.progress.deepCopy());
+            }
+        }
+        return json;
+    }
+
+    private static int portOf(URI uri) {
+        if (uri.getPort() != -1)
+            return uri.getPort();
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+}
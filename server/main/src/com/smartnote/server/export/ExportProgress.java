@@ -0,0 +1,32 @@
+package com.smartnote.server.export;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * <p>Records the progress of a queued export in its outbox record, so
+ * clients can see partial results while it runs and a later attempt can
+ * skip the work an earlier one finished.</p>
+ * 
+ * @author Ethan Vrhel
+ * @see ExportOutbox
+ * @see RemoteExporter#export(ExportOptions, java.security.Permission, ExportProgress)
+ */
+public interface ExportProgress {
+
+    /**
+     * Gets the progress recorded so far, including by earlier attempts.
+     * 
+     * @return A copy of the progress.
+     */
+    JsonObject get();
+
+    /**
+     * Records part of the progress and writes it to the record before
+     * returning. May be called from any thread.
+     * 
+     * @param key   The name of the part.
+     * @param value The value, replacing any recorded before.
+     */
+    void update(String key, JsonElement value);
+}
@@ -1,21 +1,55 @@
 package com.smartnote.server.export;
 
+/**
+ * <p>Thrown when the export service could not be used. By default the
+ * failure is assumed to be transient and the export may be tried again;
+ * failures where the service rejected the request are not retryable.</p>
+ * 
+ * @author Ethan Vrhel
+ * @see ExportOutbox
+ */
 public class ExportServiceUnavailableException extends ExportException {
     private static final long serialVersionUID = 1L;
 
+    private final boolean retryable;
+
     public ExportServiceUnavailableException() {
         super();
+        this.retryable = true;
     }
 
     public ExportServiceUnavailableException(String message) {
         super(message);
+        this.retryable = true;
+    }
+
+    /**
+     * Creates a new exception.
+     * 
+     * @param message   The message.
+     * @param retryable Whether the export may succeed if tried again.
+     */
+    public ExportServiceUnavailableException(String message, boolean retryable) {
+        super(message);
+        this.retryable = retryable;
     }
 
     public ExportServiceUnavailableException(String message, Throwable cause) {
         super(message, cause);
+        this.retryable = true;
     }
 
     public ExportServiceUnavailableException(Throwable cause) {
         super(cause);
+        this.retryable = true;
+    }
+
+    /**
+     * Checks whether the export may succeed if tried again.
+     * 
+     * @return <code>true</code> if the failure is transient.
+     */
+    public boolean isRetryable() {
+        return retryable;
     }
 }
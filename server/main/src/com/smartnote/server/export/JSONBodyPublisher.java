@@ -0,0 +1,180 @@
+package com.smartnote.server.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import com.google.gson.stream.JsonWriter;
+import com.smartnote.server.util.JSONStreamable;
+
+/**
+ * <p>
+ * A request body publisher for JSON. The body is written through a
+ * <code>JsonWriter</code> straight into fixed-size byte chunks, so no
+ * <code>String</code> or contiguous byte array of the whole body is ever
+ * created. The chunks are handed to the HTTP client as read-only views,
+ * which lets the same body be sent again if a request is retried.
+ * </p>
+ *
+ * <p>
+ * Chunks are not reused between requests, since the HTTP client does not
+ * say when it is done with a buffer. The memory held by a body is bounded
+ * by the size of a single Notion request, which
+ * <code>NotionUploader</code> keeps small regardless of the size of the
+ * page.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see NotionAPI
+ */
+public class JSONBodyPublisher implements BodyPublisher {
+    /**
+     * The size of each chunk in bytes.
+     */
+    public static final int CHUNK_SIZE = 16 * 1024;
+
+    // collects written bytes into chunks
+    private static final class ChunkOutputStream extends OutputStream {
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private ByteBuffer current;
+        private long length;
+
+        @Override
+        public void write(int b) {
+            ensure();
+            current.put((byte) b);
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                ensure();
+                int n = Math.min(len, current.remaining());
+                current.put(b, off, n);
+                off += n;
+                len -= n;
+                length += n;
+            }
+        }
+
+        private void ensure() {
+            if (current == null || !current.hasRemaining()) {
+                current = ByteBuffer.allocate(CHUNK_SIZE);
+                chunks.add(current);
+            }
+        }
+
+        private List<ByteBuffer> finish() {
+            List<ByteBuffer> result = new ArrayList<>(chunks.size());
+            for (ByteBuffer chunk : chunks) {
+                chunk.flip();
+                result.add(chunk.asReadOnlyBuffer());
+            }
+            return Collections.unmodifiableList(result);
+        }
+    }
+
+    // delivers the chunks to one subscriber, respecting its demand
+    private final class ChunkSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private long demand;
+        private int next;
+        private boolean draining;
+        private boolean done;
+
+        private ChunkSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("non-positive request: " + n));
+                return;
+            }
+
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                if (draining)
+                    return; // a request from within onNext
+                draining = true;
+            }
+
+            drain();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            done = true;
+        }
+
+        private void drain() {
+            while (true) {
+                ByteBuffer chunk;
+                boolean complete;
+                synchronized (this) {
+                    // completion does not need demand
+                    complete = !done && next == chunks.size();
+                    if (complete) {
+                        done = true;
+                        chunk = null;
+                    } else if (done || demand == 0) {
+                        draining = false;
+                        return;
+                    } else {
+                        chunk = chunks.get(next++).duplicate();
+                        demand--;
+                    }
+                }
+
+                if (complete) {
+                    subscriber.onComplete();
+                    return;
+                }
+
+                subscriber.onNext(chunk);
+            }
+        }
+    }
+
+    private final List<ByteBuffer> chunks;
+    private final long length;
+
+    /**
+     * Creates a body by writing JSON to it.
+     *
+     * @param source Writes the JSON value of the body.
+     * @throws IOException If the source fails to write.
+     */
+    public JSONBodyPublisher(JSONStreamable source) throws IOException {
+        ChunkOutputStream out = new ChunkOutputStream();
+
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        source.writeJSON(jsonWriter);
+        jsonWriter.flush();
+
+        this.chunks = out.finish();
+        this.length = out.length;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        subscriber.onSubscribe(new ChunkSubscription(subscriber));
+    }
+}
@@ -3,9 +3,9 @@ package com.smartnote.server.export;
 import static com.smartnote.server.util.JSONUtil.*;
 
 import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.net.ConnectException;
 import java.net.URI;
-import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpRequest.BodyPublisher;
@@ -13,12 +13,20 @@ import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.smartnote.server.Config;
+import com.smartnote.server.Server;
 import com.smartnote.server.format.notion.NotionConverter;
+import com.smartnote.server.util.JSONStreamable;
 import com.smartnote.server.util.MIME;
 
 /**
@@ -32,7 +40,7 @@ import com.smartnote.server.util.MIME;
  */
 public class NotionAPI {
     /**
-     * Base URL for the Notion API.
+     * Base URL for the Notion API. Used as the default if none is configured.
      */
     public static final String NOTION_API_URL = "https://api.notion.com/v1/";
 
@@ -41,6 +49,17 @@ public class NotionAPI {
      */
     public static final String NOTION_VERSION = "2022-06-28";
 
+    /**
+     * Delay before the first retry of a failed request, in milliseconds.
+     * Doubles with each retry.
+     */
+    public static final long RETRY_BASE_DELAY = 500;
+
+    /**
+     * Maximum delay before retrying a failed request, in milliseconds.
+     */
+    public static final long RETRY_MAX_DELAY = 30000;
+
     /**
      * Base class for the result of a request to the Notion API.
      * 
@@ -64,6 +83,16 @@ public class NotionAPI {
             return status == 200;
         }
 
+        /**
+         * Check if the request failed without being applied and may
+         * succeed if sent again, such as when it was rate limited.
+         * 
+         * @return <code>true</code> if the failure is transient.
+         */
+        public boolean isTransient() {
+            return NotionAPI.isTransient(status);
+        }
+
         @Override
         public String toString() {
             return message;
@@ -130,7 +159,7 @@ public class NotionAPI {
      * Describes the result of creating a Notion page.
      * 
      * @author Ethan Vrhel
-     * @see NotionAPI#createPage(String, String, JsonObject)
+     * @see NotionAPI#createPage(String, String, JSONStreamable)
      */
     public static final class CreatePageResult extends NotionResult {
         public final String id;
@@ -147,12 +176,22 @@ public class NotionAPI {
      * Describes the result of appending a block to a Notion page.
      * 
      * @author Ethan Vrhel
-     * @see NotionAPI#appendBlock(String, JsonObject)
+     * @see NotionAPI#appendBlock(String, JSONBodyPublisher)
      */
     public static final class AppendBlockResult extends NotionResult {
+        public final List<String> ids;
+
         private AppendBlockResult(int status, JsonObject json) {
             super(status, json);
-        }   
+            List<String> ids = new ArrayList<>();
+            JsonArray results = getArrayOrNull(json, "results");
+            if (results != null) {
+                for (JsonElement result : results)
+                    ids.add(getStringOrNull(result.getAsJsonObject(), "id"));
+            }
+
+            this.ids = Collections.unmodifiableList(ids);
+        }
     }
 
     /**
@@ -164,7 +203,7 @@ public class NotionAPI {
     public static final record Page(String id, String name) { }
 
     /**
-     * Convert a Notion endpoint to a URI.
+     * Convert a Notion endpoint to a URI on the default Notion API URL.
      * 
      * @param endpoint The endpoint.
      * @return The URI.
@@ -178,12 +217,26 @@ public class NotionAPI {
 
     private Gson gson;
 
-    private HttpClient client;
+    private NotionHttpClient client;
+    private NotionConfig config;
+    private String apiUrl; // base URL of the API
+    private NotionRateLimiter limiter; // shared by all users of the token
+    private int maxRetries;
+    private volatile boolean unauthorized; // set if Notion rejected the token
 
     /**
      * <p>Sets up the Notion API. To fully use the API, one must call
      * <code>authenticate</code> with a valid access token.</p>
      * 
+     * <p>Requests are sent through the shared <code>NotionHttpClient</code>,
+     * so building many instances does not open new connections. They are
+     * sent to the API URL in the server configuration, which may point to
+     * a simulated Notion API for testing.</p>
+     * 
+     * <p>Requests are limited to the configured rate for each token. Requests
+     * that are rate limited or find Notion unavailable are retried with
+     * exponential backoff, honoring <code>Retry-After</code> if present.</p>
+     * 
      * @param version     The Notion API version. If <code>null</code>, the default
      *                    version is used.
      * 
@@ -201,11 +254,13 @@ public class NotionAPI {
         this.token = null;
         this.gson = new Gson();
 
-        try {
-            this.client = HttpClient.newHttpClient();
-        } catch (UncheckedIOException e) {
-            throw new IOException(e);
-        }
+        this.client = NotionHttpClient.getInstance();
+
+        // the server configuration may have been replaced since the client was created
+        Config serverConfig = Server.getServer().getConfig();
+        this.config = serverConfig == null ? client.getConfig() : serverConfig.getNotionConfig();
+        this.apiUrl = config.getApiUrl();
+        this.maxRetries = config.getMaxRetries();
 
         return this;
     }
@@ -236,6 +291,7 @@ public class NotionAPI {
             throw new IllegalStateException("Integration token already set");
 
         this.token = token;
+        this.limiter = NotionRateLimiter.forToken(token, config.getRateLimit());
         return this;
     }
 
@@ -281,7 +337,7 @@ public class NotionAPI {
         String encoded = new String(Base64.getEncoder().encode(authorization.getBytes()));
 
         // Make a request to the Notion API to get the OAuth token
-        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(uriOf("oauth/token"))
+        HttpRequest.Builder builder = to("oauth/token")
                 .header("Content-Type", MIME.JSON)
                 .header("Authorization", "Basic " + encoded)
                 .header("Notion-Version", version)
@@ -289,7 +345,11 @@ public class NotionAPI {
 
         HttpRequest request = builder.build();
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        // token requests are limited per integration
+        NotionRateLimiter oauthLimiter = NotionRateLimiter.forToken("oauth:" + clientId,
+                config.getRateLimit());
+
+        HttpResponse<String> response = send(request, oauthLimiter);
         JsonObject responseJson = gson.fromJson(response.body(), JsonObject.class);
 
         if (response.statusCode() != 200)
@@ -329,93 +389,308 @@ public class NotionAPI {
 
         // Make a request to the Notion API to get the available pages
         HttpRequest request = post("search", searchJsonObject).build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = send(request, limiter);
 
         return new QueryPagesResult(response.statusCode(), responseJson(response));
     }
 
     /**
-     * Create a Notion page as a subpage of another page.
+     * Create a Notion page as a subpage of another page. The body is
+     * written directly to the request, so the children are never held as a
+     * JSON tree.
      * 
      * @param name The name of the page to create.
      * @param pageId The ID of the page to create the new page under.
-     * @param json The JSON object representing the page.
+     * @param children Writes the array of child blocks of the page.
      * @return The result of creating the page.
      * @throws IOException If the page cannot be created.
      * @throws InterruptedException If the request is interrupted.
      * @throws IllegalStateException If the Notion API has not been initialized or
      * no authentication token has been set.
      */
-    public CreatePageResult createPage(String name, String pageId, JsonObject json) throws IOException, InterruptedException, IllegalStateException {
+    public CreatePageResult createPage(String name, String pageId, JSONStreamable children) throws IOException, InterruptedException, IllegalStateException {
         if (this.client == null)
             throw new IllegalStateException("Notion API has not been initialized");
 
         if (this.token == null)
             throw new IllegalStateException("Not authenticated");
-            
-        // Parent
-        JsonObject parent = new JsonObject();
-        parent.addProperty("type", "page_id");
-        parent.addProperty("page_id", pageId);
-        json.add("parent", parent);
-
-        // Title
-        JsonObject properties = new JsonObject();
-        JsonArray titleArray = new JsonArray();
-        JsonObject textObject = new JsonObject();
-        JsonObject textDataObject = new JsonObject();
-        textDataObject.addProperty("content", name);
-        textObject.add("text", textDataObject);
-        titleArray.add(textObject);
-        properties.add("title", titleArray);
-        json.add("properties", properties);
-
-        HttpRequest request = post("pages", json).build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+
+        JSONBodyPublisher body = new JSONBodyPublisher(writer -> {
+            writer.beginObject();
+
+            // Parent
+            writer.name("parent").beginObject();
+            writer.name("type").value("page_id");
+            writer.name("page_id").value(pageId);
+            writer.endObject();
+
+            // Title
+            writer.name("properties").beginObject();
+            writer.name("title").beginArray();
+            writer.beginObject().name("text").beginObject().name("content").value(name).endObject().endObject();
+            writer.endArray();
+            writer.endObject();
+
+            writer.name("children");
+            children.writeJSON(writer);
+
+            writer.endObject();
+        });
+
+        HttpRequest request = post("pages", body).build();
+        HttpResponse<String> response = send(request, limiter);
 
         return new CreatePageResult(response.statusCode(), responseJson(response));
     }
 
     /**
-     * Append a block to a Notion page.
+     * Create the body of a request appending blocks. The body can be built
+     * ahead of time and is passed to <code>appendBlock</code>.
+     * 
+     * @param children Writes the array of blocks to append.
+     * @return The body.
+     * @throws IOException If the blocks cannot be written.
+     */
+    public static JSONBodyPublisher appendBody(JSONStreamable children) throws IOException {
+        return new JSONBodyPublisher(writer -> {
+            writer.beginObject();
+            writer.name("children");
+            children.writeJSON(writer);
+            writer.endObject();
+        });
+    }
+
+    /**
+     * Append blocks to a Notion page. The IDs of the appended blocks are
+     * available in the result, in the same order they were given.
      * 
      * @param blockId The ID of the block to append to.
-     * @param json    The JSON object representing the block to append.
-     * @return The status code of the request.
+     * @param body    The body, as created by <code>appendBody</code>.
+     * @return The result of appending the block.
      * @throws IOException If the block cannot be appended.
      * @throws InterruptedException If the request is interrupted.
      * @throws IllegalStateException If the Notion API has not been initialized or
      * no authentication token has been set.
      */
-    public AppendBlockResult appendBlock(String blockId, JsonObject json) throws IOException, InterruptedException, IllegalStateException {
+    public AppendBlockResult appendBlock(String blockId, JSONBodyPublisher body) throws IOException, InterruptedException, IllegalStateException {
+        if (this.client == null)
+            throw new IllegalStateException("Notion API has not been initialized");
+
         if (token == null)
             throw new IllegalStateException("Not authenticated");
 
-        HttpRequest request = patch("blocks/" + formatId(blockId) + "/children", json).build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpRequest request = patch("blocks/" + formatId(blockId) + "/children", body).build();
+        HttpResponse<String> response = send(request, limiter);
         return new AppendBlockResult(response.statusCode(), responseJson(response));
     }
 
+    /**
+     * Append blocks to a Notion page without blocking. The request waits
+     * for its rate limit permit and any retries without holding a thread.
+     * 
+     * @param blockId The ID of the block to append to.
+     * @param body    The body, as created by <code>appendBody</code>.
+     * @return Completes with the result of appending the blocks, or
+     * exceptionally if the request fails.
+     * @throws IllegalStateException If the Notion API has not been initialized or
+     * no authentication token has been set.
+     */
+    public CompletableFuture<AppendBlockResult> appendBlockAsync(String blockId, JSONBodyPublisher body)
+            throws IllegalStateException {
+        if (this.client == null)
+            throw new IllegalStateException("Notion API has not been initialized");
+
+        if (token == null)
+            throw new IllegalStateException("Not authenticated");
+
+        HttpRequest request = patch("blocks/" + formatId(blockId) + "/children", body).build();
+        return sendAsync(request, limiter, 0)
+                .thenApply(response -> new AppendBlockResult(response.statusCode(), responseJson(response)));
+    }
+
+    /**
+     * Check if Notion has rejected the token of any request made by this
+     * object. The token is likely expired or revoked and should not be
+     * used again.
+     * 
+     * @return <code>true</code> if a request was unauthorized.
+     */
+    public boolean isUnauthorized() {
+        return unauthorized;
+    }
+
+    /**
+     * <p>Send a request, waiting for a permit from a rate limiter before each
+     * attempt. Requests are retried up to the configured number of times if
+     * Notion is rate limiting or unavailable, or if a connection could not
+     * be made. Other failures are not retried, since Notion may have already
+     * processed the request.</p>
+     * 
+     * @param request The request.
+     * @param limiter The rate limiter.
+     * @return The response. May be an error response if retries ran out.
+     * @throws IOException If the request fails.
+     * @throws InterruptedException If the request is interrupted.
+     */
+    private HttpResponse<String> send(HttpRequest request, NotionRateLimiter limiter)
+            throws IOException, InterruptedException {
+        CompletableFuture<HttpResponse<String>> future = sendAsync(request, limiter, 0);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioe)
+                throw ioe;
+            if (cause instanceof RuntimeException re)
+                throw re;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * <p>Send a request as <code>send</code> does, without blocking. Waits
+     * for permits and between retries are scheduled rather than slept, so
+     * no thread is held while a token is throttled.</p>
+     * 
+     * @param request The request.
+     * @param limiter The rate limiter.
+     * @param attempt The number of attempts already made.
+     * @return Completes with the response, or exceptionally if the request
+     * fails.
+     */
+    private CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request, NotionRateLimiter limiter,
+            int attempt) {
+        return after(limiter.reserve())
+                .thenCompose(v -> client.sendAsync(request, HttpResponse.BodyHandlers.ofString()))
+                .handle((response, e) -> {
+                    if (e != null) {
+                        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                        if (attempt >= maxRetries || !isUnsent(cause))
+                            return CompletableFuture.<HttpResponse<String>>failedFuture(cause);
+                        return retry(request, limiter, attempt, backoff(attempt));
+                    }
+
+                    int status = response.statusCode();
+                    if (status == 401)
+                        unauthorized = true;
+
+                    if (attempt >= maxRetries || !isTransient(status))
+                        return CompletableFuture.completedFuture(response);
+
+                    long delay = retryAfter(response);
+                    if (delay < 0)
+                        delay = backoff(attempt);
+
+                    // other requests on this token would be rejected too
+                    if (status == 429)
+                        limiter.pause(TimeUnit.MILLISECONDS.toNanos(delay));
+
+                    return retry(request, limiter, attempt, delay);
+                })
+                .thenCompose(future -> future);
+    }
+
+    private CompletableFuture<HttpResponse<String>> retry(HttpRequest request, NotionRateLimiter limiter,
+            int attempt, long delay) {
+        return after(TimeUnit.MILLISECONDS.toNanos(delay)).thenCompose(v -> sendAsync(request, limiter, attempt + 1));
+    }
+
+    // completes after a delay without holding a thread
+    private static CompletableFuture<Void> after(long nanos) {
+        if (nanos <= 0)
+            return CompletableFuture.completedFuture(null);
+        return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(nanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Check if a response status means that Notion did not apply the
+     * request and it may be sent again.
+     * 
+     * @param status The status.
+     * @return <code>true</code> if the request may be sent again.
+     */
+    public static boolean isTransient(int status) {
+        return status == 429 || status == 502 || status == 503;
+    }
+
+    /**
+     * Check if a request failed before it was sent, so that Notion cannot
+     * have applied it.
+     * 
+     * @param e The failure.
+     * @return <code>true</code> if the request was not sent.
+     */
+    public static boolean isUnsent(Throwable e) {
+        return e instanceof ConnectException || e instanceof HttpConnectTimeoutException;
+    }
+
+    /**
+     * Compute the delay before a retry. The delay grows exponentially and
+     * is randomized so that concurrent requests do not retry together.
+     * 
+     * @param attempt The number of the attempt that failed, starting at 0.
+     * @return The delay, in milliseconds.
+     */
+    private static long backoff(int attempt) {
+        long delay = Math.min(RETRY_MAX_DELAY, RETRY_BASE_DELAY << Math.min(attempt, 16));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Read the <code>Retry-After</code> header of a response.
+     * 
+     * @param response The response.
+     * @return The delay, in milliseconds, or -1 if the header is missing or
+     * invalid.
+     */
+    private static long retryAfter(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse(null);
+        if (value == null)
+            return -1;
+
+        try {
+            long seconds = Long.parseLong(value.trim());
+            return seconds < 0 ? -1 : Math.min(RETRY_MAX_DELAY, TimeUnit.SECONDS.toMillis(seconds));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * Build a new POST request builder with the given endpoint and JSON body.
      * 
      * @param endpoint The endpoint.
      * @param body     The JSON body.
      * @return The new POST request builder.
+     * @throws IOException If the body cannot be written.
      */
-    private HttpRequest.Builder post(String endpoint, JsonObject body) {
-        return auth(to(endpoint).method("POST", jsonPublisher(body))).header("Content-Type", MIME.JSON);
+    private HttpRequest.Builder post(String endpoint, JsonObject body) throws IOException {
+        return post(endpoint, jsonPublisher(body));
     }
 
     /**
-     * Build a new PATCH request builder with the given endpoint and JSON body.
+     * Build a new POST request builder with the given endpoint and body.
      * 
      * @param endpoint The endpoint.
-     * @param body     The JSON body.
+     * @param body     The body, which must be JSON.
+     * @return The new POST request builder.
+     */
+    private HttpRequest.Builder post(String endpoint, BodyPublisher body) {
+        return auth(to(endpoint).method("POST", body)).header("Content-Type", MIME.JSON);
+    }
+
+    /**
+     * Build a new PATCH request builder with the given endpoint and body.
+     * 
+     * @param endpoint The endpoint.
+     * @param body     The body, which must be JSON.
      * @return The new PATCH request builder.
      */
-    private HttpRequest.Builder patch(String endpoint, JsonObject body) {
-        return auth(to(endpoint).method("PATCH", jsonPublisher(body))).header("Content-Type", MIME.JSON);
+    private HttpRequest.Builder patch(String endpoint, BodyPublisher body) {
+        return auth(to(endpoint).method("PATCH", body)).header("Content-Type", MIME.JSON);
     }
 
     /**
@@ -433,9 +708,10 @@ public class NotionAPI {
      * 
      * @param json The JSON element.
      * @return The new HTTP request body publisher.
+     * @throws IOException If the body cannot be written.
      */
-    private BodyPublisher jsonPublisher(JsonElement json) {
-        return HttpRequest.BodyPublishers.ofString(gson.toJson(json));
+    private BodyPublisher jsonPublisher(JsonElement json) throws IOException {
+        return new JSONBodyPublisher(writer -> gson.toJson(json, writer));
     }
 
     /**
@@ -464,8 +740,8 @@ public class NotionAPI {
      * @param endpoint The endpoint.
      * @return The new HTTP request builder.
      */
-    private static HttpRequest.Builder to(String endpoint) {
-        return HttpRequest.newBuilder().uri(uriOf(endpoint));
+    private HttpRequest.Builder to(String endpoint) {
+        return client.newRequest(URI.create(apiUrl + endpoint));
     }
 
     /**
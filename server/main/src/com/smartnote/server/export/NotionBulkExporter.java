@@ -0,0 +1,266 @@
+package com.smartnote.server.export;
+
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.smartnote.server.resource.NoSuchResourceException;
+
+/**
+ * <p>
+ * Exports many notes to Notion as new pages under the same parent, as a
+ * single queued export. The input data is a JSON array of notes, each
+ * with the <code>data</code> of the note, and optionally the
+ * <code>source</code> it was read from and the <code>output</code>
+ * naming its page.
+ * </p>
+ *
+ * <p>
+ * The export only fails, and may be retried, if Notion cannot be used
+ * at all. Otherwise each note succeeds or fails on its own, and the
+ * result holds one entry per note, in the order of the notes, with the
+ * status and message <code>Export</code> would have sent for it.
+ * </p>
+ *
+ * <p>
+ * When queued, each note is recorded in the progress of the export,
+ * keyed by its index, when it starts and again when it completes, so
+ * clients see results as they arrive. An attempt that is stopped is
+ * continued by the next one, which keeps the results of completed notes
+ * and reports notes that had started as incomplete, since their pages
+ * may exist, rather than exporting them again.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see NotionExporter#bulk(JsonObject, Permission)
+ * @see com.smartnote.server.api.v1.BulkExport
+ */
+@ExporterInfo(name = "notion-bulk")
+public class NotionBulkExporter implements RemoteExporter {
+    private final NotionExporter notion = new NotionExporter();
+
+    @Override
+    public JsonObject export(ExportOptions options, Permission permission) throws SecurityException,
+            InvalidPathException, IOException, ExportException, MalformedExportOptionsException {
+        return export(options, permission, null);
+    }
+
+    @Override
+    public JsonObject export(ExportOptions options, Permission permission, ExportProgress progress)
+            throws SecurityException, InvalidPathException, IOException, ExportException,
+            MalformedExportOptionsException {
+        List<JsonObject> notes = parseNotes(options.readInputData(permission));
+        JsonObject recorded = progress == null ? new JsonObject() : progress.get();
+
+        JsonObject remote = options.getRemote() == null ? new JsonObject() : options.getRemote().deepCopy();
+        remote.addProperty("mode", "new");
+
+        NotionExporter.Bulk bulk = notion.bulk(remote, permission);
+
+        JsonObject[] results = new JsonObject[notes.size()];
+        List<CompletableFuture<JsonObject>> submitted = new ArrayList<>(notes.size());
+        List<CompletableFuture<Void>> pending = new ArrayList<>(notes.size());
+        try {
+            for (int i = 0; i < notes.size(); i++) {
+                int index = i;
+                JsonObject note = notes.get(i);
+
+                JsonElement previous = recorded.get(Integer.toString(i));
+                if (previous != null && previous.isJsonObject() && previous.getAsJsonObject().has("status")) {
+                    // completed by an earlier attempt
+                    results[i] = previous.getAsJsonObject();
+                    continue;
+                }
+
+                if (previous != null) {
+                    // started by an earlier attempt, its page may exist
+                    results[i] = lineOf(index, note, describe(new ExportIncompleteException("Interrupted", null)));
+                    record(progress, index, results[i]);
+                    continue;
+                }
+
+                CompletableFuture<JsonObject> future = bulk.submit(optionsOf(note), () -> {
+                    JsonObject started = lineOf(index, note, new JsonObject());
+                    started.addProperty("started", true);
+                    record(progress, index, started);
+                });
+                submitted.add(future);
+
+                pending.add(future.handle((result, e) -> {
+                    // cancelled notes are left for the next attempt
+                    if (e instanceof CancellationException)
+                        return null;
+
+                    results[index] = lineOf(index, note, e == null ? describe(result) : describe(e));
+                    record(progress, index, results[index]);
+                    return null;
+                }));
+            }
+
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).get();
+        } catch (InterruptedException e) {
+            // notes that have not started are exported by the next attempt
+            for (CompletableFuture<JsonObject> future : submitted)
+                future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new ExportIncompleteException("Bulk export interrupted", new JsonObject());
+        } catch (ExecutionException e) {
+            throw new ExportException("Failed to record bulk export progress", e.getCause());
+        } finally {
+            bulk.finish();
+        }
+
+        JsonArray array = new JsonArray();
+        for (JsonObject result : results)
+            array.add(result);
+
+        JsonObject response = new JsonObject();
+        response.addProperty("parent", bulk.getParent());
+        response.add("results", array);
+        return response;
+    }
+
+    @Override
+    public JsonObject prepare(ExportOptions options, Permission permission)
+            throws IOException, ExportException, MalformedExportOptionsException {
+        return notion.prepare(options, permission);
+    }
+
+    @Override
+    public Set<String> getCredentials() {
+        return notion.getCredentials();
+    }
+
+    /**
+     * Describes the outcome of a note.
+     *
+     * @param result The result of the note.
+     * @return The result, with a <code>status</code> of <code>200</code>.
+     */
+    public static JsonObject describe(JsonObject result) {
+        JsonObject line = result.deepCopy();
+        line.addProperty("status", 200);
+        line.addProperty("message", "Export successful");
+        return line;
+    }
+
+    /**
+     * Describes a failure the way <code>Export</code> reports it.
+     *
+     * @param e The failure.
+     * @return An object with the HTTP <code>status</code> and the
+     *         <code>message</code>.
+     */
+    public static JsonObject describe(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null)
+            e = e.getCause();
+
+        int status;
+        String message;
+        if (e instanceof SecurityException) {
+            status = 403;
+            message = "Access denied";
+        } else if (e instanceof InvalidPathException) {
+            status = 400;
+            message = "Invalid path";
+        } else if (e instanceof NoSuchResourceException) {
+            status = 404;
+            message = "Resource not found";
+        } else if (e instanceof IOException) {
+            status = 500;
+            message = "IO error";
+        } else if (e instanceof ExportServiceConnectionException) {
+            status = 502;
+            message = "Could not connect to export service";
+        } else if (e instanceof ExportServiceUnavailableException) {
+            status = 503;
+            message = "Export service unavailable";
+        } else if (e instanceof ExportServiceTimeoutException) {
+            status = 504;
+            message = "Export service timed out";
+        } else if (e instanceof MalformedExportOptionsException || e instanceof IllegalArgumentException) {
+            status = 400;
+            message = "Malformed export options";
+        } else if (e instanceof ExportIncompleteException) {
+            status = 500;
+            message = "Export incomplete";
+        } else if (e instanceof ExportException) {
+            status = 500;
+            message = "Export error";
+        } else {
+            status = 500;
+            message = "Internal error";
+        }
+
+        JsonObject result = new JsonObject();
+        result.addProperty("status", status);
+        result.addProperty("message", message);
+        return result;
+    }
+
+    // the line reported for a note
+    private static JsonObject lineOf(int index, JsonObject note, JsonObject result) {
+        result.addProperty("index", index);
+        if (note.has("source"))
+            result.add("source", note.get("source"));
+        return result;
+    }
+
+    // records a note in the progress of the export
+    private static void record(ExportProgress progress, int index, JsonObject line) {
+        if (progress != null)
+            progress.update(Integer.toString(index), line);
+    }
+
+    // parses the notes of the input data
+    private static List<JsonObject> parseNotes(String data) throws MalformedExportOptionsException {
+        JsonArray array;
+        try {
+            array = new Gson().fromJson(data, JsonArray.class);
+        } catch (JsonParseException e) {
+            throw new MalformedExportOptionsException("Malformed notes");
+        }
+
+        if (array == null)
+            throw new MalformedExportOptionsException("Missing notes");
+
+        List<JsonObject> notes = new ArrayList<>(array.size());
+        for (JsonElement element : array) {
+            if (!element.isJsonObject())
+                throw new MalformedExportOptionsException("Malformed note");
+
+            JsonObject note = element.getAsJsonObject();
+            JsonElement value = note.get("data");
+            if (value == null || !value.isJsonPrimitive())
+                throw new MalformedExportOptionsException("Missing note data");
+            notes.add(note);
+        }
+
+        return notes;
+    }
+
+    // the options of a single note
+    private static ExportOptions optionsOf(JsonObject note) {
+        JsonObject json = new JsonObject();
+        json.addProperty("exporter", "notion");
+        json.add("data", note.get("data"));
+        if (note.has("output"))
+            json.add("output", note.get("output"));
+
+        ExportOptions options = new ExportOptions();
+        options.parse(json);
+        return options;
+    }
+}
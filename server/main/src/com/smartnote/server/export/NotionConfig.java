@@ -7,15 +7,64 @@ import com.smartnote.server.cli.CommandLineParser;
 import com.smartnote.server.util.AbstractConfig;
 
 public class NotionConfig extends AbstractConfig {
+    /**
+     * The default time to wait for a connection to Notion, in seconds.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10;
+
+    /**
+     * The default time to wait for a response from Notion, in seconds.
+     */
+    public static final int DEFAULT_REQUEST_TIMEOUT = 30;
+
+    /**
+     * The default number of threads used by the HTTP client.
+     */
+    public static final int DEFAULT_HTTP_THREADS = 4;
+
+    /**
+     * The default number of requests per second allowed for each
+     * integration token.
+     */
+    public static final double DEFAULT_RATE_LIMIT = 3;
+
+    /**
+     * The default number of times a rate limited or unavailable request
+     * is retried.
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /**
+     * The default time the pages available to a token are cached, in
+     * seconds.
+     */
+    public static final int DEFAULT_PAGES_CACHE_TTL = 60;
+
     private String clientId;
     private String secret;
+    private String apiUrl;
 
     private boolean allowRemoteIntegrations;
 
+    private int connectTimeout;
+    private int requestTimeout;
+    private int httpThreads;
+
+    private double rateLimit;
+    private int maxRetries;
+    private int pagesCacheTtl;
+
     public NotionConfig() {
         clientId = null;
         secret = null;
+        apiUrl = NotionAPI.NOTION_API_URL;
         allowRemoteIntegrations = false;
+        connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+        httpThreads = DEFAULT_HTTP_THREADS;
+        rateLimit = DEFAULT_RATE_LIMIT;
+        maxRetries = DEFAULT_MAX_RETRIES;
+        pagesCacheTtl = DEFAULT_PAGES_CACHE_TTL;
     }
 
     public String getClientId() {
@@ -26,10 +75,38 @@ public class NotionConfig extends AbstractConfig {
         return secret;
     }
 
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
     public boolean allowRemoteIntegrations() {
         return allowRemoteIntegrations;
     }
 
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public int getHttpThreads() {
+        return httpThreads;
+    }
+
+    public double getRateLimit() {
+        return rateLimit;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public int getPagesCacheTtl() {
+        return pagesCacheTtl;
+    }
+
     @Override
     public void validate() throws IllegalStateException {
         System.out.println("notion.allowRemoteIntegrations=" + allowRemoteIntegrations);
@@ -41,6 +118,34 @@ public class NotionConfig extends AbstractConfig {
         if (secret == null)
             throw new IllegalStateException("Notion secret not set in notion.secret");
         System.out.println("notion.secret=<hidden>");
+
+        if (!apiUrl.startsWith("https://") && !apiUrl.startsWith("http://"))
+            throw new IllegalStateException("notion.apiUrl must be an HTTP or HTTPS URL");
+        System.out.println("notion.apiUrl=`" + apiUrl + "`");
+
+        if (connectTimeout <= 0)
+            throw new IllegalStateException("notion.connectTimeout must be greater than 0");
+        System.out.println("notion.connectTimeout=" + connectTimeout);
+
+        if (requestTimeout <= 0)
+            throw new IllegalStateException("notion.requestTimeout must be greater than 0");
+        System.out.println("notion.requestTimeout=" + requestTimeout);
+
+        if (httpThreads <= 0)
+            throw new IllegalStateException("notion.httpThreads must be greater than 0");
+        System.out.println("notion.httpThreads=" + httpThreads);
+
+        if (rateLimit <= 0)
+            throw new IllegalStateException("notion.rateLimit must be greater than 0");
+        System.out.println("notion.rateLimit=" + rateLimit);
+
+        if (maxRetries < 0)
+            throw new IllegalStateException("notion.maxRetries must not be negative");
+        System.out.println("notion.maxRetries=" + maxRetries);
+
+        if (pagesCacheTtl < 0)
+            throw new IllegalStateException("notion.pagesCacheTtl must not be negative");
+        System.out.println("notion.pagesCacheTtl=" + pagesCacheTtl);
     }
 
     @Override
@@ -62,7 +167,14 @@ public class NotionConfig extends AbstractConfig {
     public JsonObject writeJSON(JsonObject json) {
         json.addProperty("clientId", clientId);
         json.addProperty("secret", secret);
+        json.addProperty("apiUrl", apiUrl);
         json.addProperty("allowRemoteIntegrations", allowRemoteIntegrations);
+        json.addProperty("connectTimeout", connectTimeout);
+        json.addProperty("requestTimeout", requestTimeout);
+        json.addProperty("httpThreads", httpThreads);
+        json.addProperty("rateLimit", rateLimit);
+        json.addProperty("maxRetries", maxRetries);
+        json.addProperty("pagesCacheTtl", pagesCacheTtl);
         return json;
     }
 
@@ -70,6 +182,18 @@ public class NotionConfig extends AbstractConfig {
     public void loadJSON(JsonObject json) {
         clientId = getStringOrNull(json, "clientId");
         secret = getStringOrNull(json, "secret");
+
+        apiUrl = getStringOrNull(json, "apiUrl");
+        if (apiUrl == null)
+            apiUrl = NotionAPI.NOTION_API_URL;
+        else if (!apiUrl.endsWith("/"))
+            apiUrl += "/";
         allowRemoteIntegrations = getBooleanOrFalse(json, "allowRemoteIntegrations");
+        connectTimeout = getIntOrDefault(json, "connectTimeout", DEFAULT_CONNECT_TIMEOUT);
+        requestTimeout = getIntOrDefault(json, "requestTimeout", DEFAULT_REQUEST_TIMEOUT);
+        httpThreads = getIntOrDefault(json, "httpThreads", DEFAULT_HTTP_THREADS);
+        rateLimit = getNumberOrDefault(json, "rateLimit", DEFAULT_RATE_LIMIT);
+        maxRetries = getIntOrDefault(json, "maxRetries", DEFAULT_MAX_RETRIES);
+        pagesCacheTtl = getIntOrDefault(json, "pagesCacheTtl", DEFAULT_PAGES_CACHE_TTL);
     }
 }
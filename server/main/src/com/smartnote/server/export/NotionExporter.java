@@ -3,27 +3,29 @@ package com.smartnote.server.export;
 import static com.smartnote.server.util.JSONUtil.*;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.http.HttpTimeoutException;
 import java.nio.file.InvalidPathException;
-import java.nio.file.Paths;
 import java.security.Permission;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.smartnote.server.Server;
 import com.smartnote.server.export.NotionAPI.CreatePageResult;
 import com.smartnote.server.export.NotionAPI.CreateTokenResult;
-import com.smartnote.server.export.NotionAPI.NotionResult;
+import com.smartnote.server.export.NotionAPI.Page;
 import com.smartnote.server.export.NotionAPI.QueryPagesResult;
 import com.smartnote.server.format.ParsedMarkdown;
 import com.smartnote.server.format.notion.NotionBlock;
 import com.smartnote.server.format.notion.NotionConverter;
-import com.smartnote.server.resource.Resource;
-import com.smartnote.server.resource.ResourceSystem;
 
 /**
  * <p>
@@ -40,42 +42,61 @@ public class NotionExporter implements RemoteExporter {
      */
     public static final String DEFAULT_PAGE_NAME = "Exported Page";
 
+    /**
+     * Number of threads converting and uploading notes in bulk exports.
+     */
+    public static final int BULK_THREADS = 4;
+
+    // remote options holding credentials
+    private static final Set<String> CREDENTIALS = Set.of("integration", "code", "redirectUri");
+
     private static final Logger LOG = LoggerFactory.getLogger(NotionExporter.class);
 
+    // shared by all bulk exports
+    private static final ExecutorService BULK_EXECUTOR;
+
+    static {
+        AtomicInteger count = new AtomicInteger();
+        BULK_EXECUTOR = Executors.newFixedThreadPool(BULK_THREADS, r -> {
+            Thread t = new Thread(r, "notion-bulk-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
     @Override
     public JsonObject export(ExportOptions options, Permission permission) throws SecurityException,
             InvalidPathException, IOException, ExportException, MalformedExportOptionsException {
         JsonObject response = new JsonObject();
 
         NotionExportOptions nopts = new NotionExportOptions();
-        nopts.parse(options);
-        nopts.load(options.readInputData(permission));
+        nopts.parse(options.getRemote(), options.getOutput());
+        NotionBlock block = nopts.load(options.readInputData(permission));
 
+        NotionTokenStore store = NotionTokenStore.getInstance();
+        NotionAPI notionAPI = null;
+        NotionUploader.Progress progress = null;
         try {
-            NotionAPI notionAPI = nopts.createApi(permission);
-            NotionResult result;
+            notionAPI = nopts.createApi(permission);
+            NotionUploader uploader = new NotionUploader(notionAPI);
 
             if (nopts.mode.equalsIgnoreCase("new")) {
                 // Create a new page
-                if (nopts.page == null) {
-                    QueryPagesResult paResult = notionAPI.queryAvailablePages();
-                    if (!paResult.success()) {
-                        LOG.info("Notion API error: " + paResult.message);
-                        throw new ExportServiceUnavailableException(paResult.message);
-                    }
-
-                    if (paResult.pages.size() == 0) {
-                        LOG.info("No pages available");
-                        throw new ExportServiceUnavailableException("No pages available");
-                    }
-
-                    nopts.page = paResult.pages.get(0).id();
+                boolean cachedPage = nopts.findPage(notionAPI, store);
+
+                progress = new NotionUploader.Progress();
+                CreatePageResult pResult;
+                try {
+                    pResult = uploader.createPage(nopts.pageName, nopts.page, block, progress);
+                } catch (ExportServiceUnavailableException e) {
+                    // the cached page may have been deleted or unshared
+                    if (cachedPage && progress.getPageId() == null)
+                        store.invalidatePages(nopts.token);
+                    throw e;
                 }
 
-                CreatePageResult pResult = notionAPI.createPage(nopts.pageName, nopts.page, nopts.json);
                 response.addProperty("url", pResult.url);
                 response.addProperty("id", pResult.id);
-                result = pResult;
             } else if (nopts.mode.equalsIgnoreCase("update")) {
                 // Replace the contents of a page
                 if (nopts.page == null)
@@ -83,55 +104,267 @@ public class NotionExporter implements RemoteExporter {
 
                 throw new UnsupportedOperationException("update not implemented");
             } else if (nopts.mode.equalsIgnoreCase("append")) {
-                // Append to a page
+                // Append to a page, skipping blocks a previous attempt uploaded
                 if (nopts.page == null)
                     throw new MalformedExportOptionsException("No page provided for append");
 
-                // append only allows children
-                JsonArray children = nopts.json.getAsJsonArray("children");
-                JsonObject apppendObject = new JsonObject();
-                apppendObject.add("children", children);
+                progress = new NotionUploader.Progress(nopts.page, nopts.offset);
+                uploader.append(block, progress);
 
-                result = notionAPI.appendBlock(nopts.page, apppendObject);
+                // continuing a page created by an earlier attempt
+                if (nopts.url != null) {
+                    response.addProperty("url", nopts.url);
+                    response.addProperty("id", nopts.page);
+                }
             } else {
                 throw new MalformedExportOptionsException("Invalid mode: " + nopts.mode);
             }
-
-            if (!result.success()) {
-                LOG.info("Notion API error: " + result.message);
-                throw new ExportServiceUnavailableException(result.message);
-            }
-        } catch (IOException e) {
-            LOG.info("Notion API error: " + e.getMessage());
-            throw new ExportServiceUnavailableException("Could not connect to Notion API: " + e.getMessage());
-        } catch (InterruptedException e) {
-            LOG.info("Notion API error: " + e.getMessage());
-            throw new ExportServiceTimeoutException("Connection to Notion API timed out: " + e.getMessage());
+        } catch (IOException | InterruptedException | ExportServiceUnavailableException e) {
+            throw failed(e, progress);
+        } finally {
+            // the token was revoked or expired, the user must authorize again
+            if (notionAPI != null && notionAPI.isUnauthorized() && nopts.stored)
+                store.invalidateToken(permission, nopts.token);
         }
 
         response.addProperty("name", nopts.pageName);
 
+        if (LOG.isDebugEnabled())
+            LOG.debug("Notion HTTP client: " + NotionHttpClient.getInstance().getStatistics());
+
         return response;
     }
 
+    /**
+     * Exchanges the OAuth code of an export for a token, which is stored
+     * for the session, since the code can only be used once.
+     */
+    @Override
+    public JsonObject prepare(ExportOptions options, Permission permission)
+            throws IOException, ExportException, MalformedExportOptionsException {
+        JsonObject remote = options.getRemote();
+        if (remote == null || !remote.has("code"))
+            return remote;
+
+        NotionExportOptions nopts = new NotionExportOptions();
+        nopts.parse(remote, options.getOutput());
+        try {
+            nopts.createApi(permission);
+        } catch (InterruptedException e) {
+            throw translate(e);
+        }
+
+        remote = remote.deepCopy();
+        remote.remove("code");
+        remote.remove("redirectUri");
+        return remote;
+    }
+
+    /**
+     * Integration tokens and secrets, and OAuth codes, are credentials.
+     */
+    @Override
+    public Set<String> getCredentials() {
+        return CREDENTIALS;
+    }
+
+    /**
+     * Starts exporting many notes as new pages under the same parent. The
+     * token is loaded and the parent page is found once, and the notes are
+     * then converted and uploaded concurrently through a single
+     * <code>NotionAPI</code>, so they share the rate limit of the
+     * integration.
+     * 
+     * @param remote     The remote options shared by all notes. The mode is
+     *                   always <code>new</code>.
+     * @param permission The permission of the session.
+     * @return The bulk export. <code>finish</code> must be called once all
+     *         notes have been submitted and completed.
+     * @throws MalformedExportOptionsException If the options are invalid.
+     * @throws ExportException                  If Notion cannot be reached
+     *                                          or rejects the token.
+     */
+    public Bulk bulk(JsonObject remote, Permission permission) throws MalformedExportOptionsException, ExportException {
+        NotionExportOptions nopts = new NotionExportOptions();
+        nopts.parse(remote, null);
+
+        if (!nopts.mode.equalsIgnoreCase("new"))
+            throw new MalformedExportOptionsException("Bulk exports only support mode new");
+
+        NotionTokenStore store = NotionTokenStore.getInstance();
+        NotionAPI notionAPI = null;
+        try {
+            notionAPI = nopts.createApi(permission);
+            boolean cachedPage = nopts.findPage(notionAPI, store);
+            return new Bulk(nopts, notionAPI, permission, cachedPage);
+        } catch (IOException | InterruptedException e) {
+            if (notionAPI != null && notionAPI.isUnauthorized() && nopts.stored)
+                store.invalidateToken(permission, nopts.token);
+            throw translate(e);
+        }
+    }
+
+    /**
+     * <p>
+     * Exports many notes to Notion as new pages under the same parent.
+     * Notes are read, converted and uploaded on a shared pool of
+     * {@value NotionExporter#BULK_THREADS} threads, and each note completes
+     * independently of the others.
+     * </p>
+     * 
+     * @author Ethan Vrhel
+     * @see NotionExporter#bulk(JsonObject, Permission)
+     */
+    public static final class Bulk {
+        private final NotionExportOptions nopts;
+        private final NotionAPI api;
+        private final NotionUploader uploader;
+        private final Permission permission;
+        private final boolean cachedPage;
+
+        private volatile boolean pageFailed;
+
+        private Bulk(NotionExportOptions nopts, NotionAPI api, Permission permission, boolean cachedPage) {
+            this.nopts = nopts;
+            this.api = api;
+            this.uploader = new NotionUploader(api);
+            this.permission = permission;
+            this.cachedPage = cachedPage;
+        }
+
+        /**
+         * Gets the ID of the page the notes are exported under.
+         * 
+         * @return The ID of the parent page.
+         */
+        public String getParent() {
+            return nopts.page;
+        }
+
+        /**
+         * Submits a note to be exported. Only the source or data and
+         * output of the options are used.
+         * 
+         * @param options The options of the note.
+         * @param started Run on the exporting thread just before the note
+         *                is exported.
+         * @return A future completing with the result of the export, or
+         *         with the exception that caused it to fail.
+         */
+        public CompletableFuture<JsonObject> submit(ExportOptions options, Runnable started) {
+            return CompletableFuture.supplyAsync(() -> {
+                started.run();
+                try {
+                    return export(options);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, BULK_EXECUTOR);
+        }
+
+        /**
+         * Finishes the export, forgetting the token or cached pages if
+         * Notion rejected them.
+         */
+        public void finish() {
+            NotionTokenStore store = NotionTokenStore.getInstance();
+            if (api.isUnauthorized() && nopts.stored)
+                store.invalidateToken(permission, nopts.token);
+            else if (pageFailed && cachedPage)
+                store.invalidatePages(nopts.token);
+        }
+
+        private JsonObject export(ExportOptions options) throws SecurityException, InvalidPathException,
+                IOException, ExportException {
+            String name = options.getOutput();
+            NotionBlock block = nopts.convert(options.readInputData(permission));
+            if (name == null)
+                name = nameOf(block);
+
+            NotionUploader.Progress progress = new NotionUploader.Progress();
+            CreatePageResult pResult;
+            try {
+                pResult = uploader.createPage(name, nopts.page, block, progress);
+            } catch (IOException | InterruptedException | ExportServiceUnavailableException e) {
+                if (e instanceof ExportServiceUnavailableException && progress.getPageId() == null)
+                    pageFailed = true;
+                throw failed(e, progress);
+            }
+
+            JsonObject response = new JsonObject();
+            response.addProperty("url", pResult.url);
+            response.addProperty("id", pResult.id);
+            response.addProperty("name", name);
+            return response;
+        }
+    }
+
+    // converts a failure to reach Notion to an export exception
+    private static ExportException translate(Exception e) {
+        LOG.info("Notion API error: " + e.getMessage());
+        if (e instanceof HttpTimeoutException || e instanceof InterruptedException)
+            return new ExportServiceTimeoutException("Connection to Notion API timed out: " + e.getMessage());
+        return new ExportServiceUnavailableException("Could not connect to Notion API: " + e.getMessage());
+    }
+
+    // converts a failed upload to an export exception, telling the outbox
+    // whether and how the export can be continued
+    private static ExportException failed(Exception e, NotionUploader.Progress progress) {
+        boolean created = progress != null && progress.getPageId() != null;
+        boolean certain = progress == null || progress.canContinue();
+
+        if (!created && certain) {
+            // nothing was created
+            if (e instanceof ExportServiceUnavailableException eue)
+                return eue;
+            return translate(e);
+        }
+
+        LOG.info("Notion upload incomplete: " + e.getMessage());
+
+        boolean retryable = e instanceof ExportServiceUnavailableException eue ? eue.isRetryable()
+                : NotionAPI.isUnsent(e);
+        if (!certain || !retryable)
+            return new ExportIncompleteException("Notion page is incomplete: " + e.getMessage(), null);
+
+        // the page holds the first blocks, the rest are appended to it
+        JsonObject resume = new JsonObject();
+        resume.addProperty("mode", "append");
+        resume.addProperty("page", progress.getPageId());
+        resume.addProperty("offset", progress.getUploaded());
+        if (progress.getPageUrl() != null)
+            resume.addProperty("url", progress.getPageUrl());
+        return new ExportIncompleteException("Notion page is incomplete: " + e.getMessage(), resume);
+    }
+
+    // names a page after its first heading
+    private static String nameOf(NotionBlock block) {
+        NotionBlock heading = block.findFirstOf("heading_1");
+        String name = heading == null ? null : heading.getPlainText();
+        return name == null ? DEFAULT_PAGE_NAME : name;
+    }
+
     private static class NotionExportOptions {
         private String mode;
         private String page;
         private String code;
         private String redirectUri;
+        private int offset; // blocks already uploaded when continuing an export
+        private String url; // URL of the page when continuing an export
 
         // integration
         private String secret;
         private String clientId;
         private String token;
+        private boolean stored; // whether the token belongs to the session
 
         private String pageName;
-        private JsonObject json;
 
-        public void parse(ExportOptions options) throws MalformedExportOptionsException {
+        public void parse(JsonObject json, String output) throws MalformedExportOptionsException {
             NotionConfig config = Server.getServer().getConfig().getNotionConfig();
 
-            JsonObject json = options.getRemote();
+            if (json == null)
+                throw new MalformedExportOptionsException("No remote options provided");
 
             try {
                 // basic
@@ -139,6 +372,10 @@ public class NotionExporter implements RemoteExporter {
                 page = getStringOrNull(json, "page");
                 code = getStringOrNull(json, "code");
                 redirectUri = getStringOrNull(json, "redirectUri");
+                offset = getIntOrDefault(json, "offset", 0);
+                url = getStringOrNull(json, "url");
+                if (offset < 0)
+                    throw new MalformedExportOptionsException("Invalid offset: " + offset);
 
                 // integration
                 JsonObject integration = getObjectOrNull(json, "integration");
@@ -166,29 +403,54 @@ public class NotionExporter implements RemoteExporter {
                 throw new MalformedExportOptionsException(e.getMessage());
             }
 
-            pageName = options.getOutput();
+            pageName = output;
 
             if (secret == null)
                 secret = config.getSecret();
         }
 
-        public void load(String inputData) {
+        public NotionBlock load(String inputData) {
+            NotionBlock block = convert(inputData);
+            if (pageName == null)
+                pageName = nameOf(block);
+            return block;
+        }
+
+        public NotionBlock convert(String inputData) {
             // Convert markdown to Notion JSON
             ParsedMarkdown md = ParsedMarkdown.parse(inputData);
             NotionConverter notionConverter = new NotionConverter();
-            NotionBlock block = notionConverter.convert(md);
-            json = block.writeJSON();
-
-            if (pageName == null) {
-                // set page name to first heading
-                NotionBlock heading = block.findFirstOf("heading_1");
-                if (heading != null)
-                    pageName = heading.getPlainText();
-
-                // default page name
-                if (pageName == null)
-                    pageName = DEFAULT_PAGE_NAME;
+            return notionConverter.convert(md);
+        }
+
+        // finds a page to create pages under if none was given, returns
+        // whether the page came from the cache
+        public boolean findPage(NotionAPI notionAPI, NotionTokenStore store)
+                throws IOException, InterruptedException, ExportServiceUnavailableException {
+            if (page != null)
+                return false;
+
+            List<Page> pages = store.getPages(token);
+            boolean cached = pages != null;
+
+            if (pages == null) {
+                QueryPagesResult paResult = notionAPI.queryAvailablePages();
+                if (!paResult.success()) {
+                    LOG.info("Notion API error: " + paResult.message);
+                    throw new ExportServiceUnavailableException(paResult.message, paResult.isTransient());
+                }
+
+                pages = paResult.pages;
+                store.putPages(token, pages);
+            }
+
+            if (pages.size() == 0) {
+                LOG.info("No pages available");
+                throw new ExportServiceUnavailableException("No pages available", false);
             }
+
+            page = pages.get(0).id();
+            return cached;
         }
 
         public NotionAPI createApi(Permission permission)
@@ -204,28 +466,16 @@ public class NotionExporter implements RemoteExporter {
 
         private void loadToken(NotionAPI notion, Permission permission)
                 throws IOException, InterruptedException, ExportServiceUnavailableException {
-            ResourceSystem resourceSystem = Server.getServer().getResourceSystem();
-
             if (token != null) {
                 notion.authenticate(token);
                 return;
             }
 
-            // read token
-            InputStream in = null;
-            try {
-                Resource tokenResource = resourceSystem.findActualResource("session", Paths.get(".notion_token"),
-                        permission);
-                in = tokenResource.openInputStream();
-                token = new String(in.readAllBytes());
-            } catch (Exception e) {
-                // Ignore
-            } finally {
-                if (in != null)
-                    in.close();
-            }
+            NotionTokenStore store = NotionTokenStore.getInstance();
 
+            token = store.loadToken(permission);
             if (token != null) {
+                stored = true;
                 notion.authenticate(token);
                 return;
             }
@@ -235,25 +485,13 @@ public class NotionExporter implements RemoteExporter {
 
             CreateTokenResult result = notion.createToken(clientId, secret, code, redirectUri);
             if (!result.success())
-                throw new ExportServiceUnavailableException(result.message);
+                throw new ExportServiceUnavailableException(result.message, result.isTransient());
 
             token = result.token;
+            stored = true;
 
             notion.authenticate(token);
-
-            // save token
-            OutputStream out = null;
-            try {
-                Resource tokenResource = resourceSystem.findActualResource("session", Paths.get(".notion_token"),
-                        permission);
-                out = tokenResource.openOutputStream();
-                out.write(token.getBytes());
-            } catch (Exception e) {
-                // Ignore
-            } finally {
-                if (out != null)
-                    out.close();
-            }
+            store.saveToken(permission, token);
         }
     }
 }
@@ -0,0 +1,206 @@
+package com.smartnote.server.export;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.smartnote.server.Config;
+import com.smartnote.server.Server;
+
+/**
+ * <p>
+ * The HTTP client used for all traffic to Notion. Creating a
+ * <code>HttpClient</code> starts a selector thread and a connection pool,
+ * and every connection made through a new client pays for its own TLS
+ * handshake. A single client is shared by all <code>NotionAPI</code>
+ * instances so connections are kept alive and reused between exports.
+ * </p>
+ *
+ * <p>
+ * The client prefers HTTP/2, which lets concurrent requests share a single
+ * connection. It is created on first use from the server's
+ * <code>NotionConfig</code>.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see NotionAPI
+ * @see NotionConfig
+ */
+public class NotionHttpClient {
+    private static NotionHttpClient instance;
+
+    /**
+     * Gets the shared client, creating it if needed.
+     *
+     * @return The shared client.
+     * @throws IOException If the client cannot be created.
+     */
+    public static synchronized NotionHttpClient getInstance() throws IOException {
+        if (instance == null) {
+            Config config = Server.getServer().getConfig();
+            instance = new NotionHttpClient(config == null ? new NotionConfig() : config.getNotionConfig());
+        }
+        return instance;
+    }
+
+    /**
+     * Connection statistics of the client. The client does not expose the
+     * connection a response was received on, so connections and their
+     * reuse are not counted; HTTP/2 responses share connections between
+     * concurrent requests.
+     *
+     * @param requests       Number of requests sent.
+     * @param failures       Number of requests that did not get a response.
+     * @param http2Responses Number of responses received over HTTP/2.
+     * @author Ethan Vrhel
+     */
+    public static record Statistics(long requests, long failures, long http2Responses) {
+    }
+
+    private final NotionConfig config;
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final Duration requestTimeout;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder http2Responses = new LongAdder();
+
+    /**
+     * Creates a new client. Most code should use <code>getInstance</code>.
+     *
+     * @param config The configuration.
+     * @throws IOException If the client cannot be created.
+     */
+    public NotionHttpClient(NotionConfig config) throws IOException {
+        this.config = config;
+
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(config.getHttpThreads(), r -> {
+            Thread t = new Thread(r, "notion-http-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.requestTimeout = Duration.ofSeconds(config.getRequestTimeout());
+
+        try {
+            this.client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(Duration.ofSeconds(config.getConnectTimeout()))
+                    .followRedirects(HttpClient.Redirect.NEVER)
+                    .executor(executor)
+                    .build();
+        } catch (UncheckedIOException e) {
+            executor.shutdown();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Creates a request builder for a URI with the request timeout applied.
+     *
+     * @param uri The URI.
+     * @return The request builder.
+     */
+    public HttpRequest.Builder newRequest(URI uri) {
+        return HttpRequest.newBuilder().uri(uri).timeout(requestTimeout);
+    }
+
+    /**
+     * Sends a request, blocking until the response is received.
+     *
+     * @param <T>     The response body type.
+     * @param request The request.
+     * @param handler The response body handler.
+     * @return The response.
+     * @throws IOException          If the request fails or times out.
+     * @throws InterruptedException If the request is interrupted.
+     */
+    public <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        requests.increment();
+
+        HttpResponse<T> response;
+        try {
+            response = client.send(request, handler);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            failures.increment();
+            throw e;
+        }
+
+        return received(response);
+    }
+
+    /**
+     * Sends a request without blocking.
+     *
+     * @param <T>     The response body type.
+     * @param request The request.
+     * @param handler The response body handler.
+     * @return Completes with the response, or exceptionally if the request
+     *         fails or times out.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> handler) {
+        requests.increment();
+
+        return client.sendAsync(request, handler).whenComplete((response, e) -> {
+            if (e != null)
+                failures.increment();
+        }).thenApply(this::received);
+    }
+
+    // records the protocol a response was received over
+    private <T> HttpResponse<T> received(HttpResponse<T> response) {
+        if (response.version() == HttpClient.Version.HTTP_2)
+            http2Responses.increment();
+
+        return response;
+    }
+
+    /**
+     * Gets the connection statistics of this client.
+     *
+     * @return The statistics.
+     */
+    public Statistics getStatistics() {
+        return new Statistics(requests.sum(), failures.sum(), http2Responses.sum());
+    }
+
+    /**
+     * Gets the underlying client.
+     *
+     * @return The client.
+     */
+    public HttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Gets the configuration this client was created with.
+     *
+     * @return The configuration.
+     */
+    public NotionConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Gets the maximum time to wait for a response.
+     *
+     * @return The request timeout.
+     */
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+}
@@ -0,0 +1,193 @@
+package com.smartnote.server.export;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>
+ * A token bucket that limits the rate of requests made with a Notion
+ * integration token. Notion allows an average of about three requests per
+ * second per integration and answers requests beyond that with
+ * <code>429 Too Many Requests</code>.
+ * </p>
+ *
+ * <p>
+ * Requests reserve a permit before they are sent. Reservations are made in
+ * order and each one is given the next free slot in the bucket, so callers
+ * waiting on the same limiter form a first-come, first-served queue. One
+ * limiter is shared by all exports using the same token. Asynchronous
+ * callers should wait for the time returned by <code>reserve</code>
+ * without holding a thread, rather than calling <code>acquire</code>.
+ * </p>
+ *
+ * <p>
+ * Shared limiters with a full bucket are removed once there are many of
+ * them. A removed limiter may still be held by an export, so it is retired
+ * under its own lock and passes later reservations to the limiter that
+ * replaced it; the two never give out permits at the same time.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see NotionAPI
+ */
+public class NotionRateLimiter {
+    // limiters with a full bucket are removed once there are this many
+    private static final int PURGE_THRESHOLD = 64;
+
+    // keyed by the hash of the token, so tokens are not kept in memory
+    private static final Map<String, NotionRateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the limiter shared by all requests made with a token, creating it
+     * if needed.
+     *
+     * @param token The integration token.
+     * @param rate  The number of requests allowed per second.
+     * @return The limiter.
+     */
+    public static NotionRateLimiter forToken(String token, double rate) {
+        if (LIMITERS.size() > PURGE_THRESHOLD) {
+            for (String key : LIMITERS.keySet())
+                LIMITERS.computeIfPresent(key, (k, limiter) -> limiter.retire() ? null : limiter);
+        }
+
+        return shared(keyOf(token), rate);
+    }
+
+    private static NotionRateLimiter shared(String key, double rate) {
+        return LIMITERS.computeIfAbsent(key,
+                k -> new NotionRateLimiter(k, rate, (int) Math.ceil(rate), System::nanoTime));
+    }
+
+    private static String keyOf(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final String key; // key in LIMITERS, null if not shared
+    private final double rate;
+    private final long interval; // nanoseconds per permit
+    private final int burst; // maximum number of stored permits
+    private final LongSupplier clock;
+
+    private double permits; // may be negative when permits are reserved ahead
+    private long last; // time permits were last updated
+    private long pausedUntil; // time before which no permits are given
+    private boolean retired; // removed from LIMITERS
+
+    /**
+     * Creates a new limiter.
+     *
+     * @param rate  The number of requests allowed per second. Must be
+     *              positive.
+     * @param burst The number of requests that may be sent at once after
+     *              the limiter has been idle. Must be positive.
+     * @param clock Source of the current time, in nanoseconds.
+     */
+    public NotionRateLimiter(double rate, int burst, LongSupplier clock) {
+        this(null, rate, burst, clock);
+    }
+
+    private NotionRateLimiter(String key, double rate, int burst, LongSupplier clock) {
+        if (rate <= 0)
+            throw new IllegalArgumentException("rate must be positive");
+        if (burst <= 0)
+            throw new IllegalArgumentException("burst must be positive");
+
+        this.key = key;
+        this.rate = rate;
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.burst = burst;
+        this.clock = clock;
+        this.last = clock.getAsLong();
+        this.permits = burst;
+        this.pausedUntil = last;
+    }
+
+    /**
+     * Reserves a permit, returning the time to wait before it may be used.
+     *
+     * @return The time to wait, in nanoseconds. Zero if the permit can be
+     *         used immediately.
+     */
+    public long reserve() {
+        synchronized (this) {
+            if (!retired) {
+                long now = clock.getAsLong();
+                refill(now);
+
+                permits--;
+
+                // permits are earned from the end of a pause
+                long wait = Math.max(0, pausedUntil - now);
+                if (permits < 0)
+                    wait += (long) (-permits * interval);
+                return wait;
+            }
+        }
+
+        return shared(key, rate).reserve();
+    }
+
+    /**
+     * Waits until a permit is available.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        long wait = reserve();
+        if (wait > 0)
+            TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    /**
+     * Stops giving out permits for a while. Used when Notion reports that
+     * the rate limit was exceeded, since other servers or clients may be
+     * using the same integration.
+     *
+     * @param nanos The time to pause for, in nanoseconds.
+     */
+    public void pause(long nanos) {
+        synchronized (this) {
+            if (!retired) {
+                long now = clock.getAsLong();
+                refill(now);
+
+                pausedUntil = Math.max(pausedUntil, now + nanos);
+
+                // only one request is sent when the pause ends
+                permits = Math.min(permits, 1);
+                return;
+            }
+        }
+
+        shared(key, rate).pause(nanos);
+    }
+
+    // retires the limiter if its bucket is full, called while it is being
+    // removed from LIMITERS
+    private synchronized boolean retire() {
+        long now = clock.getAsLong();
+        refill(now);
+        retired = permits >= burst && now >= pausedUntil;
+        return retired;
+    }
+
+    private void refill(long now) {
+        // permits are not earned while paused
+        long from = Math.max(last, pausedUntil);
+        if (now > from)
+            permits = Math.min(burst, permits + (double) (now - from) / interval);
+        last = Math.max(last, now);
+    }
+}
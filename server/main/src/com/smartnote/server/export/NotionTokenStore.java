@@ -0,0 +1,312 @@
+package com.smartnote.server.export;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Permission;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.smartnote.server.Config;
+import com.smartnote.server.Server;
+import com.smartnote.server.auth.SessionManager;
+import com.smartnote.server.auth.SessionPermission;
+import com.smartnote.server.export.NotionAPI.Page;
+import com.smartnote.server.resource.Resource;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.util.CryptoUtils;
+import com.smartnote.server.util.ExpiringCache;
+
+/**
+ * <p>
+ * Stores Notion access tokens and the pages available to them. Tokens are
+ * persisted in the session directory so they survive as long as the
+ * session, and are kept in memory so exports do not need to read them
+ * from disk. The pages available to a token are cached for a short time
+ * to avoid searching Notion on every export.
+ * </p>
+ *
+ * <p>
+ * Persisted tokens are encrypted with AES-GCM using a key derived from the
+ * integration secret. Tokens written by older versions of the server are
+ * stored in plain text; they are still read and are encrypted the next
+ * time they are loaded. If no secret is configured, tokens are only kept
+ * in memory.
+ * </p>
+ *
+ * <p>
+ * Both caches should be invalidated when Notion rejects a token, since the
+ * user may have revoked access to the integration.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see NotionExporter
+ */
+public class NotionTokenStore {
+    /**
+     * The name of the token file in the session directory.
+     */
+    public static final String TOKEN_FILE = ".notion_token";
+
+    // marks an encrypted token, followed by Base64 of IV and ciphertext
+    private static final String ENCRYPTED_PREFIX = "v1:";
+
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+
+    private static final Logger LOG = LoggerFactory.getLogger(NotionTokenStore.class);
+
+    private static NotionTokenStore instance;
+
+    /**
+     * Gets the shared store, creating it if needed.
+     *
+     * @return The shared store.
+     */
+    public static synchronized NotionTokenStore getInstance() {
+        if (instance == null) {
+            Config config = Server.getServer().getConfig();
+            NotionConfig notionConfig = config == null ? new NotionConfig() : config.getNotionConfig();
+            instance = new NotionTokenStore(TimeUnit.SECONDS.toMillis(SessionManager.SESSION_LENGTH),
+                    TimeUnit.SECONDS.toMillis(notionConfig.getPagesCacheTtl()), notionConfig.getSecret());
+        }
+        return instance;
+    }
+
+    private final ExpiringCache<String, String> tokens; // session ID to token
+    private final ExpiringCache<String, List<Page>> pages; // token to pages
+    private final SecretKeySpec key;
+
+    /**
+     * Creates a new store.
+     *
+     * @param tokenTtl How long unused tokens are kept in memory, in
+     *                 milliseconds.
+     * @param pagesTtl How long the pages available to a token are cached,
+     *                 in milliseconds.
+     * @param secret   The secret to derive the encryption key from, or
+     *                 <code>null</code> to not persist tokens.
+     */
+    public NotionTokenStore(long tokenTtl, long pagesTtl, String secret) {
+        this.tokens = new ExpiringCache<>(tokenTtl, true);
+        this.pages = new ExpiringCache<>(pagesTtl, false);
+        this.key = secret == null ? null : deriveKey(secret);
+    }
+
+    /**
+     * Loads the token of a session.
+     *
+     * @param permission The permission of the session.
+     * @return The token, or <code>null</code> if the session does not have
+     *         one.
+     */
+    public String loadToken(Permission permission) {
+        String id = sessionOf(permission);
+        if (id != null) {
+            String token = tokens.get(id);
+            if (token != null)
+                return token;
+        }
+
+        String stored = read(permission);
+        if (stored == null)
+            return null;
+
+        String token;
+        if (stored.startsWith(ENCRYPTED_PREFIX)) {
+            token = decrypt(stored);
+            if (token == null)
+                return null;
+        } else {
+            // written by an older version, encrypt it
+            token = stored;
+            write(permission, token);
+        }
+
+        if (id != null)
+            tokens.put(id, token);
+
+        return token;
+    }
+
+    /**
+     * Stores the token of a session.
+     *
+     * @param permission The permission of the session.
+     * @param token      The token.
+     */
+    public void saveToken(Permission permission, String token) {
+        String id = sessionOf(permission);
+        if (id != null)
+            tokens.put(id, token);
+
+        write(permission, token);
+    }
+
+    /**
+     * Forgets a token that Notion rejected, along with the pages available
+     * to it.
+     *
+     * @param permission The permission of the session.
+     * @param token      The rejected token.
+     */
+    public void invalidateToken(Permission permission, String token) {
+        String id = sessionOf(permission);
+        if (id != null)
+            tokens.invalidate(id, token);
+
+        pages.invalidate(token);
+
+        try {
+            Resource resource = tokenResource(permission);
+            if (resource.exists())
+                resource.delete();
+        } catch (Exception e) {
+            LOG.info("Failed to delete rejected Notion token: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the cached pages available to a token.
+     *
+     * @param token The token.
+     * @return The pages, or <code>null</code> if they are not cached.
+     */
+    public List<Page> getPages(String token) {
+        return pages.get(token);
+    }
+
+    /**
+     * Caches the pages available to a token.
+     *
+     * @param token The token.
+     * @param list  The pages.
+     */
+    public void putPages(String token, List<Page> list) {
+        pages.put(token, list);
+    }
+
+    /**
+     * Forgets the pages available to a token.
+     *
+     * @param token The token.
+     */
+    public void invalidatePages(String token) {
+        pages.invalidate(token);
+    }
+
+    /**
+     * Encrypts a token for storage.
+     *
+     * @param token The token.
+     * @return The encrypted token.
+     * @throws IllegalStateException If there is no key.
+     */
+    public String encrypt(String token) throws IllegalStateException {
+        if (key == null)
+            throw new IllegalStateException("No key to encrypt tokens with");
+
+        byte[] iv = new byte[IV_LENGTH];
+        CryptoUtils.randomBytes(iv);
+
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, iv));
+            byte[] ciphertext = cipher.doFinal(token.getBytes(StandardCharsets.UTF_8));
+
+            ByteBuffer buffer = ByteBuffer.allocate(iv.length + ciphertext.length);
+            buffer.put(iv).put(ciphertext);
+            return ENCRYPTED_PREFIX + Base64.getEncoder().encodeToString(buffer.array());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decrypts a stored token.
+     *
+     * @param stored The encrypted token.
+     * @return The token, or <code>null</code> if it cannot be decrypted,
+     *         such as if the secret has changed.
+     */
+    public String decrypt(String stored) {
+        if (key == null || !stored.startsWith(ENCRYPTED_PREFIX))
+            return null;
+
+        try {
+            byte[] data = Base64.getDecoder().decode(stored.substring(ENCRYPTED_PREFIX.length()));
+            if (data.length <= IV_LENGTH)
+                return null;
+
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, data, 0, IV_LENGTH));
+            byte[] plaintext = cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH);
+            return new String(plaintext, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    // reads the stored token, or null if there is none
+    private String read(Permission permission) {
+        try {
+            Resource resource = tokenResource(permission);
+            try (InputStream in = resource.openInputStream()) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // writes a token, if it can be encrypted
+    private void write(Permission permission, String token) {
+        if (key == null)
+            return;
+
+        try {
+            Resource resource = tokenResource(permission);
+            try (OutputStream out = resource.openOutputStream()) {
+                out.write(encrypt(token).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (Exception e) {
+            LOG.info("Failed to store Notion token: " + e.getMessage());
+        }
+    }
+
+    private static Resource tokenResource(Permission permission) throws IOException {
+        ResourceSystem resourceSystem = Server.getServer().getResourceSystem();
+        return resourceSystem.findActualResource(ResourceSystem.SESSION_AUTH, Paths.get(TOKEN_FILE), permission);
+    }
+
+    private static String sessionOf(Permission permission) {
+        if (permission instanceof SessionPermission sessionPermission && sessionPermission.getSession() != null)
+            return sessionPermission.getSession().getId();
+        return null;
+    }
+
+    private static SecretKeySpec deriveKey(String secret) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update("smartnote.notion-token".getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(secret.getBytes(StandardCharsets.UTF_8));
+            return new SecretKeySpec(digest.digest(), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package com.smartnote.server.export;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.smartnote.server.export.NotionAPI.AppendBlockResult;
+import com.smartnote.server.export.NotionAPI.CreatePageResult;
+import com.smartnote.server.format.notion.NotionBlock;
+import com.smartnote.server.util.JSONStreamable;
+
+/**
+ * <p>
+ * Uploads a tree of <code>NotionBlock</code>s to Notion. The Notion API
+ * rejects requests with more than {@value #MAX_CHILDREN} children in a
+ * single array or more than {@value #MAX_NESTING} levels of nesting, so
+ * the tree is split into batches that conform to these limits.
+ * </p>
+ *
+ * <p>
+ * A page is created with the first batch of blocks, and the remaining
+ * batches are streamed through <code>appendBlock</code>. Batches appended
+ * to the same parent are sent in order, and the next batch is serialized
+ * while the previous one is in flight. Batches are written directly into
+ * request bodies rather than built as a JSON tree. Blocks whose children do not fit
+ * in a single request are sent without their children, which are then
+ * uploaded under the newly created block. These subtrees are independent
+ * of each other and are uploaded concurrently.
+ * </p>
+ *
+ * <p>
+ * An upload records its <code>Progress</code>, so an upload that failed
+ * part way can be continued without creating the page again or
+ * duplicating blocks already on it.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see NotionAPI
+ * @see NotionExporter
+ */
+public class NotionUploader {
+    /**
+     * Maximum number of children in a single request.
+     */
+    public static final int MAX_CHILDREN = 100;
+
+    /**
+     * Maximum levels of nesting in a single request. The array of children
+     * of the request is the first level, so each block in it may only
+     * carry one more level of children.
+     */
+    public static final int MAX_NESTING = 2;
+
+    /**
+     * Number of threads used to upload blocks.
+     */
+    public static final int UPLOAD_THREADS = 4;
+
+    // shared by all uploads, only used to write batches; requests wait for
+    // rate limit permits without holding a thread
+    private static final ExecutorService EXECUTOR;
+
+    static {
+        AtomicInteger count = new AtomicInteger();
+        EXECUTOR = Executors.newFixedThreadPool(UPLOAD_THREADS, r -> {
+            Thread t = new Thread(r, "notion-upload-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * <p>
+     * How much of an upload Notion has applied. Blocks directly under the
+     * page are appended in order, so the blocks on the page are always the
+     * first <code>getUploaded</code> blocks of the tree.
+     * </p>
+     *
+     * <p>
+     * If a request fails without a response, Notion may or may not have
+     * applied it, and if children of an uploaded block fail, that block is
+     * incomplete. In both cases the upload cannot be continued.
+     * </p>
+     *
+     * @author Ethan Vrhel
+     */
+    public static final class Progress {
+        private volatile String pageId;
+        private volatile String pageUrl;
+        private final AtomicInteger uploaded;
+        private volatile boolean uncertain;
+
+        /**
+         * Creates the progress of an upload that has not started.
+         */
+        public Progress() {
+            this(null, 0);
+        }
+
+        /**
+         * Creates the progress of an upload to an existing page.
+         *
+         * @param pageId   The ID of the page.
+         * @param uploaded The number of blocks of the tree already on the
+         *                 page.
+         */
+        public Progress(String pageId, int uploaded) {
+            this.pageId = pageId;
+            this.uploaded = new AtomicInteger(uploaded);
+        }
+
+        /**
+         * Gets the page the blocks are uploaded to.
+         *
+         * @return The ID of the page, or <code>null</code> if it has not
+         *         been created.
+         */
+        public String getPageId() {
+            return pageId;
+        }
+
+        /**
+         * Gets the URL of the page, if it was created by this upload.
+         *
+         * @return The URL, or <code>null</code>.
+         */
+        public String getPageUrl() {
+            return pageUrl;
+        }
+
+        /**
+         * Gets the number of blocks of the tree that are on the page, along
+         * with their children.
+         *
+         * @return The number of blocks.
+         */
+        public int getUploaded() {
+            return uploaded.get();
+        }
+
+        /**
+         * Checks whether the upload can be continued from
+         * <code>getUploaded</code>.
+         *
+         * @return <code>false</code> if Notion may have applied part of
+         *         the upload that is not counted.
+         */
+        public boolean canContinue() {
+            return !uncertain;
+        }
+    }
+
+    /**
+     * Checks if a block and all of its children can be sent in a single
+     * request.
+     *
+     * @param block The block.
+     * @return <code>true</code> if the block fits in a single request.
+     */
+    public static boolean fits(NotionBlock block) {
+        return fits(block, MAX_NESTING - 1);
+    }
+
+    private static boolean fits(NotionBlock block, int levels) {
+        List<NotionBlock> children = block.getChildren();
+        if (children.size() == 0)
+            return true;
+
+        if (levels == 0 || children.size() > MAX_CHILDREN)
+            return false;
+
+        for (NotionBlock child : children) {
+            if (!fits(child, levels - 1))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes a batch of blocks as the array of children of a request.
+     * Blocks that do not fit in the request are written without their
+     * children.
+     *
+     * @param batch The blocks. Must not have more than
+     *              {@value #MAX_CHILDREN} blocks.
+     * @return Writes a JSON array of the blocks.
+     */
+    public static JSONStreamable children(List<NotionBlock> batch) {
+        return writer -> {
+            writer.beginArray();
+            for (NotionBlock block : batch)
+                block.writeJSON(writer, fits(block) ? MAX_NESTING - 1 : 0);
+            writer.endArray();
+        };
+    }
+
+    private final NotionAPI api;
+    private final Executor executor;
+
+    /**
+     * Creates a new uploader.
+     *
+     * @param api The Notion API to upload with. Must be authenticated.
+     */
+    public NotionUploader(NotionAPI api) {
+        this.api = api;
+        this.executor = EXECUTOR;
+    }
+
+    /**
+     * Create a page from a block tree. The page is created with as many
+     * blocks as can be sent in a single request and the rest are appended
+     * to it.
+     *
+     * @param name     The name of the page.
+     * @param parentId The ID of the parent page.
+     * @param root     The root block. Its children become the content of
+     *                 the page.
+     * @param progress Records the progress of the upload. Must not have
+     *                 started.
+     * @return The result of creating the page.
+     * @throws IOException                        If a request fails.
+     * @throws InterruptedException               If the upload is interrupted.
+     * @throws ExportServiceUnavailableException If Notion rejects a request.
+     */
+    public CreatePageResult createPage(String name, String parentId, NotionBlock root, Progress progress)
+            throws IOException, InterruptedException, ExportServiceUnavailableException {
+        List<NotionBlock> blocks = root.getChildren();
+
+        // the page response does not include the IDs of its children, so
+        // only blocks that fit entirely can be sent with the page
+        int first = 0;
+        while (first < blocks.size() && first < MAX_CHILDREN && fits(blocks.get(first)))
+            first++;
+
+        CreatePageResult result;
+        try {
+            result = api.createPage(name, parentId, children(blocks.subList(0, first)));
+        } catch (IOException | InterruptedException e) {
+            if (!NotionAPI.isUnsent(e))
+                progress.uncertain = true;
+            throw e;
+        }
+
+        if (!result.success())
+            throw new ExportServiceUnavailableException(result.message, result.isTransient());
+
+        progress.pageId = result.id;
+        progress.pageUrl = result.url;
+        progress.uploaded.set(first);
+
+        await(appendChildren(result.id, blocks.subList(first, blocks.size()), progress, true));
+        return result;
+    }
+
+    /**
+     * Create a page from a block tree.
+     *
+     * @param name     The name of the page.
+     * @param parentId The ID of the parent page.
+     * @param root     The root block. Its children become the content of
+     *                 the page.
+     * @return The result of creating the page.
+     * @throws IOException                        If a request fails.
+     * @throws InterruptedException               If the upload is interrupted.
+     * @throws ExportServiceUnavailableException If Notion rejects a request.
+     * @see #createPage(String, String, NotionBlock, Progress)
+     */
+    public CreatePageResult createPage(String name, String parentId, NotionBlock root)
+            throws IOException, InterruptedException, ExportServiceUnavailableException {
+        return createPage(name, parentId, root, new Progress());
+    }
+
+    /**
+     * Append a block tree to an existing page, continuing an upload.
+     * Blocks the progress counts as uploaded are skipped.
+     *
+     * @param root     The root block. Its children are appended.
+     * @param progress The progress of the upload, with the page to append
+     *                 to.
+     * @throws IOException                        If a request fails.
+     * @throws InterruptedException               If the upload is interrupted.
+     * @throws ExportServiceUnavailableException If Notion rejects a request.
+     */
+    public void append(NotionBlock root, Progress progress)
+            throws IOException, InterruptedException, ExportServiceUnavailableException {
+        List<NotionBlock> blocks = root.getChildren();
+        int from = Math.min(progress.getUploaded(), blocks.size());
+        await(appendChildren(progress.getPageId(), blocks.subList(from, blocks.size()), progress, true));
+    }
+
+    /**
+     * Append a block tree to an existing block.
+     *
+     * @param blockId The ID of the block to append to.
+     * @param root    The root block. Its children are appended.
+     * @throws IOException                        If a request fails.
+     * @throws InterruptedException               If the upload is interrupted.
+     * @throws ExportServiceUnavailableException If Notion rejects a request.
+     */
+    public void append(String blockId, NotionBlock root)
+            throws IOException, InterruptedException, ExportServiceUnavailableException {
+        append(root, new Progress(blockId, 0));
+    }
+
+    // appends blocks to a parent in batches, top is set for blocks directly
+    // under the page
+    private CompletableFuture<Void> appendChildren(String parentId, List<NotionBlock> blocks, Progress progress,
+            boolean top) {
+        List<List<NotionBlock>> batches = new ArrayList<>();
+        for (int i = 0; i < blocks.size(); i += MAX_CHILDREN)
+            batches.add(blocks.subList(i, Math.min(i + MAX_CHILDREN, blocks.size())));
+
+        if (batches.size() == 0)
+            return CompletableFuture.completedFuture(null);
+
+        JSONBodyPublisher body;
+        try {
+            body = NotionAPI.appendBody(children(batches.get(0)));
+        } catch (IOException e) {
+            if (!top)
+                progress.uncertain = true;
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return appendBatch(parentId, batches, 0, body, progress, top);
+    }
+
+    // sends one batch, then the remaining batches and deferred subtrees
+    private CompletableFuture<Void> appendBatch(String parentId, List<List<NotionBlock>> batches, int index,
+            JSONBodyPublisher body, Progress progress, boolean top) {
+        List<NotionBlock> batch = batches.get(index);
+        CompletableFuture<AppendBlockResult> inFlight = send(parentId, body).whenComplete((result, e) -> {
+            if (e == null) {
+                if (top)
+                    progress.uploaded.addAndGet(batch.size());
+            } else if (!top || !isUnapplied(e)) {
+                // the parent of the batch is missing children, or the
+                // batch may have been applied
+                progress.uncertain = true;
+            }
+        });
+
+        // serialize the next batch while this one is in flight
+        JSONBodyPublisher next;
+        try {
+            next = index + 1 < batches.size() ? NotionAPI.appendBody(children(batches.get(index + 1))) : null;
+        } catch (IOException e) {
+            // children of this batch are not uploaded either
+            progress.uncertain = true;
+            return inFlight.thenCompose(result -> CompletableFuture.failedFuture(e));
+        }
+
+        // the next batches are written on the upload threads
+        return inFlight.thenComposeAsync(result -> {
+            if (result.ids.size() != batch.size()) {
+                progress.uncertain = true;
+                throw new CompletionException(new ExportServiceUnavailableException("Unexpected append result", false));
+            }
+
+            List<CompletableFuture<Void>> pending = new ArrayList<>();
+
+            // children that were left out are uploaded under their new parent
+            for (int i = 0; i < batch.size(); i++) {
+                NotionBlock block = batch.get(i);
+                if (!fits(block))
+                    pending.add(appendChildren(result.ids.get(i), block.getChildren(), progress, false));
+            }
+
+            if (next != null)
+                pending.add(appendBatch(parentId, batches, index + 1, next, progress, top));
+
+            return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]));
+        }, executor);
+    }
+
+    // sends a request, failing if it was not successful
+    private CompletableFuture<AppendBlockResult> send(String parentId, JSONBodyPublisher body) {
+        return api.appendBlockAsync(parentId, body).thenApply(result -> {
+            if (!result.success())
+                throw new CompletionException(new ExportServiceUnavailableException(result.message, result.isTransient()));
+            return result;
+        });
+    }
+
+    // checks if a failed request was not applied by Notion, either because
+    // it was not sent or because Notion answered with an error
+    private static boolean isUnapplied(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null)
+            e = e.getCause();
+        return e instanceof ExportServiceUnavailableException || NotionAPI.isUnsent(e);
+    }
+
+    // waits for an upload to finish and rethrows its failure
+    private static void await(CompletableFuture<Void> future)
+            throws IOException, InterruptedException, ExportServiceUnavailableException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioe)
+                throw ioe;
+            if (cause instanceof InterruptedException ie)
+                throw ie;
+            if (cause instanceof ExportServiceUnavailableException eue)
+                throw eue;
+            if (cause instanceof RuntimeException re)
+                throw re;
+            throw new IOException(cause);
+        }
+    }
+}
@@ -1,11 +1,74 @@
 package com.smartnote.server.export;
 
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.security.Permission;
+import java.util.Set;
+
+import com.google.gson.JsonObject;
+
 /**
  * <p>Exports to a remote location.</p>
  * 
+ * <p>Remote exports are queued and may run more than once, so anything
+ * that can only be done once, such as exchanging an authorization code,
+ * is done by <code>prepare</code> before the export is queued. Remote
+ * options holding credentials are named by <code>getCredentials</code>
+ * so they are never written to disk with the queued export.</p>
+ * 
  * @author Ethan Vrhel
  * @see Exporter
+ * @see ExportOutbox
  */
 public interface RemoteExporter extends Exporter {
-    
+
+    /**
+     * Exports, recording progress as it goes. By default, progress is
+     * not recorded.
+     * 
+     * @param options The export options.
+     * @param permission The permission of the session exporting.
+     * @param progress Where to record progress, or <code>null</code>.
+     * @return The result of the export.
+     * @throws SecurityException If the user does not have permission.
+     * @throws InvalidPathException If the output path is invalid.
+     * @throws IOException If an I/O error occurs.
+     * @throws ExportException If an error occurs during export.
+     * @throws MalformedExportOptionsException If the export options are
+     *                                         invalid.
+     * @see #export(ExportOptions, Permission)
+     */
+    default JsonObject export(ExportOptions options, Permission permission, ExportProgress progress)
+            throws SecurityException, InvalidPathException, IOException, ExportException,
+            MalformedExportOptionsException {
+        return export(options, permission);
+    }
+
+    /**
+     * Prepares an export to be queued. By default, the remote options are
+     * queued unchanged.
+     * 
+     * @param options The export options.
+     * @param permission The permission of the session exporting.
+     * @return The remote options to queue, or <code>null</code> if there
+     *         are none.
+     * @throws IOException If an I/O error occurs.
+     * @throws ExportException If the remote location cannot be reached.
+     * @throws MalformedExportOptionsException If the remote options are
+     *                                         invalid.
+     */
+    default JsonObject prepare(ExportOptions options, Permission permission)
+            throws IOException, ExportException, MalformedExportOptionsException {
+        return options.getRemote();
+    }
+
+    /**
+     * Gets the names of the remote options that hold credentials. By
+     * default, there are none.
+     * 
+     * @return The names of the options.
+     */
+    default Set<String> getCredentials() {
+        return Set.of();
+    }
 }
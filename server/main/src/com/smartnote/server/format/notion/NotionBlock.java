@@ -1,28 +1,35 @@
 package com.smartnote.server.format.notion;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import com.smartnote.server.format.Style;
-import com.smartnote.server.util.JSONObjectSerializable;
+import com.smartnote.server.util.JSONStreamable;
 
 /**
  * <p>
  * Represents a block in Notion's internal format.
  * </p>
  * 
+ * <p>
+ * Blocks are written directly to a <code>JsonWriter</code> in the layout
+ * expected by the Notion API, without building a JSON tree.
+ * </p>
+ * 
  * @author Ethan Vrhel
  */
-public class NotionBlock implements JSONObjectSerializable {
+public class NotionBlock implements JSONStreamable {
     private String type;
 
     private List<RichText> richText;
     private List<NotionBlock> children;
 
-    private JsonObject more;
+    private Map<String, String> properties;
 
     /**
      * Create a new block.
@@ -34,7 +41,7 @@ public class NotionBlock implements JSONObjectSerializable {
         this.type = type;
         this.richText = new ArrayList<>();
         this.children = new ArrayList<>();
-        this.more = new JsonObject();
+        this.properties = new LinkedHashMap<>();
     }
 
     public NotionBlock addRichText(RichText richText) {
@@ -125,9 +132,7 @@ public class NotionBlock implements JSONObjectSerializable {
         if (richText.size() == 0)
             return null;
 
-        JsonObject textObject = richText.get(0).writeJSON();
-        JsonObject textDataObject = textObject.getAsJsonObject("text");
-        return textDataObject.get("content").getAsString();
+        return richText.get(0).getLiteral();
     }
 
     /**
@@ -146,54 +151,81 @@ public class NotionBlock implements JSONObjectSerializable {
      * @param value The value.
      */
     public void addProperty(String key, String value) {
-        more.addProperty(key, value);
+        properties.put(key, value);
     }
 
-    @Override
-    public void loadJSON(JsonObject json) throws UnsupportedOperationException {
-        throw new UnsupportedOperationException("Cannot load JSON into NotionBlock");
+    /**
+     * Returns an additional property of the block.
+     * 
+     * @param key The key.
+     * @return The value, or <code>null</code> if the property is not set.
+     */
+    public String getProperty(String key) {
+        return properties.get(key);
     }
 
     @Override
-    public JsonObject writeJSON(JsonObject json) {
-        JsonObject objectData = createObjectData();
-        if (type == null) // represents the root block
-            return objectData;
+    public void writeJSON(JsonWriter writer) throws IOException {
+        writeJSON(writer, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes the block, only including children up to a certain depth. A
+     * depth of <code>0</code> writes the block without any children. The
+     * root block is written as its object data.
+     * 
+     * @param writer The writer.
+     * @param depth  The maximum number of levels of children to include.
+     * @throws IOException If the writer fails.
+     */
+    public void writeJSON(JsonWriter writer, int depth) throws IOException {
+        if (type == null) { // represents the root block
+            writeObjectData(writer, depth);
+            return;
+        }
+
+        writer.beginObject();
 
         // add object and type
-        json.addProperty("object", "block");
-        json.addProperty("type", type);
+        writer.name("object").value("block");
+        writer.name("type").value(type);
+
+        // only add object data if it has data
+        if (hasObjectData(depth)) {
+            writer.name(type);
+            writeObjectData(writer, depth);
+        }
 
-        // only add objectData if it has data
-        if (objectData.size() > 0)
-            json.add(type, objectData);
+        writer.endObject();
+    }
 
-        return json;
+    private boolean hasObjectData(int depth) {
+        return richText.size() > 0 || (children.size() > 0 && depth > 0) || properties.size() > 0;
     }
 
-    private JsonObject createObjectData() {
-        JsonObject json = new JsonObject();
+    private void writeObjectData(JsonWriter writer, int depth) throws IOException {
+        writer.beginObject();
 
         // add rich text
         if (richText.size() > 0) {
-            JsonArray richTextArray = new JsonArray();
+            writer.name("rich_text").beginArray();
             for (RichText text : richText)
-                richTextArray.add(text.writeJSON());
-            json.add("rich_text", richTextArray);
+                text.writeJSON(writer);
+            writer.endArray();
         }
 
         // add children
-        if (children.size() > 0) {
-            JsonArray childrenArray = new JsonArray();
+        if (children.size() > 0 && depth > 0) {
+            writer.name("children").beginArray();
             for (NotionBlock child : children)
-                childrenArray.add(child.writeJSON());
-            json.add("children", childrenArray);
+                child.writeJSON(writer, depth - 1);
+            writer.endArray();
         }
 
         // add additional properties
-        for (String key : more.keySet())
-            json.add(key, more.get(key));
+        for (Map.Entry<String, String> property : properties.entrySet())
+            writer.name(property.getKey()).value(property.getValue());
 
-        return json;
+        writer.endObject();
     }
-}
\ No newline at end of file
+}
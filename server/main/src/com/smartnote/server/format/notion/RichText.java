@@ -2,9 +2,12 @@ package com.smartnote.server.format.notion;
 
 import static com.smartnote.server.util.JSONUtil.*;
 
+import java.io.IOException;
+
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import com.smartnote.server.format.Style;
-import com.smartnote.server.util.JSONObjectSerializable;
+import com.smartnote.server.util.JSONStreamable;
 
 /**
  * <p>
@@ -14,7 +17,7 @@ import com.smartnote.server.util.JSONObjectSerializable;
  * @author Ethan Vrhel
  * @see NotionBlock
  */
-public final class RichText implements JSONObjectSerializable {
+public final class RichText implements JSONStreamable {
     private String literal;
     private Style style;
 
@@ -63,7 +66,11 @@ public final class RichText implements JSONObjectSerializable {
         return style;
     }
 
-    @Override
+    /**
+     * Loads the rich text from a Notion rich text object.
+     * 
+     * @param json The object.
+     */
     public void loadJSON(JsonObject json) {
         this.literal = "";
         this.style = new Style();
@@ -97,41 +104,33 @@ public final class RichText implements JSONObjectSerializable {
     }
 
     @Override
-    public JsonObject writeJSON(JsonObject json) {
-        json.addProperty("type", "text");
-
-        JsonObject textDataObject = new JsonObject();
-        textDataObject.addProperty("content", literal);
-
-        if (style.link() != null) {
-            // JsonObject linkObject = new JsonObject();
-            // linkObject.addProperty("url", style.link());
-            textDataObject.addProperty("link", style.link());
-        }
+    public void writeJSON(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("type").value("text");
 
-        json.add("text", textDataObject);
+        writer.name("text").beginObject();
+        writer.name("content").value(literal);
+        if (style.link() != null)
+            writer.name("link").value(style.link());
+        writer.endObject();
 
         // add annotations
-        JsonObject annotations = new JsonObject();
-        if (style.bold())
-            annotations.addProperty("bold", true);
-
-        if (style.italic())
-            annotations.addProperty("italic", true);
-
-        if (style.strikethrough())
-            annotations.addProperty("strikethrough", true);
-
-        if (style.underline())
-            annotations.addProperty("underline", true);
-
-        if (style.code())
-            annotations.addProperty("code", true);
-
-        if (annotations.size() > 0)
-            json.add("annotations", annotations);
+        if (style.bold() || style.italic() || style.strikethrough() || style.underline() || style.code()) {
+            writer.name("annotations").beginObject();
+            if (style.bold())
+                writer.name("bold").value(true);
+            if (style.italic())
+                writer.name("italic").value(true);
+            if (style.strikethrough())
+                writer.name("strikethrough").value(true);
+            if (style.underline())
+                writer.name("underline").value(true);
+            if (style.code())
+                writer.name("code").value(true);
+            writer.endObject();
+        }
 
-        return json;
+        writer.endObject();
     }
 
     @Override
@@ -0,0 +1,229 @@
+package com.smartnote.server.resource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.smartnote.server.util.CryptoUtils;
+
+/**
+ * <p>
+ * Stores the contents of session files once, by their SHA-256 hash. A
+ * session file with the same contents as another is a hard link to the
+ * same blob, so identical uploads from many sessions take the space of
+ * one. Links are transparent to everything reading the session file.
+ * </p>
+ *
+ * <p>
+ * The file system counts the links to each blob. A blob whose only link
+ * is the one in the store is no longer used by any session, and is
+ * removed by <code>purge</code>. Writes to a linked session file first
+ * give it its own copy, see <code>FileResource</code>.
+ * </p>
+ *
+ * <p>
+ * Blobs are kept under <code>blobs/</code> in the private directory,
+ * sharded by the first two characters of the hash. Hard links only work
+ * within one file system, so files are moved into place as before when
+ * the private and session directories are on different ones.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see ResourceSystem#getBlobStore()
+ */
+public class BlobStore {
+    /**
+     * The directory within the private directory holding blobs.
+     */
+    public static final String BLOB_DIR = "blobs";
+
+    /**
+     * The algorithm used to hash blobs.
+     */
+    public static final String ALGORITHM = "SHA-256";
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlobStore.class);
+
+    // length of the random part of temporary link names
+    private static final int TEMP_ID_LENGTH = 8;
+
+    // blobs this new may not be linked yet, so are never purged
+    private static final long GRACE_PERIOD = TimeUnit.MINUTES.toMillis(10);
+
+    private static final boolean SUPPORTED = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    /**
+     * Checks if the platform can count the links to a file, which the
+     * store needs to know when a blob is no longer used.
+     *
+     * @return <code>true</code> if blobs can be stored.
+     */
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * Creates a digest for hashing contents as they are written.
+     *
+     * @return The digest.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Gets the number of links to a file.
+     *
+     * @param path The file.
+     * @return The number of links.
+     * @throws IOException If the file could not be read.
+     */
+    public static int getLinkCount(Path path) throws IOException {
+        return (Integer) Files.getAttribute(path, "unix:nlink");
+    }
+
+    private final Path root;
+
+    /**
+     * Creates a new blob store.
+     *
+     * @param root The directory holding blobs.
+     */
+    public BlobStore(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Gets the directory holding blobs.
+     *
+     * @return The directory.
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Gets the path of a blob. The blob may not exist.
+     *
+     * @param digest The SHA-256 hash of the blob.
+     * @return The path.
+     */
+    public Path getBlobPath(byte[] digest) {
+        String hash = HexFormat.of().formatHex(digest);
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    /**
+     * Moves a file into the store and replaces <code>target</code> with a
+     * link to it. If a blob with the same hash is already stored, the file
+     * is deleted and the existing blob is linked instead.
+     *
+     * @param source The file to store. It no longer exists afterwards.
+     * @param digest The SHA-256 hash of the file.
+     * @param target The file to link to the blob.
+     * @return <code>true</code> if the blob was already stored.
+     * @throws AtomicMoveNotSupportedException If the file is on another
+     *                                         file system than the store.
+     *                                         Nothing was changed.
+     * @throws IOException                     If the file could not be
+     *                                         stored or linked.
+     */
+    public boolean store(Path source, byte[] digest, Path target)
+            throws AtomicMoveNotSupportedException, IOException {
+        Path blob = getBlobPath(digest);
+        Files.createDirectories(blob.getParent());
+        Files.createDirectories(target.getParent());
+
+        // link next to the target, then replace the target in one step
+        Path temp = target.resolveSibling("." + target.getFileName() + "." + CryptoUtils.randomString(TEMP_ID_LENGTH)
+                + ".link");
+
+        boolean existed;
+        while (true) {
+            // a rename would replace an existing blob, splitting its links
+            existed = Files.exists(blob);
+            if (!existed)
+                Files.move(source, blob, StandardCopyOption.ATOMIC_MOVE);
+
+            try {
+                Files.createLink(temp, blob);
+                break;
+            } catch (NoSuchFileException e) {
+                // the blob was purged before it could be linked
+                if (!existed)
+                    throw e;
+            } catch (UnsupportedOperationException e) {
+                // the file system has no hard links, so the target gets its
+                // own copy
+                Files.copy(blob, temp);
+                break;
+            }
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        if (existed)
+            Files.deleteIfExists(source);
+
+        return existed;
+    }
+
+    /**
+     * Removes every blob no session links to. Blobs stored in the last
+     * few minutes are kept, as they may be about to be linked.
+     *
+     * @return The number of blobs removed.
+     */
+    public int purge() {
+        if (!Files.isDirectory(root))
+            return 0;
+
+        List<Path> blobs;
+        try (Stream<Path> stream = Files.walk(root, 2)) {
+            blobs = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            LOG.error("Failed to list blobs", e);
+            return 0;
+        }
+
+        long cutoff = System.currentTimeMillis() - GRACE_PERIOD;
+        int count = 0;
+        for (Path blob : blobs) {
+            try {
+                if (getLinkCount(blob) == 1 && Files.getLastModifiedTime(blob).toMillis() < cutoff) {
+                    Files.delete(blob);
+                    count++;
+                }
+            } catch (IOException e) {
+                LOG.error("Failed to remove blob " + blob.getFileName(), e);
+            }
+        }
+
+        if (count > 0)
+            LOG.info("Removed " + count + " unused blobs");
+        return count;
+    }
+}
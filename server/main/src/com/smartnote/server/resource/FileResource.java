@@ -6,9 +6,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Objects;
+import java.util.Set;
 
 import com.smartnote.server.util.FileUtils;
 
@@ -17,6 +24,12 @@ import com.smartnote.server.util.FileUtils;
  * Represents a file resource.
  * </p>
  * 
+ * <p>
+ * The file may be a link to a blob in the <code>BlobStore</code>. It is
+ * read like any other file, and is given its own copy before it is
+ * written, so the other links are unchanged.
+ * </p>
+ * 
  * @author Ethan Vrhel
  * @see com.smartnote.server.resource.Resource
  */
@@ -48,15 +61,61 @@ class FileResource implements Resource {
     public OutputStream openOutputStream() throws SecurityException, IOException {
         mode.checkWrite();
         Files.createDirectories(file.getParentFile().toPath());
+        unshare(false);
         return new FileOutputStream(file);
     }
 
+    @Override
+    public SeekableByteChannel openChannel(OpenOption... options) throws SecurityException, IOException {
+        Set<OpenOption> set = Set.of(options);
+        boolean write = set.contains(StandardOpenOption.WRITE) || set.contains(StandardOpenOption.APPEND);
+        if (write) {
+            mode.checkWrite();
+            Files.createDirectories(file.getParentFile().toPath());
+            unshare(!set.contains(StandardOpenOption.TRUNCATE_EXISTING));
+        } else {
+            mode.checkRead();
+            checkExists();
+        }
+
+        return FileChannel.open(file.toPath(), options);
+    }
+
+    @Override
+    public MappedByteBuffer map(long offset, long length) throws SecurityException, IOException {
+        mode.checkRead();
+        Resource.checkRange(offset, length, checkExists().length());
+
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+    }
+
     @Override
     public void delete() throws SecurityException, IOException {
         mode.checkDelete();
         checkExists().delete();
     }
 
+    @Override
+    public void moveTo(Resource target) throws SecurityException, IOException {
+        if (!(target instanceof FileResource)) {
+            Resource.super.moveTo(target);
+            return;
+        }
+
+        mode.checkRead();
+        mode.checkDelete();
+        FileResource file = (FileResource) target;
+        file.mode.checkWrite();
+
+        checkExists();
+        Files.createDirectories(file.file.getParentFile().toPath());
+        Files.move(this.file.toPath(), file.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
     @Override
     public long size() throws SecurityException, IOException {
         mode.checkRead();
@@ -68,6 +127,12 @@ class FileResource implements Resource {
         return file.length();
     }
 
+    @Override
+    public long lastModified() throws SecurityException, IOException {
+        mode.checkRead();
+        return Files.getLastModifiedTime(checkExists().toPath()).toMillis();
+    }
+
     @Override
     public Path getPath() {
         return file.toPath();
@@ -89,6 +154,23 @@ class FileResource implements Resource {
         return file.toString();
     }
 
+    // a file linked to a blob shares its contents with other sessions, so
+    // it is given its own copy before it is written
+    private void unshare(boolean keepContents) throws IOException {
+        Path path = file.toPath();
+        if (!BlobStore.isSupported() || !Files.isRegularFile(path) || BlobStore.getLinkCount(path) == 1)
+            return;
+
+        if (!keepContents) {
+            Files.delete(path);
+            return;
+        }
+
+        Path copy = path.resolveSibling("." + path.getFileName() + ".copy");
+        Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(copy, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
     private File checkExists() throws NoSuchResourceException {
         if (!file.exists())
             throw new NoSuchResourceException(file.getName());
@@ -0,0 +1,384 @@
+package com.smartnote.server.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>
+ * A resource whose contents are held in a <code>MemoryStore</code>, in
+ * front of a resource on the disk. Reads, and writes small enough to be
+ * held, are served from memory; everything else goes to the file.
+ * </p>
+ *
+ * <p>
+ * Channels that can write, moves, and <code>getPath</code> write the
+ * contents to the file first and drop them from memory, since they work
+ * on the file directly.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see MemoryStore
+ */
+class MemoryResource implements Resource {
+    private final MemoryStore store;
+    private final Resource file;
+    private final Path path;
+    private final AccessMode mode;
+
+    /**
+     * Creates a new memory resource.
+     *
+     * @param store The store holding the contents.
+     * @param file  The resource on the disk.
+     * @param path  The path of the resource.
+     * @param mode  The access mode.
+     */
+    MemoryResource(MemoryStore store, Resource file, Path path, AccessMode mode) {
+        this.store = Objects.requireNonNull(store, "store must not be null");
+        this.file = Objects.requireNonNull(file, "file must not be null");
+        this.path = Objects.requireNonNull(path, "path must not be null");
+        this.mode = Objects.requireNonNull(mode, "mode must not be null");
+    }
+
+    // the contents held in memory, loading them if needed
+    private ByteBuffer[] views() {
+        MemoryStore.Entry entry = store.load(path, file);
+        return entry == null ? null : entry.views();
+    }
+
+    @Override
+    public InputStream openInputStream() throws SecurityException, IOException {
+        mode.checkRead();
+
+        ByteBuffer[] views = views();
+        if (views == null)
+            return file.openInputStream();
+        return new SegmentInputStream(views);
+    }
+
+    @Override
+    public OutputStream openOutputStream() throws SecurityException, IOException {
+        mode.checkWrite();
+        return new SegmentOutputStream();
+    }
+
+    @Override
+    public SeekableByteChannel openReadChannel() throws SecurityException, IOException {
+        mode.checkRead();
+
+        ByteBuffer[] views = views();
+        if (views == null)
+            return file.openReadChannel();
+        return new SegmentChannel(views);
+    }
+
+    @Override
+    public SeekableByteChannel openChannel(OpenOption... options) throws SecurityException, IOException {
+        store.evict(path);
+        return file.openChannel(options);
+    }
+
+    @Override
+    public ByteBuffer map(long offset, long length) throws SecurityException, IOException {
+        mode.checkRead();
+
+        ByteBuffer[] views = views();
+        if (views == null)
+            return file.map(offset, length);
+        Resource.checkRange(offset, length, MemoryStore.size(views));
+
+        // within one segment, the segment itself is returned
+        int index = (int) (offset / MemoryStore.SEGMENT_SIZE);
+        int start = (int) (offset % MemoryStore.SEGMENT_SIZE);
+        if (index < views.length && start + length <= views[index].limit())
+            return views[index].position(start).limit((int) (start + length)).slice();
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        for (int i = index; buffer.hasRemaining(); i++, start = 0) {
+            ByteBuffer view = views[i].position(start);
+            view.limit(Math.min(view.limit(), start + buffer.remaining()));
+            buffer.put(view);
+        }
+        return buffer.flip().asReadOnlyBuffer();
+    }
+
+    @Override
+    public void delete() throws SecurityException, IOException {
+        mode.checkDelete();
+
+        // directories holding contents not written yet are not empty
+        store.flushUnder(path);
+
+        boolean held = store.remove(path);
+        if (file.exists())
+            file.delete();
+        else if (!held)
+            throw new NoSuchResourceException(getName());
+    }
+
+    @Override
+    public void moveTo(Resource target) throws SecurityException, IOException {
+        mode.checkRead();
+        mode.checkDelete();
+        store.evict(path);
+
+        if (target instanceof MemoryResource) {
+            MemoryResource memory = (MemoryResource) target;
+            memory.mode.checkWrite();
+            memory.store.remove(memory.path);
+            file.moveTo(memory.file);
+        } else
+            file.moveTo(target);
+    }
+
+    @Override
+    public long lastModified() throws SecurityException, IOException {
+        mode.checkRead();
+
+        MemoryStore.Entry entry = store.get(path);
+        long modified = entry == null ? -1 : entry.modified();
+        return modified == -1 ? file.lastModified() : modified;
+    }
+
+    @Override
+    public long size() throws SecurityException, IOException {
+        mode.checkRead();
+
+        MemoryStore.Entry entry = store.get(path);
+        long size = entry == null ? -1 : entry.size();
+        return size == -1 ? file.size() : size;
+    }
+
+    @Override
+    public boolean exists() throws SecurityException, IOException {
+        mode.checkRead();
+
+        MemoryStore.Entry entry = store.get(path);
+        return (entry != null && entry.size() != -1) || file.exists();
+    }
+
+    @Override
+    public String getName() {
+        return file.getName();
+    }
+
+    @Override
+    public Path getPath() throws SecurityException, UnsupportedOperationException {
+        // the caller uses the file directly
+        try {
+            store.evict(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return file.getPath();
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+
+    // reads a snapshot of the segments
+    private static class SegmentInputStream extends InputStream {
+        private final ByteBuffer[] segments;
+        private int index;
+
+        SegmentInputStream(ByteBuffer[] segments) {
+            this.segments = segments;
+        }
+
+        private ByteBuffer current() {
+            while (index < segments.length && !segments[index].hasRemaining())
+                index++;
+            return index < segments.length ? segments[index] : null;
+        }
+
+        @Override
+        public int read() {
+            ByteBuffer segment = current();
+            return segment == null ? -1 : segment.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+
+            ByteBuffer segment = current();
+            if (segment == null)
+                return -1;
+
+            int n = Math.min(len, segment.remaining());
+            segment.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            ByteBuffer segment = current();
+            return segment == null ? 0 : segment.remaining();
+        }
+    }
+
+    // writes into new segments, which replace the contents when closed, or
+    // spills to the file once the contents are too large to hold
+    private class SegmentOutputStream extends OutputStream {
+        private final List<ByteBuffer> segments = new ArrayList<>();
+        private long written;
+        private OutputStream spill;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed)
+                throw new IOException("Stream closed");
+
+            if (spill == null && written + len > store.getMaxEntrySize())
+                spill();
+
+            written += len;
+            if (spill != null) {
+                spill.write(b, off, len);
+                return;
+            }
+
+            while (len > 0) {
+                ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                if (segment == null || !segment.hasRemaining()) {
+                    segment = ByteBuffer.allocateDirect(MemoryStore.SEGMENT_SIZE);
+                    segments.add(segment);
+                }
+
+                int n = Math.min(len, segment.remaining());
+                segment.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        // contents held before are stale once the file is written
+        private void spill() throws IOException {
+            store.remove(path);
+            spill = file.openOutputStream();
+
+            for (ByteBuffer segment : MemoryStore.finish(segments)) {
+                byte[] bytes = new byte[segment.remaining()];
+                segment.get(bytes);
+                spill.write(bytes);
+            }
+            segments.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+
+            if (spill != null)
+                spill.close();
+            else
+                store.put(path, file, MemoryStore.finish(segments));
+        }
+    }
+
+    // reads a snapshot of the segments at any position
+    private static class SegmentChannel implements SeekableByteChannel {
+        private final ByteBuffer[] segments;
+        private final long size;
+        private long position;
+        private boolean open;
+
+        SegmentChannel(ByteBuffer[] segments) {
+            this.segments = segments;
+            this.size = MemoryStore.size(segments);
+            this.open = true;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            checkOpen();
+            if (position >= size)
+                return -1;
+
+            int read = 0;
+            int index = (int) (position / MemoryStore.SEGMENT_SIZE);
+            int start = (int) (position % MemoryStore.SEGMENT_SIZE);
+            while (dst.hasRemaining() && index < segments.length) {
+                ByteBuffer view = segments[index].duplicate().position(start);
+                if (view.remaining() > dst.remaining())
+                    view.limit(start + dst.remaining());
+
+                read += view.remaining();
+                dst.put(view);
+                index++;
+                start = 0;
+            }
+
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            checkOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            checkOpen();
+            if (newPosition < 0)
+                throw new IllegalArgumentException("Negative position");
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            checkOpen();
+            return size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        private void checkOpen() throws ClosedChannelException {
+            if (!open)
+                throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package com.smartnote.server.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Holds the contents of resources in off-heap memory, in segments of
+ * <code>SEGMENT_SIZE</code> bytes, so small resources that are read
+ * repeatedly are served without touching the disk. Resources are read into
+ * memory when first opened, and writes replace the contents in memory.
+ * </p>
+ *
+ * <p>
+ * Writes are stored behind: <code>flush</code> writes changed contents to
+ * their files, and should be called periodically and before the server
+ * stops. Contents not yet flushed are lost if the server crashes.
+ * </p>
+ *
+ * <p>
+ * The store holds at most its budget in total. When a resource would
+ * exceed it, the least recently used resources are flushed and dropped
+ * from memory. A resource larger than a quarter of the budget is never
+ * held, and writes to it spill to its file directly.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see MemoryResource
+ * @see ResourceConfig#getMemoryAuthorities()
+ */
+public class MemoryStore {
+    /**
+     * The size of each segment of memory, in bytes.
+     */
+    public static final int SEGMENT_SIZE = 64 * 1024; // 64 KiB
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryStore.class);
+
+    /**
+     * <p>
+     * The contents of one resource. Segments are never written once they
+     * hold contents; writes replace them.
+     * </p>
+     */
+    static final class Entry {
+        private final Resource file;
+        private ByteBuffer[] segments;
+        private long size;
+        private long modified;
+        private boolean dirty;
+        private boolean removed;
+
+        private Entry(Resource file, ByteBuffer[] segments, long size, long modified, boolean dirty) {
+            this.file = file;
+            this.segments = segments;
+            this.size = size;
+            this.modified = modified;
+            this.dirty = dirty;
+        }
+
+        /**
+         * Gets read-only views of the contents.
+         *
+         * @return The views, or <code>null</code> if the entry was dropped
+         *         and its file should be used instead.
+         */
+        synchronized ByteBuffer[] views() {
+            if (removed)
+                return null;
+
+            ByteBuffer[] views = new ByteBuffer[segments.length];
+            for (int i = 0; i < segments.length; i++)
+                views[i] = segments[i].asReadOnlyBuffer();
+            return views;
+        }
+
+        /**
+         * Gets the size of the contents.
+         *
+         * @return The size, or <code>-1</code> if the entry was dropped.
+         */
+        synchronized long size() {
+            return removed ? -1 : size;
+        }
+
+        /**
+         * Gets the time the contents were written.
+         *
+         * @return The time, or <code>-1</code> if the entry was dropped.
+         */
+        synchronized long modified() {
+            return removed ? -1 : modified;
+        }
+
+        // writes the contents to the file, if they changed
+        private synchronized void flush() throws IOException {
+            if (!dirty || removed)
+                return;
+
+            try (SeekableByteChannel out = file.openWriteChannel()) {
+                for (ByteBuffer segment : segments) {
+                    ByteBuffer view = segment.duplicate();
+                    while (view.hasRemaining())
+                        out.write(view);
+                }
+            }
+            dirty = false;
+        }
+
+        // the bytes the contents add to the file until they are written
+        private synchronized long unflushed() {
+            if (!dirty || removed)
+                return 0;
+
+            long written;
+            try {
+                written = file.exists() ? file.size() : 0;
+            } catch (IOException e) {
+                written = 0;
+            }
+            return size - written;
+        }
+    }
+
+    private final long budget;
+    private final long maxEntrySize;
+    private final LinkedHashMap<Path, Entry> entries; // least recently used first
+    private long used;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a new store.
+     *
+     * @param budget The number of bytes the store may hold in total.
+     */
+    public MemoryStore(long budget) {
+        this.budget = budget;
+        this.maxEntrySize = budget / 4;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Flushes the store periodically, on a background thread.
+     *
+     * @param interval The time between flushes, in seconds.
+     * @throws IllegalStateException If the store has already been started.
+     */
+    public synchronized void start(int interval) throws IllegalStateException {
+        if (executor != null)
+            throw new IllegalStateException("Memory store already started");
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "memory-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Gets the size of the largest resource the store holds.
+     *
+     * @return The size, in bytes.
+     */
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * Gets the number of bytes held.
+     *
+     * @return The number of bytes.
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /**
+     * Gets the contents of a resource, if they are held.
+     *
+     * @param path The path of the resource.
+     * @return The entry, or <code>null</code> if the contents are not held.
+     */
+    synchronized Entry get(Path path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Gets the contents of a resource, reading them into memory if they are
+     * not held yet and are small enough.
+     *
+     * @param path The path of the resource.
+     * @param file The resource on the disk.
+     * @return The entry, or <code>null</code> if the resource should be read
+     *         from its file.
+     */
+    Entry load(Path path, Resource file) {
+        Entry entry = get(path);
+        if (entry != null)
+            return entry;
+
+        ByteBuffer[] segments;
+        long modified;
+        try {
+            if (!file.exists() || file.size() > maxEntrySize)
+                return null;
+
+            modified = file.lastModified();
+            try (InputStream in = file.openInputStream()) {
+                segments = read(in);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // directories and the like are left to the file
+            return null;
+        }
+
+        // read concurrently, or written in the meantime
+        synchronized (this) {
+            Entry existing = entries.get(path);
+            if (existing != null)
+                return existing;
+
+            entry = new Entry(file, segments, size(segments), modified, false);
+            entries.put(path, entry);
+            used += entry.size;
+        }
+
+        evict();
+        return entry;
+    }
+
+    /**
+     * Replaces the contents of a resource. They are written to the file by
+     * a later flush.
+     *
+     * @param path     The path of the resource.
+     * @param file     The resource on the disk.
+     * @param segments The contents, as returned by <code>finish</code>.
+     */
+    void put(Path path, Resource file, ByteBuffer[] segments) {
+        long size = size(segments);
+        long now = System.currentTimeMillis();
+
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                entry = entries.get(path);
+                if (entry == null) {
+                    entries.put(path, new Entry(file, segments, size, now, true));
+                    used += size;
+                    break;
+                }
+            }
+
+            // waits for a flush in progress
+            synchronized (entry) {
+                if (entry.removed)
+                    continue;
+
+                synchronized (this) {
+                    used += size - entry.size;
+                }
+                entry.segments = segments;
+                entry.size = size;
+                entry.modified = now;
+                entry.dirty = true;
+                break;
+            }
+        }
+
+        evict();
+    }
+
+    /**
+     * Drops the contents of a resource without writing them, such as when
+     * it is deleted or replaced on the disk.
+     *
+     * @param path The path of the resource.
+     * @return <code>true</code> if the contents were held.
+     */
+    boolean remove(Path path) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(path);
+        }
+
+        if (entry == null)
+            return false;
+
+        drop(entry);
+        return true;
+    }
+
+    /**
+     * Drops the contents of every resource in a directory without writing
+     * them, such as when a session is deleted.
+     *
+     * @param dir The directory.
+     * @return The number of resources dropped.
+     */
+    public int removeUnder(Path dir) {
+        List<Entry> removed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, Entry> entry = it.next();
+                if (entry.getKey().startsWith(dir)) {
+                    removed.add(entry.getValue());
+                    it.remove();
+                }
+            }
+        }
+
+        for (Entry entry : removed)
+            drop(entry);
+        return removed.size();
+    }
+
+    /**
+     * Writes the contents of a resource to its file, if they changed, and
+     * drops them from memory, so the file can be used directly.
+     *
+     * @param path The path of the resource.
+     * @throws IOException If the contents could not be written.
+     */
+    void evict(Path path) throws IOException {
+        Entry entry = get(path);
+        if (entry == null)
+            return;
+
+        synchronized (entry) {
+            entry.flush();
+
+            synchronized (this) {
+                entries.remove(path, entry);
+            }
+            drop(entry);
+        }
+    }
+
+    /**
+     * Writes the changed contents of every resource in a directory to their
+     * files.
+     *
+     * @param dir The directory.
+     * @throws IOException If contents could not be written.
+     */
+    void flushUnder(Path dir) throws IOException {
+        for (Entry entry : dirty(path -> path.startsWith(dir) && !path.equals(dir)))
+            entry.flush();
+    }
+
+    /**
+     * Gets the number of bytes the contents held for the resources in a
+     * directory add to their files, counting only contents that have not
+     * been written yet. The files alone do not show the usage of the
+     * directory until the contents are written behind.
+     *
+     * @param dir The directory.
+     * @return The number of bytes. Negative if the contents are smaller
+     *         than their files.
+     */
+    long unflushedUnder(Path dir) {
+        long bytes = 0;
+        for (Entry entry : dirty(path -> path.startsWith(dir) && !path.equals(dir)))
+            bytes += entry.unflushed();
+        return bytes;
+    }
+
+    /**
+     * Writes the changed contents of every resource to their files.
+     *
+     * @return The number of resources written.
+     */
+    public int flush() {
+        int count = 0;
+        for (Entry entry : dirty(path -> true)) {
+            try {
+                entry.flush();
+                count++;
+            } catch (IOException e) {
+                LOG.warn("Failed to write " + entry.file.getName() + ", will retry", e);
+            }
+        }
+
+        if (count > 0)
+            LOG.debug("Wrote " + count + " resources behind");
+        return count;
+    }
+
+    private synchronized List<Entry> dirty(Predicate<Path> filter) {
+        List<Entry> dirty = new ArrayList<>();
+        for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().dirty && filter.test(entry.getKey()))
+                dirty.add(entry.getValue());
+        }
+        return dirty;
+    }
+
+    // spills the least recently used contents until the store is within
+    // its budget
+    private void evict() {
+        while (true) {
+            Path path;
+            synchronized (this) {
+                if (used <= budget || entries.isEmpty())
+                    return;
+                path = entries.keySet().iterator().next();
+            }
+
+            try {
+                evict(path);
+            } catch (IOException e) {
+                LOG.warn("Failed to spill " + path + " to disk", e);
+                return;
+            }
+        }
+    }
+
+    private void drop(Entry entry) {
+        synchronized (entry) {
+            if (entry.removed)
+                return;
+            entry.removed = true;
+
+            synchronized (this) {
+                used -= entry.size;
+            }
+        }
+    }
+
+    /**
+     * Reads contents into new segments.
+     *
+     * @param in The contents.
+     * @return The segments.
+     * @throws IOException If the contents could not be read.
+     */
+    static ByteBuffer[] read(InputStream in) throws IOException {
+        List<ByteBuffer> segments = new ArrayList<>();
+        byte[] buffer = new byte[SEGMENT_SIZE];
+
+        ByteBuffer segment = null;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            int off = 0;
+            while (off < read) {
+                if (segment == null || !segment.hasRemaining()) {
+                    segment = ByteBuffer.allocateDirect(SEGMENT_SIZE);
+                    segments.add(segment);
+                }
+
+                int n = Math.min(read - off, segment.remaining());
+                segment.put(buffer, off, n);
+                off += n;
+            }
+        }
+
+        return finish(segments);
+    }
+
+    /**
+     * Prepares written segments to be held. The last segment is copied
+     * into one of its exact size, so small resources do not hold a whole
+     * segment.
+     *
+     * @param segments The segments, each full but the last, with their
+     *                 position at the end of their contents.
+     * @return The segments, ready to be read.
+     */
+    static ByteBuffer[] finish(List<ByteBuffer> segments) {
+        ByteBuffer[] result = segments.toArray(new ByteBuffer[0]);
+        for (ByteBuffer segment : result)
+            segment.flip();
+
+        int last = result.length - 1;
+        if (last >= 0 && result[last].remaining() < result[last].capacity()) {
+            ByteBuffer trimmed = ByteBuffer.allocateDirect(result[last].remaining());
+            trimmed.put(result[last]).flip();
+            result[last] = trimmed;
+        }
+        return result;
+    }
+
+    /**
+     * Gets the size of contents.
+     *
+     * @param segments The segments.
+     * @return The size, in bytes.
+     */
+    static long size(ByteBuffer[] segments) {
+        long size = 0;
+        for (ByteBuffer segment : segments)
+            size += segment.remaining();
+        return size;
+    }
+}
@@ -0,0 +1,321 @@
+package com.smartnote.server.resource;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Objects;
+
+import com.smartnote.server.auth.Session;
+
+/**
+ * <p>
+ * Wraps a session resource and records the storage its writes and
+ * deletes use in a <code>UsageLedger</code>. A write is recorded when its
+ * stream is closed, as the number of bytes written less the size of the
+ * resource it replaced. Channels are recorded when they are closed, as
+ * the change in the size of the resource. The session is materialized
+ * before its first write. Contents moved with their hash are kept in the
+ * <code>BlobStore</code>.
+ * </p>
+ *
+ * <p>
+ * Writes, moves and deletes also keep the session's
+ * <code>ResourceManifest</code> current. Streams hash their contents and
+ * detect their type from the first bytes as they are written.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see UsageLedger
+ * @see ResourceManifest
+ */
+class MeteredResource implements Resource {
+    private final Resource resource;
+    private final String key;
+    private final Session session;
+    private final String id;
+    private final ResourceSystem system;
+    private final UsageLedger ledger;
+    private final BlobStore blobStore;
+
+    /**
+     * Creates a new metered resource.
+     *
+     * @param resource The resource to wrap.
+     * @param key      The path of the resource within the session
+     *                 directory, as recorded in the manifest.
+     * @param session  The session owning the resource.
+     * @param system   The resource system, holding the ledger, blob store
+     *                 and manifests.
+     */
+    MeteredResource(Resource resource, String key, Session session, ResourceSystem system) {
+        this.resource = Objects.requireNonNull(resource, "resource must not be null");
+        this.key = Objects.requireNonNull(key, "key must not be null");
+        this.session = Objects.requireNonNull(session, "session must not be null");
+        this.id = Objects.requireNonNull(session.getId(), "id must not be null");
+        this.system = Objects.requireNonNull(system, "system must not be null");
+        this.ledger = system.getUsageLedger();
+        this.blobStore = system.getBlobStore();
+    }
+
+    private ResourceManifest manifest() {
+        return system.getManifest(id);
+    }
+
+    @Override
+    public InputStream openInputStream() throws SecurityException, IOException {
+        return resource.openInputStream();
+    }
+
+    @Override
+    public OutputStream openOutputStream() throws SecurityException, IOException {
+        session.materialize();
+
+        long previous = resource.exists() ? resource.size() : 0;
+        OutputStream out = resource.openOutputStream();
+
+        MessageDigest digest = BlobStore.newDigest();
+        byte[] prefix = new byte[ResourceMetadata.DETECT_LENGTH];
+
+        return new FilterOutputStream(out) {
+            private long written;
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                digest.update((byte) b);
+                if (written < prefix.length)
+                    prefix[(int) written] = (byte) b;
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                digest.update(b, off, len);
+                if (written < prefix.length)
+                    System.arraycopy(b, off, prefix, (int) written, (int) Math.min(len, prefix.length - written));
+                written += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed)
+                    return;
+                closed = true;
+
+                try {
+                    out.close();
+                } finally {
+                    ledger.adjust(id, written - previous);
+                }
+
+                String type = ResourceMetadata.detectType(prefix, (int) Math.min(written, prefix.length), key);
+                manifest().put(key, new ResourceMetadata(written, HexFormat.of().formatHex(digest.digest()), type,
+                        System.currentTimeMillis(), ResourceMetadata.ORIGIN_WRITE));
+            }
+        };
+    }
+
+    @Override
+    public SeekableByteChannel openReadChannel() throws SecurityException, IOException {
+        // reading changes nothing to count, so the channel is not wrapped
+        // and files can still be transferred directly
+        return resource.openReadChannel();
+    }
+
+    @Override
+    public ByteBuffer map(long offset, long length) throws SecurityException, IOException {
+        return resource.map(offset, length);
+    }
+
+    @Override
+    public SeekableByteChannel openChannel(OpenOption... options) throws SecurityException, IOException {
+        session.materialize();
+
+        long previous = resource.exists() ? resource.size() : 0;
+        SeekableByteChannel channel = resource.openChannel(options);
+
+        return new SeekableByteChannel() {
+            private boolean closed;
+            private boolean written;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                return channel.read(dst);
+            }
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                written = true;
+                return channel.write(src);
+            }
+
+            @Override
+            public long position() throws IOException {
+                return channel.position();
+            }
+
+            @Override
+            public SeekableByteChannel position(long newPosition) throws IOException {
+                channel.position(newPosition);
+                return this;
+            }
+
+            @Override
+            public long size() throws IOException {
+                return channel.size();
+            }
+
+            @Override
+            public SeekableByteChannel truncate(long size) throws IOException {
+                written = true;
+                channel.truncate(size);
+                return this;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed)
+                    return;
+                closed = true;
+
+                long size = channel.size();
+                try {
+                    channel.close();
+                } finally {
+                    ledger.adjust(id, size - previous);
+                }
+
+                // written anywhere, so the hash is not known without reading
+                // the whole resource again
+                if (written)
+                    manifest().put(key, ResourceMetadata.measure(resource));
+            }
+        };
+    }
+
+    @Override
+    public void delete() throws SecurityException, IOException {
+        long size = resource.size();
+        resource.delete();
+
+        // directories that are not empty are not deleted
+        if (!resource.exists()) {
+            ledger.adjust(id, -size);
+            manifest().remove(key);
+        }
+    }
+
+    @Override
+    public void moveTo(Resource target) throws SecurityException, IOException {
+        long size = resource.size();
+
+        if (target instanceof MeteredResource) {
+            MeteredResource metered = (MeteredResource) target;
+            long replaced = metered.resource.exists() ? metered.resource.size() : 0;
+
+            metered.session.materialize();
+            resource.moveTo(metered.resource);
+            ledger.adjust(id, -size);
+            metered.ledger.adjust(metered.id, size - replaced);
+
+            ResourceMetadata metadata = manifest().remove(key);
+            metered.manifest().put(metered.key, metadata != null ? metadata : ResourceMetadata.measure(metered.resource));
+        } else {
+            resource.moveTo(target);
+            ledger.adjust(id, -size);
+            manifest().remove(key);
+        }
+    }
+
+    @Override
+    public void moveTo(Resource target, byte[] digest) throws SecurityException, IOException {
+        if (blobStore == null || !(target instanceof MeteredResource)) {
+            moveTo(target);
+            return;
+        }
+
+        MeteredResource metered = (MeteredResource) target;
+        long size = resource.size();
+        long replaced = metered.resource.exists() ? metered.resource.size() : 0;
+
+        // the target still counts the whole size against its session, so
+        // quotas do not depend on what other sessions uploaded
+        metered.session.materialize();
+        try {
+            blobStore.store(resource.getPath(), digest, metered.resource.getPath());
+        } catch (AtomicMoveNotSupportedException | UnsupportedOperationException e) {
+            // not on the same file system as the store
+            moveTo(target);
+            return;
+        }
+
+        ledger.adjust(id, -size);
+        metered.ledger.adjust(metered.id, size - replaced);
+
+        ResourceMetadata metadata = manifest().remove(key);
+        if (metadata == null)
+            metadata = ResourceMetadata.measure(metered.resource);
+        metered.manifest().put(metered.key, new ResourceMetadata(metadata.getLength(), HexFormat.of().formatHex(digest),
+                metadata.getType(), metadata.getModified(), ResourceMetadata.ORIGIN_UPLOAD));
+    }
+
+    @Override
+    public ResourceMetadata getMetadata() throws SecurityException, IOException {
+        ResourceMetadata metadata = manifest().get(key);
+        if (metadata != null)
+            return metadata;
+
+        // written before the manifest, so it is measured once
+        if (!resource.exists())
+            throw new NoSuchResourceException(getName());
+
+        metadata = ResourceMetadata.measure(resource);
+        manifest().put(key, metadata);
+        return metadata;
+    }
+
+    @Override
+    public long size() throws SecurityException, IOException {
+        return resource.size();
+    }
+
+    @Override
+    public long lastModified() throws SecurityException, IOException {
+        return resource.lastModified();
+    }
+
+    @Override
+    public boolean exists() throws SecurityException, IOException {
+        return resource.exists();
+    }
+
+    @Override
+    public String getName() {
+        return resource.getName();
+    }
+
+    @Override
+    public Path getPath() throws SecurityException, UnsupportedOperationException {
+        return resource.getPath();
+    }
+
+    @Override
+    public String toString() {
+        return resource.toString();
+    }
+}
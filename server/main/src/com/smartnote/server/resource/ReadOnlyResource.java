@@ -3,6 +3,10 @@ package com.smartnote.server.resource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Objects;
 
 /**
@@ -40,6 +44,25 @@ public class ReadOnlyResource implements Resource {
         throw new SecurityException("No write permission");
     }
 
+    @Override
+    public SeekableByteChannel openChannel(OpenOption... options) throws SecurityException, IOException {
+        for (OpenOption option : options) {
+            if (option != StandardOpenOption.READ)
+                throw new SecurityException("No write permission");
+        }
+        return resource.openChannel(options);
+    }
+
+    @Override
+    public SeekableByteChannel openReadChannel() throws SecurityException, IOException {
+        return resource.openReadChannel();
+    }
+
+    @Override
+    public ByteBuffer map(long offset, long length) throws SecurityException, IOException {
+        return resource.map(offset, length);
+    }
+
     @Override
     public void delete() throws SecurityException, IOException {
         throw new SecurityException("No delete permission");
@@ -50,6 +73,11 @@ public class ReadOnlyResource implements Resource {
         return resource.size();
     }
 
+    @Override
+    public long lastModified() throws SecurityException, IOException {
+        return resource.lastModified();
+    }
+
     @Override
     public boolean exists() throws SecurityException, IOException {
         return resource.exists();
@@ -3,7 +3,11 @@ package com.smartnote.server.resource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * <p>
@@ -37,6 +41,110 @@ public interface Resource {
      */
     OutputStream openOutputStream() throws SecurityException, IOException;
 
+    /**
+     * Opens a channel to the resource, which can read and write at any
+     * position. Resources on the file system return a
+     * <code>FileChannel</code>.
+     * 
+     * @param options The options, as for <code>Files.newByteChannel</code>.
+     * @return The channel.
+     * @throws SecurityException             When the current identity does
+     *                                       not have the permission the
+     *                                       options require.
+     * @throws NoSuchResourceException       When the resource does not
+     *                                       exist and is not created.
+     * @throws IOException                   If the channel could not be
+     *                                       opened.
+     * @throws UnsupportedOperationException If the resource does not
+     *                                       support channels.
+     */
+    default SeekableByteChannel openChannel(OpenOption... options)
+            throws SecurityException, NoSuchResourceException, IOException, UnsupportedOperationException {
+        throw new UnsupportedOperationException("This resource does not support channels");
+    }
+
+    /**
+     * Opens a channel to read the resource. Resources on the file system
+     * return a <code>FileChannel</code>, which can be transferred to other
+     * channels without copying through the heap.
+     * 
+     * @return The channel.
+     * @throws SecurityException             When the current identity does
+     *                                       not have read permission to the
+     *                                       resource.
+     * @throws NoSuchResourceException       When the resource does not
+     *                                       exist.
+     * @throws IOException                   If the channel could not be
+     *                                       opened.
+     * @throws UnsupportedOperationException If the resource does not
+     *                                       support channels.
+     */
+    default SeekableByteChannel openReadChannel()
+            throws SecurityException, NoSuchResourceException, IOException, UnsupportedOperationException {
+        return openChannel(StandardOpenOption.READ);
+    }
+
+    /**
+     * Opens a channel to write the resource, creating it or replacing its
+     * contents.
+     * 
+     * @return The channel.
+     * @throws SecurityException             When the current identity does
+     *                                       not have write permission to the
+     *                                       resource.
+     * @throws IOException                   If the channel could not be
+     *                                       opened.
+     * @throws UnsupportedOperationException If the resource does not
+     *                                       support channels.
+     */
+    default SeekableByteChannel openWriteChannel()
+            throws SecurityException, IOException, UnsupportedOperationException {
+        return openChannel(StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Maps part of the resource into memory, read only. Resources on the
+     * file system return a <code>MappedByteBuffer</code>, so the contents
+     * are paged in by the operating system rather than copied into the
+     * heap. The buffer is a snapshot for other resources, and may reflect
+     * later writes for files. By default, the part is read into a heap
+     * buffer.
+     * 
+     * @param offset The position of the first byte to map.
+     * @param length The number of bytes to map, at most
+     *               <code>Integer.MAX_VALUE</code>.
+     * @return The read-only buffer.
+     * @throws SecurityException        When the current identity does not
+     *                                  have read permission to the resource.
+     * @throws NoSuchResourceException  When the resource does not exist.
+     * @throws IllegalArgumentException If the part is not within the
+     *                                  resource.
+     * @throws IOException              If the resource could not be mapped.
+     */
+    default ByteBuffer map(long offset, long length)
+            throws SecurityException, NoSuchResourceException, IllegalArgumentException, IOException {
+        checkRange(offset, length, size());
+
+        try (InputStream in = openInputStream()) {
+            in.skipNBytes(offset);
+            return ByteBuffer.wrap(in.readNBytes((int) length)).asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Checks that part of a resource is within it and can be mapped.
+     * 
+     * @param offset The position of the first byte.
+     * @param length The number of bytes.
+     * @param size   The size of the resource.
+     * @throws IllegalArgumentException If the part is not within the
+     *                                  resource or is too long.
+     */
+    static void checkRange(long offset, long length, long size) throws IllegalArgumentException {
+        if (offset < 0 || length < 0 || length > Integer.MAX_VALUE || offset > size - length)
+            throw new IllegalArgumentException("Range is not within the resource");
+    }
+
     /**
      * Deletes the resource.
      * 
@@ -47,6 +155,80 @@ public interface Resource {
      */
     void delete() throws SecurityException, NoSuchResourceException, IOException;
 
+    /**
+     * Moves the resource to another resource, replacing it if it exists.
+     * Resources on the same file system are moved atomically, so the
+     * target is never seen partially written. By default, the resource is
+     * copied and then deleted.
+     * 
+     * @param target The resource to move to.
+     * @throws SecurityException       When the current identity does not
+     *                                 have read and delete permission to
+     *                                 this resource or write permission to
+     *                                 the target.
+     * @throws NoSuchResourceException When the resource does not exist.
+     * @throws IOException             If the resource could not be moved.
+     */
+    default void moveTo(Resource target) throws SecurityException, NoSuchResourceException, IOException {
+        try (InputStream in = openInputStream(); OutputStream out = target.openOutputStream()) {
+            in.transferTo(out);
+        }
+        delete();
+    }
+
+    /**
+     * Moves the resource to another resource, as <code>moveTo</code>,
+     * given the hash of its contents. Session resources with the same
+     * contents share one copy in the <code>BlobStore</code>. By default,
+     * the hash is ignored.
+     *
+     * @param target The resource to move to.
+     * @param digest The SHA-256 hash of the contents of this resource.
+     * @throws SecurityException       When the current identity does not
+     *                                 have read and delete permission to
+     *                                 this resource or write permission to
+     *                                 the target.
+     * @throws NoSuchResourceException When the resource does not exist.
+     * @throws IOException             If the resource could not be moved.
+     */
+    default void moveTo(Resource target, byte[] digest) throws SecurityException, NoSuchResourceException, IOException {
+        moveTo(target);
+    }
+
+    /**
+     * Gets the time the resource was last modified.
+     * 
+     * @return The time, in milliseconds since the epoch.
+     * @throws SecurityException             When the current identity does
+     *                                       not have read permission to the
+     *                                       resource.
+     * @throws NoSuchResourceException       When the resource does not
+     *                                       exist.
+     * @throws IOException                   If the time could not be read.
+     * @throws UnsupportedOperationException If the resource does not record
+     *                                       modification times.
+     */
+    default long lastModified()
+            throws SecurityException, NoSuchResourceException, IOException, UnsupportedOperationException {
+        throw new UnsupportedOperationException("This resource does not record modification times");
+    }
+
+    /**
+     * Gets the metadata recorded when the resource was written, such as the
+     * hash and type of its contents. By default, no metadata is recorded.
+     * 
+     * @return The metadata, or <code>null</code> if the resource does not
+     *         record metadata.
+     * @throws SecurityException       When the current identity does not
+     *                                 have read permission to the resource.
+     * @throws NoSuchResourceException When the resource does not exist.
+     * @throws IOException             If the metadata could not be read.
+     * @see ResourceMetadata
+     */
+    default ResourceMetadata getMetadata() throws SecurityException, NoSuchResourceException, IOException {
+        return null;
+    }
+
     /**
      * Gets the size of the resource.
      * 
@@ -95,7 +277,11 @@ public interface Resource {
 
     /**
      * Reads all bytes from the resource and returns them as a string. This
-     * call is equivalent to <code>new String(readAllBytes())</code>.
+     * call is equivalent to <code>new String(readAllBytes())</code>. The
+     * resource is read from a stream rather than mapped, so no mapping
+     * outlives the call and a concurrent truncation fails the read with an
+     * <code>IOException</code>; callers that want a mapping use
+     * <code>map</code>.
      * 
      * @return The string.
      * @throws SecurityException       When the current identity does not
@@ -104,7 +290,9 @@ public interface Resource {
      * @throws IOException             If the bytes could not be read.
      */
     default String readToString() throws SecurityException, NoSuchResourceException, IOException {
-        return new String(readAllBytes());
+        try (InputStream in = openInputStream()) {
+            return new String(in.readAllBytes());
+        }
     }
 
     /**
@@ -1,5 +1,11 @@
 package com.smartnote.server.resource;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.smartnote.server.cli.CommandLineParser;
@@ -49,7 +55,29 @@ public class ResourceConfig extends AbstractConfig {
     private long maxUploadSize;
     private long sessionQuota;
 
+    /**
+     * Default time an unfinished resumable upload is kept after its last
+     * chunk, in seconds.
+     */
+    public static final int DEFAULT_UPLOAD_EXPIRY = 60 * 30; // 30 minutes
+
+    /**
+     * Default number of bytes of resources held in memory.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 1024 * 1024 * 64; // 64 MiB
+
+    /**
+     * Default time between writes of resources held in memory to the disk,
+     * in seconds.
+     */
+    public static final int DEFAULT_MEMORY_FLUSH_INTERVAL = 5;
+
     private String uploadDir;
+    private int uploadExpiry;
+
+    private List<String> memoryAuthorities;
+    private long memoryBudget;
+    private int memoryFlushInterval;
 
     /**
      * Creates a new ResourceConfig object with default values.
@@ -61,6 +89,10 @@ public class ResourceConfig extends AbstractConfig {
         this.maxUploadSize = DEFAULT_MAX_UPLOAD_SIZE;
         this.sessionQuota = DEFAULT_SESSION_QUOTA;
         this.uploadDir = DEFAULT_UPLOAD_DIR;
+        this.uploadExpiry = DEFAULT_UPLOAD_EXPIRY;
+        this.memoryAuthorities = new ArrayList<>();
+        this.memoryBudget = DEFAULT_MEMORY_BUDGET;
+        this.memoryFlushInterval = DEFAULT_MEMORY_FLUSH_INTERVAL;
     }
 
     /**
@@ -117,6 +149,46 @@ public class ResourceConfig extends AbstractConfig {
         return uploadDir;
     }
 
+    /**
+     * Gets the time an unfinished resumable upload is kept after its last
+     * chunk.
+     * 
+     * @return The expiry, in seconds
+     */
+    public int getUploadExpiry() {
+        return uploadExpiry;
+    }
+
+    /**
+     * Gets the authorities whose resources are held in memory, in front of
+     * the disk. None are by default.
+     * 
+     * @return The authorities
+     */
+    public List<String> getMemoryAuthorities() {
+        return Collections.unmodifiableList(memoryAuthorities);
+    }
+
+    /**
+     * Gets the number of bytes of resources held in memory, across every
+     * authority.
+     * 
+     * @return The budget, in bytes
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Gets the time between writes of resources held in memory to the
+     * disk.
+     * 
+     * @return The interval, in seconds
+     */
+    public int getMemoryFlushInterval() {
+        return memoryFlushInterval;
+    }
+
     @Override
     public void addHandlers(CommandLineParser parser) {
         parser.addHandler("privateDir", (p, a) -> {
@@ -151,6 +223,24 @@ public class ResourceConfig extends AbstractConfig {
         System.out.println("resource.sessionQuota=" + sessionQuota);
         
         System.out.println("resource.uploadDir=`" + uploadDir + "`");
+
+        if (uploadExpiry <= 0)
+            throw new IllegalStateException("resource.uploadExpiry must be greater than 0");
+        System.out.println("resource.uploadExpiry=" + uploadExpiry);
+
+        for (String authority : memoryAuthorities) {
+            if (!Arrays.asList(ResourceSystem.AUTHORITIES).contains(authority))
+                throw new IllegalStateException("resource.memoryAuthorities contains unknown authority `" + authority + "`");
+        }
+        System.out.println("resource.memoryAuthorities=" + memoryAuthorities);
+
+        if (memoryBudget < 0)
+            throw new IllegalStateException("resource.memoryBudget must be greater than or equal to 0");
+        System.out.println("resource.memoryBudget=" + memoryBudget);
+
+        if (memoryFlushInterval <= 0)
+            throw new IllegalStateException("resource.memoryFlushInterval must be greater than 0");
+        System.out.println("resource.memoryFlushInterval=" + memoryFlushInterval);
     }
 
     @Override
@@ -161,6 +251,14 @@ public class ResourceConfig extends AbstractConfig {
         json.addProperty("maxUploadSize", maxUploadSize);
         json.addProperty("sessionQuota", sessionQuota);
         json.addProperty("uploadDir", uploadDir);
+        json.addProperty("uploadExpiry", uploadExpiry);
+
+        JsonArray authorities = new JsonArray();
+        for (String authority : memoryAuthorities)
+            authorities.add(authority);
+        json.add("memoryAuthorities", authorities);
+        json.addProperty("memoryBudget", memoryBudget);
+        json.addProperty("memoryFlushInterval", memoryFlushInterval);
         return json;
     }
 
@@ -203,5 +301,24 @@ public class ResourceConfig extends AbstractConfig {
 
         if (uploadDir == null)
             uploadDir = DEFAULT_UPLOAD_DIR;
+
+        elem = json.get("uploadExpiry");
+        if (elem != null && elem.isJsonPrimitive())
+            uploadExpiry = elem.getAsInt();
+
+        elem = json.get("memoryAuthorities");
+        if (elem != null && elem.isJsonArray()) {
+            memoryAuthorities.clear();
+            for (JsonElement authority : elem.getAsJsonArray())
+                memoryAuthorities.add(authority.getAsString());
+        }
+
+        elem = json.get("memoryBudget");
+        if (elem != null && elem.isJsonPrimitive())
+            memoryBudget = elem.getAsLong();
+
+        elem = json.get("memoryFlushInterval");
+        if (elem != null && elem.isJsonPrimitive())
+            memoryFlushInterval = elem.getAsInt();
     }
 }
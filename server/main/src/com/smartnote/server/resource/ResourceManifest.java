@@ -0,0 +1,262 @@
+package com.smartnote.server.resource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/**
+ * <p>
+ * The metadata of every resource in a session, kept in a single file in
+ * the session directory. Entries are keyed by their path within the
+ * session, with <code>/</code> as the separator, and kept sorted.
+ * </p>
+ *
+ * <p>
+ * Changes are kept in memory and written by <code>flush</code>, which the
+ * session manager calls along with storing renewed sessions, so a burst
+ * of writes to a session saves the manifest once. It is saved by writing
+ * a temporary file and moving it into place, so a crash leaves either the
+ * old or the new manifest. A marker file exists while changes have not
+ * been flushed, and a manifest found with its marker is discarded and the
+ * session indexed again. A manifest that cannot be read only loses its
+ * entries; they are measured again when next needed.
+ * </p>
+ *
+ * <p>
+ * Entries with a hidden name, or under a hidden directory, such as
+ * uploads in progress, are recorded but not listed.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see ResourceMetadata
+ * @see ResourceSystem#getManifest(String)
+ */
+public class ResourceManifest {
+    /**
+     * The name of the manifest file in a session directory.
+     */
+    public static final String MANIFEST_NAME = ".manifest.json";
+
+    /**
+     * The name of the marker file present while changes are not flushed.
+     */
+    public static final String DIRTY_NAME = MANIFEST_NAME + ".dirty";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceManifest.class);
+
+    private final Resource file;
+    private final Resource temp;
+    private final Resource marker;
+    private final TreeMap<String, ResourceMetadata> entries;
+    private boolean stored;
+    private boolean dirty; // changed since the last flush
+    private boolean marked; // the marker file exists
+
+    /**
+     * Loads a manifest.
+     *
+     * @param file The resource the manifest is stored in. It need not exist.
+     * @param temp   The resource the manifest is written to before being
+     *               moved into place.
+     * @param marker The marker resource present while changes are not
+     *               flushed.
+     */
+    public ResourceManifest(Resource file, Resource temp, Resource marker) {
+        this.file = Objects.requireNonNull(file, "file must not be null");
+        this.temp = Objects.requireNonNull(temp, "temp must not be null");
+        this.marker = Objects.requireNonNull(marker, "marker must not be null");
+        this.entries = new TreeMap<>();
+
+        try {
+            // changes were lost, the manifest must be rebuilt
+            if (marker.exists()) {
+                marked = true;
+                LOG.info("Manifest " + file.getName() + " was not flushed, discarding it");
+                return;
+            }
+
+            if (!file.exists())
+                return;
+            stored = true;
+
+            JsonObject json = new Gson().fromJson(file.readToString(), JsonObject.class);
+            if (json == null)
+                return;
+
+            for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+                ResourceMetadata metadata = new ResourceMetadata();
+                metadata.loadJSON(entry.getValue().getAsJsonObject());
+                entries.put(entry.getKey(), metadata);
+            }
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            LOG.warn("Failed to read manifest " + file.getName(), e);
+            entries.clear();
+        }
+    }
+
+    /**
+     * Checks if the manifest was read from its file. A session without one
+     * was written to before the manifest existed, or not at all, or its
+     * last changes were not flushed.
+     *
+     * @return <code>true</code> if the manifest was read.
+     */
+    public boolean isStored() {
+        return stored;
+    }
+
+    /**
+     * Checks if a key is hidden from listings, because it or one of its
+     * directories starts with a dot.
+     *
+     * @param key The key.
+     * @return <code>true</code> if the key is hidden.
+     */
+    public static boolean isHidden(String key) {
+        return key.startsWith(".") || key.contains("/.");
+    }
+
+    /**
+     * Gets the metadata of a resource.
+     *
+     * @param key The path of the resource within the session.
+     * @return The metadata, or <code>null</code> if none is recorded.
+     */
+    public synchronized ResourceMetadata get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Records the metadata of a resource, replacing any recorded before.
+     *
+     * @param key      The path of the resource within the session.
+     * @param metadata The metadata.
+     */
+    public synchronized void put(String key, ResourceMetadata metadata) {
+        entries.put(key, Objects.requireNonNull(metadata, "metadata must not be null"));
+        markDirty();
+    }
+
+    /**
+     * Records the metadata of many resources.
+     *
+     * @param metadata The metadata, keyed by the path of each resource
+     *                 within the session.
+     */
+    public synchronized void putAll(Map<String, ResourceMetadata> metadata) {
+        entries.putAll(metadata);
+        markDirty();
+    }
+
+    /**
+     * Lists the entries starting with a prefix, in order of their keys.
+     * Hidden entries are skipped. Since the keys are sorted, the last key
+     * of a page can be passed as <code>after</code> to get the next page,
+     * even when entries were added or removed in between.
+     *
+     * @param prefix The prefix the keys start with. Use the empty string for
+     *               every entry.
+     * @param after  The key to list after, or <code>null</code> to start at
+     *               the first entry.
+     * @param limit  The maximum number of entries to list.
+     * @return The entries.
+     */
+    public synchronized List<Map.Entry<String, ResourceMetadata>> list(String prefix, String after, int limit) {
+        String from = after != null && after.compareTo(prefix) > 0 ? after : prefix;
+        boolean inclusive = !from.equals(after);
+
+        List<Map.Entry<String, ResourceMetadata>> page = new ArrayList<>();
+        for (Map.Entry<String, ResourceMetadata> entry : entries.tailMap(from, inclusive).entrySet()) {
+            if (page.size() >= limit || !entry.getKey().startsWith(prefix))
+                break;
+            if (!isHidden(entry.getKey()))
+                page.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+        return page;
+    }
+
+    /**
+     * Removes the metadata of a resource and of everything under it, if it
+     * is a directory.
+     *
+     * @param key The path of the resource within the session.
+     * @return The metadata of the resource, or <code>null</code> if none was
+     *         recorded.
+     */
+    public synchronized ResourceMetadata remove(String key) {
+        ResourceMetadata removed = entries.remove(key);
+        NavigableMap<String, ResourceMetadata> children = entries.subMap(key + "/", true, key + "0", false);
+        if (removed == null && children.isEmpty())
+            return null;
+
+        children.clear();
+        markDirty();
+        return removed;
+    }
+
+    /**
+     * Writes the manifest if it changed since the last flush.
+     *
+     * @return <code>true</code> if the manifest was written.
+     */
+    public synchronized boolean flush() {
+        if (!dirty || !save())
+            return false;
+
+        dirty = false;
+        try {
+            marker.delete();
+            marked = false;
+        } catch (IOException e) {
+            LOG.warn("Failed to remove marker of manifest " + file.getName(), e);
+        }
+        return true;
+    }
+
+    // notes a change, creating the marker before the first one since the
+    // last flush
+    private void markDirty() {
+        dirty = true;
+        if (marked)
+            return;
+
+        try {
+            marker.openOutputStream().close();
+            marked = true;
+        } catch (IOException e) {
+            LOG.warn("Failed to mark manifest " + file.getName(), e);
+        }
+    }
+
+    // writes the manifest, replacing the old one atomically
+    private boolean save() {
+        JsonObject json = new JsonObject();
+        for (Map.Entry<String, ResourceMetadata> entry : entries.entrySet())
+            json.add(entry.getKey(), entry.getValue().writeJSON());
+
+        try {
+            try (OutputStream out = temp.openOutputStream()) {
+                out.write(new Gson().toJson(json).getBytes(StandardCharsets.UTF_8));
+            }
+            temp.moveTo(file);
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Failed to save manifest " + file.getName(), e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.smartnote.server.resource;
+
+import static com.smartnote.server.util.JSONUtil.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.tika.Tika;
+
+import com.google.gson.JsonObject;
+import com.smartnote.server.util.JSONObjectSerializable;
+import com.smartnote.server.util.MIME;
+
+/**
+ * <p>
+ * Facts about the contents of a session resource, recorded when it is
+ * written so they do not have to be computed again each time they are
+ * needed. The type is detected from the first few kilobytes of the
+ * contents only.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see ResourceManifest
+ * @see Resource#getMetadata()
+ */
+public class ResourceMetadata implements JSONObjectSerializable {
+    /**
+     * The number of bytes at the start of a resource used to detect its
+     * type.
+     */
+    public static final int DETECT_LENGTH = 8 * 1024;
+
+    /**
+     * The origin of contents written to the resource directly.
+     */
+    public static final String ORIGIN_WRITE = "write";
+
+    /**
+     * The origin of contents uploaded by the client.
+     */
+    public static final String ORIGIN_UPLOAD = "upload";
+
+    private static final Tika TIKA = new Tika();
+
+    /**
+     * Detects the type of contents.
+     *
+     * @param prefix The first bytes of the contents, up to
+     *               <code>DETECT_LENGTH</code>.
+     * @param length The number of bytes in <code>prefix</code>.
+     * @param name   The name of the resource, used when the contents are
+     *               not recognized.
+     * @return The MIME type.
+     */
+    public static String detectType(byte[] prefix, int length, String name) {
+        byte[] bytes = prefix;
+        if (length < prefix.length) {
+            bytes = new byte[length];
+            System.arraycopy(prefix, 0, bytes, 0, length);
+        }
+
+        // the detected type of plain text is less specific than its name
+        String type = TIKA.detect(bytes, name);
+        if (type.equals(MIME.TEXT_PLAIN) || type.equals(MIME.APPLICATION_BIN)) {
+            String inferred = MIME.fromPath(name);
+            if (inferred != null)
+                return inferred;
+        }
+        return type;
+    }
+
+    /**
+     * Measures the metadata of a resource that has none recorded. The hash
+     * is not computed, as that would read the whole resource.
+     *
+     * @param resource The resource.
+     * @return The metadata.
+     * @throws SecurityException       When the current identity does not
+     *                                 have read permission to the resource.
+     * @throws NoSuchResourceException When the resource does not exist.
+     * @throws IOException             If the resource could not be read.
+     */
+    public static ResourceMetadata measure(Resource resource)
+            throws SecurityException, NoSuchResourceException, IOException {
+        byte[] prefix = new byte[DETECT_LENGTH];
+        int length;
+        try (InputStream in = resource.openInputStream()) {
+            length = in.readNBytes(prefix, 0, prefix.length);
+        }
+
+        return new ResourceMetadata(resource.size(), null, detectType(prefix, length, resource.getName()),
+                resource.lastModified(), ORIGIN_WRITE);
+    }
+
+    private long length;
+    private String hash;
+    private String type;
+    private long modified;
+    private String origin;
+
+    /**
+     * Creates empty metadata, to be loaded with <code>loadJSON</code>.
+     */
+    public ResourceMetadata() {
+    }
+
+    /**
+     * Creates metadata.
+     *
+     * @param length   The length of the contents, in bytes.
+     * @param hash     The SHA-256 hash of the contents in hexadecimal, or
+     *                 <code>null</code> if it is not known.
+     * @param type     The MIME type of the contents.
+     * @param modified The time the contents were written, in milliseconds.
+     * @param origin   How the contents were written, such as
+     *                 <code>ORIGIN_UPLOAD</code>.
+     */
+    public ResourceMetadata(long length, String hash, String type, long modified, String origin) {
+        this.length = length;
+        this.hash = hash;
+        this.type = type;
+        this.modified = modified;
+        this.origin = origin;
+    }
+
+    /**
+     * Gets the length of the contents.
+     *
+     * @return The length, in bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the SHA-256 hash of the contents.
+     *
+     * @return The hash in hexadecimal, or <code>null</code> if it is not
+     *         known.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Gets the MIME type of the contents.
+     *
+     * @return The type.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Gets the time the contents were written.
+     *
+     * @return The time, in milliseconds since the epoch.
+     */
+    public long getModified() {
+        return modified;
+    }
+
+    /**
+     * Gets how the contents were written.
+     *
+     * @return The origin, such as <code>ORIGIN_UPLOAD</code>.
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Copies the metadata with another origin, such as when contents are
+     * moved.
+     *
+     * @param origin The origin.
+     * @return The copy.
+     */
+    public ResourceMetadata withOrigin(String origin) {
+        return new ResourceMetadata(length, hash, type, modified, origin);
+    }
+
+    @Override
+    public JsonObject writeJSON(JsonObject json) {
+        json.addProperty("length", length);
+        if (hash != null)
+            json.addProperty("sha256", hash);
+        json.addProperty("type", type);
+        json.addProperty("modified", modified);
+        json.addProperty("origin", origin);
+        return json;
+    }
+
+    @Override
+    public void loadJSON(JsonObject json) {
+        length = json.has("length") ? json.get("length").getAsLong() : 0;
+        hash = getStringOrNull(json, "sha256");
+        type = getStringOrNull(json, "type");
+        modified = json.has("modified") ? json.get("modified").getAsLong() : 0;
+        origin = getStringOrNull(json, "origin");
+    }
+}
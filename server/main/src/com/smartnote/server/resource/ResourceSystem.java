@@ -1,15 +1,29 @@
 package com.smartnote.server.resource;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.AllPermission;
 import java.security.Permission;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.smartnote.server.auth.Session;
 import com.smartnote.server.auth.SessionPermission;
 import com.smartnote.server.util.FileUtils;
 import com.smartnote.server.util.MIME;
@@ -24,6 +38,13 @@ import com.smartnote.server.util.MIME;
  * <code>findResource</code> for more information.
  * </p>
  * 
+ * <p>
+ * Session directories are sharded two levels deep by a hash of the
+ * session ID, such as <code>sessions/3f/a0/&lt;id&gt;</code>, so no
+ * directory holds more than a few entries. Use
+ * <code>getSessionDirectory</code> to find the directory of a session.
+ * </p>
+ * 
  * @author Ethan Vrhel
  * @see com.smartnote.server.resource.Resource
  */
@@ -67,6 +88,13 @@ public class ResourceSystem {
             SESSION_AUTH
     };
 
+    /**
+     * The length of the name of a session shard directory.
+     */
+    public static final int SHARD_LENGTH = 2;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceSystem.class);
+
     // for quick lookup
     private static final Set<String> SUPPORTED_MIME_TYPES_SET;
 
@@ -132,6 +160,11 @@ public class ResourceSystem {
     private Path sessionDir;
 
     private FileResourceFactory fileResourceFactory;
+    private final UsageLedger usageLedger;
+    private final BlobStore blobStore;
+    private final Map<String, ResourceManifest> manifests;
+    private final MemoryStore memoryStore;
+    private final Set<String> memoryAuthorities;
 
     /**
      * Creates a new ResourceSystem object with the specified configuration.
@@ -144,6 +177,149 @@ public class ResourceSystem {
         this.sessionDir = FileUtils.getCanonicalFile(config.getSessionDir()).toPath();
 
         this.fileResourceFactory = (name, path, mode) -> new FileResource(name, path.toFile(), mode);
+        this.usageLedger = new UsageLedger(this::measureSession);
+        this.blobStore = BlobStore.isSupported() ? new BlobStore(privateDir.resolve(BlobStore.BLOB_DIR)) : null;
+        this.manifests = new ConcurrentHashMap<>();
+
+        this.memoryAuthorities = Set.copyOf(config.getMemoryAuthorities());
+        this.memoryStore = memoryAuthorities.isEmpty() ? null : new MemoryStore(config.getMemoryBudget());
+    }
+
+    /**
+     * Gets the store holding resources in memory.
+     * 
+     * @return The store, or <code>null</code> if no authority is held in
+     *         memory.
+     */
+    public MemoryStore getMemoryStore() {
+        return memoryStore;
+    }
+
+    /**
+     * Forgets everything held about a session, such as when it is deleted.
+     * Contents held in memory are dropped without being written.
+     * 
+     * @param id The session ID.
+     */
+    public void forgetSession(String id) {
+        forgetManifest(id);
+        if (memoryStore != null)
+            memoryStore.removeUnder(getSessionDirectory(id));
+    }
+
+    // opens resources of an authority, in memory if it is configured to be
+    private Resource openResource(String authority, String name, Path path, AccessMode mode) throws IOException {
+        Resource resource = fileResourceFactory.openFileResource(name, path, mode);
+        if (memoryStore == null || !memoryAuthorities.contains(authority))
+            return resource;
+        return new MemoryResource(memoryStore, resource, path, mode);
+    }
+
+    // the manifest is not counted against the session's quota, contents
+    // held in memory are; they are counted before the files so contents
+    // written behind meanwhile are not missed
+    private long measureSession(String id) {
+        File dir = getSessionDirectory(id).toFile();
+        long unflushed = memoryStore == null ? 0 : memoryStore.unflushedUnder(dir.toPath());
+        return unflushed + FileUtils.getDirectorySize(dir) - new File(dir, ResourceManifest.MANIFEST_NAME).length();
+    }
+
+    /**
+     * Gets the manifest of a session, loading it when it is first needed.
+     * 
+     * @param id The session ID.
+     * @return The manifest.
+     */
+    public ResourceManifest getManifest(String id) {
+        return manifests.computeIfAbsent(id, k -> {
+            Path dir = getSessionDirectory(k);
+            String name = SESSION_AUTH + ":" + ResourceManifest.MANIFEST_NAME;
+            try {
+                ResourceManifest manifest = new ResourceManifest(
+                        fileResourceFactory.openFileResource(name, dir.resolve(ResourceManifest.MANIFEST_NAME),
+                                AccessMode.READ_WRITE_DELETE),
+                        fileResourceFactory.openFileResource(name, dir.resolve(ResourceManifest.MANIFEST_NAME + ".tmp"),
+                                AccessMode.READ_WRITE_DELETE),
+                        fileResourceFactory.openFileResource(name, dir.resolve(ResourceManifest.DIRTY_NAME),
+                                AccessMode.READ_WRITE_DELETE));
+                if (!manifest.isStored())
+                    indexSession(manifest, dir);
+                return manifest;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // records the files of a session written before the manifest existed
+    private void indexSession(ResourceManifest manifest, Path dir) throws IOException {
+        if (!Files.isDirectory(dir))
+            return;
+
+        Map<String, ResourceMetadata> found = new HashMap<>();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                String key = dir.relativize(path).toString().replace('\\', '/');
+                if (!Files.isRegularFile(path) || key.startsWith(ResourceManifest.MANIFEST_NAME))
+                    continue;
+
+                try {
+                    Resource resource = fileResourceFactory.openFileResource(SESSION_AUTH + ":" + key, path,
+                            AccessMode.READ);
+                    found.put(key, ResourceMetadata.measure(resource));
+                } catch (IOException e) {
+                    LOG.warn("Failed to index " + path, e);
+                }
+            }
+        }
+
+        if (!found.isEmpty()) {
+            manifest.putAll(found);
+            LOG.info("Indexed " + found.size() + " files of session " + dir.getFileName());
+        }
+    }
+
+    /**
+     * Writes every manifest changed since the last flush.
+     * 
+     * @return The number of manifests written.
+     */
+    public int flushManifests() {
+        int count = 0;
+        for (ResourceManifest manifest : manifests.values()) {
+            if (manifest.flush())
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Forgets the manifest of a session, such as when it is deleted.
+     * Changes that were not flushed are dropped.
+     * 
+     * @param id The session ID.
+     */
+    public void forgetManifest(String id) {
+        manifests.remove(id);
+    }
+
+    /**
+     * Gets the store keeping one copy of identical session files.
+     * 
+     * @return The store, or <code>null</code> if the platform cannot count
+     *         links to files.
+     */
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
+    /**
+     * Gets the ledger tracking the storage used by each session.
+     * 
+     * @return The ledger.
+     */
+    public UsageLedger getUsageLedger() {
+        return usageLedger;
     }
 
     /**
@@ -173,6 +349,80 @@ public class ResourceSystem {
         return sessionDir;
     }
 
+    /**
+     * Gets the directory of a session, within its shard of the session
+     * directory. The directory may not exist.
+     * 
+     * @param id The session ID.
+     * @return The path.
+     */
+    public Path getSessionDirectory(String id) {
+        int hash = id.hashCode();
+        String first = String.format("%02x", (hash >>> 8) & 0xff);
+        String second = String.format("%02x", hash & 0xff);
+        return sessionDir.resolve(first).resolve(second).resolve(id);
+    }
+
+    /**
+     * Lists the directories of every session.
+     * 
+     * @return The directories.
+     */
+    public List<File> listSessionDirectories() {
+        List<File> sessions = new ArrayList<>();
+
+        for (File first : listShards(sessionDir.toFile())) {
+            for (File second : listShards(first)) {
+                File[] dirs = second.listFiles(File::isDirectory);
+                if (dirs != null)
+                    sessions.addAll(List.of(dirs));
+            }
+        }
+
+        return sessions;
+    }
+
+    /**
+     * Moves session directories stored directly in the session directory,
+     * by older versions of the server, into their shards. Sessions keep
+     * their contents and their tokens stay valid.
+     * 
+     * @return The number of sessions moved.
+     */
+    public int migrateSessions() {
+        File[] entries = sessionDir.toFile().listFiles(File::isDirectory);
+        if (entries == null)
+            return 0;
+
+        int count = 0;
+        for (File f : entries) {
+            if (isShard(f))
+                continue;
+
+            Path target = getSessionDirectory(f.getName());
+            try {
+                Files.createDirectories(target.getParent());
+                Files.move(f.toPath(), target, StandardCopyOption.ATOMIC_MOVE);
+                count++;
+            } catch (IOException e) {
+                LOG.error("Failed to move session " + f.getName() + " into its shard", e);
+            }
+        }
+
+        if (count > 0)
+            LOG.info("Moved " + count + " sessions into shards");
+        return count;
+    }
+
+    private static List<File> listShards(File dir) {
+        File[] shards = dir.listFiles(ResourceSystem::isShard);
+        return shards == null ? List.of() : List.of(shards);
+    }
+
+    private static boolean isShard(File f) {
+        return f.getName().length() == SHARD_LENGTH && f.isDirectory();
+    }
+
     /**
      * <p>
      * Finds a resource with the specified name and permission. There are three
@@ -307,14 +557,14 @@ public class ResourceSystem {
 
     private Resource getPublicResource(String name, Path path, Permission permission)
             throws SecurityException, InvalidPathException, NoSuchResourceException, IOException {
-        return fileResourceFactory.openFileResource(name, getFullPath(publicDir, path), AccessMode.READ);
+        return openResource(PUBLIC_AUTH, name, getFullPath(publicDir, path), AccessMode.READ);
     }
 
     private Resource getPrivateResource(String name, Path path, Permission permission)
             throws SecurityException, InvalidPathException, NoSuchResourceException, IOException {
         if (permission == null || !permission.implies(getPrivatePermission()))
             throw new SecurityException("Access denied");
-        return fileResourceFactory.openFileResource(name, getFullPath(privateDir, path), AccessMode.READ);
+        return openResource(PRIVATE_AUTH, name, getFullPath(privateDir, path), AccessMode.READ);
     }
 
     private Resource getSessionResource(String name, Path path, Permission permission)
@@ -323,8 +573,11 @@ public class ResourceSystem {
             throw new SecurityException("Access denied");
 
         SessionPermission sessionPermission = (SessionPermission) permission;
-        Path fullPath = sessionPermission.getSession().pathInSession(path);
-        return fileResourceFactory.openFileResource(name, fullPath, AccessMode.READ_WRITE_DELETE);
+        Session session = sessionPermission.getSession();
+        Path fullPath = session.pathInSession(path);
+        Resource resource = openResource(SESSION_AUTH, name, fullPath, AccessMode.READ_WRITE_DELETE);
+        String key = path.normalize().toString().replace('\\', '/');
+        return new MeteredResource(resource, key, session, this);
     }
 
     private Path getFullPath(Path root, Path path) throws SecurityException {
@@ -336,7 +589,8 @@ public class ResourceSystem {
         }
 
         Path fullPath = root.resolve(rest);
-        if (!FileUtils.isFileInDirectory(fullPath.toFile(), root.toFile()))
+        // the roots are canonical, so the path is checked lexically
+        if (!FileUtils.isPathInCanonicalDirectory(fullPath, root))
             throw new SecurityException("Access denied");
 
         return fullPath;
@@ -0,0 +1,183 @@
+package com.smartnote.server.resource;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.JsonObject;
+
+/**
+ * <p>
+ * An upload whose body is sent in chunks, which may arrive in any order
+ * and in parallel. The chunks are written at their offset into a partial
+ * file in the session directory, which is allocated at its full size when
+ * the upload is created, so it counts against the quota from the start.
+ * </p>
+ *
+ * <p>
+ * The ranges received so far are tracked so the client can ask where to
+ * resume after a failure, and so the upload is only finished once every
+ * byte has arrived.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see ResumableUploads
+ */
+public class ResumableUpload {
+    /**
+     * The directory within the session directory holding partial files.
+     */
+    public static final String PARTIAL_DIR = ".uploads";
+
+    private final String id;
+    private final String sessionId;
+    private final String name;
+    private final long size;
+
+    private final TreeMap<Long, Long> ranges; // start to end, exclusive
+    private long received;
+    private volatile long lastActive;
+
+    ResumableUpload(String id, String sessionId, String name, long size, long now) {
+        this.id = id;
+        this.sessionId = sessionId;
+        this.name = name;
+        this.size = size;
+        this.ranges = new TreeMap<>();
+        this.lastActive = now;
+    }
+
+    /**
+     * Gets the ID of the upload.
+     *
+     * @return The ID.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the ID of the session that created the upload.
+     *
+     * @return The session ID.
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Gets the name of the resource the upload is written to once it is
+     * finished.
+     *
+     * @return The resource name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the total size of the upload.
+     *
+     * @return The size, in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the path of the partial file, within the session directory.
+     *
+     * @return The path.
+     */
+    public Path getPartialPath() {
+        return Paths.get(PARTIAL_DIR, id + ".part");
+    }
+
+    /**
+     * Records that a range of bytes was written. Overlapping ranges are
+     * only counted once.
+     *
+     * @param start The first byte.
+     * @param end   The byte after the last.
+     * @return The number of bytes received so far.
+     */
+    public synchronized long record(long start, long end) {
+        if (end <= start)
+            return received;
+
+        // merge with the range starting at or before start, if they touch
+        Map.Entry<Long, Long> before = ranges.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+            received -= before.getValue() - before.getKey();
+            ranges.remove(before.getKey());
+        }
+
+        // merge with every range starting within the new one
+        Map.Entry<Long, Long> after;
+        while ((after = ranges.ceilingEntry(start)) != null && after.getKey() <= end) {
+            end = Math.max(end, after.getValue());
+            received -= after.getValue() - after.getKey();
+            ranges.remove(after.getKey());
+        }
+
+        ranges.put(start, end);
+        received += end - start;
+        return received;
+    }
+
+    /**
+     * Gets the number of bytes received from the start of the upload
+     * without any gaps. The client can resume sending from here.
+     *
+     * @return The offset.
+     */
+    public synchronized long getOffset() {
+        Map.Entry<Long, Long> first = ranges.firstEntry();
+        return first == null || first.getKey() != 0 ? 0 : first.getValue();
+    }
+
+    /**
+     * Gets the number of bytes received so far, including those after a
+     * gap.
+     *
+     * @return The number of bytes.
+     */
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    /**
+     * Checks if every byte of the upload has been received.
+     *
+     * @return <code>true</code> if the upload is complete.
+     */
+    public synchronized boolean isComplete() {
+        return received == size;
+    }
+
+    /**
+     * Describes the progress of the upload, for sending to the client.
+     *
+     * @return A JSON object with the <code>id</code>, <code>size</code>,
+     *         <code>offset</code> and <code>received</code> of the upload.
+     */
+    public synchronized JsonObject describe() {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("size", size);
+        json.addProperty("offset", getOffset());
+        json.addProperty("received", received);
+        return json;
+    }
+
+    long getLastActive() {
+        return lastActive;
+    }
+
+    void touch(long now) {
+        lastActive = now;
+    }
+}
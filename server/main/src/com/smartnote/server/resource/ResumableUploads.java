@@ -0,0 +1,178 @@
+package com.smartnote.server.resource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.smartnote.server.Config;
+import com.smartnote.server.Server;
+import com.smartnote.server.util.CryptoUtils;
+
+/**
+ * <p>
+ * Tracks the resumable uploads in progress. An upload that receives no
+ * chunks for the configured expiry is discarded along with its partial
+ * file, releasing the space it took from the quota of its session.
+ * </p>
+ *
+ * <p>
+ * Uploads are only kept in memory, so they do not survive a restart.
+ * Their partial files are removed with the session directory.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see ResumableUpload
+ * @see com.smartnote.server.api.v1.UploadStart
+ */
+public class ResumableUploads {
+    /**
+     * The length of upload IDs.
+     */
+    public static final int ID_LENGTH = 16;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResumableUploads.class);
+
+    private static ResumableUploads instance;
+
+    /**
+     * Gets the shared uploads, creating them if needed.
+     *
+     * @return The shared uploads.
+     */
+    public static synchronized ResumableUploads getInstance() {
+        if (instance == null) {
+            Config config = Server.getServer().getConfig();
+            ResourceConfig resourceConfig = config == null ? new ResourceConfig() : config.getResourceConfig();
+            instance = new ResumableUploads(TimeUnit.SECONDS.toMillis(resourceConfig.getUploadExpiry()),
+                    System::currentTimeMillis, ResumableUploads::deletePartial);
+        }
+        return instance;
+    }
+
+    // deletes the partial file of an upload that was not finished
+    private static void deletePartial(ResumableUpload upload) {
+        ResourceSystem resourceSystem = Server.getServer().getResourceSystem();
+        Path partial = resourceSystem.getSessionDirectory(upload.getSessionId()).resolve(upload.getPartialPath());
+
+        try {
+            // the session directory may already have been deleted
+            if (Files.deleteIfExists(partial))
+                resourceSystem.getUsageLedger().adjust(upload.getSessionId(), -upload.getSize());
+        } catch (IOException e) {
+            LOG.error("Failed to delete partial upload " + upload.getId(), e);
+        }
+    }
+
+    private final Map<String, ResumableUpload> uploads;
+    private final long expiry;
+    private final LongSupplier clock;
+    private final Consumer<ResumableUpload> discard;
+
+    /**
+     * Creates a new set of uploads.
+     *
+     * @param expiry  How long an upload is kept after its last chunk, in
+     *                milliseconds.
+     * @param clock   Source of the current time, in milliseconds.
+     * @param discard Called with each upload that expired.
+     */
+    public ResumableUploads(long expiry, LongSupplier clock, Consumer<ResumableUpload> discard) {
+        this.uploads = new ConcurrentHashMap<>();
+        this.expiry = expiry;
+        this.clock = clock;
+        this.discard = discard;
+    }
+
+    /**
+     * Creates a new upload. The caller is responsible for allocating its
+     * partial file.
+     *
+     * @param sessionId The ID of the session uploading.
+     * @param name      The name of the resource to write once finished.
+     * @param size      The total size of the upload.
+     * @return The upload.
+     */
+    public ResumableUpload create(String sessionId, String name, long size) {
+        while (true) {
+            String id = CryptoUtils.randomString(ID_LENGTH);
+            ResumableUpload upload = new ResumableUpload(id, sessionId, name, size, clock.getAsLong());
+            if (uploads.putIfAbsent(id, upload) == null)
+                return upload;
+        }
+    }
+
+    /**
+     * Gets an upload, keeping it from expiring.
+     *
+     * @param id        The upload ID.
+     * @param sessionId The ID of the session asking for it.
+     * @return The upload, or <code>null</code> if it does not exist, has
+     *         expired, or belongs to another session.
+     */
+    public ResumableUpload get(String id, String sessionId) {
+        if (id == null)
+            return null;
+
+        ResumableUpload upload = uploads.get(id);
+        if (upload == null || !upload.getSessionId().equals(sessionId))
+            return null;
+
+        long now = clock.getAsLong();
+        if (now - upload.getLastActive() >= expiry)
+            return null;
+
+        upload.touch(now);
+        return upload;
+    }
+
+    /**
+     * Removes an upload, such as once it is finished.
+     *
+     * @param id The upload ID.
+     * @return The removed upload, or <code>null</code> if it did not exist.
+     */
+    public ResumableUpload remove(String id) {
+        return uploads.remove(id);
+    }
+
+    /**
+     * Discards every upload that has expired.
+     *
+     * @return The number of uploads discarded.
+     */
+    public int purge() {
+        long now = clock.getAsLong();
+        int count = 0;
+
+        Iterator<ResumableUpload> it = uploads.values().iterator();
+        while (it.hasNext()) {
+            ResumableUpload upload = it.next();
+            if (now - upload.getLastActive() < expiry)
+                continue;
+
+            it.remove();
+            discard.accept(upload);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the number of uploads in progress.
+     *
+     * @return The number of uploads.
+     */
+    public int size() {
+        return uploads.size();
+    }
+}
@@ -0,0 +1,214 @@
+package com.smartnote.server.resource;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * <p>
+ * Tracks the storage used by each session. The usage of a session is
+ * measured once, when it is first needed, and is then adjusted by every
+ * write and delete made through a session <code>Resource</code>, so
+ * checking a quota does not walk the session directory.
+ * </p>
+ *
+ * <p>
+ * Writes whose size is known in advance, such as uploads, should first
+ * <code>reserve</code> their size. A reservation is only granted if the
+ * usage, plus all reservations in flight, stays within the quota, so
+ * concurrent writes cannot exceed it together. Once the write is done,
+ * or has failed, the reservation is committed or rolled back. In both
+ * cases the bytes actually written have already been counted by the
+ * resource.
+ * </p>
+ *
+ * <p>
+ * Files can change without going through a resource, so
+ * <code>reconcile</code> should be called periodically to measure the
+ * usage again and correct any drift.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see ResourceSystem
+ */
+public class UsageLedger {
+    /**
+     * <p>
+     * Space reserved for a write in progress. Must be committed or rolled
+     * back exactly once; closing an uncommitted reservation rolls it back.
+     * </p>
+     *
+     * @author Ethan Vrhel
+     */
+    public final class Reservation implements AutoCloseable {
+        private final Account account;
+        private long bytes;
+        private boolean done;
+
+        private Reservation(Account account, long bytes) {
+            this.account = account;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Gets the number of reserved bytes.
+         *
+         * @return The number of bytes.
+         */
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Reserves more space, such as for a write whose size was not known
+         * in advance.
+         *
+         * @param more  The number of bytes to add.
+         * @param quota The quota of the session.
+         * @return <code>true</code> if the space was reserved,
+         *         <code>false</code> if it would exceed the quota or the
+         *         reservation was already released.
+         */
+        public synchronized boolean grow(long more, long quota) {
+            if (done || !account.tryReserve(more, quota))
+                return false;
+
+            bytes += more;
+            return true;
+        }
+
+        /**
+         * Releases the reservation after the write succeeded.
+         */
+        public synchronized void commit() {
+            release();
+        }
+
+        /**
+         * Releases the reservation after the write failed or was
+         * abandoned.
+         */
+        public synchronized void rollback() {
+            release();
+        }
+
+        @Override
+        public synchronized void close() {
+            release();
+        }
+
+        private void release() {
+            if (done)
+                return;
+            done = true;
+            account.reserved.addAndGet(-bytes);
+        }
+    }
+
+    private static final class Account {
+        private final AtomicLong used;
+        private final AtomicLong reserved;
+
+        private Account(long used) {
+            this.used = new AtomicLong(used);
+            this.reserved = new AtomicLong();
+        }
+
+        private boolean tryReserve(long bytes, long quota) {
+            while (true) {
+                long current = reserved.get();
+                if (used.get() + current + bytes > quota)
+                    return false;
+
+                if (reserved.compareAndSet(current, current + bytes))
+                    return true;
+            }
+        }
+    }
+
+    private final Map<String, Account> accounts;
+    private final ToLongFunction<String> measure;
+
+    /**
+     * Creates a new ledger.
+     *
+     * @param measure Measures the actual usage of a session, given its ID.
+     */
+    public UsageLedger(ToLongFunction<String> measure) {
+        this.accounts = new ConcurrentHashMap<>();
+        this.measure = measure;
+    }
+
+    /**
+     * Gets the storage used by a session, not including reservations.
+     *
+     * @param id The session ID.
+     * @return The number of bytes used.
+     */
+    public long getUsage(String id) {
+        return account(id).used.get();
+    }
+
+    /**
+     * Gets the storage reserved for writes in progress.
+     *
+     * @param id The session ID.
+     * @return The number of bytes reserved.
+     */
+    public long getReserved(String id) {
+        return account(id).reserved.get();
+    }
+
+    /**
+     * Reserves space for a write.
+     *
+     * @param id    The session ID.
+     * @param bytes The number of bytes to reserve.
+     * @param quota The quota of the session.
+     * @return The reservation, or <code>null</code> if it would exceed the
+     *         quota.
+     */
+    public Reservation reserve(String id, long bytes, long quota) {
+        Account account = account(id);
+        return account.tryReserve(bytes, quota) ? new Reservation(account, bytes) : null;
+    }
+
+    /**
+     * Records a change in the storage used by a session.
+     *
+     * @param id    The session ID.
+     * @param delta The change, in bytes.
+     */
+    public void adjust(String id, long delta) {
+        if (delta != 0)
+            account(id).used.addAndGet(delta);
+    }
+
+    /**
+     * Forgets a session, such as when it is deleted.
+     *
+     * @param id The session ID.
+     */
+    public void forget(String id) {
+        accounts.remove(id);
+    }
+
+    /**
+     * Measures the usage of every known session again. A session whose
+     * usage changes while it is being measured is skipped and corrected
+     * the next time.
+     */
+    public void reconcile() {
+        for (Map.Entry<String, Account> entry : accounts.entrySet()) {
+            AtomicLong used = entry.getValue().used;
+            long before = used.get();
+            long actual = measure.applyAsLong(entry.getKey());
+            used.compareAndSet(before, actual);
+        }
+    }
+
+    private Account account(String id) {
+        return accounts.computeIfAbsent(id, k -> new Account(measure.applyAsLong(k)));
+    }
+}
@@ -0,0 +1,132 @@
+package com.smartnote.server.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>
+ * A thread-safe cache whose entries expire a fixed amount of time after
+ * they are stored. If the cache slides, reading an entry also resets its
+ * expiration. Expired entries are removed when they are read and
+ * periodically as new entries are stored.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class ExpiringCache<K, V> {
+    // expired entries are removed after this many stores
+    private static final int PURGE_INTERVAL = 64;
+
+    private static final class Item<V> {
+        private final V value;
+        private volatile long expires;
+
+        private Item(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final Map<K, Item<V>> items;
+    private final long ttl;
+    private final boolean slide;
+    private final LongSupplier clock;
+
+    private int stores;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param ttl   How long entries are kept, in milliseconds.
+     * @param slide Whether reading an entry resets its expiration.
+     */
+    public ExpiringCache(long ttl, boolean slide) {
+        this(ttl, slide, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates a new cache with a custom clock.
+     *
+     * @param ttl   How long entries are kept, in milliseconds.
+     * @param slide Whether reading an entry resets its expiration.
+     * @param clock Source of the current time, in milliseconds.
+     */
+    public ExpiringCache(long ttl, boolean slide, LongSupplier clock) {
+        this.items = new ConcurrentHashMap<>();
+        this.ttl = ttl;
+        this.slide = slide;
+        this.clock = clock;
+    }
+
+    /**
+     * Gets an entry.
+     *
+     * @param key The key.
+     * @return The value, or <code>null</code> if there is no entry or it
+     *         has expired.
+     */
+    public V get(K key) {
+        Item<V> item = items.get(key);
+        if (item == null)
+            return null;
+
+        long now = clock.getAsLong();
+        if (now >= item.expires) {
+            items.remove(key, item);
+            return null;
+        }
+
+        if (slide)
+            item.expires = now + ttl;
+
+        return item.value;
+    }
+
+    /**
+     * Stores an entry, replacing any existing entry.
+     *
+     * @param key   The key.
+     * @param value The value.
+     */
+    public void put(K key, V value) {
+        long now = clock.getAsLong();
+        items.put(key, new Item<>(value, now + ttl));
+
+        boolean purge;
+        synchronized (this) {
+            purge = ++stores % PURGE_INTERVAL == 0;
+        }
+
+        if (purge)
+            items.values().removeIf(item -> now >= item.expires);
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param key The key.
+     */
+    public void invalidate(K key) {
+        items.remove(key);
+    }
+
+    /**
+     * Removes an entry only if it still has the given value.
+     *
+     * @param key   The key.
+     * @param value The value.
+     */
+    public void invalidate(K key, V value) {
+        items.computeIfPresent(key, (k, item) -> item.value.equals(value) ? null : item);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        items.clear();
+    }
+}
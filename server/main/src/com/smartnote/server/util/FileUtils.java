@@ -4,9 +4,12 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Objects;
 
 /**
@@ -181,6 +184,51 @@ public class FileUtils {
         return filePath.startsWith(directoryPath);
     }
 
+    /**
+     * Tests if a path is in a directory, which must already be canonical,
+     * or any of its subdirectories. The path is normalized lexically rather
+     * than resolved on the file system. Each component of the path below
+     * the directory that exists is then checked for being a symbolic link;
+     * once one is found, the path is resolved and must still be in the
+     * directory. This makes one system call per existing component for
+     * paths without links.
+     * 
+     * @param path      The path.
+     * @param directory The canonical directory.
+     * @return <code>true</code> if the path is in the directory or any of
+     *         its subdirectories, <code>false</code> otherwise.
+     */
+    public static boolean isPathInCanonicalDirectory(Path path, Path directory) {
+        Path normalized = path.toAbsolutePath().normalize();
+        if (!normalized.startsWith(directory))
+            return false;
+
+        // a link placed in the directory, at any depth, may point outside
+        // of it
+        Path current = directory;
+        for (Path name : directory.relativize(normalized)) {
+            current = current.resolve(name);
+
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(current, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                // nothing below a missing component exists
+                return true;
+            } catch (IOException e) {
+                break;
+            }
+
+            if (attributes.isSymbolicLink())
+                break;
+
+            if (current.equals(normalized))
+                return true;
+        }
+
+        return getCanonicalFile(normalized.toFile()).toPath().startsWith(directory);
+    }
+
     /**
      * Gets the canonical file of a file. If the canonical file cannot be
      * retrieved, the absolute file is returned.
@@ -12,6 +12,24 @@ import java.io.InputStream;
  * @see com.smartnote.server.util.FileUtils
  */
 public class IOUtils {
+    /**
+     * The size of the buffers returned by <code>buffer</code>.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024; // 64 KiB
+
+    // request threads are pooled, so each keeps its buffer between requests
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    /**
+     * Gets the copy buffer of the current thread. The buffer is reused by
+     * every caller on the thread, so it must not be kept or used by a
+     * method that may call <code>buffer</code> itself.
+     * 
+     * @return The buffer, <code>BUFFER_SIZE</code> bytes long.
+     */
+    public static byte[] buffer() {
+        return BUFFERS.get();
+    }
 
     /**
      * Read all remaining bytes from an input stream.
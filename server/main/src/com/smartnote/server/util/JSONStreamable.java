@@ -0,0 +1,25 @@
+package com.smartnote.server.util;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * <p>
+ * An object that can write itself to a JSON stream without building a
+ * <code>JsonElement</code> tree first.
+ * </p>
+ * 
+ * @author Ethan Vrhel
+ * @see JSONSerializable
+ */
+@FunctionalInterface
+public interface JSONStreamable {
+    /**
+     * Writes the object to a JSON stream.
+     * 
+     * @param writer The writer.
+     * @throws IOException If the writer fails.
+     */
+    void writeJSON(JsonWriter writer) throws IOException;
+}
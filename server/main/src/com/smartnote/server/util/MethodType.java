@@ -18,6 +18,11 @@ public enum MethodType {
      */
     POST,
 
+    /**
+     * PUT method.
+     */
+    PUT,
+
     /**
      * DELETE method.
      */
@@ -0,0 +1,149 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.auth.SessionPermission;
+import com.smartnote.server.resource.BlobStore;
+import com.smartnote.server.resource.Resource;
+import com.smartnote.server.resource.ResourceConfig;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.util.CryptoUtils;
+import com.smartnote.server.util.FileUtils;
+import com.smartnote.testing.Base;
+
+/**
+ * <p>
+ * Tests that identical session files are stored once.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.resource.BlobStore
+ */
+public class BlobStoreTest extends Base {
+    private static final byte[] CONTENTS = "course notes".getBytes();
+
+    private Path directory;
+    private ResourceSystem resourceSystem;
+    private BlobStore blobStore;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Assume.assumeTrue(BlobStore.isSupported());
+        CryptoUtils.init(null);
+
+        directory = Files.createTempDirectory("blobs");
+
+        JsonObject json = new JsonObject();
+        json.addProperty("privateDir", directory.resolve("private").toString());
+        json.addProperty("sessionDir", directory.resolve("sessions").toString());
+
+        ResourceConfig config = new ResourceConfig();
+        config.loadJSON(json);
+        resourceSystem = new ResourceSystem(config);
+        blobStore = resourceSystem.getBlobStore();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (directory != null)
+            FileUtils.deleteFile(directory.toFile());
+        super.tearDown();
+    }
+
+    private Path write(String name) throws Exception {
+        Path path = directory.resolve(name);
+        Files.write(path, CONTENTS);
+        return path;
+    }
+
+    private Session session(String id) {
+        Path sessionDirectory = resourceSystem.getSessionDirectory(id);
+
+        Session session = mock(Session.class);
+        SessionPermission permission = mock(SessionPermission.class);
+        when(session.getId()).thenReturn(id);
+        when(session.getPermission()).thenReturn(permission);
+        when(session.pathInSession(any())).thenAnswer(invocation -> sessionDirectory.resolve((Path) invocation.getArgument(0)));
+        when(permission.getSession()).thenReturn(session);
+        return session;
+    }
+
+    @Test
+    public void testStoreOnce() throws Exception {
+        byte[] digest = BlobStore.newDigest().digest(CONTENTS);
+        Path a = directory.resolve("a/file");
+        Path b = directory.resolve("b/file");
+
+        assertFalse(blobStore.store(write("upload1"), digest, a));
+        assertTrue(blobStore.store(write("upload2"), digest, b));
+
+        Path blob = blobStore.getBlobPath(digest);
+        assertEquals(3, BlobStore.getLinkCount(blob));
+        assertArrayEquals(CONTENTS, Files.readAllBytes(a));
+        assertArrayEquals(CONTENTS, Files.readAllBytes(b));
+        assertFalse(Files.exists(directory.resolve("upload1")));
+        assertFalse(Files.exists(directory.resolve("upload2")));
+    }
+
+    @Test
+    public void testPurge() throws Exception {
+        byte[] digest = BlobStore.newDigest().digest(CONTENTS);
+        Path a = directory.resolve("a/file");
+        blobStore.store(write("upload"), digest, a);
+
+        Path blob = blobStore.getBlobPath(digest);
+        Files.setLastModifiedTime(blob, FileTime.fromMillis(0));
+
+        // still linked
+        assertEquals(0, blobStore.purge());
+
+        Files.delete(a);
+        assertEquals(1, blobStore.purge());
+        assertFalse(Files.exists(blob));
+    }
+
+    @Test
+    public void testWriteCopiesShared() throws Exception {
+        Session first = session("first");
+        Session second = session("second");
+        byte[] digest = BlobStore.newDigest().digest(CONTENTS);
+
+        for (Session session : new Session[] { first, second }) {
+            assertEquals(0, resourceSystem.getUsageLedger().getUsage(session.getId()));
+
+            Resource temp = resourceSystem.findActualResource(ResourceSystem.SESSION_AUTH, Paths.get(".temp"),
+                    session.getPermission());
+            try (OutputStream out = temp.openOutputStream()) {
+                out.write(CONTENTS);
+            }
+
+            Resource target = resourceSystem.findResource(ResourceSystem.inSession("file"), session.getPermission());
+            temp.moveTo(target, digest);
+            assertEquals(CONTENTS.length, resourceSystem.getUsageLedger().getUsage(session.getId()));
+        }
+
+        // writing one session's file leaves the other alone
+        Resource resource = resourceSystem.findResource(ResourceSystem.inSession("file"), first.getPermission());
+        try (OutputStream out = resource.openOutputStream()) {
+            out.write("changed".getBytes());
+        }
+
+        Resource other = resourceSystem.findResource(ResourceSystem.inSession("file"), second.getPermission());
+        assertEquals("changed", resource.readToString());
+        assertArrayEquals(CONTENTS, other.readAllBytes());
+        assertEquals(2, BlobStore.getLinkCount(blobStore.getBlobPath(digest)));
+    }
+}
@@ -0,0 +1,252 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.smartnote.server.api.v1.BulkExport;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.export.ExportConfig;
+import com.smartnote.server.export.ExportOptions;
+import com.smartnote.server.export.ExportOutbox;
+import com.smartnote.server.export.ExportProgress;
+import com.smartnote.server.export.NotionBulkExporter;
+import com.smartnote.server.resource.Resource;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.util.FileUtils;
+import com.smartnote.server.util.MIME;
+import com.smartnote.testing.BaseRoute;
+import com.smartnote.testing.MockNotionServer;
+
+import spark.Response;
+
+/**
+ * <p>Tests the <code>export/bulk</code> RPC.</p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.api.v1.BulkExport
+ */
+public class BulkExportTest extends BaseRoute {
+    public static final int NOTES = 6;
+
+    private BulkExport bulkExport;
+    private MockNotionServer notion;
+    private Path directory;
+    private ExportOutbox outbox;
+    private Session session;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        bulkExport = new BulkExport();
+
+        notion = new MockNotionServer(4);
+
+        JsonObject config = new JsonObject();
+        config.addProperty("apiUrl", notion.getUrl());
+        config.addProperty("allowRemoteIntegrations", true);
+        config.addProperty("rateLimit", 10000);
+        Server.getServer().getConfig().getNotionConfig().loadJSON(config);
+
+        directory = Files.createTempDirectory("outbox");
+        outbox = new ExportOutbox(new ExportConfig(), directory);
+        outbox.start();
+        setOutbox(outbox);
+
+        session = getSession(activateSession());
+        ResourceSystem resourceSystem = Server.getServer().getResourceSystem();
+        for (int i = 0; i < NOTES; i++) {
+            Resource resource = resourceSystem.findResource(name(i), session.getPermission());
+            try (OutputStream out = resource.openOutputStream()) {
+                out.write(("# Week " + i + "\n\nNotes for week " + i + ".\n").getBytes());
+            }
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        notion.stop();
+        outbox.shutdown();
+        setOutbox(null);
+        FileUtils.deleteFile(directory.toFile());
+        Server.getServer().getConfig().getNotionConfig().loadJSON(new JsonObject());
+        super.tearDown();
+    }
+
+    private static void setOutbox(ExportOutbox outbox) throws Exception {
+        Field outboxField = Server.class.getDeclaredField("exportOutbox");
+        outboxField.setAccessible(true);
+        outboxField.set(Server.getServer(), outbox);
+    }
+
+    // waits for the queued export to finish
+    private JsonObject await(String id) throws Exception {
+        for (int i = 0; i < 200; i++) {
+            JsonObject status = outbox.getStatus(id, session);
+            String s = status.get("status").getAsString();
+            if (s.equals(ExportOutbox.SUCCEEDED) || s.equals(ExportOutbox.FAILED))
+                return status;
+            Thread.sleep(50);
+        }
+
+        fail("Export did not finish");
+        return null;
+    }
+
+    private static String name(int i) {
+        return ResourceSystem.SESSION_AUTH + ":week" + i + ".md";
+    }
+
+    private JsonObject request(JsonArray sources) {
+        JsonObject integration = new JsonObject();
+        integration.addProperty("token", "secret_bulk_test");
+
+        JsonObject remote = new JsonObject();
+        remote.addProperty("page", UUID.randomUUID().toString());
+        remote.add("integration", integration);
+
+        JsonObject body = new JsonObject();
+        body.add("sources", sources);
+        body.add("remote", remote);
+        return body;
+    }
+
+    @Test
+    public void testBulkExport() throws Exception {
+        JsonArray sources = new JsonArray();
+        for (int i = 0; i < NOTES; i++)
+            sources.add(name(i));
+
+        JsonObject named = new JsonObject();
+        named.addProperty("source", name(0));
+        named.addProperty("output", "Custom Title");
+        sources.add(named);
+
+        setRequestBody(request(sources).toString());
+        Response response = handle(bulkExport);
+
+        assertEquals(202, response.status());
+        assertEquals(MIME.JSON, response.type());
+
+        JsonObject queued = getGson().fromJson(responseBody(), JsonObject.class);
+        assertEquals(NOTES + 1, queued.get("count").getAsInt());
+
+        JsonObject status = await(queued.get("id").getAsString());
+        assertEquals(ExportOutbox.SUCCEEDED, status.get("status").getAsString());
+
+        JsonArray results = status.getAsJsonObject("result").getAsJsonArray("results");
+        assertEquals(NOTES + 1, results.size());
+
+        for (int i = 0; i < NOTES; i++) {
+            JsonObject result = results.get(i).getAsJsonObject();
+            assertEquals(200, result.get("status").getAsInt());
+            assertEquals(i, result.get("index").getAsInt());
+            assertEquals(name(i), result.get("source").getAsString());
+            assertEquals("Week " + i, result.get("name").getAsString());
+            assertNotNull(result.get("id"));
+        }
+
+        assertEquals("Custom Title", results.get(NOTES).getAsJsonObject().get("name").getAsString());
+
+        assertEquals(0, notion.getRejected());
+        assertEquals(NOTES + 1, notion.getRequests());
+    }
+
+    @Test
+    public void testContinueRecordedProgress() throws Exception {
+        JsonObject recorded = new JsonObject();
+        ExportProgress progress = new ExportProgress() {
+            @Override
+            public synchronized JsonObject get() {
+                return recorded.deepCopy();
+            }
+
+            @Override
+            public synchronized void update(String key, JsonElement value) {
+                recorded.add(key, value);
+            }
+        };
+
+        // the first note completed and the second started before a restart
+        JsonObject completed = new JsonObject();
+        completed.addProperty("index", 0);
+        completed.addProperty("status", 200);
+        recorded.add("0", completed);
+
+        JsonObject started = new JsonObject();
+        started.addProperty("index", 1);
+        started.addProperty("started", true);
+        recorded.add("1", started);
+
+        JsonArray notes = new JsonArray();
+        for (int i = 0; i < 3; i++) {
+            JsonObject note = new JsonObject();
+            note.addProperty("data", "# Note " + i + "\n");
+            notes.add(note);
+        }
+
+        JsonObject json = request(new JsonArray());
+        json.remove("sources");
+        json.addProperty("exporter", "notion-bulk");
+        json.addProperty("data", notes.toString());
+        ExportOptions options = new ExportOptions();
+        options.parse(json);
+
+        JsonObject result = new NotionBulkExporter().export(options, session.getPermission(), progress);
+        JsonArray results = result.getAsJsonArray("results");
+
+        assertEquals(200, results.get(0).getAsJsonObject().get("status").getAsInt());
+        assertEquals(500, results.get(1).getAsJsonObject().get("status").getAsInt());
+        assertEquals("Export incomplete", results.get(1).getAsJsonObject().get("message").getAsString());
+        assertEquals(200, results.get(2).getAsJsonObject().get("status").getAsInt());
+
+        // only the note that had not started was exported
+        assertEquals(1, notion.getRequests());
+        assertEquals(200, progress.get().getAsJsonObject("2").get("status").getAsInt());
+    }
+
+    @Test
+    public void testMissingSource() throws Exception {
+        JsonArray sources = new JsonArray();
+        sources.add(name(0));
+        sources.add(ResourceSystem.SESSION_AUTH + ":missing.md");
+
+        setRequestBody(request(sources).toString());
+        doApiTest(bulkExport, 404);
+
+        // nothing was queued or exported
+        assertEquals(0, notion.getRequests());
+    }
+
+    @Test
+    public void testNoSources() throws Exception {
+        setRequestBody(request(new JsonArray()).toString());
+        doApiTest(bulkExport, 400);
+    }
+
+    @Test
+    public void testTooManySources() throws Exception {
+        JsonArray sources = new JsonArray();
+        for (int i = 0; i <= BulkExport.MAX_SOURCES; i++)
+            sources.add(name(0));
+
+        setRequestBody(request(sources).toString());
+        doApiTest(bulkExport, 400);
+    }
+
+    @Test
+    public void testNoSession() throws Exception {
+        deactivateSession();
+        setRequestBody(request(new JsonArray()).toString());
+        doApiTest(bulkExport, 401);
+    }
+}
@@ -0,0 +1,288 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Permission;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.export.ExportConfig;
+import com.smartnote.server.export.ExportException;
+import com.smartnote.server.export.ExportIncompleteException;
+import com.smartnote.server.export.ExportOptions;
+import com.smartnote.server.export.ExportOutbox;
+import com.smartnote.server.export.ExportProgress;
+import com.smartnote.server.export.ExportServiceUnavailableException;
+import com.smartnote.server.export.Exporters;
+import com.smartnote.server.export.RemoteExporter;
+import com.smartnote.server.util.FileUtils;
+import com.smartnote.testing.BaseServer;
+
+/**
+ * <p>
+ * Tests the ExportOutbox class.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.export.ExportOutbox
+ */
+public class ExportOutboxTest extends BaseServer {
+    public static final String EXPORTER = "outbox-test";
+
+    // number of times the test exporter should fail before succeeding
+    private static final AtomicInteger FAILURES = new AtomicInteger();
+    private static final AtomicInteger CALLS = new AtomicInteger();
+    private static volatile CountDownLatch RELEASE = new CountDownLatch(0);
+
+    static {
+        Exporters.getExporters().registerExporter(EXPORTER, new RemoteExporter() {
+            @Override
+            public JsonObject export(ExportOptions options, Permission permission) throws ExportException {
+                CALLS.incrementAndGet();
+                if (options.getData().equals("rejected"))
+                    throw new ExportServiceUnavailableException("rejected", false);
+
+                // stops halfway through once, then continues from there
+                JsonObject remote = options.getRemote();
+                if (options.getData().equals("incomplete") && (remote == null || !remote.has("offset"))) {
+                    JsonObject resume = new JsonObject();
+                    resume.addProperty("offset", 1);
+                    throw new ExportIncompleteException("incomplete", resume);
+                }
+
+                if (FAILURES.getAndDecrement() > 0)
+                    throw new ExportServiceUnavailableException("unavailable");
+
+                JsonObject result = new JsonObject();
+                result.addProperty("data", options.getData());
+                if (remote != null)
+                    result.add("remote", remote);
+                return result;
+            }
+
+            @Override
+            public JsonObject export(ExportOptions options, Permission permission, ExportProgress progress)
+                    throws ExportException {
+                if (!options.getData().equals("progress"))
+                    return export(options, permission);
+
+                // holds the export open until the test has seen its progress
+                progress.update("step", new JsonPrimitive(1));
+                try {
+                    RELEASE.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                return new JsonObject();
+            }
+
+            @Override
+            public Set<String> getCredentials() {
+                return Set.of("token");
+            }
+        });
+    }
+
+    private Path directory;
+    private ExportOutbox outbox;
+    private Session session;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        directory = Files.createTempDirectory("outbox");
+        session = getSession(SESSION_TOKEN);
+        FAILURES.set(0);
+        CALLS.set(0);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (outbox != null)
+            outbox.shutdown();
+        FileUtils.deleteFile(directory.toFile());
+        super.tearDown();
+    }
+
+    private JsonObject options(String data) {
+        JsonObject options = new JsonObject();
+        options.addProperty("exporter", EXPORTER);
+        options.addProperty("data", data);
+        return options;
+    }
+
+    // waits for an export to finish
+    private JsonObject await(String id) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            JsonObject status = outbox.getStatus(id, session);
+            String s = status.get("status").getAsString();
+            if (s.equals(ExportOutbox.SUCCEEDED) || s.equals(ExportOutbox.FAILED))
+                return status;
+            Thread.sleep(50);
+        }
+
+        fail("Export did not finish");
+        return null;
+    }
+
+    @Test
+    public void testSubmit() throws Exception {
+        outbox = new ExportOutbox(new ExportConfig(), directory);
+        outbox.start();
+
+        String id = outbox.submit(session, options("hello"), null);
+        assertTrue(Files.exists(directory.resolve(id + ".json")));
+
+        JsonObject status = await(id);
+        assertEquals(ExportOutbox.SUCCEEDED, status.get("status").getAsString());
+        assertEquals("hello", status.getAsJsonObject("result").get("data").getAsString());
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        FAILURES.set(1);
+
+        outbox = new ExportOutbox(new ExportConfig(), directory);
+        outbox.start();
+
+        JsonObject status = await(outbox.submit(session, options("retry"), null));
+        assertEquals(ExportOutbox.SUCCEEDED, status.get("status").getAsString());
+        assertEquals(2, status.get("attempts").getAsInt());
+    }
+
+    @Test
+    public void testNotRetryable() throws Exception {
+        outbox = new ExportOutbox(new ExportConfig(), directory);
+        outbox.start();
+
+        JsonObject status = await(outbox.submit(session, options("rejected"), null));
+        assertEquals(ExportOutbox.FAILED, status.get("status").getAsString());
+        assertEquals(1, status.get("attempts").getAsInt());
+    }
+
+    @Test
+    public void testContinue() throws Exception {
+        outbox = new ExportOutbox(new ExportConfig(), directory);
+        outbox.start();
+
+        JsonObject options = options("incomplete");
+        JsonObject remote = new JsonObject();
+        remote.addProperty("page", "abc");
+        options.add("remote", remote);
+
+        JsonObject status = await(outbox.submit(session, options, null));
+        assertEquals(ExportOutbox.SUCCEEDED, status.get("status").getAsString());
+        assertEquals(2, status.get("attempts").getAsInt());
+
+        // the second attempt continued with the merged options
+        JsonObject result = status.getAsJsonObject("result").getAsJsonObject("remote");
+        assertEquals("abc", result.get("page").getAsString());
+        assertEquals(1, result.get("offset").getAsInt());
+    }
+
+    @Test
+    public void testProgress() throws Exception {
+        RELEASE = new CountDownLatch(1);
+        outbox = new ExportOutbox(new ExportConfig(), directory);
+        outbox.start();
+
+        String id = outbox.submit(session, options("progress"), null);
+        try {
+            JsonObject status = null;
+            for (int i = 0; i < 100 && (status == null || !status.has("progress")); i++) {
+                Thread.sleep(20);
+                status = outbox.getStatus(id, session);
+            }
+
+            assertEquals(ExportOutbox.RUNNING, status.get("status").getAsString());
+            assertEquals(1, status.getAsJsonObject("progress").get("step").getAsInt());
+            assertTrue(Files.readString(directory.resolve(id + ".json")).contains("\"step\""));
+        } finally {
+            RELEASE.countDown();
+        }
+
+        JsonObject status = await(id);
+        assertEquals(ExportOutbox.SUCCEEDED, status.get("status").getAsString());
+        assertFalse(status.has("progress"));
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        // never started, so the export is only recorded
+        ExportOutbox stopped = new ExportOutbox(new ExportConfig(), directory);
+        String id = stopped.submit(session, options("replay"), null);
+        assertEquals(0, CALLS.get());
+
+        outbox = new ExportOutbox(new ExportConfig(), directory);
+        outbox.start();
+
+        JsonObject status = await(id);
+        assertEquals(ExportOutbox.SUCCEEDED, status.get("status").getAsString());
+        assertEquals(1, CALLS.get());
+    }
+
+    @Test
+    public void testCredentialsNotWritten() throws Exception {
+        outbox = new ExportOutbox(new ExportConfig(), directory);
+
+        JsonObject options = options("credentials");
+        JsonObject remote = new JsonObject();
+        remote.addProperty("token", "secret_outbox_test");
+        options.add("remote", remote);
+
+        String id = outbox.submit(session, options, null);
+        assertFalse(Files.readString(directory.resolve(id + ".json")).contains("secret_outbox_test"));
+
+        outbox.start();
+
+        // the export still runs with the token
+        JsonObject status = await(id);
+        assertEquals(ExportOutbox.SUCCEEDED, status.get("status").getAsString());
+        assertEquals("secret_outbox_test",
+                status.getAsJsonObject("result").getAsJsonObject("remote").get("token").getAsString());
+    }
+
+    @Test
+    public void testCredentialsNotReplayed() throws Exception {
+        ExportOutbox stopped = new ExportOutbox(new ExportConfig(), directory);
+
+        JsonObject options = options("credentials");
+        JsonObject remote = new JsonObject();
+        remote.addProperty("token", "secret_outbox_test");
+        options.add("remote", remote);
+        String id = stopped.submit(session, options, null);
+
+        outbox = new ExportOutbox(new ExportConfig(), directory);
+        outbox.start();
+
+        JsonObject status = await(id);
+        assertEquals(ExportOutbox.FAILED, status.get("status").getAsString());
+        assertEquals(0, CALLS.get());
+    }
+
+    @Test
+    public void testOtherSession() throws Exception {
+        outbox = new ExportOutbox(new ExportConfig(), directory);
+        String id = outbox.submit(session, options("private"), null);
+
+        Session other = mock(Session.class);
+        when(other.getId()).thenReturn("other");
+        assertNull(outbox.getStatus(id, other));
+    }
+
+    @Test
+    public void testCallbackNotAllowed() throws Exception {
+        outbox = new ExportOutbox(new ExportConfig(), directory);
+        assertFalse(outbox.isCallbackAllowed("http://example.com/done"));
+    }
+}
@@ -0,0 +1,139 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.Test;
+
+import com.smartnote.server.api.v1.Fetch;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.util.MIME;
+import com.smartnote.testing.BaseRoute;
+
+import spark.Response;
+
+/**
+ * <p>Tests the Fetch RPC.</p>
+ * 
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.api.v1.Fetch
+ */
+public class FetchTest extends BaseRoute {
+    private static final String NAME = "session:uploads/notes.txt";
+    private static final String CONTENTS = "0123456789";
+
+    private Fetch fetch;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        fetch = new Fetch();
+
+        Session session = getSession(SESSION_TOKEN);
+        try (OutputStream out = getFileSystem().openOutputStream(session.pathInSession(Paths.get("uploads", "notes.txt")))) {
+            out.write(CONTENTS.getBytes(StandardCharsets.UTF_8));
+        }
+
+        activateSession();
+        setRequestQueryParam("name", NAME);
+    }
+
+    private String body() {
+        return new String(responseRawBody(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testFetch() throws Exception {
+        Response response = handle(fetch);
+        assertEquals(200, response.status());
+        assertEquals(MIME.TEXT, response.type());
+        assertEquals(CONTENTS, body());
+        assertNotNull(responseHeader("ETag"));
+        assertNotNull(responseHeader("Last-Modified"));
+        assertEquals("bytes", responseHeader("Accept-Ranges"));
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        addHeader("Range", "bytes=2-5");
+        assertEquals(206, handle(fetch).status());
+        assertEquals("2345", body());
+        assertEquals("bytes 2-5/10", responseHeader("Content-Range"));
+
+        addHeader("Range", "bytes=7-");
+        assertEquals(206, handle(fetch).status());
+        assertEquals("789", body());
+
+        addHeader("Range", "bytes=-3");
+        assertEquals(206, handle(fetch).status());
+        assertEquals("789", body());
+
+        // multiple ranges are not supported, so the whole file is sent
+        addHeader("Range", "bytes=0-1,4-5");
+        assertEquals(200, handle(fetch).status());
+        assertEquals(CONTENTS, body());
+    }
+
+    @Test
+    public void testRangeNotSatisfiable() throws Exception {
+        addHeader("Range", "bytes=10-");
+        assertEquals(416, handle(fetch).status());
+        assertEquals("bytes */10", responseHeader("Content-Range"));
+    }
+
+    @Test
+    public void testIfRange() throws Exception {
+        handle(fetch);
+        String etag = responseHeader("ETag");
+
+        addHeader("Range", "bytes=2-5");
+        addHeader("If-Range", etag);
+        assertEquals(206, handle(fetch).status());
+
+        addHeader("If-Range", "\"stale\"");
+        assertEquals(200, handle(fetch).status());
+        assertEquals(CONTENTS, body());
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        handle(fetch);
+        String etag = responseHeader("ETag");
+
+        addHeader("If-None-Match", "\"other\", " + etag);
+        assertEquals(304, handle(fetch).status());
+        assertEquals(0, responseRawBody().length);
+
+        addHeader("If-None-Match", "\"other\"");
+        assertEquals(200, handle(fetch).status());
+    }
+
+    @Test
+    public void testNotModifiedSince() throws Exception {
+        DateTimeFormatter format = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+        addHeader("If-Modified-Since", format.format(Instant.now().plusSeconds(60)));
+        assertEquals(304, handle(fetch).status());
+
+        addHeader("If-Modified-Since", format.format(Instant.now().minusSeconds(3600)));
+        assertEquals(200, handle(fetch).status());
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        setRequestQueryParam("name", "session:uploads/missing.txt");
+        doApiTest(fetch, 404);
+    }
+
+    @Test
+    public void testNoName() throws Exception {
+        removeRequestQueryParam("name");
+        doApiTest(fetch, 400);
+    }
+}
@@ -0,0 +1,149 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.auth.SessionPermission;
+import com.smartnote.server.resource.Resource;
+import com.smartnote.server.resource.ResourceConfig;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.util.CryptoUtils;
+import com.smartnote.server.util.FileUtils;
+import com.smartnote.testing.Base;
+
+/**
+ * <p>
+ * Tests channel and mapped access to resources on the file system.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.resource.FileResource
+ */
+public class FileResourceTest extends Base {
+    private static final String CONTENTS = "Hello, world!";
+
+    private Path directory;
+    private ResourceSystem resourceSystem;
+    private SessionPermission permission;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        CryptoUtils.init(null);
+
+        directory = Files.createTempDirectory("resources");
+
+        JsonObject json = new JsonObject();
+        json.addProperty("publicDir", directory.resolve("public").toString());
+        json.addProperty("privateDir", directory.resolve("private").toString());
+        json.addProperty("sessionDir", directory.resolve("sessions").toString());
+
+        ResourceConfig config = new ResourceConfig();
+        config.loadJSON(json);
+        resourceSystem = new ResourceSystem(config);
+
+        Path sessionDirectory = resourceSystem.getSessionDirectory("test");
+        Files.createDirectories(sessionDirectory);
+        Files.writeString(sessionDirectory.resolve("notes.txt"), CONTENTS);
+
+        Session session = mock(Session.class);
+        permission = mock(SessionPermission.class);
+        when(session.getId()).thenReturn("test");
+        when(session.getPermission()).thenReturn(permission);
+        when(session.pathInSession(any())).thenCallRealMethod();
+        Field field = Session.class.getDeclaredField("sessionDirectory");
+        field.setAccessible(true);
+        field.set(session, sessionDirectory);
+        when(permission.getSession()).thenReturn(session);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (directory != null)
+            FileUtils.deleteFile(directory.toFile());
+        super.tearDown();
+    }
+
+    @Test
+    public void testMap() throws Exception {
+        Resource resource = resourceSystem.findResource("session:notes.txt", permission);
+
+        ByteBuffer buffer = resource.map(7, 5);
+        assertTrue(buffer instanceof MappedByteBuffer);
+        assertTrue(buffer.isReadOnly());
+        assertEquals("world", StandardCharsets.UTF_8.decode(buffer).toString());
+        assertEquals(CONTENTS, resource.readToString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMapOutsideFile() throws Exception {
+        resourceSystem.findResource("session:notes.txt", permission).map(0, CONTENTS.length() + 1);
+    }
+
+    @Test
+    public void testReadChannelNotWrapped() throws Exception {
+        Resource resource = resourceSystem.findResource("session:notes.txt", permission);
+
+        // files can be transferred directly
+        try (SeekableByteChannel channel = resource.openReadChannel()) {
+            assertTrue(channel instanceof FileChannel);
+        }
+    }
+
+    @Test(expected = SecurityException.class)
+    public void testLinkOutsideDenied() throws Exception {
+        Path outside = Files.writeString(directory.resolve("secret.txt"), "secret");
+        Files.createSymbolicLink(resourceSystem.getSessionDirectory("test").resolve("link.txt"), outside);
+
+        resourceSystem.findResource("session:link.txt", permission);
+    }
+
+    @Test(expected = SecurityException.class)
+    public void testDirectoryLinkOutsideDenied() throws Exception {
+        Path outside = Files.createDirectories(directory.resolve("outside"));
+        Files.writeString(outside.resolve("secret.txt"), "secret");
+        Files.createSymbolicLink(resourceSystem.getSessionDirectory("test").resolve("linked"), outside);
+
+        resourceSystem.findResource("session:linked/secret.txt", permission);
+    }
+
+    @Test(expected = SecurityException.class)
+    public void testPublicLinkOutsideDenied() throws Exception {
+        Path outside = Files.writeString(directory.resolve("secret.txt"), "secret");
+        Files.createDirectories(resourceSystem.getPublicDir());
+        Files.createSymbolicLink(resourceSystem.getPublicDir().resolve("link.txt"), outside);
+
+        resourceSystem.findResource("public:link.txt", null);
+    }
+
+    @Test
+    public void testLinkInsideAllowed() throws Exception {
+        Path sessionDirectory = resourceSystem.getSessionDirectory("test");
+        Files.createSymbolicLink(sessionDirectory.resolve("link.txt"), sessionDirectory.resolve("notes.txt"));
+
+        assertEquals(CONTENTS, resourceSystem.findResource("session:link.txt", permission).readToString());
+    }
+
+    @Test(expected = SecurityException.class)
+    public void testSiblingDirectoryDenied() throws Exception {
+        // shares a prefix with the session directory, but is not in it
+        Path sessionDirectory = resourceSystem.getSessionDirectory("test");
+        Files.createDirectories(sessionDirectory.resolveSibling("test2"));
+        Files.writeString(sessionDirectory.resolveSibling("test2").resolve("notes.txt"), CONTENTS);
+
+        resourceSystem.findResource("session:../test2/notes.txt", permission);
+    }
+}
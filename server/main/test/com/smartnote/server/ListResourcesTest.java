@@ -0,0 +1,122 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.io.OutputStream;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.smartnote.server.api.v1.ListResources;
+import com.smartnote.server.resource.Resource;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.util.MIME;
+import com.smartnote.testing.BaseRoute;
+
+/**
+ * <p>Tests the <code>list</code> RPC.</p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.api.v1.ListResources
+ */
+public class ListResourcesTest extends BaseRoute {
+    private ListResources list;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        list = new ListResources();
+
+        write("uploads/a.txt", "first");
+        write("uploads/b.json", "{}");
+        write("uploads/c.md", "# Notes");
+
+        // uploads in progress are hidden
+        Resource partial = Server.getServer().getResourceSystem().findActualResource(ResourceSystem.SESSION_AUTH,
+                Paths.get("uploads", ".c.md.1234.part"), getSession(SESSION_TOKEN).getPermission());
+        try (OutputStream out = partial.openOutputStream()) {
+            out.write("partial".getBytes());
+        }
+        write("notes.txt", "other");
+
+        activateSession();
+    }
+
+    private void write(String name, String contents) throws Exception {
+        Resource resource = Server.getServer().getResourceSystem().findResource(ResourceSystem.inSession(name),
+                getSession(SESSION_TOKEN).getPermission());
+        try (OutputStream out = resource.openOutputStream()) {
+            out.write(contents.getBytes());
+        }
+    }
+
+    private JsonArray resources() {
+        return responseJson().getAsJsonArray("resources");
+    }
+
+    @Test
+    public void testList() throws Exception {
+        doApiTest(list, 200);
+
+        JsonArray resources = resources();
+        assertEquals(4, resources.size());
+        assertEquals("session:notes.txt", resources.get(0).getAsJsonObject().get("name").getAsString());
+
+        JsonObject first = resources.get(1).getAsJsonObject();
+        assertEquals("session:uploads/a.txt", first.get("name").getAsString());
+        assertEquals(5, first.get("size").getAsLong());
+        assertEquals(MIME.TEXT, first.get("type").getAsString());
+        assertTrue(first.has("sha256"));
+        assertFalse(responseJson().has("cursor"));
+    }
+
+    @Test
+    public void testPages() throws Exception {
+        setRequestQueryParam("prefix", "uploads/");
+        setRequestQueryParam("limit", "2");
+        doApiTest(list, 200);
+        assertEquals(2, resources().size());
+        String cursor = responseJson().get("cursor").getAsString();
+
+        // a resource added before the cursor does not shift the next page
+        write("uploads/0.txt", "new");
+
+        setRequestQueryParam("cursor", cursor);
+        doApiTest(list, 200);
+        assertEquals(1, resources().size());
+        assertEquals("session:uploads/c.md", resources().get(0).getAsJsonObject().get("name").getAsString());
+        assertFalse(responseJson().has("cursor"));
+    }
+
+    @Test
+    public void testRemoved() throws Exception {
+        Server.getServer().getResourceSystem().findResource("session:uploads/a.txt", getSession(SESSION_TOKEN).getPermission())
+                .delete();
+
+        setRequestQueryParam("prefix", "uploads/");
+        doApiTest(list, 200);
+        assertEquals(2, resources().size());
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        setRequestQueryParam("authority", "public");
+        doApiTest(list, 400);
+
+        removeRequestQueryParam("authority");
+        setRequestQueryParam("limit", "0");
+        doApiTest(list, 400);
+
+        removeRequestQueryParam("limit");
+        setRequestQueryParam("prefix", "../");
+        doApiTest(list, 400);
+    }
+
+    @Test
+    public void testNoSession() throws Exception {
+        deactivateSession();
+        doApiTest(list, 401);
+    }
+}
@@ -0,0 +1,187 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.auth.SessionPermission;
+import com.smartnote.server.resource.MemoryStore;
+import com.smartnote.server.resource.Resource;
+import com.smartnote.server.resource.ResourceConfig;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.util.CryptoUtils;
+import com.smartnote.server.util.FileUtils;
+import com.smartnote.testing.Base;
+
+/**
+ * <p>
+ * Tests holding session resources in memory.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.resource.MemoryStore
+ */
+public class MemoryStoreTest extends Base {
+    private static final long BUDGET = 4 * MemoryStore.SEGMENT_SIZE;
+    private static final String CONTENTS = "# Course notes";
+
+    private Path directory;
+    private Path sessionDirectory;
+    private ResourceSystem resourceSystem;
+    private MemoryStore store;
+    private SessionPermission permission;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        CryptoUtils.init(null);
+
+        directory = Files.createTempDirectory("memory");
+
+        JsonArray authorities = new JsonArray();
+        authorities.add(ResourceSystem.SESSION_AUTH);
+
+        JsonObject json = new JsonObject();
+        json.addProperty("privateDir", directory.resolve("private").toString());
+        json.addProperty("sessionDir", directory.resolve("sessions").toString());
+        json.add("memoryAuthorities", authorities);
+        json.addProperty("memoryBudget", BUDGET);
+
+        ResourceConfig config = new ResourceConfig();
+        config.loadJSON(json);
+        resourceSystem = new ResourceSystem(config);
+        store = resourceSystem.getMemoryStore();
+
+        sessionDirectory = resourceSystem.getSessionDirectory("test");
+        Session session = mock(Session.class);
+        permission = mock(SessionPermission.class);
+        when(session.getId()).thenReturn("test");
+        when(session.getPermission()).thenReturn(permission);
+        when(session.pathInSession(any())).thenAnswer(invocation -> sessionDirectory.resolve((Path) invocation.getArgument(0)));
+        when(permission.getSession()).thenReturn(session);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (directory != null)
+            FileUtils.deleteFile(directory.toFile());
+        super.tearDown();
+    }
+
+    private Resource write(String name, byte[] contents) throws Exception {
+        Resource resource = resourceSystem.findResource(ResourceSystem.inSession(name), permission);
+        try (OutputStream out = resource.openOutputStream()) {
+            out.write(contents);
+        }
+        return resource;
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        Resource resource = write("output.md", CONTENTS.getBytes(StandardCharsets.UTF_8));
+
+        // served from memory until flushed
+        assertFalse(Files.exists(sessionDirectory.resolve("output.md")));
+        assertEquals(CONTENTS, resource.readToString());
+        assertEquals(CONTENTS.length(), resource.size());
+        assertEquals(CONTENTS.length(), store.getUsed());
+
+        assertEquals(1, store.flush());
+        assertEquals(CONTENTS, Files.readString(sessionDirectory.resolve("output.md")));
+        assertEquals(0, store.flush());
+    }
+
+    @Test
+    public void testReconcileCountsMemory() throws Exception {
+        write("output.md", CONTENTS.getBytes(StandardCharsets.UTF_8));
+
+        // contents not yet written behind still count against the quota
+        resourceSystem.getUsageLedger().reconcile();
+        assertEquals(CONTENTS.length(), resourceSystem.getUsageLedger().getUsage("test"));
+
+        // replacing a file counts the new contents instead of the file
+        store.flush();
+        write("output.md", (CONTENTS + CONTENTS).getBytes(StandardCharsets.UTF_8));
+        resourceSystem.getUsageLedger().reconcile();
+        assertEquals(2 * CONTENTS.length(), resourceSystem.getUsageLedger().getUsage("test"));
+    }
+
+    @Test
+    public void testSpillOverBudget() throws Exception {
+        byte[] contents = new byte[MemoryStore.SEGMENT_SIZE];
+        for (int i = 0; i < 5; i++)
+            write("file" + i, contents);
+
+        // the least recently used was written to disk to make room
+        assertTrue(store.getUsed() <= BUDGET);
+        assertTrue(Files.exists(sessionDirectory.resolve("file0")));
+        assertEquals(contents.length, resourceSystem.findResource("session:file0", permission).size());
+    }
+
+    @Test
+    public void testLargeWrittenDirectly() throws Exception {
+        byte[] contents = new byte[(int) store.getMaxEntrySize() + 1];
+        Arrays.fill(contents, (byte) 'a');
+        Resource resource = write("large", contents);
+
+        assertEquals(0, store.getUsed());
+        assertArrayEquals(contents, Files.readAllBytes(sessionDirectory.resolve("large")));
+        assertArrayEquals(contents, resource.readAllBytes());
+    }
+
+    @Test
+    public void testDeleteDiscards() throws Exception {
+        Resource resource = write("output.md", CONTENTS.getBytes(StandardCharsets.UTF_8));
+        resource.delete();
+
+        assertFalse(resource.exists());
+        store.flush();
+        assertFalse(Files.exists(sessionDirectory.resolve("output.md")));
+    }
+
+    @Test
+    public void testForgetSessionDiscards() throws Exception {
+        write("output.md", CONTENTS.getBytes(StandardCharsets.UTF_8));
+        resourceSystem.forgetSession("test");
+
+        assertEquals(0, store.getUsed());
+        assertEquals(0, store.flush());
+    }
+
+    @Test
+    public void testMapAcrossSegments() throws Exception {
+        byte[] contents = new byte[MemoryStore.SEGMENT_SIZE + 16];
+        for (int i = 0; i < contents.length; i++)
+            contents[i] = (byte) i;
+        Resource resource = write("data", contents);
+
+        ByteBuffer inside = resource.map(1, 8);
+        assertTrue(inside.isDirect());
+        assertEquals(1, inside.get(0));
+
+        ByteBuffer across = resource.map(MemoryStore.SEGMENT_SIZE - 4, 8);
+        for (int i = 0; i < 8; i++)
+            assertEquals(contents[MemoryStore.SEGMENT_SIZE - 4 + i], across.get(i));
+    }
+
+    @Test
+    public void testPathWritesFile() throws Exception {
+        Resource resource = write("output.md", CONTENTS.getBytes(StandardCharsets.UTF_8));
+
+        // used directly, such as by the generator
+        Path path = resource.getPath();
+        assertEquals(CONTENTS, Files.readString(path));
+        assertEquals(0, store.getUsed());
+    }
+}
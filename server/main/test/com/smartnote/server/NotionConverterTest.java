@@ -2,10 +2,16 @@ package com.smartnote.server;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.List;
 
 import org.junit.Test;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import com.smartnote.server.format.ParsedMarkdown;
 import com.smartnote.server.format.Style;
 import com.smartnote.server.format.notion.NotionBlock;
@@ -222,4 +228,41 @@ public class NotionConverterTest extends BaseMarkdown {
 
         assertDeepEquals(root, this.block);
     }
+
+    @Test
+    public void testWriteJSON() throws IOException {
+        NotionBlock root = new NotionBlock(null);
+        NotionBlock code = code("x = 1\n", "python", new Style().withBold());
+        root.addChild(code);
+
+        StringWriter out = new StringWriter();
+        root.writeJSON(new JsonWriter(out));
+        JsonObject json = new Gson().fromJson(out.toString(), JsonObject.class);
+
+        JsonObject block = json.getAsJsonArray("children").get(0).getAsJsonObject();
+        assertEquals("block", block.get("object").getAsString());
+        assertEquals("code", block.get("type").getAsString());
+
+        JsonObject data = block.getAsJsonObject("code");
+        assertEquals("python", data.get("language").getAsString());
+
+        JsonArray richText = data.getAsJsonArray("rich_text");
+        assertEquals(1, richText.size());
+
+        JsonObject text = richText.get(0).getAsJsonObject();
+        assertEquals("x = 1\n", text.getAsJsonObject("text").get("content").getAsString());
+        assertTrue(text.getAsJsonObject("annotations").get("bold").getAsBoolean());
+        assertFalse(text.getAsJsonObject("annotations").has("italic"));
+    }
+
+    @Test
+    public void testFindHeading() {
+        createBlock(HEADINGS);
+
+        NotionBlock heading = block.findFirstOf("heading_2");
+        assertNotNull(heading);
+        assertEquals("Heading 2", heading.getPlainText());
+        assertEquals(1, block.findInChildren("heading_3").size());
+        assertNull(block.findFirstOf("code"));
+    }
 }
@@ -0,0 +1,110 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.security.Permission;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.smartnote.server.export.ExportIncompleteException;
+import com.smartnote.server.export.ExportOptions;
+import com.smartnote.server.export.NotionExporter;
+import com.smartnote.testing.BaseServer;
+import com.smartnote.testing.MockNotionServer;
+
+/**
+ * <p>
+ * Tests how the NotionExporter class reports exports that fail partway.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.export.NotionExporter
+ * @see com.smartnote.testing.MockNotionServer
+ */
+public class NotionExporterTest extends BaseServer {
+    public static final int PARAGRAPHS = 250;
+
+    private MockNotionServer notion;
+    private Permission permission;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        notion = new MockNotionServer(4);
+
+        JsonObject config = new JsonObject();
+        config.addProperty("apiUrl", notion.getUrl());
+        config.addProperty("allowRemoteIntegrations", true);
+        config.addProperty("rateLimit", 10000);
+        config.addProperty("maxRetries", 0);
+        Server.getServer().getConfig().getNotionConfig().loadJSON(config);
+
+        permission = getSession(SESSION_TOKEN).getPermission();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        notion.stop();
+        Server.getServer().getConfig().getNotionConfig().loadJSON(new JsonObject());
+        super.tearDown();
+    }
+
+    // a document too long to create in one request
+    private static String document() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("# Partial Export\n\n");
+        for (int i = 0; i < PARAGRAPHS; i++)
+            builder.append("Paragraph ").append(i).append(".\n\n");
+        return builder.toString();
+    }
+
+    private JsonObject export(JsonObject remote) throws Exception {
+        JsonObject integration = new JsonObject();
+        integration.addProperty("token", "secret_exporter_test");
+        remote.add("integration", integration);
+
+        JsonObject json = new JsonObject();
+        json.addProperty("exporter", "notion");
+        json.addProperty("data", document());
+        json.add("remote", remote);
+
+        ExportOptions options = new ExportOptions();
+        options.parse(json);
+        return new NotionExporter().export(options, permission);
+    }
+
+    private static JsonObject newPage() {
+        JsonObject remote = new JsonObject();
+        remote.addProperty("mode", "new");
+        return remote;
+    }
+
+    @Test
+    public void testContinuePartialPage() throws Exception {
+        export(newPage());
+        int blocks = notion.getBlocks();
+
+        notion.setUnavailable(1);
+
+        JsonObject resume = null;
+        try {
+            export(newPage());
+            fail("Expected the export to be incomplete");
+        } catch (ExportIncompleteException e) {
+            resume = e.getResume();
+        }
+
+        assertNotNull(resume);
+        assertEquals("append", resume.get("mode").getAsString());
+        assertTrue(resume.get("offset").getAsInt() > 0);
+
+        JsonObject result = export(resume);
+        assertEquals(resume.get("page").getAsString(), result.get("id").getAsString());
+        assertEquals(resume.get("url").getAsString(), result.get("url").getAsString());
+
+        // no block was uploaded twice
+        assertEquals(2 * blocks, notion.getBlocks());
+    }
+}
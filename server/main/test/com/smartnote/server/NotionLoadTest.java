@@ -0,0 +1,145 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+import com.smartnote.server.export.ExportOptions;
+import com.smartnote.server.export.NotionExporter;
+import com.smartnote.testing.BaseServer;
+import com.smartnote.testing.MockNotionServer;
+
+/**
+ * <p>
+ * Drives concurrent Notion exports against a <code>MockNotionServer</code>
+ * and reports throughput and tail latency. Each document is large enough
+ * to be split into several requests and contains nesting deeper than
+ * Notion accepts in one request, and some requests are rate limited.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.export.NotionExporter
+ * @see com.smartnote.testing.MockNotionServer
+ */
+public class NotionLoadTest extends BaseServer {
+    public static final int EXPORTS = 40;
+    public static final int CONCURRENCY = 8;
+    public static final int PARAGRAPHS = 250;
+    public static final long LATENCY = 10; // ms
+
+    private static final Logger LOG = LoggerFactory.getLogger(NotionLoadTest.class);
+
+    private MockNotionServer notion;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        notion = new MockNotionServer(16);
+        notion.setLatency(LATENCY);
+        notion.setRateLimit(25, 0);
+
+        JsonObject config = new JsonObject();
+        config.addProperty("apiUrl", notion.getUrl());
+        config.addProperty("allowRemoteIntegrations", true);
+        config.addProperty("rateLimit", 10000);
+        config.addProperty("maxRetries", 5);
+        Server.getServer().getConfig().getNotionConfig().loadJSON(config);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        notion.stop();
+        Server.getServer().getConfig().getNotionConfig().loadJSON(new JsonObject());
+        super.tearDown();
+    }
+
+    private static String document(int n) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("# Load Test ").append(n).append("\n\n");
+
+        for (int i = 0; i < PARAGRAPHS; i++)
+            builder.append("Paragraph ").append(i).append(" of document ").append(n).append(".\n\n");
+
+        // deeper than a single request allows
+        builder.append("- level 0\n");
+        builder.append("    - level 1\n");
+        builder.append("        - level 2\n");
+        builder.append("            - level 3\n");
+        builder.append("                - level 4\n");
+
+        return builder.toString();
+    }
+
+    private long export(int n, Permission permission) throws Exception {
+        JsonObject integration = new JsonObject();
+        integration.addProperty("token", "secret_load_test");
+
+        JsonObject remote = new JsonObject();
+        remote.addProperty("mode", "new");
+        remote.add("integration", integration);
+
+        JsonObject json = new JsonObject();
+        json.addProperty("exporter", "notion");
+        json.addProperty("data", document(n));
+        json.add("remote", remote);
+
+        ExportOptions options = new ExportOptions();
+        options.parse(json);
+
+        long start = System.nanoTime();
+        JsonObject result = new NotionExporter().export(options, permission);
+        long elapsed = System.nanoTime() - start;
+
+        assertNotNull(result.get("id"));
+        return elapsed;
+    }
+
+    @Test
+    public void testConcurrentExports() throws Exception {
+        Permission permission = getSession(SESSION_TOKEN).getPermission();
+
+        // warm up the connection and caches
+        export(-1, permission);
+
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        List<Future<Long>> futures = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < EXPORTS; i++) {
+            int n = i;
+            futures.add(executor.submit(() -> export(n, permission)));
+        }
+
+        List<Long> latencies = new ArrayList<>();
+        for (Future<Long> future : futures)
+            latencies.add(future.get(60, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+
+        executor.shutdown();
+
+        Collections.sort(latencies);
+        double seconds = elapsed / 1e9;
+        long p50 = TimeUnit.NANOSECONDS.toMillis(latencies.get(latencies.size() / 2));
+        long p99 = TimeUnit.NANOSECONDS.toMillis(latencies.get((int) Math.ceil(latencies.size() * 0.99) - 1));
+
+        LOG.info(String.format("%d exports in %.2f s (%.1f exports/s), p50 %d ms, p99 %d ms, "
+                + "%d requests, %d rate limited", EXPORTS, seconds, EXPORTS / seconds, p50, p99,
+                notion.getRequests(), notion.getRateLimited()));
+
+        assertEquals(0, notion.getRejected());
+        assertTrue(notion.getRateLimited() > 0);
+    }
+}
@@ -0,0 +1,87 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.smartnote.server.export.NotionRateLimiter;
+import com.smartnote.testing.Base;
+
+/**
+ * <p>
+ * Tests the NotionRateLimiter class.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.export.NotionRateLimiter
+ */
+public class NotionRateLimiterTest extends Base {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private long now;
+
+    private NotionRateLimiter limiter(double rate, int burst) {
+        now = 0;
+        return new NotionRateLimiter(rate, burst, () -> now);
+    }
+
+    @Test
+    public void testBurst() {
+        NotionRateLimiter limiter = limiter(3, 3);
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertTrue(limiter.reserve() > 0);
+    }
+
+    @Test
+    public void testQueueOrder() {
+        NotionRateLimiter limiter = limiter(2, 1);
+        assertEquals(0, limiter.reserve());
+
+        // each waiting request gets the next slot
+        assertEquals(SECOND / 2, limiter.reserve());
+        assertEquals(SECOND, limiter.reserve());
+    }
+
+    @Test
+    public void testRefill() {
+        NotionRateLimiter limiter = limiter(2, 1);
+        assertEquals(0, limiter.reserve());
+
+        now += SECOND;
+        assertEquals(0, limiter.reserve());
+    }
+
+    @Test
+    public void testPause() {
+        NotionRateLimiter limiter = limiter(2, 2);
+        limiter.pause(SECOND);
+
+        assertEquals(SECOND, limiter.reserve());
+        assertEquals(SECOND + SECOND / 2, limiter.reserve());
+
+        now += 3 * SECOND;
+        assertEquals(0, limiter.reserve());
+    }
+
+    @Test
+    public void testPurgedLimiterShared() {
+        NotionRateLimiter held = NotionRateLimiter.forToken("purged", 2);
+
+        // enough other tokens to purge the idle limiter
+        for (int i = 0; i < 100; i++)
+            NotionRateLimiter.forToken("purge-" + i, 2);
+
+        NotionRateLimiter current = NotionRateLimiter.forToken("purged", 2);
+        assertNotSame(held, current);
+
+        // the held limiter takes its permits from its replacement
+        assertEquals(0, held.reserve());
+        assertEquals(0, current.reserve());
+        assertTrue(held.reserve() > 0);
+        assertTrue(current.reserve() > 0);
+    }
+}
@@ -0,0 +1,84 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.security.Permission;
+
+import org.junit.Test;
+
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.export.NotionTokenStore;
+import com.smartnote.server.resource.Resource;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.testing.BaseServer;
+
+/**
+ * <p>
+ * Tests the NotionTokenStore class.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.export.NotionTokenStore
+ */
+public class NotionTokenStoreTest extends BaseServer {
+    public static final String TOKEN = "secret_token";
+
+    private Permission permission;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Session session = getSession(SESSION_TOKEN);
+        permission = session.getPermission();
+    }
+
+    private Resource tokenResource() throws Exception {
+        return Server.getServer().getResourceSystem().findActualResource(ResourceSystem.SESSION_AUTH,
+                Paths.get(NotionTokenStore.TOKEN_FILE), permission);
+    }
+
+    @Test
+    public void testEncryptDecrypt() {
+        NotionTokenStore store = new NotionTokenStore(1000, 1000, "secret");
+        String encrypted = store.encrypt(TOKEN);
+        assertFalse(encrypted.contains(TOKEN));
+        assertEquals(TOKEN, store.decrypt(encrypted));
+    }
+
+    @Test
+    public void testWrongSecret() {
+        String encrypted = new NotionTokenStore(1000, 1000, "secret").encrypt(TOKEN);
+        assertNull(new NotionTokenStore(1000, 1000, "other").decrypt(encrypted));
+    }
+
+    @Test
+    public void testPersisted() throws Exception {
+        new NotionTokenStore(1000, 1000, "secret").saveToken(permission, TOKEN);
+        assertFalse(tokenResource().readToString().contains(TOKEN));
+
+        // a new store has nothing cached and must read the file
+        assertEquals(TOKEN, new NotionTokenStore(1000, 1000, "secret").loadToken(permission));
+    }
+
+    @Test
+    public void testLegacyToken() throws Exception {
+        OutputStream out = tokenResource().openOutputStream();
+        out.write(TOKEN.getBytes());
+        out.close();
+
+        assertEquals(TOKEN, new NotionTokenStore(1000, 1000, "secret").loadToken(permission));
+        assertFalse(tokenResource().readToString().contains(TOKEN));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        NotionTokenStore store = new NotionTokenStore(1000, 1000, "secret");
+        store.saveToken(permission, TOKEN);
+        store.invalidateToken(permission, TOKEN);
+
+        assertNull(store.loadToken(permission));
+        assertFalse(tokenResource().exists());
+    }
+}
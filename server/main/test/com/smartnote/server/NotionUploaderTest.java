@@ -0,0 +1,87 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.smartnote.server.export.NotionUploader;
+import com.smartnote.server.format.notion.NotionBlock;
+import com.smartnote.testing.Base;
+
+/**
+ * <p>
+ * Tests the NotionUploader class.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.export.NotionUploader
+ */
+public class NotionUploaderTest extends Base {
+
+    // creates a chain of nested list items
+    private NotionBlock nested(int depth) {
+        NotionBlock block = new NotionBlock("bulleted_list_item");
+        block.addRichText("level " + depth);
+        if (depth > 0)
+            block.addChild(nested(depth - 1));
+        return block;
+    }
+
+    // counts the levels of children in a serialized block
+    private int depthOf(JsonObject block) {
+        String type = block.get("type").getAsString();
+        JsonObject data = block.getAsJsonObject(type);
+        if (data == null || !data.has("children"))
+            return 0;
+
+        int depth = 0;
+        for (var child : data.getAsJsonArray("children"))
+            depth = Math.max(depth, depthOf(child.getAsJsonObject()));
+        return depth + 1;
+    }
+
+    @Test
+    public void testFitsShallow() {
+        assertTrue(NotionUploader.fits(nested(0)));
+        assertTrue(NotionUploader.fits(nested(NotionUploader.MAX_NESTING - 1)));
+    }
+
+    @Test
+    public void testFitsTooDeep() {
+        // the array of children of the request is the first level
+        assertFalse(NotionUploader.fits(nested(NotionUploader.MAX_NESTING)));
+    }
+
+    @Test
+    public void testFitsTooManyChildren() {
+        NotionBlock block = new NotionBlock("bulleted_list_item");
+        for (int i = 0; i < NotionUploader.MAX_CHILDREN + 1; i++)
+            block.addChild(nested(0));
+        assertFalse(NotionUploader.fits(block));
+    }
+
+    @Test
+    public void testSerializeDefersDeepChildren() throws IOException {
+        List<NotionBlock> batch = new ArrayList<>();
+        batch.add(nested(NotionUploader.MAX_NESTING - 1));
+        batch.add(nested(NotionUploader.MAX_NESTING));
+
+        StringWriter out = new StringWriter();
+        NotionUploader.children(batch).writeJSON(new JsonWriter(out));
+        JsonArray children = new Gson().fromJson(out.toString(), JsonArray.class);
+        assertEquals(2, children.size());
+
+        // a block that fits is sent whole, otherwise its children are left out
+        assertEquals(NotionUploader.MAX_NESTING - 1, depthOf(children.get(0).getAsJsonObject()));
+        assertEquals(0, depthOf(children.get(1).getAsJsonObject()));
+    }
+}
@@ -0,0 +1,176 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.auth.SessionPermission;
+import com.smartnote.server.resource.BlobStore;
+import com.smartnote.server.resource.Resource;
+import com.smartnote.server.resource.ResourceConfig;
+import com.smartnote.server.resource.ResourceManifest;
+import com.smartnote.server.resource.ResourceMetadata;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.util.CryptoUtils;
+import com.smartnote.server.util.FileUtils;
+import com.smartnote.server.util.MIME;
+import com.smartnote.testing.Base;
+
+/**
+ * <p>
+ * Tests that session resources record their metadata in the manifest.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.resource.ResourceManifest
+ */
+public class ResourceManifestTest extends Base {
+    private static final byte[] CONTENTS = "{\"title\": \"course notes\"}".getBytes(StandardCharsets.UTF_8);
+
+    private Path directory;
+    private ResourceSystem resourceSystem;
+    private SessionPermission permission;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        CryptoUtils.init(null);
+
+        directory = Files.createTempDirectory("manifest");
+
+        JsonObject json = new JsonObject();
+        json.addProperty("privateDir", directory.resolve("private").toString());
+        json.addProperty("sessionDir", directory.resolve("sessions").toString());
+
+        ResourceConfig config = new ResourceConfig();
+        config.loadJSON(json);
+        resourceSystem = new ResourceSystem(config);
+
+        Path sessionDirectory = resourceSystem.getSessionDirectory("test");
+        Session session = mock(Session.class);
+        permission = mock(SessionPermission.class);
+        when(session.getId()).thenReturn("test");
+        when(session.getPermission()).thenReturn(permission);
+        when(session.pathInSession(any())).thenAnswer(invocation -> sessionDirectory.resolve((Path) invocation.getArgument(0)));
+        when(permission.getSession()).thenReturn(session);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (directory != null)
+            FileUtils.deleteFile(directory.toFile());
+        super.tearDown();
+    }
+
+    private Resource write(String name) throws Exception {
+        Resource resource = resourceSystem.findResource(ResourceSystem.inSession(name), permission);
+        try (OutputStream out = resource.openOutputStream()) {
+            out.write(CONTENTS);
+        }
+        return resource;
+    }
+
+    @Test
+    public void testWriteRecordsMetadata() throws Exception {
+        write("notes/data.json");
+
+        // read back from the file, as after a restart
+        assertEquals(1, resourceSystem.flushManifests());
+        resourceSystem.forgetManifest("test");
+        Resource resource = resourceSystem.findResource(ResourceSystem.inSession("notes/data.json"), permission);
+        ResourceMetadata metadata = resource.getMetadata();
+
+        assertEquals(CONTENTS.length, metadata.getLength());
+        assertEquals(HexFormat.of().formatHex(BlobStore.newDigest().digest(CONTENTS)), metadata.getHash());
+        assertEquals(MIME.JSON, metadata.getType());
+        assertEquals(ResourceMetadata.ORIGIN_WRITE, metadata.getOrigin());
+        assertSame(metadata, resourceSystem.getManifest("test").get("notes/data.json"));
+    }
+
+    @Test
+    public void testMoveAndDelete() throws Exception {
+        Resource source = write("notes/data.json");
+        Resource target = resourceSystem.findResource(ResourceSystem.inSession("moved.json"), permission);
+        ResourceMetadata metadata = source.getMetadata();
+
+        source.moveTo(target);
+        assertNull(resourceSystem.getManifest("test").get("notes/data.json"));
+        assertSame(metadata, resourceSystem.getManifest("test").get("moved.json"));
+
+        write("notes/other.json");
+        resourceSystem.findResource(ResourceSystem.inSession("notes/other.json"), permission).delete();
+        assertNull(resourceSystem.getManifest("test").get("notes/other.json"));
+
+        target.delete();
+        assertNull(resourceSystem.getManifest("test").get("moved.json"));
+    }
+
+    @Test
+    public void testMeasuredOnce() throws Exception {
+        Path path = resourceSystem.getSessionDirectory("test").resolve("old.json");
+        Files.createDirectories(path.getParent());
+        Files.write(path, CONTENTS);
+
+        // written before the manifest existed
+        Resource resource = resourceSystem.findResource(ResourceSystem.inSession("old.json"), permission);
+        ResourceMetadata metadata = resource.getMetadata();
+        assertEquals(CONTENTS.length, metadata.getLength());
+        assertNull(metadata.getHash());
+        assertEquals(MIME.JSON, metadata.getType());
+        assertSame(metadata, resource.getMetadata());
+    }
+
+    @Test
+    public void testManifestNotCounted() throws Exception {
+        write("data.json");
+        resourceSystem.flushManifests();
+        assertTrue(Files.exists(resourceSystem.getSessionDirectory("test").resolve(".manifest.json")));
+
+        resourceSystem.getUsageLedger().reconcile();
+        assertEquals(CONTENTS.length, resourceSystem.getUsageLedger().getUsage("test"));
+    }
+
+    @Test
+    public void testFlushedOnce() throws Exception {
+        Path dir = resourceSystem.getSessionDirectory("test");
+        write("notes/a.json");
+        write("notes/b.json");
+
+        // nothing is written until the flush, only the marker
+        assertFalse(Files.exists(dir.resolve(ResourceManifest.MANIFEST_NAME)));
+        assertTrue(Files.exists(dir.resolve(ResourceManifest.DIRTY_NAME)));
+
+        assertEquals(1, resourceSystem.flushManifests());
+        assertTrue(Files.exists(dir.resolve(ResourceManifest.MANIFEST_NAME)));
+        assertFalse(Files.exists(dir.resolve(ResourceManifest.DIRTY_NAME)));
+
+        // unchanged manifests are not written again
+        assertEquals(0, resourceSystem.flushManifests());
+    }
+
+    @Test
+    public void testNotFlushed() throws Exception {
+        write("notes/data.json");
+        resourceSystem.flushManifests();
+        write("notes/other.json");
+
+        // lost without a flush, as after a crash
+        resourceSystem.forgetManifest("test");
+
+        ResourceManifest manifest = resourceSystem.getManifest("test");
+        assertNotNull(manifest.get("notes/data.json"));
+        assertNotNull(manifest.get("notes/other.json"));
+
+        // measured again, so the hashes are unknown
+        assertNull(manifest.get("notes/other.json").getHash());
+    }
+}
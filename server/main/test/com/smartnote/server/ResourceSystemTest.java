@@ -1,9 +1,13 @@
 package com.smartnote.server;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
 import java.security.AllPermission;
@@ -104,6 +108,18 @@ public class ResourceSystemTest extends BaseServer {
         testPublicWrite(getSession(SESSION_TOKEN).getPermission());
     }
 
+    @Test
+    public void testSessionMaterializedOnWrite() throws Exception {
+        Session session = getSession(SESSION_TOKEN);
+        Permission permission = session.getPermission();
+
+        testRead("session", permission);
+        verify(session, never()).materialize();
+
+        testWrite("session", permission);
+        verify(session).materialize();
+    }
+
     @Test
     public void testReadPublicAllPermission() throws Exception {
         testPublicRead(new AllPermission());
@@ -249,4 +265,35 @@ public class ResourceSystemTest extends BaseServer {
     public void testGetActualNoAuthority() {
         resourceSystem.getActualPath(FILE_NAME);
     }
+
+    @Test
+    public void testMapSession() throws Exception {
+        Resource resource = resourceSystem.findResource("session:" + FILE_NAME, getSession(SESSION_TOKEN).getPermission());
+
+        ByteBuffer buffer = resource.map(7, 5);
+        assertTrue(buffer.isReadOnly());
+        assertEquals("world", StandardCharsets.UTF_8.decode(buffer).toString());
+        assertEquals(FILE_CONTENT, resource.readToString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMapOutsideResource() throws Exception {
+        Resource resource = resourceSystem.findResource("public:" + FILE_NAME, null);
+        resource.map(7, FILE_CONTENT.length());
+    }
+
+    @Test
+    public void testReadChannel() throws Exception {
+        Resource resource = resourceSystem.findResource("public:" + FILE_NAME, null);
+        try (SeekableByteChannel channel = resource.openReadChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(FILE_CONTENT.length());
+            channel.read(buffer);
+            assertEquals(FILE_CONTENT, new String(buffer.array()));
+        }
+    }
+
+    @Test(expected = SecurityException.class)
+    public void testWriteChannelPublic() throws Exception {
+        resourceSystem.findResource("public:" + FILE_NAME, null).openWriteChannel();
+    }
 }
@@ -0,0 +1,151 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.smartnote.server.api.v1.UploadChunk;
+import com.smartnote.server.api.v1.UploadFinish;
+import com.smartnote.server.api.v1.UploadStart;
+import com.smartnote.server.api.v1.UploadStatus;
+import com.smartnote.server.auth.Session;
+import com.smartnote.testing.BaseRoute;
+
+/**
+ * <p>
+ * Tests the resumable upload RPCs.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.api.v1.UploadStart
+ * @see com.smartnote.server.api.v1.UploadChunk
+ * @see com.smartnote.server.api.v1.UploadStatus
+ * @see com.smartnote.server.api.v1.UploadFinish
+ */
+public class ResumableUploadTest extends BaseRoute {
+    private static final String NAME = "chunked.bin";
+    private static final byte[] CONTENTS = new byte[1000];
+
+    static {
+        for (int i = 0; i < CONTENTS.length; i++)
+            CONTENTS[i] = (byte) i;
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        activateSession();
+    }
+
+    private String start(long size) throws Exception {
+        setRequestQueryParam("name", NAME);
+        setRequestQueryParam("size", Long.toString(size));
+        doApiTest(new UploadStart(), 200);
+
+        JsonObject json = responseJson();
+        assertEquals(size, json.get("size").getAsLong());
+        return json.get("id").getAsString();
+    }
+
+    private JsonObject chunk(String id, int start, int end, int code) throws Exception {
+        setRequestQueryParam("id", id);
+        addHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + CONTENTS.length);
+        setRequestBody(Arrays.copyOfRange(CONTENTS, start, end));
+        doApiTest(new UploadChunk(), code);
+        return responseJson();
+    }
+
+    private JsonObject finish(String id, int code) throws Exception {
+        setRequestQueryParam("id", id);
+        setRequestBody((byte[]) null);
+        doApiTest(new UploadFinish(), code);
+        return responseJson();
+    }
+
+    @Test
+    public void testOutOfOrder() throws Exception {
+        String id = start(CONTENTS.length);
+
+        JsonObject json = chunk(id, 600, 1000, 200);
+        assertEquals(0, json.get("offset").getAsLong());
+        assertEquals(400, json.get("received").getAsLong());
+
+        json = chunk(id, 0, 300, 200);
+        assertEquals(300, json.get("offset").getAsLong());
+
+        // the client asks where to resume
+        setRequestQueryParam("id", id);
+        doApiTest(new UploadStatus(), 200);
+        assertEquals(300, responseJson().get("offset").getAsLong());
+
+        json = chunk(id, 300, 600, 200);
+        assertEquals(1000, json.get("offset").getAsLong());
+
+        finish(id, 200);
+
+        Session session = responseSession();
+        Path path = session.pathInSession(Paths.get("uploads", NAME));
+        assertTrue(getFileSystem().exists(path));
+        try (InputStream in = getFileSystem().openInputStream(path)) {
+            assertArrayEquals(CONTENTS, in.readAllBytes());
+        }
+
+        // the upload is gone once finished
+        finish(id, 404);
+    }
+
+    @Test
+    public void testIncomplete() throws Exception {
+        String id = start(CONTENTS.length);
+        chunk(id, 0, 500, 200);
+
+        JsonObject json = finish(id, 409);
+        assertEquals(500, json.get("offset").getAsLong());
+        assertFalse(getFileSystem().containsFileWithName(Paths.get(NAME)));
+    }
+
+    @Test
+    public void testInvalidRange() throws Exception {
+        String id = start(CONTENTS.length);
+
+        setRequestQueryParam("id", id);
+        setRequestBody(CONTENTS);
+        doApiTest(new UploadChunk(), 400);
+
+        addHeader("Content-Range", "bytes 500-1500/1000");
+        doApiTest(new UploadChunk(), 400);
+
+        addHeader("Content-Range", "bytes 0-99/2000");
+        doApiTest(new UploadChunk(), 400);
+    }
+
+    @Test
+    public void testUnknownUpload() throws Exception {
+        chunk("missing", 0, 100, 404);
+        finish("missing", 404);
+    }
+
+    @Test
+    public void testStartTooLarge() throws Exception {
+        setRequestQueryParam("name", NAME);
+        setRequestQueryParam("size", Long.toString(Long.MAX_VALUE));
+        doApiTest(new UploadStart(), 413);
+
+        setRequestQueryParam("size", "-1");
+        doApiTest(new UploadStart(), 400);
+    }
+
+    @Test
+    public void testNoSession() throws Exception {
+        deactivateSession();
+        setRequestQueryParam("name", NAME);
+        setRequestQueryParam("size", "10");
+        doApiTest(new UploadStart(), 401);
+    }
+}
@@ -0,0 +1,73 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.smartnote.server.resource.ResumableUpload;
+import com.smartnote.server.resource.ResumableUploads;
+import com.smartnote.server.util.CryptoUtils;
+import com.smartnote.testing.Base;
+
+/**
+ * <p>
+ * Tests how resumable uploads track their ranges and expire.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.resource.ResumableUpload
+ * @see com.smartnote.server.resource.ResumableUploads
+ */
+public class ResumableUploadsTest extends Base {
+    private long now;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        CryptoUtils.init(null);
+    }
+
+    @Test
+    public void testRecord() {
+        ResumableUploads uploads = new ResumableUploads(1000, () -> now, upload -> {});
+        ResumableUpload upload = uploads.create("session", "file", 100);
+
+        assertEquals(10, upload.record(50, 60));
+        assertEquals(0, upload.getOffset());
+
+        // overlapping ranges only count once
+        assertEquals(15, upload.record(55, 65));
+        assertEquals(35, upload.record(0, 20));
+        assertEquals(20, upload.getOffset());
+
+        // fill the gap, joining the ranges
+        assertEquals(65, upload.record(20, 50));
+        assertEquals(65, upload.getOffset());
+
+        assertFalse(upload.isComplete());
+        assertEquals(100, upload.record(0, 100));
+        assertTrue(upload.isComplete());
+    }
+
+    @Test
+    public void testExpiry() {
+        List<ResumableUpload> discarded = new ArrayList<>();
+        ResumableUploads uploads = new ResumableUploads(1000, () -> now, discarded::add);
+
+        ResumableUpload a = uploads.create("session", "a", 10);
+        ResumableUpload b = uploads.create("session", "b", 10);
+
+        now = 900;
+        assertSame(a, uploads.get(a.getId(), "session"));
+        assertNull(uploads.get(a.getId(), "other")); // another session's upload
+
+        now = 1500;
+        assertEquals(1, uploads.purge());
+        assertEquals(List.of(b), discarded);
+        assertSame(a, uploads.get(a.getId(), "session"));
+        assertEquals(1, uploads.size());
+    }
+}
@@ -0,0 +1,59 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.smartnote.server.auth.SessionExpiryIndex;
+import com.smartnote.testing.Base;
+
+/**
+ * <p>
+ * Tests the SessionExpiryIndex class.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.auth.SessionExpiryIndex
+ */
+public class SessionExpiryIndexTest extends Base {
+
+    @Test
+    public void testPollInOrder() {
+        SessionExpiryIndex index = new SessionExpiryIndex();
+        index.schedule("c", 300);
+        index.schedule("a", 100);
+        index.schedule("b", 200);
+
+        assertEquals(List.of(), index.pollExpired(99));
+        assertEquals(List.of("a", "b"), index.pollExpired(200));
+        assertEquals(1, index.size());
+        assertEquals(List.of("c"), index.pollExpired(1000));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testRenewal() {
+        SessionExpiryIndex index = new SessionExpiryIndex();
+        index.schedule("a", 100);
+        index.schedule("a", 500);
+
+        // the earlier expiration is skipped
+        assertEquals(List.of(), index.pollExpired(200));
+        assertEquals(List.of("a"), index.pollExpired(500));
+    }
+
+    @Test
+    public void testRemove() {
+        SessionExpiryIndex index = new SessionExpiryIndex();
+        index.schedule("a", 100);
+        index.remove("a");
+
+        assertEquals(List.of(), index.pollExpired(1000));
+
+        // scheduling again after removal works
+        index.schedule("a", 100);
+        assertEquals(List.of("a"), index.pollExpired(1000));
+    }
+}
@@ -0,0 +1,75 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.auth.SessionFlusher;
+import com.smartnote.server.auth.SessionManager;
+import com.smartnote.testing.Base;
+
+/**
+ * <p>
+ * Tests the SessionFlusher class and when sessions are renewed.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.auth.SessionFlusher
+ * @see com.smartnote.server.auth.SessionManager#isRenewalDue(long, long, double)
+ */
+public class SessionFlusherTest extends Base {
+
+    private Session session(String id) {
+        Session session = mock(Session.class);
+        when(session.getId()).thenReturn(id);
+        return session;
+    }
+
+    @Test
+    public void testCoalesces() {
+        List<Session> stored = new ArrayList<>();
+        SessionFlusher flusher = new SessionFlusher(stored::add);
+
+        Session a = session("a");
+        flusher.mark(a);
+        flusher.mark(a);
+        flusher.mark(session("b"));
+        assertEquals(2, flusher.size());
+
+        assertEquals(2, flusher.flush());
+        assertEquals(2, stored.size());
+        assertEquals(0, flusher.flush());
+    }
+
+    @Test
+    public void testRemove() {
+        List<Session> stored = new ArrayList<>();
+        SessionFlusher flusher = new SessionFlusher(stored::add);
+
+        flusher.mark(session("a"));
+        flusher.remove("a");
+
+        assertEquals(0, flusher.flush());
+        assertTrue(stored.isEmpty());
+    }
+
+    @Test
+    public void testRenewalDue() {
+        long lifetime = TimeUnit.SECONDS.toMillis(SessionManager.SESSION_LENGTH);
+        long issued = 1000;
+        long expires = issued + lifetime;
+
+        assertFalse(SessionManager.isRenewalDue(expires, issued, 0.5));
+        assertFalse(SessionManager.isRenewalDue(expires, issued + lifetime / 2 - 1, 0.5));
+        assertTrue(SessionManager.isRenewalDue(expires, issued + lifetime / 2, 0.5));
+
+        // always renew
+        assertTrue(SessionManager.isRenewalDue(expires, issued, 0));
+    }
+}
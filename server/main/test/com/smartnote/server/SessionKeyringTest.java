@@ -0,0 +1,104 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.smartnote.server.auth.SessionKeyring;
+import com.smartnote.server.util.CryptoUtils;
+import com.smartnote.server.util.FileUtils;
+import com.smartnote.testing.Base;
+
+/**
+ * <p>
+ * Tests the SessionKeyring class.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.auth.SessionKeyring
+ */
+public class SessionKeyringTest extends Base {
+    private static final long ROTATION = 1000;
+    private static final long RETENTION = 100;
+
+    private Path directory;
+    private AtomicLong clock;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        CryptoUtils.init(null);
+        directory = Files.createTempDirectory("keyring");
+        clock = new AtomicLong(0);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.deleteFile(directory.toFile());
+        super.tearDown();
+    }
+
+    private SessionKeyring load() {
+        SessionKeyring keyring = new SessionKeyring(directory.resolve(SessionKeyring.FILE), ROTATION, RETENTION,
+                clock::get);
+        keyring.load();
+        return keyring;
+    }
+
+    private String sign(SessionKeyring keyring) {
+        return keyring.sign(JWT.create().withSubject("test"));
+    }
+
+    @Test
+    public void testSurvivesRestart() {
+        SessionKeyring keyring = load();
+        String token = sign(keyring);
+
+        SessionKeyring restarted = load();
+        assertEquals(keyring.getCurrentKeyId(), restarted.getCurrentKeyId());
+        assertEquals("test", restarted.verify(token).getSubject());
+    }
+
+    @Test
+    public void testRotation() {
+        SessionKeyring keyring = load();
+        String first = keyring.getCurrentKeyId();
+        String token = sign(keyring);
+
+        clock.set(ROTATION - 1);
+        assertFalse(keyring.rotateIfDue());
+
+        clock.set(ROTATION);
+        assertTrue(keyring.rotateIfDue());
+        assertNotEquals(first, keyring.getCurrentKeyId());
+        assertEquals(keyring.getCurrentKeyId(), JWT.decode(sign(keyring)).getKeyId());
+
+        // tokens signed by the previous key still verify
+        assertEquals(first, keyring.verify(token).getKeyId());
+
+        // the previous key is dropped once its tokens have expired
+        clock.set(ROTATION * 2 + RETENTION);
+        assertTrue(keyring.rotateIfDue());
+        assertEquals(2, keyring.getKeyIds().size());
+        assertFalse(keyring.getKeyIds().contains(first));
+        assertThrows(JWTVerificationException.class, () -> keyring.verify(token));
+    }
+
+    @Test
+    public void testRejectsUnknownKeys() {
+        SessionKeyring keyring = load();
+        String token = sign(keyring);
+
+        FileUtils.deleteFile(directory.resolve(SessionKeyring.FILE).toFile());
+        SessionKeyring replaced = load();
+        assertThrows(JWTVerificationException.class, () -> replaced.verify(token));
+        assertThrows(JWTVerificationException.class, () -> replaced.verify(JWT.create().sign(Algorithm.none())));
+    }
+}
@@ -0,0 +1,80 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Test;
+
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.auth.SessionRegistry;
+import com.smartnote.testing.Base;
+
+/**
+ * <p>
+ * Tests the SessionRegistry class.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.auth.SessionRegistry
+ */
+public class SessionRegistryTest extends Base {
+    private long now;
+
+    private SessionRegistry registry() {
+        now = 0;
+        return new SessionRegistry(() -> now);
+    }
+
+    @Test
+    public void testRegister() {
+        SessionRegistry registry = registry();
+        Session session = mock(Session.class);
+
+        assertNull(registry.get("a"));
+        assertSame(session, registry.register("a", session, 1000));
+        assertSame(session, registry.get("a"));
+        assertNull(registry.get("b"));
+    }
+
+    @Test
+    public void testFirstRegistrationWins() {
+        SessionRegistry registry = registry();
+        Session first = mock(Session.class);
+        Session second = mock(Session.class);
+
+        registry.register("a", first, 1000);
+        assertSame(first, registry.register("a", second, 1000));
+        assertSame(first, registry.get("a"));
+    }
+
+    @Test
+    public void testExpiry() {
+        SessionRegistry registry = registry();
+        Session session = mock(Session.class);
+        registry.register("a", session, 1000);
+
+        now = 999;
+        assertSame(session, registry.get("a"));
+
+        now = 1000;
+        assertNull(registry.get("a"));
+        assertEquals(0, registry.size());
+
+        // an expired token can be registered again
+        Session renewed = mock(Session.class);
+        registry.register("a", session, 1000);
+        assertSame(renewed, registry.register("a", renewed, 2000));
+    }
+
+    @Test
+    public void testPurge() {
+        SessionRegistry registry = registry();
+        registry.register("a", mock(Session.class), 1000);
+        registry.register("b", mock(Session.class), 2000);
+
+        now = 1500;
+        registry.purge();
+        assertEquals(1, registry.size());
+        assertNotNull(registry.get("b"));
+    }
+}
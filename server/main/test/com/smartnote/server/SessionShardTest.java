@@ -0,0 +1,81 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.smartnote.server.resource.ResourceConfig;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.util.FileUtils;
+import com.smartnote.testing.Base;
+
+/**
+ * <p>
+ * Tests the sharded layout of session directories.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.resource.ResourceSystem#getSessionDirectory(String)
+ */
+public class SessionShardTest extends Base {
+    private Path directory;
+    private ResourceSystem resourceSystem;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        directory = Files.createTempDirectory("sessions");
+
+        JsonObject json = new JsonObject();
+        json.addProperty("sessionDir", directory.toString());
+
+        ResourceConfig config = new ResourceConfig();
+        config.loadJSON(json);
+        resourceSystem = new ResourceSystem(config);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.deleteFile(directory.toFile());
+        super.tearDown();
+    }
+
+    @Test
+    public void testLayout() {
+        Path path = resourceSystem.getSessionDirectory("abc");
+        assertEquals("abc", path.getFileName().toString());
+        assertEquals(ResourceSystem.SHARD_LENGTH, path.getParent().getFileName().toString().length());
+        assertEquals(resourceSystem.getSessionDir(), path.getParent().getParent().getParent());
+
+        // stable for the same ID
+        assertEquals(path, resourceSystem.getSessionDirectory("abc"));
+    }
+
+    @Test
+    public void testMigrate() throws Exception {
+        Path legacy = directory.resolve("legacy-session");
+        Files.createDirectories(legacy);
+        Files.writeString(legacy.resolve(".token"), "token");
+
+        Path sharded = resourceSystem.getSessionDirectory("sharded-session");
+        Files.createDirectories(sharded);
+
+        assertEquals(1, resourceSystem.migrateSessions());
+        assertFalse(Files.exists(legacy));
+        assertEquals("token",
+                Files.readString(resourceSystem.getSessionDirectory("legacy-session").resolve(".token")));
+
+        // nothing left to move
+        assertEquals(0, resourceSystem.migrateSessions());
+
+        List<File> sessions = resourceSystem.listSessionDirectories();
+        assertEquals(2, sessions.size());
+        assertTrue(sessions.contains(sharded.toFile()));
+    }
+}
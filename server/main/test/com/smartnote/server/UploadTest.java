@@ -145,6 +145,29 @@ public class UploadTest extends BaseRoute {
         doApiTest(413);
     }
 
+    @Test
+    public void testUploadUnknownLength() throws Exception {
+        setRequestContentLength(-1L);
+        doApiTest(200);
+
+        assertEquals(0, Server.getServer().getResourceSystem().getUsageLedger().getReserved(SESSION_TOKEN));
+    }
+
+    @Test
+    public void testQuotaExceededWhileStreaming() throws Exception {
+        ResourceConfig config = Server.getServer().getConfig().getResourceConfig();
+        Class<ResourceConfig> configClass = ResourceConfig.class;
+        Field sessionQuotaField = configClass.getDeclaredField("sessionQuota");
+        sessionQuotaField.setAccessible(true);
+        sessionQuotaField.setLong(config, TEST_FILE_CONTENTS.length / 2);
+
+        // the size is only known once the body has been read
+        setRequestContentLength(-1L);
+        doApiTest(413);
+
+        assertEquals(0, Server.getServer().getResourceSystem().getUsageLedger().getReserved(SESSION_TOKEN));
+    }
+
     @Test
     public void testUploadBadContentType() throws Exception {
         // TODO: add this back, we allowed plain for now
@@ -0,0 +1,141 @@
+package com.smartnote.server;
+
+import static org.junit.Assert.*;
+
+import java.io.OutputStream;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.smartnote.server.resource.Resource;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.resource.UsageLedger;
+import com.smartnote.server.resource.UsageLedger.Reservation;
+import com.smartnote.testing.BaseServer;
+
+/**
+ * <p>
+ * Tests the UsageLedger class.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.resource.UsageLedger
+ */
+public class UsageLedgerTest extends BaseServer {
+
+    @Test
+    public void testMeasuredOnce() {
+        AtomicLong measured = new AtomicLong();
+        UsageLedger ledger = new UsageLedger(id -> {
+            measured.incrementAndGet();
+            return 100;
+        });
+
+        assertEquals(100, ledger.getUsage("a"));
+        ledger.adjust("a", 50);
+        assertEquals(150, ledger.getUsage("a"));
+        assertEquals(1, measured.get());
+    }
+
+    @Test
+    public void testReserve() {
+        UsageLedger ledger = new UsageLedger(id -> 0);
+
+        Reservation first = ledger.reserve("a", 60, 100);
+        assertNotNull(first);
+        assertNull(ledger.reserve("a", 60, 100));
+
+        first.rollback();
+        first.commit(); // already released
+        assertEquals(0, ledger.getReserved("a"));
+
+        Reservation second = ledger.reserve("a", 60, 100);
+        assertNotNull(second);
+        ledger.adjust("a", 60); // written
+        second.commit();
+
+        assertEquals(60, ledger.getUsage("a"));
+        assertEquals(0, ledger.getReserved("a"));
+        assertNull(ledger.reserve("a", 41, 100));
+    }
+
+    @Test
+    public void testGrow() {
+        UsageLedger ledger = new UsageLedger(id -> 0);
+
+        Reservation reservation = ledger.reserve("a", 0, 100);
+        assertTrue(reservation.grow(60, 100));
+        assertFalse(reservation.grow(41, 100));
+        assertEquals(60, reservation.getBytes());
+        assertEquals(60, ledger.getReserved("a"));
+
+        reservation.rollback();
+        assertEquals(0, ledger.getReserved("a"));
+        assertFalse(reservation.grow(10, 100));
+    }
+
+    @Test
+    public void testConcurrentReservations() throws Exception {
+        UsageLedger ledger = new UsageLedger(id -> 0);
+        int threads = 8;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Reservation>> futures = new ArrayList<>();
+        Callable<Reservation> reserve = () -> ledger.reserve("a", 10, 35);
+        for (int i = 0; i < threads * 4; i++)
+            futures.add(executor.submit(reserve));
+
+        int granted = 0;
+        for (Future<Reservation> future : futures) {
+            if (future.get() != null)
+                granted++;
+        }
+        executor.shutdown();
+
+        assertEquals(3, granted);
+        assertEquals(30, ledger.getReserved("a"));
+    }
+
+    @Test
+    public void testReconcile() {
+        AtomicLong actual = new AtomicLong(10);
+        UsageLedger ledger = new UsageLedger(id -> actual.get());
+
+        assertEquals(10, ledger.getUsage("a"));
+        ledger.adjust("a", 5);
+        actual.set(12);
+
+        ledger.reconcile();
+        assertEquals(12, ledger.getUsage("a"));
+    }
+
+    @Test
+    public void testResourceWrites() throws Exception {
+        ResourceSystem resourceSystem = Server.getServer().getResourceSystem();
+        UsageLedger ledger = resourceSystem.getUsageLedger();
+        Permission permission = getSession(SESSION_TOKEN).getPermission();
+        long before = ledger.getUsage(SESSION_TOKEN);
+
+        Resource resource = resourceSystem.findResource(ResourceSystem.inSession("usage.txt"), permission);
+        try (OutputStream out = resource.openOutputStream()) {
+            out.write(new byte[100]);
+        }
+        assertEquals(before + 100, ledger.getUsage(SESSION_TOKEN));
+
+        // replacing counts only the difference
+        try (OutputStream out = resource.openOutputStream()) {
+            out.write(new byte[40]);
+        }
+        assertEquals(before + 40, ledger.getUsage(SESSION_TOKEN));
+
+        resource.delete();
+        assertEquals(before, ledger.getUsage(SESSION_TOKEN));
+    }
+}
@@ -5,11 +5,22 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.AbstractMap;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import com.google.gson.JsonObject;
 import com.smartnote.server.auth.Session;
 import com.smartnote.server.auth.SessionManager;
@@ -39,6 +50,7 @@ public class BaseRoute extends BaseServer {
     private Map<String, String> requestHeaders;
     private Map<String, String> requestCookies;
     private byte[] requestBody;
+    private Long requestContentLength;
     private String requestContentType;
 
     // response
@@ -47,6 +59,7 @@ public class BaseRoute extends BaseServer {
     private String responseBody;
     private String responseType;
     private int responseStatus;
+    private ByteArrayOutputStream rawBody;
 
     /**
      * Sets up the framework for testing routes.
@@ -72,7 +85,9 @@ public class BaseRoute extends BaseServer {
         Response response = mockResponse();
 
         Object r = route.handle(request, response);
-        if (r != null)
+        if (rawBody.size() > 0)
+            response.body(rawBody.toString(StandardCharsets.UTF_8)); // written directly to the servlet
+        else if (r != null)
             response.body(r.toString());
         
         if (response.status() == 0)
@@ -111,6 +126,24 @@ public class BaseRoute extends BaseServer {
         return getGson().fromJson(responseBody, JsonObject.class);
     }
 
+    /**
+     * Gets the response body.
+     * 
+     * @return the body.
+     */
+    public String responseBody() {
+        return responseBody;
+    }
+
+    /**
+     * Gets the bytes written directly to the servlet by the last route.
+     * 
+     * @return the bytes.
+     */
+    public byte[] responseRawBody() {
+        return rawBody.toByteArray();
+    }
+
     public Session responseSession() {
         var p = responseCookies.get("session");
         if (p == null) return null;
@@ -180,6 +213,17 @@ public class BaseRoute extends BaseServer {
         }
     }
 
+    /**
+     * Overrides the declared length of the request body.
+     * 
+     * @param requestContentLength the length, <code>-1</code> if unknown, or
+     *                             <code>null</code> to use the length of the
+     *                             body.
+     */
+    public void setRequestContentLength(Long requestContentLength) {
+        this.requestContentLength = requestContentLength;
+    }
+
     /**
      * Sets the request content type.
      * 
@@ -244,6 +288,47 @@ public class BaseRoute extends BaseServer {
 
         // Request.contentType()
         when(request.contentType()).thenAnswer(invokation -> requestContentType);
+
+        // Request.raw()
+        HttpServletRequest raw = mock(HttpServletRequest.class);
+        when(raw.getContentLengthLong()).thenAnswer(invokation -> {
+            if (requestContentLength != null)
+                return requestContentLength;
+            return requestBody == null ? -1L : (long) requestBody.length;
+        });
+        try {
+            when(raw.getInputStream()).thenAnswer(invokation -> {
+                ByteArrayInputStream in = new ByteArrayInputStream(requestBody == null ? new byte[0] : requestBody);
+                return new ServletInputStream() {
+                    @Override
+                    public int read() {
+                        return in.read();
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) {
+                        return in.read(b, off, len);
+                    }
+
+                    @Override
+                    public boolean isFinished() {
+                        return in.available() == 0;
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    @Override
+                    public void setReadListener(ReadListener readListener) {
+                    }
+                };
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        when(request.raw()).thenReturn(raw);
         
         this.requestQueryParams = new HashMap<>();
         this.requestHeaders = new HashMap<>();
@@ -255,6 +340,7 @@ public class BaseRoute extends BaseServer {
     private Response mockResponse() {
         responseHeaders = new HashMap<>();
         responseCookies = new HashMap<>();
+        rawBody = new ByteArrayOutputStream();
 
         Response response = mock(Response.class);
 
@@ -309,6 +395,29 @@ public class BaseRoute extends BaseServer {
             return null;
         }).when(response).cookie(anyString(), anyString());
 
+        // Response.raw()
+        HttpServletResponse raw = mock(HttpServletResponse.class);
+        try {
+            when(raw.getOutputStream()).thenReturn(new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    rawBody.write(b);
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        when(response.raw()).thenReturn(raw);
+
         return response;
     }
 }
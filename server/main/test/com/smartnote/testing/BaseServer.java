@@ -106,6 +106,9 @@ public class BaseServer extends Base {
 
         when(sessionManager.createSession()).thenAnswer(invokation -> createNewSession());
 
+        when(sessionManager.restoreSession(anyString()))
+                .thenAnswer(invokation -> invokation.getArguments()[0].equals(SESSION_TOKEN) ? createSessionObject() : null);
+
         when(sessionManager.isTokenValid(anyString()))
                 .thenAnswer(invokation -> invokation.getArguments()[0].equals(SESSION_TOKEN));
 
@@ -128,7 +131,7 @@ public class BaseServer extends Base {
         Session session = mock(Session.class);
         SessionPermission permission = mock(SessionPermission.class);
 
-        Path sessionDirectory = Server.getServer().getResourceSystem().getSessionDir().resolve(SESSION_TOKEN);
+        Path sessionDirectory = Server.getServer().getResourceSystem().getSessionDirectory(SESSION_TOKEN);
         Path tokenFile = sessionDirectory.resolve(".token");
 
         when(session.getId()).thenReturn(SESSION_TOKEN);
@@ -0,0 +1,103 @@
+package com.smartnote.testing;
+
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.objenesis.Objenesis;
+import org.objenesis.ObjenesisStd;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.google.gson.JsonObject;
+import com.smartnote.server.auth.Session;
+import com.smartnote.server.auth.SessionPermission;
+import com.smartnote.server.resource.ResourceConfig;
+import com.smartnote.server.resource.ResourceSystem;
+import com.smartnote.server.util.FileUtils;
+
+/**
+ * <p>
+ * Measures the throughput of <code>ResourceSystem.findResource</code> for
+ * public and session resources on the real file system. Not run with the
+ * tests; run it with the test classpath:
+ * </p>
+ *
+ * <pre>
+ * java -cp build/classes:build/test-classes:lib/* com.smartnote.testing.FindResourceBenchmark [iterations]
+ * </pre>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.resource.ResourceSystem#findResource(String, java.security.Permission)
+ */
+public class FindResourceBenchmark {
+    private static final int WARMUP = 200_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+
+        Path directory = Files.createTempDirectory("benchmark");
+        try {
+            JsonObject json = new JsonObject();
+            json.addProperty("publicDir", directory.resolve("public").toString());
+            json.addProperty("privateDir", directory.resolve("private").toString());
+            json.addProperty("sessionDir", directory.resolve("sessions").toString());
+
+            ResourceConfig config = new ResourceConfig();
+            config.loadJSON(json);
+            ResourceSystem resourceSystem = new ResourceSystem(config);
+
+            Path publicFile = resourceSystem.getPublicDir().resolve("docs/notes.txt");
+            Files.createDirectories(publicFile.getParent());
+            Files.writeString(publicFile, "notes");
+
+            Path sessionDirectory = resourceSystem.getSessionDirectory("benchmark");
+            Files.createDirectories(sessionDirectory.resolve("uploads"));
+            Files.writeString(sessionDirectory.resolve("uploads/notes.txt"), "notes");
+
+            // a real session, without a server to create it; mocks would
+            // dominate the measurement
+            Objenesis objenesis = new ObjenesisStd();
+            Session session = objenesis.newInstance(Session.class);
+            SessionPermission permission = objenesis.newInstance(SessionPermission.class);
+            setField(session, "jwt", JWT.decode(JWT.create().withSubject("benchmark").sign(Algorithm.none())));
+            setField(session, "sessionDirectory", sessionDirectory);
+            setField(session, "permission", permission);
+            setField(permission, "session", session);
+
+            run("public", iterations, () -> resourceSystem.findResource("public:docs/notes.txt", null));
+            run("session", iterations, () -> resourceSystem.findResource("session:uploads/notes.txt", permission));
+        } finally {
+            FileUtils.deleteFile(directory.toFile());
+        }
+    }
+
+    private static void setField(Object object, String name, Object value) throws ReflectiveOperationException {
+        Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        Object run() throws Exception;
+    }
+
+    private static void run(String name, int iterations, Task task) throws Exception {
+        for (int i = 0; i < WARMUP; i++)
+            task.run();
+
+        double best = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                task.run();
+            long elapsed = System.nanoTime() - start;
+
+            best = Math.max(best, iterations / (elapsed / 1e9));
+        }
+
+        System.out.printf("%-8s %,12.0f ops/s (best of %d rounds of %,d)%n", name, best, ROUNDS, iterations);
+    }
+}
@@ -0,0 +1,367 @@
+package com.smartnote.testing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * An embedded server that simulates the parts of the Notion API used by
+ * the server: <code>/search</code>, <code>/pages</code>,
+ * <code>/blocks/{id}/children</code> and <code>/oauth/token</code>. It
+ * can add latency to every response, answer some requests with
+ * <code>429 Too Many Requests</code>, and rejects requests that exceed
+ * Notion's payload limits.
+ * </p>
+ *
+ * <p>
+ * Point the server at it by setting <code>notion.apiUrl</code> to
+ * <code>getUrl()</code>.
+ * </p>
+ *
+ * @author Ethan Vrhel
+ * @see com.smartnote.server.export.NotionAPI
+ */
+public class MockNotionServer {
+    /**
+     * Maximum number of children in a single array, as enforced by Notion.
+     */
+    public static final int MAX_CHILDREN = 100;
+
+    /**
+     * Maximum levels of nesting in a single request, as enforced by Notion.
+     */
+    public static final int MAX_NESTING = 2;
+
+    /**
+     * Maximum size of a request body in bytes, as enforced by Notion.
+     */
+    public static final int MAX_BODY_SIZE = 500 * 1000;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Gson gson;
+
+    private volatile long latency; // milliseconds added to every response
+    private volatile int rateLimitEvery; // every nth request gets a 429, 0 for never
+    private volatile int retryAfter; // seconds sent with a 429
+    private final AtomicInteger unavailable = new AtomicInteger(); // appends to answer with a 503
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger rateLimited = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final AtomicInteger blocks = new AtomicInteger();
+
+    /**
+     * Creates and starts a server on a free local port.
+     *
+     * @param threads Number of threads handling requests.
+     * @throws IOException If the server cannot be started.
+     */
+    public MockNotionServer(int threads) throws IOException {
+        this.gson = new Gson();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+
+        server.createContext("/v1/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Gets the base URL of the simulated API.
+     *
+     * @return The URL, ending with a slash.
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/";
+    }
+
+    /**
+     * Sets the latency added to every response.
+     *
+     * @param latency The latency, in milliseconds.
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Answers every nth request with <code>429 Too Many Requests</code>.
+     *
+     * @param every      How often to rate limit, 0 to never rate limit.
+     * @param retryAfter The value of the <code>Retry-After</code> header, in
+     *                   seconds.
+     */
+    public void setRateLimit(int every, int retryAfter) {
+        this.rateLimitEvery = every;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Answers the next appends to a block with
+     * <code>503 Service Unavailable</code>.
+     *
+     * @param count The number of appends to fail.
+     */
+    public void setUnavailable(int count) {
+        unavailable.set(count);
+    }
+
+    /**
+     * Gets the number of requests received.
+     *
+     * @return The number of requests.
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Gets the number of requests answered with a 429.
+     *
+     * @return The number of rate limited requests.
+     */
+    public int getRateLimited() {
+        return rateLimited.get();
+    }
+
+    /**
+     * Gets the number of requests rejected for exceeding payload limits or
+     * being malformed.
+     *
+     * @return The number of rejected requests.
+     */
+    public int getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Gets the number of blocks created.
+     *
+     * @return The number of blocks.
+     */
+    public int getBlocks() {
+        return blocks.get();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            int n = requests.incrementAndGet();
+
+            if (latency > 0)
+                Thread.sleep(latency);
+
+            int every = rateLimitEvery;
+            if (every > 0 && n % every == 0) {
+                rateLimited.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", Integer.toString(retryAfter));
+                error(exchange, 429, "rate_limited", "Rate limited");
+                return;
+            }
+
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readNBytes(MAX_BODY_SIZE + 1);
+            }
+
+            if (body.length > MAX_BODY_SIZE) {
+                rejected.incrementAndGet();
+                error(exchange, 413, "payload_too_large", "Request body too large");
+                return;
+            }
+
+            JsonObject json;
+            try {
+                json = body.length == 0 ? new JsonObject()
+                        : gson.fromJson(new String(body, StandardCharsets.UTF_8), JsonObject.class);
+            } catch (JsonSyntaxException e) {
+                json = null;
+            }
+
+            if (json == null) {
+                rejected.incrementAndGet();
+                error(exchange, 400, "invalid_json", "Malformed body");
+                return;
+            }
+
+            route(exchange, json);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, JsonObject json) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath().substring("/v1/".length());
+
+        if (method.equals("POST") && path.equals("oauth/token")) {
+            JsonObject response = new JsonObject();
+            response.addProperty("access_token", "secret_" + UUID.randomUUID());
+            response.addProperty("bot_id", UUID.randomUUID().toString());
+            response.addProperty("workspace_id", UUID.randomUUID().toString());
+            response.addProperty("workspace_name", "Mock Workspace");
+            respond(exchange, 200, response);
+        } else if (method.equals("POST") && path.equals("search")) {
+            respond(exchange, 200, search());
+        } else if (method.equals("POST") && path.equals("pages")) {
+            JsonArray children = json.has("children") ? json.getAsJsonArray("children") : new JsonArray();
+            if (!validate(exchange, children))
+                return;
+
+            blocks.addAndGet(children.size());
+
+            String id = UUID.randomUUID().toString();
+            JsonObject response = new JsonObject();
+            response.addProperty("object", "page");
+            response.addProperty("id", id);
+            response.addProperty("url", "https://www.notion.so/" + id.replace("-", ""));
+            respond(exchange, 200, response);
+        } else if (method.equals("PATCH") && path.startsWith("blocks/") && path.endsWith("/children")) {
+            if (unavailable.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                error(exchange, 503, "service_unavailable", "Service unavailable");
+                return;
+            }
+
+            JsonArray children = json.has("children") ? json.getAsJsonArray("children") : null;
+            if (children == null) {
+                rejected.incrementAndGet();
+                error(exchange, 400, "validation_error", "children should be defined");
+                return;
+            }
+
+            if (!validate(exchange, children))
+                return;
+
+            blocks.addAndGet(children.size());
+
+            JsonArray results = new JsonArray();
+            for (int i = 0; i < children.size(); i++) {
+                JsonObject result = new JsonObject();
+                result.addProperty("object", "block");
+                result.addProperty("id", UUID.randomUUID().toString());
+                results.add(result);
+            }
+
+            JsonObject response = new JsonObject();
+            response.addProperty("object", "list");
+            response.add("results", results);
+            respond(exchange, 200, response);
+        } else {
+            error(exchange, 404, "object_not_found", "No such endpoint: " + method + " " + path);
+        }
+    }
+
+    private JsonObject search() {
+        JsonObject content = new JsonObject();
+        content.addProperty("content", "Mock Page");
+
+        JsonObject text = new JsonObject();
+        text.add("text", content);
+
+        JsonArray titleArray = new JsonArray();
+        titleArray.add(text);
+
+        JsonObject title = new JsonObject();
+        title.add("title", titleArray);
+
+        JsonObject properties = new JsonObject();
+        properties.add("title", title);
+
+        JsonObject page = new JsonObject();
+        page.addProperty("object", "page");
+        page.addProperty("id", UUID.randomUUID().toString());
+        page.add("properties", properties);
+
+        JsonArray results = new JsonArray();
+        results.add(page);
+
+        JsonObject response = new JsonObject();
+        response.addProperty("object", "list");
+        response.add("results", results);
+        return response;
+    }
+
+    // checks the children of a request against Notion's limits
+    private boolean validate(HttpExchange exchange, JsonArray children) throws IOException {
+        if (children.size() > MAX_CHILDREN) {
+            rejected.incrementAndGet();
+            error(exchange, 400, "validation_error", "children.length should be <= " + MAX_CHILDREN);
+            return false;
+        }
+
+        // the array itself is the first level of nesting
+        for (JsonElement child : children) {
+            if (!validate(child.getAsJsonObject(), MAX_NESTING - 1)) {
+                rejected.incrementAndGet();
+                error(exchange, 400, "validation_error", "Request exceeds children or nesting limits");
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean validate(JsonObject block, int levels) {
+        String type = block.has("type") ? block.get("type").getAsString() : null;
+        if (type == null || !block.has(type))
+            return false;
+
+        JsonObject data = block.getAsJsonObject(type);
+        if (!data.has("children"))
+            return true;
+
+        JsonArray children = data.getAsJsonArray("children");
+        if (levels == 0 || children.size() > MAX_CHILDREN)
+            return false;
+
+        for (JsonElement child : children) {
+            if (!validate(child.getAsJsonObject(), levels - 1))
+                return false;
+        }
+
+        return true;
+    }
+
+    private void error(HttpExchange exchange, int status, String code, String message) throws IOException {
+        JsonObject response = new JsonObject();
+        response.addProperty("object", "error");
+        response.addProperty("status", status);
+        response.addProperty("code", code);
+        response.addProperty("message", message);
+        respond(exchange, status, response);
+    }
+
+    private void respond(HttpExchange exchange, int status, JsonObject response) throws IOException {
+        byte[] bytes = gson.toJson(response).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
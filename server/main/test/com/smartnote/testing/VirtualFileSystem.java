@@ -6,9 +6,16 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import com.smartnote.server.resource.AccessMode;
 import com.smartnote.server.resource.FileResourceFactory;
@@ -139,6 +146,37 @@ public class VirtualFileSystem {
             return VirtualFileSystem.this.openOutputStream(path);
         }
 
+        @Override
+        public SeekableByteChannel openChannel(OpenOption... options) throws SecurityException, IOException {
+            Set<OpenOption> set = Set.of(options);
+            boolean write = set.contains(StandardOpenOption.WRITE) || set.contains(StandardOpenOption.APPEND);
+            if (write)
+                mode.checkWrite();
+            else
+                mode.checkRead();
+
+            VirtualFile file = files.get(path);
+            if (file == null) {
+                if (!write || !set.contains(StandardOpenOption.CREATE))
+                    throw new NoSuchResourceException(path.toString());
+                file = new VirtualFile();
+                file.data = new byte[0];
+                files.put(path, file);
+            }
+
+            return file.openChannel(set.contains(StandardOpenOption.TRUNCATE_EXISTING) && write);
+        }
+
+        @Override
+        public ByteBuffer map(long offset, long length) throws SecurityException, IOException {
+            mode.checkRead();
+
+            // writes replace the array, so the buffer is a snapshot
+            byte[] data = checkExists().data;
+            Resource.checkRange(offset, length, data.length);
+            return ByteBuffer.wrap(data, (int) offset, (int) length).slice().asReadOnlyBuffer();
+        }
+
         @Override
         public void delete() throws SecurityException, IOException {
             mode.checkDelete();
@@ -152,6 +190,12 @@ public class VirtualFileSystem {
             return checkExists().data.length;
         }
 
+        @Override
+        public long lastModified() throws SecurityException, IOException {
+            mode.checkRead();
+            return checkExists().modified;
+        }
+
         @Override
         public boolean exists() throws SecurityException, IOException {
             mode.checkRead();
@@ -183,6 +227,7 @@ public class VirtualFileSystem {
     private static class VirtualFile {
         byte[] data;
         boolean isDirectory;
+        long modified;
 
         int readers; // multiple readers at a time
         boolean isOpenedForWriting; // only one writer at a time
@@ -192,6 +237,7 @@ public class VirtualFileSystem {
         VirtualFile() {
             this.data = null;
             this.isDirectory = false;
+            this.modified = System.currentTimeMillis();
 
             this.readers = 0;
             this.isOpenedForWriting = false;
@@ -207,6 +253,14 @@ public class VirtualFileSystem {
             }
         }
 
+        SeekableByteChannel openChannel(boolean truncate) throws IOException {
+            synchronized (lock) {
+                if (isDirectory)
+                    throw new IOException("File is a directory");
+                return new VirtualFileChannel(truncate || data == null ? new byte[0] : data.clone());
+            }
+        }
+
         InputStream openInputStream() throws IOException {
             synchronized (lock) {
                 if (isDirectory)
@@ -237,6 +291,102 @@ public class VirtualFileSystem {
             }
         }
 
+        // channel over a copy of the data, which replaces the data when
+        // the channel is closed
+        private class VirtualFileChannel implements SeekableByteChannel {
+            private byte[] buffer;
+            private long size;
+            private long position;
+            private boolean open;
+            private boolean written;
+
+            VirtualFileChannel(byte[] buffer) {
+                this.buffer = buffer;
+                this.size = buffer.length;
+                this.open = true;
+            }
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                checkOpen();
+                if (position >= size)
+                    return -1;
+
+                int n = (int) Math.min(dst.remaining(), size - position);
+                dst.put(buffer, (int) position, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                checkOpen();
+                int n = src.remaining();
+                long end = position + n;
+                if (end > buffer.length)
+                    buffer = Arrays.copyOf(buffer, (int) Math.max(end, buffer.length * 2L));
+
+                src.get(buffer, (int) position, n);
+                written = true;
+                position = end;
+                size = Math.max(size, end);
+                return n;
+            }
+
+            @Override
+            public long position() throws IOException {
+                checkOpen();
+                return position;
+            }
+
+            @Override
+            public SeekableByteChannel position(long newPosition) throws IOException {
+                checkOpen();
+                position = newPosition;
+                return this;
+            }
+
+            @Override
+            public long size() throws IOException {
+                checkOpen();
+                return size;
+            }
+
+            @Override
+            public SeekableByteChannel truncate(long newSize) throws IOException {
+                checkOpen();
+                written |= newSize < size;
+                size = Math.min(size, newSize);
+                position = Math.min(position, size);
+                return this;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!open)
+                    return;
+                open = false;
+
+                if (!written)
+                    return;
+
+                synchronized (lock) {
+                    data = Arrays.copyOf(buffer, (int) size);
+                    modified = System.currentTimeMillis();
+                }
+            }
+
+            private void checkOpen() throws IOException {
+                if (!open)
+                    throw new ClosedChannelException();
+            }
+        }
+
         // light wrapper around ByteArrayOutputStream, so data is
         // not copied until close() is called
         class VirtualFileOutputStream extends OutputStream {
@@ -275,6 +425,7 @@ public class VirtualFileSystem {
                 synchronized (lock) {
                     out.close();
                     data = out.toByteArray();
+                    modified = System.currentTimeMillis();
                     VirtualFile.this.isOpenedForWriting = false;
                 }
             }